@@ -10,6 +10,7 @@ import unze.ptf.woodcraft.woodcraft.dao.GuideDao;
 import unze.ptf.woodcraft.woodcraft.dao.ManualShapeDao;
 import unze.ptf.woodcraft.woodcraft.dao.MaterialDao;
 import unze.ptf.woodcraft.woodcraft.dao.NodeDao;
+import unze.ptf.woodcraft.woodcraft.dao.RemnantDao;
 import unze.ptf.woodcraft.woodcraft.dao.ShapeDao;
 import unze.ptf.woodcraft.woodcraft.dao.UserDao;
 import unze.ptf.woodcraft.woodcraft.db.DatabaseInitializer;
@@ -34,14 +35,16 @@ public class WoodCraftApp extends Application {
         GuideDao guideDao = new GuideDao();
         ShapeDao shapeDao = new ShapeDao();
         ManualShapeDao manualShapeDao = new ManualShapeDao();
+        RemnantDao remnantDao = new RemnantDao();
 
         SessionManager sessionManager = new SessionManager();
         AuthService authService = new AuthService(userDao, sessionManager);
         GeometryService geometryService = new GeometryService();
-        EstimationService estimationService = new EstimationService(materialDao, shapeDao, geometryService);
+        EstimationService estimationService = new EstimationService(materialDao, shapeDao, remnantDao,
+                geometryService);
 
         SceneNavigator navigator = new SceneNavigator(stage, sessionManager, authService, userDao, materialDao,
-                documentDao, dimensionDao, nodeDao, edgeDao, guideDao, shapeDao, manualShapeDao,
+                documentDao, dimensionDao, nodeDao, edgeDao, guideDao, shapeDao, manualShapeDao, remnantDao,
                 geometryService, estimationService);
         navigator.showInitialScene();
     }
@@ -38,6 +38,60 @@ public class EdgeDao {
         return new Edge(-1, documentId, startNodeId, endNodeId);
     }
 
+    public List<Edge> createAll(List<Edge> edges) {
+        return replaceAll(List.of(), edges);
+    }
+
+    // Deletes and inserts in one transaction, so a split edge is never half replaced. Inserted edges
+    // come back with their generated ids, in input order.
+    public List<Edge> replaceAll(List<Integer> deletedIds, List<Edge> inserted) {
+        String insertSql = """
+            INSERT INTO edges(document_id, start_node_id, end_node_id,
+            control_start_x_cm, control_start_y_cm, control_end_x_cm, control_end_y_cm)
+            VALUES (?, ?, ?, ?, ?, ?, ?)
+            """;
+        String deleteSql = "DELETE FROM edges WHERE id = ?";
+        List<Edge> created = new ArrayList<>();
+        if (deletedIds.isEmpty() && inserted.isEmpty()) {
+            return created;
+        }
+        try (Connection connection = Database.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement delete = connection.prepareStatement(deleteSql);
+                 PreparedStatement insert = connection.prepareStatement(insertSql, PreparedStatement.RETURN_GENERATED_KEYS)) {
+                for (int edgeId : deletedIds) {
+                    delete.setInt(1, edgeId);
+                    delete.addBatch();
+                }
+                delete.executeBatch();
+                // Generated keys are only reliable per statement execution, so inserts are not batched.
+                for (Edge edge : inserted) {
+                    insert.setInt(1, edge.getDocumentId());
+                    insert.setInt(2, edge.getStartNodeId());
+                    insert.setInt(3, edge.getEndNodeId());
+                    setControl(insert, 4, edge.getControlStartXCm());
+                    setControl(insert, 5, edge.getControlStartYCm());
+                    setControl(insert, 6, edge.getControlEndXCm());
+                    setControl(insert, 7, edge.getControlEndYCm());
+                    insert.executeUpdate();
+                    try (ResultSet keys = insert.getGeneratedKeys()) {
+                        int id = keys.next() ? keys.getInt(1) : -1;
+                        created.add(new Edge(id, edge.getDocumentId(), edge.getStartNodeId(), edge.getEndNodeId(),
+                                edge.getControlStartXCm(), edge.getControlStartYCm(),
+                                edge.getControlEndXCm(), edge.getControlEndYCm()));
+                    }
+                }
+                connection.commit();
+            } catch (SQLException exception) {
+                connection.rollback();
+                throw exception;
+            }
+        } catch (SQLException exception) {
+            throw new IllegalStateException("Failed to replace edges", exception);
+        }
+        return created;
+    }
+
     public void deleteByNode(int nodeId) {
         String sql = "DELETE FROM edges WHERE start_node_id = ? OR end_node_id = ?";
         try (Connection connection = Database.getConnection();
@@ -10,7 +10,11 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public class MaterialDao {
@@ -18,8 +22,8 @@ public class MaterialDao {
         String sql = """
             INSERT INTO materials(user_id, name, type, sheet_width_cm, sheet_height_cm, sheet_price,
                                   price_per_square_meter, price_per_linear_meter, image_path,
-                                  grain_direction, edge_banding_cost_per_meter)
-            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+                                  grain_direction, edge_banding_cost_per_meter, stock_lengths_cm)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
             """;
         try (Connection connection = Database.getConnection();
              PreparedStatement statement = connection.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS)) {
@@ -34,6 +38,7 @@ public class MaterialDao {
             statement.setString(9, material.getImagePath());
             statement.setString(10, material.getGrainDirection().name());
             statement.setDouble(11, material.getEdgeBandingCostPerMeter());
+            statement.setString(12, material.getStockLengthsCm());
             statement.executeUpdate();
             try (ResultSet keys = statement.getGeneratedKeys()) {
                 if (keys.next()) {
@@ -79,12 +84,38 @@ public class MaterialDao {
         return Optional.empty();
     }
 
+    // One query for the whole set; ids without a row are simply missing from the map.
+    public Map<Integer, Material> findByIds(Collection<Integer> materialIds) {
+        Map<Integer, Material> materials = new HashMap<>();
+        if (materialIds.isEmpty()) {
+            return materials;
+        }
+        String sql = "SELECT * FROM materials WHERE id IN ("
+                + String.join(", ", Collections.nCopies(materialIds.size(), "?")) + ")";
+        try (Connection connection = Database.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            int index = 1;
+            for (Integer materialId : materialIds) {
+                statement.setInt(index++, materialId);
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    Material material = mapRow(resultSet);
+                    materials.put(material.getId(), material);
+                }
+            }
+        } catch (SQLException exception) {
+            throw new IllegalStateException("Failed to load materials", exception);
+        }
+        return materials;
+    }
+
     public void update(Material material) {
         String sql = """
             UPDATE materials
             SET name = ?, type = ?, sheet_width_cm = ?, sheet_height_cm = ?, sheet_price = ?,
                 price_per_square_meter = ?, price_per_linear_meter = ?, image_path = ?,
-                grain_direction = ?, edge_banding_cost_per_meter = ?
+                grain_direction = ?, edge_banding_cost_per_meter = ?, stock_lengths_cm = ?
             WHERE id = ? AND user_id = ?
             """;
         try (Connection connection = Database.getConnection();
@@ -99,8 +130,9 @@ public class MaterialDao {
             statement.setString(8, material.getImagePath());
             statement.setString(9, material.getGrainDirection().name());
             statement.setDouble(10, material.getEdgeBandingCostPerMeter());
-            statement.setInt(11, material.getId());
-            statement.setInt(12, material.getUserId());
+            statement.setString(11, material.getStockLengthsCm());
+            statement.setInt(12, material.getId());
+            statement.setInt(13, material.getUserId());
             statement.executeUpdate();
         } catch (SQLException exception) {
             throw new IllegalStateException("Failed to update material", exception);
@@ -120,7 +152,8 @@ public class MaterialDao {
                 resultSet.getDouble("price_per_linear_meter"),
                 resultSet.getString("image_path"),
                 GrainDirection.valueOf(resultSet.getString("grain_direction")),
-                resultSet.getDouble("edge_banding_cost_per_meter")
+                resultSet.getDouble("edge_banding_cost_per_meter"),
+                resultSet.getString("stock_lengths_cm")
         );
     }
 }
@@ -2,6 +2,7 @@ package unze.ptf.woodcraft.woodcraft.dao;
 
 import unze.ptf.woodcraft.woodcraft.db.Database;
 import unze.ptf.woodcraft.woodcraft.model.NodePoint;
+import unze.ptf.woodcraft.woodcraft.util.PolygonBuffer;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -30,6 +31,38 @@ public class NodeDao {
         return new NodePoint(-1, documentId, xCm, yCm);
     }
 
+    // Inserts every point in one transaction; the result keeps the order of the buffer.
+    public List<NodePoint> createAll(int documentId, PolygonBuffer points) {
+        String sql = "INSERT INTO nodes(document_id, x_cm, y_cm) VALUES (?, ?, ?)";
+        List<NodePoint> created = new ArrayList<>();
+        if (points.isEmpty()) {
+            return created;
+        }
+        try (Connection connection = Database.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS)) {
+                // Generated keys are only reliable per statement execution, so inserts are not batched.
+                for (int i = 0; i < points.size(); i++) {
+                    statement.setInt(1, documentId);
+                    statement.setDouble(2, points.x(i));
+                    statement.setDouble(3, points.y(i));
+                    statement.executeUpdate();
+                    try (ResultSet keys = statement.getGeneratedKeys()) {
+                        int id = keys.next() ? keys.getInt(1) : -1;
+                        created.add(new NodePoint(id, documentId, points.x(i), points.y(i)));
+                    }
+                }
+                connection.commit();
+            } catch (SQLException exception) {
+                connection.rollback();
+                throw exception;
+            }
+        } catch (SQLException exception) {
+            throw new IllegalStateException("Failed to create nodes", exception);
+        }
+        return created;
+    }
+
     public void delete(int nodeId) {
         String sql = "DELETE FROM nodes WHERE id = ?";
         try (Connection connection = Database.getConnection();
@@ -0,0 +1,113 @@
+package unze.ptf.woodcraft.woodcraft.dao;
+
+import unze.ptf.woodcraft.woodcraft.db.Database;
+import unze.ptf.woodcraft.woodcraft.model.Remnant;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class RemnantDao {
+    public Remnant create(int materialId, double widthCm, double heightCm, Integer sourceDocumentId) {
+        String sql = "INSERT INTO remnants(material_id, width_cm, height_cm, source_document_id) VALUES (?, ?, ?, ?)";
+        try (Connection connection = Database.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS)) {
+            bind(statement, materialId, widthCm, heightCm, sourceDocumentId);
+            statement.executeUpdate();
+            try (ResultSet keys = statement.getGeneratedKeys()) {
+                if (keys.next()) {
+                    return new Remnant(keys.getInt(1), materialId, widthCm, heightCm, sourceDocumentId);
+                }
+            }
+        } catch (SQLException exception) {
+            throw new IllegalStateException("Failed to create remnant", exception);
+        }
+        return new Remnant(-1, materialId, widthCm, heightCm, sourceDocumentId);
+    }
+
+    public List<Remnant> findByMaterial(int materialId) {
+        String sql = """
+            SELECT id, material_id, width_cm, height_cm, source_document_id FROM remnants
+            WHERE material_id = ? ORDER BY width_cm * MAX(height_cm, 1) DESC
+            """;
+        List<Remnant> remnants = new ArrayList<>();
+        try (Connection connection = Database.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, materialId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    remnants.add(mapRow(resultSet));
+                }
+            }
+        } catch (SQLException exception) {
+            throw new IllegalStateException("Failed to load remnants", exception);
+        }
+        return remnants;
+    }
+
+    public void deleteById(int remnantId) {
+        String sql = "DELETE FROM remnants WHERE id = ?";
+        try (Connection connection = Database.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, remnantId);
+            statement.executeUpdate();
+        } catch (SQLException exception) {
+            throw new IllegalStateException("Failed to delete remnant", exception);
+        }
+    }
+
+    // Takes the remnants a confirmed job used off the rack and puts its new offcuts on it, all or nothing.
+    public void replace(List<Integer> consumedIds, List<Remnant> produced) {
+        String deleteSql = "DELETE FROM remnants WHERE id = ?";
+        String insertSql = "INSERT INTO remnants(material_id, width_cm, height_cm, source_document_id) VALUES (?, ?, ?, ?)";
+        try (Connection connection = Database.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement delete = connection.prepareStatement(deleteSql);
+                 PreparedStatement insert = connection.prepareStatement(insertSql)) {
+                for (int remnantId : consumedIds) {
+                    delete.setInt(1, remnantId);
+                    delete.addBatch();
+                }
+                delete.executeBatch();
+                for (Remnant remnant : produced) {
+                    bind(insert, remnant.getMaterialId(), remnant.getWidthCm(), remnant.getHeightCm(),
+                            remnant.getSourceDocumentId());
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+                connection.commit();
+            } catch (SQLException exception) {
+                connection.rollback();
+                throw exception;
+            }
+        } catch (SQLException exception) {
+            throw new IllegalStateException("Failed to update remnants", exception);
+        }
+    }
+
+    private void bind(PreparedStatement statement, int materialId, double widthCm, double heightCm,
+                      Integer sourceDocumentId) throws SQLException {
+        statement.setInt(1, materialId);
+        statement.setDouble(2, widthCm);
+        statement.setDouble(3, heightCm);
+        if (sourceDocumentId == null) {
+            statement.setNull(4, java.sql.Types.INTEGER);
+        } else {
+            statement.setInt(4, sourceDocumentId);
+        }
+    }
+
+    private Remnant mapRow(ResultSet resultSet) throws SQLException {
+        int sourceDocumentId = resultSet.getInt("source_document_id");
+        return new Remnant(
+                resultSet.getInt("id"),
+                resultSet.getInt("material_id"),
+                resultSet.getDouble("width_cm"),
+                resultSet.getDouble("height_cm"),
+                resultSet.wasNull() ? null : sourceDocumentId
+        );
+    }
+}
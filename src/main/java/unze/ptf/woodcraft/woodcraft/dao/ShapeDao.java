@@ -134,6 +134,64 @@ public class ShapeDao {
         }
     }
 
+    public List<ShapePolygon> applyChanges(List<ShapePolygon> inserted, List<ShapePolygon> updated,
+                                           List<Integer> deletedIds) {
+        String insertSql = """
+            INSERT INTO shapes(document_id, material_id, quantity, node_ids, area_cm2, perimeter_cm)
+            VALUES (?, ?, ?, ?, ?, ?)
+            """;
+        String updateSql = "UPDATE shapes SET node_ids = ?, area_cm2 = ?, perimeter_cm = ? WHERE id = ?";
+        String deleteSql = "DELETE FROM shapes WHERE id = ?";
+        List<ShapePolygon> created = new ArrayList<>();
+        try (Connection connection = Database.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement delete = connection.prepareStatement(deleteSql);
+                 PreparedStatement update = connection.prepareStatement(updateSql);
+                 PreparedStatement insert = connection.prepareStatement(insertSql, PreparedStatement.RETURN_GENERATED_KEYS)) {
+                for (int shapeId : deletedIds) {
+                    delete.setInt(1, shapeId);
+                    delete.addBatch();
+                }
+                delete.executeBatch();
+                for (ShapePolygon shape : updated) {
+                    update.setString(1, serializeNodeIds(shape));
+                    update.setDouble(2, shape.getAreaCm2());
+                    update.setDouble(3, shape.getPerimeterCm());
+                    update.setInt(4, shape.getId());
+                    update.addBatch();
+                }
+                update.executeBatch();
+                // Generated keys are only reliable per statement execution, so inserts are not batched.
+                for (ShapePolygon shape : inserted) {
+                    insert.setInt(1, shape.getDocumentId());
+                    if (shape.getMaterialId() == null) {
+                        insert.setNull(2, java.sql.Types.INTEGER);
+                    } else {
+                        insert.setInt(2, shape.getMaterialId());
+                    }
+                    insert.setInt(3, shape.getQuantity());
+                    insert.setString(4, serializeNodeIds(shape));
+                    insert.setDouble(5, shape.getAreaCm2());
+                    insert.setDouble(6, shape.getPerimeterCm());
+                    insert.executeUpdate();
+                    try (ResultSet keys = insert.getGeneratedKeys()) {
+                        int id = keys.next() ? keys.getInt(1) : shape.getId();
+                        created.add(new ShapePolygon(id, shape.getDocumentId(), shape.getMaterialId(),
+                                shape.getQuantity(), shape.getNodeIds(), shape.getNodes(), shape.getAreaCm2(),
+                                shape.getPerimeterCm()));
+                    }
+                }
+                connection.commit();
+            } catch (SQLException exception) {
+                connection.rollback();
+                throw exception;
+            }
+        } catch (SQLException exception) {
+            throw new IllegalStateException("Failed to apply shape changes", exception);
+        }
+        return created;
+    }
+
     private String serializeNodeIds(ShapePolygon shape) {
         StringBuilder builder = new StringBuilder();
         List<Integer> nodeIds = shape.getNodeIds();
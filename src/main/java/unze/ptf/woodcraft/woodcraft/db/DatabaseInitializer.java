@@ -60,6 +60,7 @@ public final class DatabaseInitializer {
                     image_path TEXT,
                     grain_direction TEXT NOT NULL DEFAULT 'NONE',
                     edge_banding_cost_per_meter REAL NOT NULL DEFAULT 0,
+                    stock_lengths_cm TEXT,
                     FOREIGN KEY (user_id) REFERENCES users(id)
                 )
                 """);
@@ -76,6 +77,21 @@ public final class DatabaseInitializer {
                 statement.executeUpdate("ALTER TABLE materials ADD COLUMN edge_banding_cost_per_meter REAL NOT NULL DEFAULT 0");
             } catch (SQLException ignored) {
             }
+            try {
+                statement.executeUpdate("ALTER TABLE materials ADD COLUMN stock_lengths_cm TEXT");
+            } catch (SQLException ignored) {
+            }
+            statement.executeUpdate("""
+                CREATE TABLE IF NOT EXISTS remnants (
+                    id INTEGER PRIMARY KEY AUTOINCREMENT,
+                    material_id INTEGER NOT NULL,
+                    width_cm REAL NOT NULL,
+                    height_cm REAL NOT NULL DEFAULT 0,
+                    source_document_id INTEGER,
+                    FOREIGN KEY (material_id) REFERENCES materials(id)
+                )
+                """);
+            statement.executeUpdate("CREATE INDEX IF NOT EXISTS idx_remnants_material ON remnants(material_id)");
             statement.executeUpdate("""
                 CREATE TABLE IF NOT EXISTS nodes (
                     id INTEGER PRIMARY KEY AUTOINCREMENT,
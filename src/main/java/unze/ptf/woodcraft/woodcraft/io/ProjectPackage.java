@@ -86,5 +86,6 @@ public class ProjectPackage {
         public String imagePath; // relativno u zipu: "assets/..."
         public String grainDirection;
         public double edgeBandingCostPerMeter;
+        public String stockLengthsCm;
     }
 }
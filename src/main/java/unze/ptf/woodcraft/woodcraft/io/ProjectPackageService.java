@@ -5,6 +5,10 @@ import com.google.gson.GsonBuilder;
 import javafx.geometry.Point2D;
 import unze.ptf.woodcraft.woodcraft.dao.*;
 import unze.ptf.woodcraft.woodcraft.model.*;
+import unze.ptf.woodcraft.woodcraft.service.CurveFlattener;
+import unze.ptf.woodcraft.woodcraft.service.DocumentGraph;
+import unze.ptf.woodcraft.woodcraft.service.EdgeSplitter;
+import unze.ptf.woodcraft.woodcraft.util.PolygonBuffer;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
@@ -24,6 +28,7 @@ public class ProjectPackageService {
     private final ManualShapeDao manualShapeDao;
     private final DimensionDao dimensionDao;
     private final MaterialDao materialDao;
+    private final EdgeSplitter edgeSplitter;
 
     private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
 
@@ -45,6 +50,7 @@ public class ProjectPackageService {
         this.manualShapeDao = manualShapeDao;
         this.dimensionDao = dimensionDao;
         this.materialDao = materialDao;
+        this.edgeSplitter = new EdgeSplitter(nodeDao, edgeDao, new CurveFlattener());
     }
 
     // =========================
@@ -67,10 +73,7 @@ public class ProjectPackageService {
             if (s.getMaterialId() != null) usedMaterialIds.add(s.getMaterialId());
         }
 
-        List<Material> usedMaterials = new ArrayList<Material>();
-        for (Integer mid : usedMaterialIds) {
-            materialDao.findById(mid).ifPresent(usedMaterials::add);
-        }
+        List<Material> usedMaterials = new ArrayList<Material>(materialDao.findByIds(usedMaterialIds).values());
 
         ProjectPackage pack = new ProjectPackage();
         pack.schemaVersion = 1;
@@ -169,6 +172,7 @@ public class ProjectPackageService {
                 dto.pricePerLinearMeter = m.getPricePerLinearMeter();
                 dto.grainDirection = m.getGrainDirection().name();
                 dto.edgeBandingCostPerMeter = m.getEdgeBandingCostPerMeter();
+                dto.stockLengthsCm = m.getStockLengthsCm();
 
                 // copy image into /assets inside zip (if exists)
                 if (m.getImagePath() != null && !m.getImagePath().isBlank()) {
@@ -251,7 +255,8 @@ public class ProjectPackageService {
                         m.pricePerLinearMeter,
                         newImagePath,
                         GrainDirection.valueOf(m.grainDirection),
-                        m.edgeBandingCostPerMeter
+                        m.edgeBandingCostPerMeter,
+                        m.stockLengthsCm
                 );
 
                 int newMatId = materialDao.create(material);
@@ -259,27 +264,33 @@ public class ProjectPackageService {
             }
         }
 
-        // 3) nodes (old -> new)
+        // 3) nodes (old -> new), inserted in one transaction
         Map<Integer, Integer> nodeMap = new HashMap<Integer, Integer>();
         if (pack.nodes != null) {
+            PolygonBuffer points = new PolygonBuffer(pack.nodes.size());
             for (ProjectPackage.NodeDto n : pack.nodes) {
-                NodePoint created = nodeDao.create(newDocId, n.xCm, n.yCm);
-                nodeMap.put(n.id, created.getId());
+                points.add(n.xCm, n.yCm);
+            }
+            List<NodePoint> created = nodeDao.createAll(newDocId, points);
+            for (int i = 0; i < created.size(); i++) {
+                nodeMap.put(pack.nodes.get(i).id, created.get(i).getId());
             }
         }
 
-        // 4) edges
+        // 4) edges, inserted in one transaction
         if (pack.edges != null) {
+            List<Edge> edges = new ArrayList<Edge>();
             for (ProjectPackage.EdgeDto e : pack.edges) {
                 int newStart = mustMap(nodeMap, e.startNodeId, "edge.startNodeId");
                 int newEnd = mustMap(nodeMap, e.endNodeId, "edge.endNodeId");
-
-                Edge created = edgeDao.create(newDocId, newStart, newEnd);
-
-                if (e.controlStartXCm != null || e.controlStartYCm != null || e.controlEndXCm != null || e.controlEndYCm != null) {
-                    edgeDao.updateControls(created.getId(), e.controlStartXCm, e.controlStartYCm, e.controlEndXCm, e.controlEndYCm);
-                }
+                edges.add(new Edge(-1, newDocId, newStart, newEnd,
+                        e.controlStartXCm, e.controlStartYCm, e.controlEndXCm, e.controlEndYCm));
             }
+            edgeDao.createAll(edges);
+
+            // 4b) crossing edges from older drawings become proper nodes and edges
+            edgeSplitter.splitAll(newDocId,
+                    new DocumentGraph(nodeDao.findByDocument(newDocId), edgeDao.findByDocument(newDocId)));
         }
 
         // 5) guides
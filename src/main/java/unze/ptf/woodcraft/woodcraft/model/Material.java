@@ -13,11 +13,12 @@ public class Material {
     private final String imagePath;
     private final GrainDirection grainDirection;
     private final double edgeBandingCostPerMeter;
+    private final String stockLengthsCm;
     private String colorHex = "#8FAADC";
 
     public Material(int id, int userId, String name, MaterialType type, double sheetWidthCm, double sheetHeightCm,
                     double sheetPrice, double pricePerSquareMeter, double pricePerLinearMeter, String imagePath,
-                    GrainDirection grainDirection, double edgeBandingCostPerMeter) {
+                    GrainDirection grainDirection, double edgeBandingCostPerMeter, String stockLengthsCm) {
         this.id = id;
         this.userId = userId;
         this.name = name;
@@ -30,6 +31,7 @@ public class Material {
         this.imagePath = imagePath;
         this.grainDirection = grainDirection == null ? GrainDirection.NONE : grainDirection;
         this.edgeBandingCostPerMeter = edgeBandingCostPerMeter;
+        this.stockLengthsCm = stockLengthsCm;
     }
 
     public int getId() {
@@ -80,6 +82,11 @@ public class Material {
         return edgeBandingCostPerMeter;
     }
 
+    // Stock board lengths for lumber, comma separated, e.g. "240, 300, 420".
+    public String getStockLengthsCm() {
+        return stockLengthsCm;
+    }
+
     public double getSheetAreaCm2() {
         return sheetWidthCm * sheetHeightCm;
     }
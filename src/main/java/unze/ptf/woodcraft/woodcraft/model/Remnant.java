@@ -0,0 +1,42 @@
+package unze.ptf.woodcraft.woodcraft.model;
+
+// A usable offcut on the rack. Lumber remnants only have a length, kept in widthCm with heightCm 0.
+public class Remnant {
+    private final int id;
+    private final int materialId;
+    private final double widthCm;
+    private final double heightCm;
+    private final Integer sourceDocumentId;
+
+    public Remnant(int id, int materialId, double widthCm, double heightCm, Integer sourceDocumentId) {
+        this.id = id;
+        this.materialId = materialId;
+        this.widthCm = widthCm;
+        this.heightCm = heightCm;
+        this.sourceDocumentId = sourceDocumentId;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getMaterialId() {
+        return materialId;
+    }
+
+    public double getWidthCm() {
+        return widthCm;
+    }
+
+    public double getHeightCm() {
+        return heightCm;
+    }
+
+    public Integer getSourceDocumentId() {
+        return sourceDocumentId;
+    }
+
+    public double getAreaCm2() {
+        return widthCm * heightCm;
+    }
+}
@@ -0,0 +1,407 @@
+package unze.ptf.woodcraft.woodcraft.service;
+
+import unze.ptf.woodcraft.woodcraft.util.PolygonBuffer;
+import unze.ptf.woodcraft.woodcraft.util.PolygonMath;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Lays real boards over a shape. The outline is turned as in PlankPlanner, so boards run along y. The
+// span is split into courses of stock widths, picked to cover it with the least overhang. Each course is
+// filled from its low end with stock lengths. An end joint keeps at least the stagger distance from the
+// joints of the course before, and no piece is shorter than that distance. A board that would break either
+// rule is cut short. Offcuts go to a pool per width: the next course of that width starts with one if it
+// fits the rules, and a course end takes the smallest one that covers it. Waste is the board area bought
+// that does not end up inside the shape.
+public class BoardPlanner {
+    // Past this many courses of the narrowest width the widths are not mixed; the widest alone covers.
+    public static final int MAX_COURSES = 2000;
+    private static final double EPSILON = 1e-6;
+    // Offcuts shorter than this are not worth keeping.
+    private static final double MIN_OFFCUT_CM = 5;
+
+    public record Stock(double widthCm, double lengthCm) {
+    }
+
+    // A piece of board in the turned frame, y0..y1 along its course.
+    public record Piece(double y0, double y1, double stockLengthCm, boolean fromOffcut) {
+    }
+
+    public record Course(double x0, double x1, List<Piece> pieces) {
+    }
+
+    public record Offcut(double widthCm, double lengthCm) {
+    }
+
+    public record Layout(double angleDeg, double centerX, double centerY, List<Course> courses, int boardCount,
+                         int jointCount, List<Offcut> offcuts, double wastePercent, double coveragePercent) {
+        public double offcutLengthCm() {
+            double total = 0;
+            for (Offcut offcut : offcuts) {
+                total += offcut.lengthCm();
+            }
+            return total;
+        }
+    }
+
+    // Scratch arrays for one thread.
+    public static final class Workspace {
+        private final PolygonBuffer rotated = new PolygonBuffer();
+        private final double[] centroid = new double[2];
+        private final double[] extent = new double[4];
+        private double[] bounds = new double[0];
+        private double[] areas = new double[0];
+        private double[] lows = new double[0];
+        private double[] highs = new double[0];
+        private double[] widths = new double[0];
+        private int[] fewest = new int[0];
+        private int[] last = new int[0];
+        private double[] previousJoints = new double[16];
+        private double[] joints = new double[16];
+        private int boardCount;
+        private int jointCount;
+        private double boughtArea;
+        private double coveredArea;
+
+        // Widths already chosen are kept.
+        private void ensureCourses(int count) {
+            if (areas.length < count) {
+                bounds = new double[count + 1];
+                areas = new double[count];
+                lows = new double[count];
+                highs = new double[count];
+                widths = Arrays.copyOf(widths, count);
+            }
+        }
+    }
+
+    private static final class Pool {
+        private final Map<Double, TreeMap<Double, Integer>> byWidth = new HashMap<>();
+
+        private TreeMap<Double, Integer> lengths(double width) {
+            return byWidth.computeIfAbsent(width, ignored -> new TreeMap<>());
+        }
+
+        private void add(double width, double length) {
+            lengths(width).merge(length, 1, Integer::sum);
+        }
+
+        private void take(double width, double length) {
+            TreeMap<Double, Integer> lengths = lengths(width);
+            if (lengths.merge(length, -1, Integer::sum) == 0) {
+                lengths.remove(length);
+            }
+        }
+    }
+
+    public Layout plan(PolygonBuffer polygon, double shapeAreaCm2, double angleDeg, List<Stock> stock,
+                       double staggerCm, double kerfCm, Workspace workspace) {
+        List<Course> courses = new ArrayList<>();
+        List<Offcut> offcuts = new ArrayList<>();
+        lay(polygon, angleDeg, stock, staggerCm, kerfCm, workspace, courses, offcuts);
+        return new Layout(angleDeg, workspace.centroid[0], workspace.centroid[1], courses, workspace.boardCount,
+                workspace.jointCount, offcuts, wastePercent(workspace, shapeAreaCm2),
+                shapeAreaCm2 > 0 ? workspace.coveredArea / shapeAreaCm2 * 100.0 : 0);
+    }
+
+    public double wastePercent(PolygonBuffer polygon, double shapeAreaCm2, double angleDeg, List<Stock> stock,
+                               double staggerCm, double kerfCm, Workspace workspace) {
+        lay(polygon, angleDeg, stock, staggerCm, kerfCm, workspace, null, null);
+        return wastePercent(workspace, shapeAreaCm2);
+    }
+
+    private static double wastePercent(Workspace workspace, double shapeAreaCm2) {
+        return shapeAreaCm2 > 0
+                ? Math.max(0, workspace.boughtArea - workspace.coveredArea) / shapeAreaCm2 * 100.0 : 0;
+    }
+
+    private void lay(PolygonBuffer polygon, double angleDeg, List<Stock> stock, double staggerCm, double kerfCm,
+                     Workspace workspace, List<Course> courses, List<Offcut> offcuts) {
+        workspace.boardCount = 0;
+        workspace.jointCount = 0;
+        workspace.boughtArea = 0;
+        workspace.coveredArea = 0;
+        Map<Double, double[]> lengthsByWidth = lengthsByWidth(stock);
+        if (polygon.size() < 3 || lengthsByWidth.isEmpty()) {
+            return;
+        }
+        // A stagger the shortest board cannot clear leaves no room between joints, so it is held below half
+        // of that board.
+        double shortest = Double.POSITIVE_INFINITY;
+        for (double[] lengths : lengthsByWidth.values()) {
+            shortest = Math.min(shortest, lengths[lengths.length - 1]);
+        }
+        staggerCm = Math.max(0, Math.min(staggerCm, shortest / 2));
+        PolygonMath.centroid(polygon, workspace.centroid);
+        PolygonMath.rotate(polygon, workspace.centroid[0], workspace.centroid[1], -Math.toRadians(angleDeg),
+                workspace.rotated);
+        PolygonMath.bounds(workspace.rotated, workspace.extent);
+        int count = courseWidths(workspace.extent[2] - workspace.extent[0], lengthsByWidth, workspace);
+        workspace.bounds[0] = workspace.extent[0];
+        for (int i = 0; i < count; i++) {
+            workspace.bounds[i + 1] = workspace.bounds[i] + workspace.widths[i];
+        }
+        PolygonMath.slabs(workspace.rotated, workspace.bounds, count, workspace.areas, workspace.lows,
+                workspace.highs);
+
+        Pool pool = new Pool();
+        int previousCount = 0;
+        for (int course = 0; course < count; course++) {
+            double width = workspace.widths[course];
+            double low = workspace.lows[course];
+            double high = workspace.highs[course];
+            if (workspace.areas[course] <= 0.0001 || high - low <= EPSILON) {
+                previousCount = 0;
+                continue;
+            }
+            workspace.coveredArea += workspace.areas[course];
+            List<Piece> pieces = courses == null ? null : new ArrayList<>();
+            int jointCount = fillCourse(width, low, high, lengthsByWidth.get(width), staggerCm, kerfCm, pool,
+                    workspace, previousCount, pieces);
+            workspace.jointCount += jointCount;
+            double[] swap = workspace.previousJoints;
+            workspace.previousJoints = workspace.joints;
+            workspace.joints = swap;
+            previousCount = jointCount;
+            if (courses != null) {
+                courses.add(new Course(workspace.bounds[course], workspace.bounds[course + 1], pieces));
+            }
+        }
+        if (offcuts != null) {
+            for (Map.Entry<Double, TreeMap<Double, Integer>> entry : pool.byWidth.entrySet()) {
+                for (Map.Entry<Double, Integer> length : entry.getValue().entrySet()) {
+                    for (int i = 0; i < length.getValue(); i++) {
+                        offcuts.add(new Offcut(entry.getKey(), length.getKey()));
+                    }
+                }
+            }
+        }
+    }
+
+    // Lays one course and returns its joint count; the joints are left in workspace.joints, low to high.
+    private int fillCourse(double width, double low, double high, double[] lengths, double staggerCm, double kerfCm,
+                           Pool pool, Workspace workspace, int previousCount, List<Piece> pieces) {
+        TreeMap<Double, Integer> offcuts = pool.lengths(width);
+        double longest = lengths[0];
+        double position = low;
+        int jointCount = 0;
+        while (high - position > EPSILON) {
+            double remaining = high - position;
+            boolean first = position == low;
+            // The course ends with the smallest offcut or stock board that covers the rest.
+            Double offcut = offcuts.ceilingKey(remaining - EPSILON);
+            if (offcut != null || remaining <= longest + EPSILON) {
+                double source;
+                if (offcut != null) {
+                    source = offcut;
+                    pool.take(width, offcut);
+                } else {
+                    source = shortestCovering(lengths, remaining);
+                    buy(workspace, width, source);
+                }
+                keep(pool, width, source - remaining - kerfCm);
+                if (pieces != null) {
+                    pieces.add(new Piece(position, high, source, offcut != null));
+                }
+                break;
+            }
+            double limit = high - staggerCm;
+            double joint = Double.NaN;
+            double source = longest;
+            boolean fromOffcut = false;
+            if (first) {
+                for (Double length : offcuts.descendingKeySet()) {
+                    double candidate = position + length;
+                    if (length >= staggerCm && candidate <= limit
+                            && staggered(workspace.previousJoints, previousCount, candidate, staggerCm)) {
+                        joint = candidate;
+                        source = length;
+                        fromOffcut = true;
+                        break;
+                    }
+                }
+            }
+            for (int i = 0; Double.isNaN(joint) && i < lengths.length; i++) {
+                double candidate = position + lengths[i];
+                if (candidate <= limit && staggered(workspace.previousJoints, previousCount, candidate, staggerCm)) {
+                    joint = candidate;
+                    source = lengths[i];
+                }
+            }
+            if (Double.isNaN(joint)) {
+                joint = shortenedJoint(workspace.previousJoints, previousCount, position, Math.min(position + longest,
+                        limit), staggerCm);
+            }
+            // Every piece moves the course on by a full board at least, even if a joint rule has to give.
+            if (joint - position < EPSILON) {
+                joint = position + longest;
+                source = longest;
+                fromOffcut = false;
+            }
+            if (fromOffcut) {
+                pool.take(width, source);
+            } else {
+                buy(workspace, width, source);
+            }
+            keep(pool, width, source - (joint - position) - kerfCm);
+            if (pieces != null) {
+                pieces.add(new Piece(position, joint, source, fromOffcut));
+            }
+            if (jointCount == workspace.joints.length) {
+                workspace.joints = Arrays.copyOf(workspace.joints, jointCount * 2);
+            }
+            workspace.joints[jointCount++] = joint;
+            position = joint;
+        }
+        return jointCount;
+    }
+
+    // Walks the joint down past each joint it is too close to, as long as the piece stays long enough.
+    // If it cannot, the longest allowed piece is used and the clash accepted.
+    private static double shortenedJoint(double[] previous, int previousCount, double position, double joint,
+                                         double staggerCm) {
+        double candidate = joint;
+        while (candidate - position >= staggerCm) {
+            int nearest = nearest(previous, previousCount, candidate);
+            if (nearest < 0 || Math.abs(previous[nearest] - candidate) >= staggerCm - EPSILON) {
+                return candidate;
+            }
+            candidate = previous[nearest] - staggerCm;
+        }
+        return joint;
+    }
+
+    private static boolean staggered(double[] previous, int previousCount, double joint, double staggerCm) {
+        int nearest = nearest(previous, previousCount, joint);
+        return nearest < 0 || Math.abs(previous[nearest] - joint) >= staggerCm - EPSILON;
+    }
+
+    private static int nearest(double[] sorted, int count, double value) {
+        if (count == 0) {
+            return -1;
+        }
+        int index = Arrays.binarySearch(sorted, 0, count, value);
+        if (index >= 0) {
+            return index;
+        }
+        int insertion = -index - 1;
+        if (insertion == 0) {
+            return 0;
+        }
+        if (insertion == count) {
+            return count - 1;
+        }
+        return value - sorted[insertion - 1] <= sorted[insertion] - value ? insertion - 1 : insertion;
+    }
+
+    private static double shortestCovering(double[] lengths, double remaining) {
+        double best = lengths[0];
+        for (double length : lengths) {
+            if (length >= remaining - EPSILON) {
+                best = length;
+            }
+        }
+        return best;
+    }
+
+    private static void buy(Workspace workspace, double width, double length) {
+        workspace.boardCount++;
+        workspace.boughtArea += width * length;
+    }
+
+    private static void keep(Pool pool, double width, double length) {
+        if (length >= MIN_OFFCUT_CM) {
+            pool.add(width, length);
+        }
+    }
+
+    // Stock lengths per width, longest first.
+    private static Map<Double, double[]> lengthsByWidth(List<Stock> stock) {
+        Map<Double, List<Double>> grouped = new HashMap<>();
+        for (Stock board : stock) {
+            if (board.widthCm() > 0 && board.lengthCm() > 0) {
+                grouped.computeIfAbsent(board.widthCm(), ignored -> new ArrayList<>()).add(board.lengthCm());
+            }
+        }
+        Map<Double, double[]> result = new HashMap<>();
+        for (Map.Entry<Double, List<Double>> entry : grouped.entrySet()) {
+            double[] lengths = entry.getValue().stream().mapToDouble(Double::doubleValue).sorted().toArray();
+            for (int i = 0; i < lengths.length / 2; i++) {
+                double swap = lengths[i];
+                lengths[i] = lengths[lengths.length - 1 - i];
+                lengths[lengths.length - 1 - i] = swap;
+            }
+            result.put(entry.getKey(), lengths);
+        }
+        return result;
+    }
+
+    // Unbounded change-making on whole millimetres: the reachable total closest above the span, with the
+    // fewest courses for it. Widest courses come first. Returns the course count, widths in workspace.widths.
+    // Widths are rounded down to the millimetre, so the real courses cover at least the total found.
+    private static int courseWidths(double span, Map<Double, double[]> lengthsByWidth, Workspace workspace) {
+        double[] widths = lengthsByWidth.keySet().stream().mapToDouble(Double::doubleValue).sorted().toArray();
+        double widest = widths[widths.length - 1];
+        int target = (int) Math.ceil(span * 10 - EPSILON);
+        if (target <= 0 || span / widths[0] > MAX_COURSES) {
+            int count = Math.max(1, (int) Math.ceil(span / widest - EPSILON));
+            workspace.ensureCourses(count);
+            Arrays.fill(workspace.widths, 0, count, widest);
+            return count;
+        }
+        int[] steps = new int[widths.length];
+        for (int i = 0; i < widths.length; i++) {
+            steps[i] = Math.max(1, (int) Math.floor(widths[i] * 10 + EPSILON));
+        }
+        int limit = target + steps[steps.length - 1];
+        if (workspace.fewest.length < limit + 1) {
+            workspace.fewest = new int[limit + 1];
+            workspace.last = new int[limit + 1];
+        }
+        int[] fewest = workspace.fewest;
+        int[] last = workspace.last;
+        Arrays.fill(fewest, 0, limit + 1, Integer.MAX_VALUE);
+        fewest[0] = 0;
+        int reached = -1;
+        for (int total = 1; total <= limit && reached < 0; total++) {
+            for (int i = 0; i < steps.length; i++) {
+                int before = total - steps[i];
+                if (before >= 0 && fewest[before] != Integer.MAX_VALUE && fewest[before] + 1 < fewest[total]) {
+                    fewest[total] = fewest[before] + 1;
+                    last[total] = i;
+                }
+            }
+            if (total >= target && fewest[total] != Integer.MAX_VALUE) {
+                reached = total;
+            }
+        }
+        if (reached < 0) {
+            reached = limit;
+        }
+        int count = Math.max(1, fewest[reached]);
+        workspace.ensureCourses(count);
+        int index = 0;
+        double covered = 0;
+        for (int total = reached; total > 0; total -= steps[last[total]]) {
+            workspace.widths[index++] = widths[last[total]];
+            covered += widths[last[total]];
+        }
+        // Only sub-millimetre widths (rounded up to one step) can still fall short.
+        while (covered < span - EPSILON) {
+            workspace.ensureCourses(count + 1);
+            workspace.widths[count++] = widest;
+            covered += widest;
+        }
+        Arrays.sort(workspace.widths, 0, count);
+        for (int i = 0; i < count / 2; i++) {
+            double swap = workspace.widths[i];
+            workspace.widths[i] = workspace.widths[count - 1 - i];
+            workspace.widths[count - 1 - i] = swap;
+        }
+        return count;
+    }
+}
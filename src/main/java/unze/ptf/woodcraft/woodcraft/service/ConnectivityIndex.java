@@ -0,0 +1,65 @@
+package unze.ptf.woodcraft.woodcraft.service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class ConnectivityIndex {
+    private final Map<Integer, Integer> parent = new HashMap<>();
+    private final Map<Integer, Integer> size = new HashMap<>();
+
+    public void clear() {
+        parent.clear();
+        size.clear();
+    }
+
+    public void addNode(int nodeId) {
+        if (parent.putIfAbsent(nodeId, nodeId) == null) {
+            size.put(nodeId, 1);
+        }
+    }
+
+    // Returns true when both nodes were already connected, i.e. the new edge closes a loop.
+    public boolean addEdge(int nodeA, int nodeB) {
+        addNode(nodeA);
+        addNode(nodeB);
+        int rootA = find(nodeA);
+        int rootB = find(nodeB);
+        if (rootA == rootB) {
+            return true;
+        }
+        int sizeA = size.get(rootA);
+        int sizeB = size.get(rootB);
+        if (sizeA < sizeB) {
+            int swap = rootA;
+            rootA = rootB;
+            rootB = swap;
+        }
+        parent.put(rootB, rootA);
+        size.put(rootA, sizeA + sizeB);
+        size.remove(rootB);
+        return false;
+    }
+
+    public boolean connected(int nodeA, int nodeB) {
+        if (!parent.containsKey(nodeA) || !parent.containsKey(nodeB)) {
+            return nodeA == nodeB;
+        }
+        return find(nodeA) == find(nodeB);
+    }
+
+    public int componentOf(int nodeId) {
+        return parent.containsKey(nodeId) ? find(nodeId) : nodeId;
+    }
+
+    private int find(int nodeId) {
+        int current = nodeId;
+        int next = parent.get(current);
+        while (next != current) {
+            int grandparent = parent.get(next);
+            parent.put(current, grandparent);
+            current = next;
+            next = grandparent;
+        }
+        return current;
+    }
+}
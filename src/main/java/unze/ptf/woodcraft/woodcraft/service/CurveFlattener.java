@@ -0,0 +1,84 @@
+package unze.ptf.woodcraft.woodcraft.service;
+
+import unze.ptf.woodcraft.woodcraft.util.PolygonBuffer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class CurveFlattener {
+    public static final double DEFAULT_TOLERANCE_CM = 0.01;
+    private static final int MAX_SEGMENTS = 256;
+
+    private record Entry(double x0, double y0, double c1x, double c1y, double c2x, double c2y, double x3, double y3,
+                         double tolerance, double[] points) {
+        boolean matches(double x0, double y0, double c1x, double c1y, double c2x, double c2y, double x3, double y3) {
+            return this.x0 == x0 && this.y0 == y0 && this.c1x == c1x && this.c1y == c1y
+                    && this.c2x == c2x && this.c2y == c2y && this.x3 == x3 && this.y3 == y3;
+        }
+    }
+
+    private final Map<Integer, Entry> cache = new ConcurrentHashMap<>();
+
+    // Wang's bound: with n uniform steps a cubic stays within tolerance of its chords when
+    // n >= sqrt(3/4 * max|P[i] - 2P[i+1] + P[i+2]| / tolerance).
+    public static int segmentCount(double x0, double y0, double c1x, double c1y, double c2x, double c2y,
+                                   double x3, double y3, double tolerance) {
+        double d1 = Math.hypot(x0 - 2 * c1x + c2x, y0 - 2 * c1y + c2y);
+        double d2 = Math.hypot(c1x - 2 * c2x + x3, c1y - 2 * c2y + y3);
+        double bound = 0.75 * Math.max(d1, d2) / Math.max(tolerance, 1e-9);
+        int segments = (int) Math.ceil(Math.sqrt(bound));
+        return Math.max(1, Math.min(MAX_SEGMENTS, segments));
+    }
+
+    public double[] flatten(double x0, double y0, double c1x, double c1y, double c2x, double c2y,
+                            double x3, double y3, double tolerance) {
+        int segments = segmentCount(x0, y0, c1x, c1y, c2x, c2y, x3, y3, tolerance);
+        double[] points = new double[(segments + 1) * 2];
+        points[0] = x0;
+        points[1] = y0;
+        for (int i = 1; i < segments; i++) {
+            double t = (double) i / segments;
+            double u = 1 - t;
+            double b0 = u * u * u;
+            double b1 = 3 * u * u * t;
+            double b2 = 3 * u * t * t;
+            double b3 = t * t * t;
+            points[i * 2] = b0 * x0 + b1 * c1x + b2 * c2x + b3 * x3;
+            points[i * 2 + 1] = b0 * y0 + b1 * c1y + b2 * c2y + b3 * y3;
+        }
+        points[segments * 2] = x3;
+        points[segments * 2 + 1] = y3;
+        return points;
+    }
+
+    // Coordinates are in the edge's own start-to-end direction. A cached polyline is reused while the
+    // curve is unchanged and was flattened at least as finely as requested.
+    public double[] flattenEdge(int edgeId, double x0, double y0, double c1x, double c1y, double c2x, double c2y,
+                                double x3, double y3, double tolerance) {
+        Entry entry = cache.get(edgeId);
+        if (entry != null && entry.tolerance() <= tolerance && entry.matches(x0, y0, c1x, c1y, c2x, c2y, x3, y3)) {
+            return entry.points();
+        }
+        double[] points = flatten(x0, y0, c1x, c1y, c2x, c2y, x3, y3, tolerance);
+        cache.put(edgeId, new Entry(x0, y0, c1x, c1y, c2x, c2y, x3, y3, tolerance, points));
+        return points;
+    }
+
+    public void appendEdge(PolygonBuffer points, int edgeId, double x0, double y0, double c1x, double c1y,
+                           double c2x, double c2y, double x3, double y3, boolean reversed, double tolerance) {
+        double[] polyline = flattenEdge(edgeId, x0, y0, c1x, c1y, c2x, c2y, x3, y3, tolerance);
+        int count = polyline.length / 2;
+        for (int i = points.isEmpty() ? 0 : 1; i < count; i++) {
+            int index = reversed ? count - 1 - i : i;
+            points.add(polyline[index * 2], polyline[index * 2 + 1]);
+        }
+    }
+
+    public void evict(int edgeId) {
+        cache.remove(edgeId);
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+}
@@ -0,0 +1,85 @@
+package unze.ptf.woodcraft.woodcraft.service;
+
+public final class CurveMetrics {
+    private static final double LENGTH_TOLERANCE_CM = 1e-7;
+    private static final int MAX_DEPTH = 12;
+
+    // 5-point Gauss-Legendre nodes and weights on [-1, 1].
+    private static final double[] NODES = {
+            0.0,
+            -0.5384693101056831, 0.5384693101056831,
+            -0.9061798459386640, 0.9061798459386640
+    };
+    private static final double[] WEIGHTS = {
+            0.5688888888888889,
+            0.4786286704993665, 0.4786286704993665,
+            0.2369268850561891, 0.2369268850561891
+    };
+
+    private CurveMetrics() {
+    }
+
+    public static double lineArea(double x0, double y0, double x1, double y1) {
+        return (x0 * y1 - x1 * y0) / 2.0;
+    }
+
+    // Green's theorem, 1/2 * integral of (x dy - y dx), evaluated exactly for a cubic Bezier segment.
+    public static double cubicArea(double x0, double y0, double c1x, double c1y, double c2x, double c2y,
+                                   double x3, double y3) {
+        double sum = 6 * cross(x0, y0, c1x, c1y)
+                + 3 * cross(x0, y0, c2x, c2y)
+                + cross(x0, y0, x3, y3)
+                + 3 * cross(c1x, c1y, c2x, c2y)
+                + 3 * cross(c1x, c1y, x3, y3)
+                + 6 * cross(c2x, c2y, x3, y3);
+        return sum / 20.0;
+    }
+
+    public static double lineLength(double x0, double y0, double x1, double y1) {
+        return Math.hypot(x1 - x0, y1 - y0);
+    }
+
+    public static double cubicLength(double x0, double y0, double c1x, double c1y, double c2x, double c2y,
+                                     double x3, double y3) {
+        // Derivative is a quadratic Bezier over these control differences.
+        double ax = 3 * (c1x - x0);
+        double ay = 3 * (c1y - y0);
+        double bx = 3 * (c2x - c1x);
+        double by = 3 * (c2y - c1y);
+        double cx = 3 * (x3 - c2x);
+        double cy = 3 * (y3 - c2y);
+        double whole = gauss(ax, ay, bx, by, cx, cy, 0, 1);
+        return adaptive(ax, ay, bx, by, cx, cy, 0, 1, whole, 0);
+    }
+
+    private static double adaptive(double ax, double ay, double bx, double by, double cx, double cy,
+                                   double from, double to, double whole, int depth) {
+        double middle = (from + to) / 2;
+        double left = gauss(ax, ay, bx, by, cx, cy, from, middle);
+        double right = gauss(ax, ay, bx, by, cx, cy, middle, to);
+        if (depth >= MAX_DEPTH || Math.abs(left + right - whole) <= LENGTH_TOLERANCE_CM) {
+            return left + right;
+        }
+        return adaptive(ax, ay, bx, by, cx, cy, from, middle, left, depth + 1)
+                + adaptive(ax, ay, bx, by, cx, cy, middle, to, right, depth + 1);
+    }
+
+    private static double gauss(double ax, double ay, double bx, double by, double cx, double cy,
+                                double from, double to) {
+        double half = (to - from) / 2;
+        double center = (to + from) / 2;
+        double sum = 0;
+        for (int i = 0; i < NODES.length; i++) {
+            double t = center + half * NODES[i];
+            double u = 1 - t;
+            double dx = u * u * ax + 2 * u * t * bx + t * t * cx;
+            double dy = u * u * ay + 2 * u * t * by + t * t * cy;
+            sum += WEIGHTS[i] * Math.hypot(dx, dy);
+        }
+        return sum * half;
+    }
+
+    private static double cross(double ax, double ay, double bx, double by) {
+        return ax * by - ay * bx;
+    }
+}
@@ -0,0 +1,446 @@
+package unze.ptf.woodcraft.woodcraft.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+// Turns nested sheets into panel-saw instructions. A sheet is split recursively by guillotine stages: a
+// stage takes every straight line that crosses the whole piece without touching a part, so it never
+// needs the piece turned. Pieces are cut stage by stage over the whole sheet, turning the stack only
+// when the direction changes. Within a direction, pieces are chained so that a piece whose first strip
+// matches the current fence setting goes next, each cut from whichever end needs fewer fence resets.
+// Both starting directions are tried and the faster sequence is kept. Where parts interlock so that no
+// straight through cut frees them, that piece is re-packed with the guillotine packer if its parts fit;
+// otherwise they are reported as blocked. Outline-nested layouts are not sequenced at all: their parts
+// are cut along the outline, and re-packing them as boxes would undo the nest.
+public class CutSequencer {
+    public static final double FEED_CM_PER_SECOND = 25;
+    public static final double ROTATION_SECONDS = 15;
+    public static final double FENCE_RESET_SECONDS = 10;
+    public static final double CUT_HANDLING_SECONDS = 4;
+    private static final double EPSILON = 1e-6;
+    // Fence settings closer than this count as the same.
+    private static final double FENCE_TOLERANCE_CM = 0.05;
+
+    // A piece of the sheet. Inner nodes list the pieces their stage cuts it into; a leaf holds one part,
+    // nothing (waste) or several parts that straight cuts cannot separate.
+    public record Node(double xCm, double yCm, double widthCm, double heightCm, boolean vertical, List<Node> children,
+                       List<SheetNester.Placement> parts) {
+        public boolean isLeaf() {
+            return children.isEmpty();
+        }
+
+        public boolean isBlocked() {
+            return children.isEmpty() && parts.size() > 1;
+        }
+    }
+
+    // A vertical cut runs along x = positionCm from startCm to endCm in y, a horizontal one the other way.
+    // The fence is set to the width of the strip the cut takes off.
+    public record Cut(boolean vertical, double positionCm, double startCm, double endCm, double fenceCm, int stage,
+                      boolean rotated, boolean fenceReset) {
+        public double lengthCm() {
+            return endCm - startCm;
+        }
+    }
+
+    // The sheet is the one the cuts refer to: the nested sheet, or its guillotine re-pack.
+    public record SheetSequence(SheetNester.Sheet sheet, boolean repacked, Node root, List<Cut> cuts, int rotations,
+                                int fenceResets, double cutLengthCm, double sawSeconds, int blockedParts) {
+    }
+
+    // Outline-nested layouts get a plan without sheets.
+    public record Plan(List<SheetSequence> sheets, boolean outlineNested) {
+        public int cutCount() {
+            int count = 0;
+            for (SheetSequence sheet : sheets) {
+                count += sheet.cuts().size();
+            }
+            return count;
+        }
+
+        public int rotations() {
+            int count = 0;
+            for (SheetSequence sheet : sheets) {
+                count += sheet.rotations();
+            }
+            return count;
+        }
+
+        public int fenceResets() {
+            int count = 0;
+            for (SheetSequence sheet : sheets) {
+                count += sheet.fenceResets();
+            }
+            return count;
+        }
+
+        public double cutLengthCm() {
+            double total = 0;
+            for (SheetSequence sheet : sheets) {
+                total += sheet.cutLengthCm();
+            }
+            return total;
+        }
+
+        public double sawSeconds() {
+            double total = 0;
+            for (SheetSequence sheet : sheets) {
+                total += sheet.sawSeconds();
+            }
+            return total;
+        }
+
+        public int blockedParts() {
+            int count = 0;
+            for (SheetSequence sheet : sheets) {
+                count += sheet.blockedParts();
+            }
+            return count;
+        }
+
+        public int repackedSheets() {
+            int count = 0;
+            for (SheetSequence sheet : sheets) {
+                if (sheet.repacked()) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        // The sequenced layout with every sheet replaced by the one its cuts refer to, so that re-packed
+        // sheets are also what is shown and what the offcuts are taken from.
+        public SheetNester.Layout cutLayout(SheetNester.Layout layout) {
+            if (outlineNested || repackedSheets() == 0) {
+                return layout;
+            }
+            int fullSheets = layout.sheets().size();
+            List<SheetNester.Sheet> cutSheets = new ArrayList<>(fullSheets);
+            for (int i = 0; i < fullSheets; i++) {
+                cutSheets.add(sheets.get(i).sheet());
+            }
+            List<SheetNester.RemnantSheet> remnants = new ArrayList<>(layout.remnants().size());
+            for (int i = 0; i < layout.remnants().size(); i++) {
+                SheetNester.RemnantSheet remnant = layout.remnants().get(i);
+                remnants.add(new SheetNester.RemnantSheet(remnant.remnantId(), remnant.widthCm(),
+                        remnant.heightCm(), sheets.get(fullSheets + i).sheet()));
+            }
+            return new SheetNester.Layout(layout.sheetWidthCm(), layout.sheetHeightCm(), cutSheets,
+                    layout.oversized(), remnants, false);
+        }
+    }
+
+    private final SheetNester sheetNester;
+
+    public CutSequencer(SheetNester sheetNester) {
+        this.sheetNester = sheetNester;
+    }
+
+    // Full sheets first, then the remnants the layout used. Sheets are independent, so they are sequenced
+    // in parallel.
+    public Plan sequence(SheetNester.Layout layout, double kerfCm, boolean allowRotation) {
+        if (layout.outlineNested()) {
+            return new Plan(List.of(), true);
+        }
+        int fullSheets = layout.sheets().size();
+        List<SheetSequence> sheets = IntStream.range(0, fullSheets + layout.remnants().size())
+                .parallel()
+                .mapToObj(index -> {
+                    if (index < fullSheets) {
+                        return sequence(layout.sheets().get(index), layout.sheetWidthCm(), layout.sheetHeightCm(),
+                                kerfCm, allowRotation);
+                    }
+                    SheetNester.RemnantSheet remnant = layout.remnants().get(index - fullSheets);
+                    return sequence(remnant.sheet(), remnant.widthCm(), remnant.heightCm(), kerfCm, allowRotation);
+                })
+                .toList();
+        return new Plan(sheets, false);
+    }
+
+    public SheetSequence sequence(SheetNester.Sheet sheet, double widthCm, double heightCm, double kerfCm,
+                                  boolean allowRotation) {
+        SheetSequence best = sequence(sheet, widthCm, heightCm, kerfCm, allowRotation, false);
+        if (best.blockedParts() > 0) {
+            List<SheetNester.Placement> repacked = new Splitter(kerfCm, allowRotation)
+                    .repack(0, 0, widthCm, heightCm, sheet.placements());
+            if (repacked != null) {
+                SheetSequence candidate = sequence(new SheetNester.Sheet(List.copyOf(repacked), sheet.usedAreaCm2()),
+                        widthCm, heightCm, kerfCm, allowRotation, true);
+                if (better(candidate, best)) {
+                    best = candidate;
+                }
+            }
+        }
+        return best;
+    }
+
+    private SheetSequence sequence(SheetNester.Sheet sheet, double widthCm, double heightCm, double kerfCm,
+                                   boolean allowRotation, boolean repacked) {
+        SheetSequence best = null;
+        for (boolean vertical : new boolean[] {true, false}) {
+            Splitter splitter = new Splitter(kerfCm, allowRotation);
+            Node root = splitter.split(0, 0, widthCm, heightCm, sheet.placements(), vertical, true);
+            SheetNester.Sheet cutSheet = sheet;
+            if (splitter.repacks > 0) {
+                List<SheetNester.Placement> placements = new ArrayList<>(sheet.placements().size());
+                collectParts(root, placements);
+                cutSheet = new SheetNester.Sheet(List.copyOf(placements), sheet.usedAreaCm2());
+            }
+            SheetSequence candidate = order(cutSheet, repacked || splitter.repacks > 0, root, kerfCm);
+            if (best == null || better(candidate, best)) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    private static boolean better(SheetSequence candidate, SheetSequence incumbent) {
+        if (candidate.blockedParts() != incumbent.blockedParts()) {
+            return candidate.blockedParts() < incumbent.blockedParts();
+        }
+        return candidate.sawSeconds() < incumbent.sawSeconds() - EPSILON;
+    }
+
+    private static void collectParts(Node node, List<SheetNester.Placement> out) {
+        out.addAll(node.parts());
+        for (Node child : node.children()) {
+            collectParts(child, out);
+        }
+    }
+
+    private final class Splitter {
+        private final double kerfCm;
+        private final boolean allowRotation;
+        private int repacks;
+
+        private Splitter(double kerfCm, boolean allowRotation) {
+            this.kerfCm = kerfCm;
+            this.allowRotation = allowRotation;
+        }
+
+        // Splits the piece along every through line in the preferred direction, or in the other one when
+        // there is none. Parts that no line separates are re-packed within the piece once.
+        private Node split(double x, double y, double width, double height, List<SheetNester.Placement> parts,
+                           boolean vertical, boolean mayRepack) {
+            if (parts.isEmpty()) {
+                return new Node(x, y, width, height, vertical, List.of(), List.of());
+            }
+            List<Double> lines = throughLines(x, y, width, height, parts, vertical, kerfCm);
+            if (lines.isEmpty()) {
+                vertical = !vertical;
+                lines = throughLines(x, y, width, height, parts, vertical, kerfCm);
+                if (lines.isEmpty()) {
+                    List<SheetNester.Placement> repacked = parts.size() > 1 && mayRepack
+                            ? repack(x, y, width, height, parts) : null;
+                    if (repacked == null) {
+                        return new Node(x, y, width, height, vertical, List.of(), parts);
+                    }
+                    repacks++;
+                    return split(x, y, width, height, repacked, vertical, false);
+                }
+            }
+            double low = vertical ? x : y;
+            double high = vertical ? x + width : y + height;
+            List<Node> children = new ArrayList<>(lines.size() + 1);
+            double start = low;
+            for (int i = 0; i <= lines.size(); i++) {
+                double end = i < lines.size() ? lines.get(i) : high;
+                List<SheetNester.Placement> inside = new ArrayList<>();
+                for (SheetNester.Placement part : parts) {
+                    double center = vertical ? part.xCm() + part.widthCm() / 2 : part.yCm() + part.heightCm() / 2;
+                    if (center >= start && center <= end) {
+                        inside.add(part);
+                    }
+                }
+                children.add(vertical
+                        ? split(start, y, end - start, height, inside, false, mayRepack)
+                        : split(x, start, width, end - start, inside, true, mayRepack));
+                start = end + kerfCm;
+            }
+            return new Node(x, y, width, height, vertical, children, List.of());
+        }
+
+        // Guillotine packing of the piece's parts into the piece itself, or null when they do not fit or
+        // are turned by other than quarter turns (outline nesting).
+        private List<SheetNester.Placement> repack(double x, double y, double width, double height,
+                                                   List<SheetNester.Placement> placements) {
+            List<SheetNester.Part> parts = new ArrayList<>(placements.size());
+            for (SheetNester.Placement placement : placements) {
+                double angle = ((placement.angleDeg() % 360) + 360) % 360;
+                if (angle % 90 != 0) {
+                    return null;
+                }
+                boolean turned = angle == 90 || angle == 270;
+                parts.add(new SheetNester.Part(placement.shapeId(),
+                        turned ? placement.heightCm() : placement.widthCm(),
+                        turned ? placement.widthCm() : placement.heightCm(), 1));
+            }
+            for (Comparator<SheetNester.Part> ordering : SheetNester.ORDERINGS) {
+                parts.sort(ordering);
+                SheetNester.Layout layout = sheetNester.pack(parts, width, height, kerfCm, allowRotation,
+                        SheetNester.Heuristic.GUILLOTINE);
+                if (layout.sheetCount() == 1 && layout.oversized().isEmpty()) {
+                    List<SheetNester.Placement> moved = new ArrayList<>(parts.size());
+                    for (SheetNester.Placement placement : layout.sheets().get(0).placements()) {
+                        moved.add(new SheetNester.Placement(placement.shapeId(), x + placement.xCm(),
+                                y + placement.yCm(), placement.widthCm(), placement.heightCm(), placement.angleDeg()));
+                    }
+                    return moved;
+                }
+            }
+            return null;
+        }
+    }
+
+    // Lines (the blade's low edge) right after a part or one kerf before it that no part crosses.
+    // Lines closer than a kerf are one cut.
+    private static List<Double> throughLines(double x, double y, double width, double height,
+                                             List<SheetNester.Placement> parts, boolean vertical, double kerfCm) {
+        double low = vertical ? x : y;
+        double high = vertical ? x + width : y + height;
+        double[] candidates = new double[parts.size() * 2];
+        int count = 0;
+        for (SheetNester.Placement part : parts) {
+            double start = vertical ? part.xCm() : part.yCm();
+            double end = start + (vertical ? part.widthCm() : part.heightCm());
+            candidates[count++] = end;
+            candidates[count++] = start - kerfCm;
+        }
+        Arrays.sort(candidates, 0, count);
+        List<Double> lines = new ArrayList<>();
+        double last = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            double line = candidates[i];
+            if (line <= low + EPSILON || line + kerfCm >= high - EPSILON || line < last + kerfCm + EPSILON) {
+                continue;
+            }
+            boolean clear = true;
+            for (SheetNester.Placement part : parts) {
+                double start = vertical ? part.xCm() : part.yCm();
+                double end = start + (vertical ? part.widthCm() : part.heightCm());
+                if (end > line + EPSILON && start < line + kerfCm - EPSILON) {
+                    clear = false;
+                    break;
+                }
+            }
+            if (clear) {
+                lines.add(line);
+                last = line;
+            }
+        }
+        return lines;
+    }
+
+    private record Stage(Node node, double[] fences, double[] lines) {
+    }
+
+    // Cuts stage by stage: every piece of one level is finished before the stack goes on to the next
+    // level, and the pieces of a level that run in the current direction go first.
+    private static SheetSequence order(SheetNester.Sheet sheet, boolean repacked, Node root, double kerfCm) {
+        List<Cut> cuts = new ArrayList<>();
+        List<Node> level = new ArrayList<>();
+        level.add(root);
+        Boolean direction = null;
+        double fence = Double.NaN;
+        int rotations = 0;
+        int resets = 0;
+        int blocked = 0;
+        double length = 0;
+        int stage = 1;
+        while (!level.isEmpty()) {
+            List<Node> next = new ArrayList<>();
+            List<Node> pending = new ArrayList<>();
+            for (Node node : level) {
+                if (node.isLeaf()) {
+                    blocked += node.isBlocked() ? node.parts().size() : 0;
+                } else {
+                    pending.add(node);
+                    next.addAll(node.children());
+                }
+            }
+            if (direction != null) {
+                boolean current = direction;
+                pending.sort(Comparator.comparing((Node node) -> node.vertical() != current));
+            }
+            while (!pending.isEmpty()) {
+                Stage chosen = null;
+                int chosenIndex = -1;
+                int chosenCost = Integer.MAX_VALUE;
+                boolean sameDirection = direction != null && pending.get(0).vertical() == direction;
+                for (int i = 0; i < pending.size(); i++) {
+                    Node node = pending.get(i);
+                    if (sameDirection && node.vertical() != direction) {
+                        break;
+                    }
+                    for (boolean fromHigh : new boolean[] {false, true}) {
+                        Stage option = stage(node, kerfCm, fromHigh);
+                        int cost = resets(option.fences(), fence);
+                        if (cost < chosenCost) {
+                            chosen = option;
+                            chosenIndex = i;
+                            chosenCost = cost;
+                        }
+                    }
+                    if (chosenCost == 0) {
+                        break;
+                    }
+                }
+                pending.remove(chosenIndex);
+                Node node = chosen.node();
+                boolean rotated = direction != null && direction != node.vertical();
+                if (rotated) {
+                    rotations++;
+                }
+                direction = node.vertical();
+                for (int i = 0; i < chosen.lines().length; i++) {
+                    double setting = chosen.fences()[i];
+                    boolean reset = Double.isNaN(fence) || Math.abs(setting - fence) > FENCE_TOLERANCE_CM;
+                    if (reset) {
+                        resets++;
+                    }
+                    fence = setting;
+                    double start = node.vertical() ? node.yCm() : node.xCm();
+                    double end = start + (node.vertical() ? node.heightCm() : node.widthCm());
+                    cuts.add(new Cut(node.vertical(), chosen.lines()[i], start, end, setting, stage,
+                            rotated && i == 0, reset));
+                    length += end - start;
+                }
+            }
+            level = next;
+            stage++;
+        }
+        double seconds = length / FEED_CM_PER_SECOND + cuts.size() * CUT_HANDLING_SECONDS
+                + rotations * ROTATION_SECONDS + resets * FENCE_RESET_SECONDS;
+        return new SheetSequence(sheet, repacked, root, cuts, rotations, resets, length, seconds, blocked);
+    }
+
+    // The lines of a node's stage in cutting order with the strip width set on the fence for each.
+    private static Stage stage(Node node, double kerfCm, boolean fromHigh) {
+        List<Node> children = node.children();
+        int count = children.size() - 1;
+        double[] lines = new double[count];
+        double[] fences = new double[count];
+        for (int i = 0; i < count; i++) {
+            Node piece = children.get(fromHigh ? count - i : i);
+            double pieceStart = node.vertical() ? piece.xCm() : piece.yCm();
+            double pieceSize = node.vertical() ? piece.widthCm() : piece.heightCm();
+            lines[i] = fromHigh ? pieceStart - kerfCm : pieceStart + pieceSize;
+            fences[i] = pieceSize;
+        }
+        return new Stage(node, fences, lines);
+    }
+
+    private static int resets(double[] fences, double fence) {
+        int resets = 0;
+        for (double setting : fences) {
+            if (Double.isNaN(fence) || Math.abs(setting - fence) > FENCE_TOLERANCE_CM) {
+                resets++;
+            }
+            fence = setting;
+        }
+        return resets;
+    }
+}
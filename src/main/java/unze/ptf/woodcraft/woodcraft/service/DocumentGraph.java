@@ -0,0 +1,226 @@
+package unze.ptf.woodcraft.woodcraft.service;
+
+import unze.ptf.woodcraft.woodcraft.model.Edge;
+import unze.ptf.woodcraft.woodcraft.model.NodePoint;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public final class DocumentGraph {
+    // Lets derived indexes follow edits; load() reports a single graphLoaded() instead of per-item events.
+    public interface Listener {
+        void graphLoaded();
+
+        void nodeChanged(NodePoint node);
+
+        void nodeRemoved(int nodeId);
+
+        void edgeChanged(Edge edge);
+
+        void edgeRemoved(Edge edge);
+    }
+
+    private final Map<Integer, NodePoint> nodes = new LinkedHashMap<>();
+    private final Map<Integer, Edge> edges = new LinkedHashMap<>();
+    private final Map<Integer, List<Edge>> incidence = new HashMap<>();
+    private final EdgeIndex edgeIndex = new EdgeIndex();
+    private final ConnectivityIndex connectivity = new ConnectivityIndex();
+    // Union-find cannot split components, so deletions only flag it for a rebuild on the next query.
+    private boolean connectivityStale;
+    private final List<Listener> listeners = new ArrayList<>();
+    private boolean loading;
+
+    public DocumentGraph() {
+    }
+
+    public DocumentGraph(List<NodePoint> nodes, List<Edge> edges) {
+        load(nodes, edges);
+    }
+
+    public void load(List<NodePoint> nodes, List<Edge> edges) {
+        this.nodes.clear();
+        this.edges.clear();
+        incidence.clear();
+        edgeIndex.clear();
+        connectivity.clear();
+        connectivityStale = false;
+        loading = true;
+        try {
+            for (NodePoint node : nodes) {
+                putNode(node);
+            }
+            for (Edge edge : edges) {
+                putEdge(edge);
+            }
+        } finally {
+            loading = false;
+        }
+        for (Listener listener : listeners) {
+            listener.graphLoaded();
+        }
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void putNode(NodePoint node) {
+        nodes.put(node.getId(), node);
+        incidence.computeIfAbsent(node.getId(), key -> new ArrayList<>());
+        if (!connectivityStale) {
+            connectivity.addNode(node.getId());
+        }
+        if (!loading) {
+            for (Listener listener : listeners) {
+                listener.nodeChanged(node);
+            }
+        }
+    }
+
+    public void removeNode(int nodeId) {
+        for (Edge edge : new ArrayList<>(incidentEdges(nodeId))) {
+            removeEdge(edge.getId());
+        }
+        NodePoint removed = nodes.remove(nodeId);
+        incidence.remove(nodeId);
+        connectivityStale = true;
+        if (removed != null) {
+            for (Listener listener : listeners) {
+                listener.nodeRemoved(nodeId);
+            }
+        }
+    }
+
+    public void putEdge(Edge edge) {
+        Edge previous = edges.get(edge.getId());
+        if (previous != null) {
+            detach(previous);
+            if (previous.getStartNodeId() != edge.getStartNodeId() || previous.getEndNodeId() != edge.getEndNodeId()) {
+                connectivityStale = true;
+            }
+        }
+        edges.put(edge.getId(), edge);
+        incidence.computeIfAbsent(edge.getStartNodeId(), key -> new ArrayList<>()).add(edge);
+        if (edge.getEndNodeId() != edge.getStartNodeId()) {
+            incidence.computeIfAbsent(edge.getEndNodeId(), key -> new ArrayList<>()).add(edge);
+        }
+        edgeIndex.put(edge);
+        if (!connectivityStale) {
+            connectivity.addEdge(edge.getStartNodeId(), edge.getEndNodeId());
+        }
+        if (!loading) {
+            for (Listener listener : listeners) {
+                listener.edgeChanged(edge);
+            }
+        }
+    }
+
+    public Edge removeEdge(int edgeId) {
+        Edge removed = edges.get(edgeId);
+        if (removed == null) {
+            return null;
+        }
+        detach(removed);
+        connectivityStale = true;
+        for (Listener listener : listeners) {
+            listener.edgeRemoved(removed);
+        }
+        return removed;
+    }
+
+    public boolean connected(int nodeA, int nodeB) {
+        return connectivity().connected(nodeA, nodeB);
+    }
+
+    public int componentOf(int nodeId) {
+        return connectivity().componentOf(nodeId);
+    }
+
+    public NodePoint getNode(int nodeId) {
+        return nodes.get(nodeId);
+    }
+
+    public Edge getEdge(int edgeId) {
+        return edges.get(edgeId);
+    }
+
+    public boolean containsNode(int nodeId) {
+        return nodes.containsKey(nodeId);
+    }
+
+    public Map<Integer, NodePoint> nodeMap() {
+        return Collections.unmodifiableMap(nodes);
+    }
+
+    public Collection<NodePoint> nodes() {
+        return Collections.unmodifiableCollection(nodes.values());
+    }
+
+    public Collection<Edge> edges() {
+        return Collections.unmodifiableCollection(edges.values());
+    }
+
+    public List<Edge> incidentEdges(int nodeId) {
+        List<Edge> incident = incidence.get(nodeId);
+        return incident == null ? List.of() : Collections.unmodifiableList(incident);
+    }
+
+    public Edge findEdge(int nodeA, int nodeB) {
+        return edgeIndex.find(nodeA, nodeB);
+    }
+
+    public Set<Integer> neighbours(int nodeId) {
+        Set<Integer> neighbours = new LinkedHashSet<>();
+        for (Edge edge : incidentEdges(nodeId)) {
+            neighbours.add(edge.getStartNodeId() == nodeId ? edge.getEndNodeId() : edge.getStartNodeId());
+        }
+        neighbours.remove(nodeId);
+        return neighbours;
+    }
+
+    public int degree(int nodeId) {
+        return incidentEdges(nodeId).size();
+    }
+
+    private ConnectivityIndex connectivity() {
+        if (connectivityStale) {
+            connectivity.clear();
+            for (int nodeId : nodes.keySet()) {
+                connectivity.addNode(nodeId);
+            }
+            for (Edge edge : edges.values()) {
+                connectivity.addEdge(edge.getStartNodeId(), edge.getEndNodeId());
+            }
+            connectivityStale = false;
+        }
+        return connectivity;
+    }
+
+    private void detach(Edge removed) {
+        int edgeId = removed.getId();
+        edges.remove(edgeId);
+        List<Edge> startEdges = incidence.get(removed.getStartNodeId());
+        if (startEdges != null) {
+            startEdges.removeIf(edge -> edge.getId() == edgeId);
+        }
+        List<Edge> endEdges = incidence.get(removed.getEndNodeId());
+        if (endEdges != null) {
+            endEdges.removeIf(edge -> edge.getId() == edgeId);
+        }
+        if (edgeIndex.remove(removed) && startEdges != null) {
+            for (Edge parallel : startEdges) {
+                if (EdgeIndex.key(parallel.getStartNodeId(), parallel.getEndNodeId())
+                        == EdgeIndex.key(removed.getStartNodeId(), removed.getEndNodeId())) {
+                    edgeIndex.put(parallel);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package unze.ptf.woodcraft.woodcraft.service;
+
+import unze.ptf.woodcraft.woodcraft.model.Edge;
+import unze.ptf.woodcraft.woodcraft.util.LongObjectHashMap;
+
+import java.util.Collection;
+
+// Undirected edge lookup by node pair. Where parallel edges exist the one with the lowest id wins.
+public final class EdgeIndex {
+    private final LongObjectHashMap<Edge> edges;
+
+    public EdgeIndex() {
+        edges = new LongObjectHashMap<>();
+    }
+
+    public EdgeIndex(Collection<Edge> edges) {
+        this.edges = new LongObjectHashMap<>(edges.size());
+        for (Edge edge : edges) {
+            put(edge);
+        }
+    }
+
+    public static long key(int nodeA, int nodeB) {
+        int low = Math.min(nodeA, nodeB);
+        int high = Math.max(nodeA, nodeB);
+        return ((long) low << 32) | (high & 0xffffffffL);
+    }
+
+    public Edge find(int nodeA, int nodeB) {
+        return edges.get(key(nodeA, nodeB));
+    }
+
+    public void put(Edge edge) {
+        long key = key(edge.getStartNodeId(), edge.getEndNodeId());
+        Edge existing = edges.get(key);
+        if (existing == null || existing.getId() >= edge.getId()) {
+            edges.put(key, edge);
+        }
+    }
+
+    // Returns true when the pair no longer resolves; the caller re-adds any remaining parallel edge.
+    public boolean remove(Edge edge) {
+        long key = key(edge.getStartNodeId(), edge.getEndNodeId());
+        Edge existing = edges.get(key);
+        if (existing == null || existing.getId() != edge.getId()) {
+            return false;
+        }
+        edges.remove(key);
+        return true;
+    }
+
+    public void clear() {
+        edges.clear();
+    }
+}
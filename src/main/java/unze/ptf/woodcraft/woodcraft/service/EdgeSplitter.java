@@ -0,0 +1,564 @@
+package unze.ptf.woodcraft.woodcraft.service;
+
+import unze.ptf.woodcraft.woodcraft.dao.EdgeDao;
+import unze.ptf.woodcraft.woodcraft.dao.NodeDao;
+import unze.ptf.woodcraft.woodcraft.model.Edge;
+import unze.ptf.woodcraft.woodcraft.model.NodePoint;
+import unze.ptf.woodcraft.woodcraft.util.PolygonBuffer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+// Turns crossing edges into a proper planar graph: every crossing becomes a node and the edges through
+// it are split there. Crossings come from a Bentley-Ottmann sweep over the edge polylines (curves are
+// flattened), O((n + k) log n) for n segments and k crossings; curves are cut at the matching parameter
+// so the pieces keep their shape.
+public class EdgeSplitter {
+    public record Result(List<NodePoint> nodes, List<Integer> removedEdgeIds, List<Edge> edges) {
+        public boolean isEmpty() {
+            return removedEdgeIds.isEmpty() && edges.isEmpty();
+        }
+    }
+
+    // Node references in a plan are existing node ids, or -(i + 1) for the i-th point in newNodes.
+    record Plan(PolygonBuffer newNodes, List<Integer> removedEdgeIds, List<Edge> edges) {
+    }
+
+    private static final double EPSILON = 1e-9;
+    private static final double ENDPOINT_TOLERANCE_CM = 1e-4;
+
+    private final NodeDao nodeDao;
+    private final EdgeDao edgeDao;
+    private final CurveFlattener curveFlattener;
+
+    public EdgeSplitter(NodeDao nodeDao, EdgeDao edgeDao, CurveFlattener curveFlattener) {
+        this.nodeDao = nodeDao;
+        this.edgeDao = edgeDao;
+        this.curveFlattener = curveFlattener;
+    }
+
+    // Bulk pass, e.g. after importing a drawing.
+    public Result splitAll(int documentId, DocumentGraph graph) {
+        return apply(documentId, plan(graph, graph.edges(), -1));
+    }
+
+    // Incremental pass for a freshly drawn edge; candidates are the edges whose bounds meet it. Only
+    // crossings on the new edge are split, older ones are left as they are.
+    public Result splitAgainst(int documentId, DocumentGraph graph, Edge edge, Collection<Edge> candidates) {
+        List<Edge> edges = new ArrayList<>(candidates.size() + 1);
+        edges.add(edge);
+        for (Edge candidate : candidates) {
+            if (candidate.getId() != edge.getId()) {
+                edges.add(candidate);
+            }
+        }
+        return apply(documentId, plan(graph, edges, edge.getId()));
+    }
+
+    Plan plan(DocumentGraph graph, Collection<Edge> edges, int focusEdgeId) {
+        Planner planner = new Planner(graph, focusEdgeId);
+        Sweep sweep = new Sweep(planner);
+        for (Edge edge : edges) {
+            EdgeShape shape = planner.add(edge);
+            if (shape == null) {
+                continue;
+            }
+            double[] polyline = shape.polyline();
+            for (int i = 0; i + 3 < polyline.length; i += 2) {
+                sweep.addSegment(shape, i / 2, polyline[i], polyline[i + 1], polyline[i + 2], polyline[i + 3]);
+            }
+        }
+        sweep.run();
+        return planner.build();
+    }
+
+    Result apply(int documentId, Plan plan) {
+        if (plan.removedEdgeIds().isEmpty() && plan.edges().isEmpty()) {
+            return new Result(List.of(), List.of(), List.of());
+        }
+        List<NodePoint> nodes = nodeDao.createAll(documentId, plan.newNodes());
+        List<Edge> pending = new ArrayList<>(plan.edges().size());
+        for (Edge edge : plan.edges()) {
+            pending.add(new Edge(-1, documentId, resolve(edge.getStartNodeId(), nodes),
+                    resolve(edge.getEndNodeId(), nodes), edge.getControlStartXCm(), edge.getControlStartYCm(),
+                    edge.getControlEndXCm(), edge.getControlEndYCm()));
+        }
+        List<Edge> created = edgeDao.replaceAll(plan.removedEdgeIds(), pending);
+        return new Result(nodes, plan.removedEdgeIds(), created);
+    }
+
+    private static int resolve(int nodeRef, List<NodePoint> nodes) {
+        return nodeRef >= 0 ? nodeRef : nodes.get(-nodeRef - 1).getId();
+    }
+
+    private record EdgeShape(Edge edge, double[] polyline) {
+        int segments() {
+            return polyline.length / 2 - 1;
+        }
+    }
+
+    private record Cut(double t, int nodeRef) {
+    }
+
+    private static final class Segment {
+        private final EdgeShape shape;
+        private final int index;
+        private final int id;
+        // Left end first (smaller x, then smaller y); reversed when that is against the polyline.
+        private final double x1;
+        private final double y1;
+        private final double x2;
+        private final double y2;
+        private final boolean reversed;
+        private final boolean vertical;
+        private final double slope;
+
+        private Segment(EdgeShape shape, int index, int id, double x1, double y1, double x2, double y2,
+                        boolean reversed) {
+            this.shape = shape;
+            this.index = index;
+            this.id = id;
+            this.x1 = x1;
+            this.y1 = y1;
+            this.x2 = x2;
+            this.y2 = y2;
+            this.reversed = reversed;
+            this.vertical = Math.abs(x2 - x1) <= EPSILON;
+            this.slope = vertical ? Double.POSITIVE_INFINITY : (y2 - y1) / (x2 - x1);
+        }
+
+        // Position along the polyline's own direction, 0 at point index and 1 at index + 1.
+        private double fraction(double x, double y) {
+            double ax = reversed ? x2 : x1;
+            double ay = reversed ? y2 : y1;
+            double dx = (reversed ? x1 : x2) - ax;
+            double dy = (reversed ? y1 : y2) - ay;
+            double lengthSquared = dx * dx + dy * dy;
+            double f = lengthSquared == 0 ? 0 : ((x - ax) * dx + (y - ay) * dy) / lengthSquared;
+            return Math.max(0, Math.min(1, f));
+        }
+    }
+
+    private record Point(double x, double y) implements Comparable<Point> {
+        @Override
+        public int compareTo(Point other) {
+            return comparePoints(x, y, other.x, other.y);
+        }
+    }
+
+    private static int comparePoints(double ax, double ay, double bx, double by) {
+        if (Math.abs(ax - bx) > EPSILON) {
+            return ax < bx ? -1 : 1;
+        }
+        if (Math.abs(ay - by) > EPSILON) {
+            return ay < by ? -1 : 1;
+        }
+        return 0;
+    }
+
+    // Sweeps left to right in (x, y) order, as in de Berg et al.: at each event point the segments
+    // starting there (U), ending there (L) and passing through it (C) form one junction.
+    private static final class Sweep {
+        private final Planner planner;
+        private final TreeMap<Point, List<Segment>> events = new TreeMap<>();
+        private final TreeSet<Segment> status = new TreeSet<>(this::compare);
+        // Stands for the event point itself when searching the status.
+        private final Segment probe = new Segment(null, -1, -1, 0, -Double.MAX_VALUE, 0, Double.MAX_VALUE, false);
+        private final List<Segment> junction = new ArrayList<>();
+        private final List<Segment> inserted = new ArrayList<>();
+        private double sweepX;
+        private double sweepY;
+        private boolean afterEvent;
+        private int nextId;
+
+        private Sweep(Planner planner) {
+            this.planner = planner;
+        }
+
+        private void addSegment(EdgeShape shape, int index, double ax, double ay, double bx, double by) {
+            int order = comparePoints(ax, ay, bx, by);
+            if (order == 0) {
+                return;
+            }
+            Segment segment = order < 0
+                    ? new Segment(shape, index, nextId++, ax, ay, bx, by, false)
+                    : new Segment(shape, index, nextId++, bx, by, ax, ay, true);
+            events.computeIfAbsent(new Point(segment.x1, segment.y1), key -> new ArrayList<>()).add(segment);
+            events.computeIfAbsent(new Point(segment.x2, segment.y2), key -> new ArrayList<>());
+        }
+
+        private void run() {
+            while (!events.isEmpty()) {
+                Map.Entry<Point, List<Segment>> event = events.pollFirstEntry();
+                handle(event.getKey(), event.getValue());
+            }
+        }
+
+        private void handle(Point point, List<Segment> starting) {
+            sweepX = point.x();
+            sweepY = point.y();
+            afterEvent = false;
+            junction.clear();
+            inserted.clear();
+            // The segments through the point are contiguous in the status; lift them out.
+            Iterator<Segment> run = status.tailSet(probe, true).iterator();
+            while (run.hasNext()) {
+                Segment segment = run.next();
+                if (Math.abs(yAt(segment) - sweepY) > EPSILON) {
+                    break;
+                }
+                junction.add(segment);
+                run.remove();
+                if (comparePoints(segment.x2, segment.y2, sweepX, sweepY) != 0) {
+                    inserted.add(segment);
+                }
+            }
+            junction.addAll(starting);
+            inserted.addAll(starting);
+            if (junction.size() > 1) {
+                planner.junction(point.x(), point.y(), junction);
+            }
+            // Re-inserting just after the point reverses the order of the segments crossing there.
+            afterEvent = true;
+            status.addAll(inserted);
+            if (inserted.isEmpty()) {
+                findEvent(status.lower(probe), status.ceiling(probe), point);
+                return;
+            }
+            Segment lowest = null;
+            Segment highest = null;
+            for (Segment segment : inserted) {
+                if (lowest == null || compare(segment, lowest) < 0) {
+                    lowest = segment;
+                }
+                if (highest == null || compare(segment, highest) > 0) {
+                    highest = segment;
+                }
+            }
+            findEvent(status.lower(lowest), lowest, point);
+            findEvent(highest, status.higher(highest), point);
+        }
+
+        private void findEvent(Segment a, Segment b, Point point) {
+            if (a == null || b == null) {
+                return;
+            }
+            double rx = a.x2 - a.x1;
+            double ry = a.y2 - a.y1;
+            double sx = b.x2 - b.x1;
+            double sy = b.y2 - b.y1;
+            double denominator = rx * sy - ry * sx;
+            if (Math.abs(denominator) <= 1e-12 * Math.hypot(rx, ry) * Math.hypot(sx, sy)) {
+                return;
+            }
+            double qx = b.x1 - a.x1;
+            double qy = b.y1 - a.y1;
+            double t = (qx * sy - qy * sx) / denominator;
+            double u = (qx * ry - qy * rx) / denominator;
+            double slack = 1e-12;
+            if (t < -slack || t > 1 + slack || u < -slack || u > 1 + slack) {
+                return;
+            }
+            t = Math.max(0, Math.min(1, t));
+            double x = a.x1 + t * rx;
+            double y = a.y1 + t * ry;
+            if (comparePoints(x, y, point.x(), point.y()) > 0) {
+                events.computeIfAbsent(new Point(x, y), key -> new ArrayList<>());
+            }
+        }
+
+        private int compare(Segment a, Segment b) {
+            if (a == b) {
+                return 0;
+            }
+            double ya = yAt(a);
+            double yb = yAt(b);
+            if (Math.abs(ya - yb) > EPSILON) {
+                return ya < yb ? -1 : 1;
+            }
+            if (a == probe) {
+                return -1;
+            }
+            if (b == probe) {
+                return 1;
+            }
+            // Through the same point: just after it the steeper segment is higher, just before it lower.
+            int bySlope = Double.compare(a.slope, b.slope);
+            if (bySlope != 0) {
+                return afterEvent ? bySlope : -bySlope;
+            }
+            return Integer.compare(a.id, b.id);
+        }
+
+        private double yAt(Segment segment) {
+            if (segment.vertical) {
+                return Math.max(segment.y1, Math.min(segment.y2, sweepY));
+            }
+            return segment.y1 + (sweepX - segment.x1) * segment.slope;
+        }
+    }
+
+    // Turns the sweep's junctions into cuts on the edges passing through them.
+    private final class Planner {
+        private final DocumentGraph graph;
+        private final int focusEdgeId;
+        private final Map<Integer, EdgeShape> shapes = new HashMap<>();
+        private final PlanBuilder builder;
+        private final Map<EdgeShape, Double> junctionEdges = new LinkedHashMap<>();
+
+        private Planner(DocumentGraph graph, int focusEdgeId) {
+            this.graph = graph;
+            this.focusEdgeId = focusEdgeId;
+            this.builder = new PlanBuilder(graph);
+        }
+
+        private EdgeShape add(Edge edge) {
+            NodePoint start = graph.getNode(edge.getStartNodeId());
+            NodePoint end = graph.getNode(edge.getEndNodeId());
+            if (start == null || end == null || edge.getStartNodeId() == edge.getEndNodeId()
+                    || shapes.containsKey(edge.getId())) {
+                return null;
+            }
+            EdgeShape shape;
+            if (hasControls(edge)) {
+                shape = new EdgeShape(edge, curveFlattener.flattenEdge(edge.getId(),
+                        start.getXCm(), start.getYCm(),
+                        edge.getControlStartXCm(), edge.getControlStartYCm(),
+                        edge.getControlEndXCm(), edge.getControlEndYCm(),
+                        end.getXCm(), end.getYCm(),
+                        CurveFlattener.DEFAULT_TOLERANCE_CM));
+            } else {
+                shape = new EdgeShape(edge, new double[] {start.getXCm(), start.getYCm(), end.getXCm(), end.getYCm()});
+            }
+            shapes.put(edge.getId(), shape);
+            return shape;
+        }
+
+        private void junction(double x, double y, List<Segment> segments) {
+            junctionEdges.clear();
+            for (Segment segment : segments) {
+                if (!junctionEdges.containsKey(segment.shape)) {
+                    EdgeShape shape = segment.shape;
+                    junctionEdges.put(shape, (segment.index + segment.fraction(x, y)) / shape.segments());
+                }
+            }
+            if (junctionEdges.size() < 2) {
+                return;
+            }
+            if (focusEdgeId >= 0 && !junctionEdges.containsKey(shapes.get(focusEdgeId))) {
+                return;
+            }
+            // An edge ending here supplies the node; otherwise the crossing gets a new one.
+            int nodeRef = 0;
+            boolean hasNode = false;
+            boolean interior = false;
+            for (EdgeShape shape : junctionEdges.keySet()) {
+                int endpoint = endpointAt(shape, x, y);
+                if (endpoint >= 0) {
+                    if (!hasNode || endpoint < nodeRef) {
+                        nodeRef = endpoint;
+                    }
+                    hasNode = true;
+                } else {
+                    interior = true;
+                }
+            }
+            if (!interior) {
+                return;
+            }
+            if (!hasNode) {
+                nodeRef = builder.newNode(x, y);
+            }
+            for (Map.Entry<EdgeShape, Double> entry : junctionEdges.entrySet()) {
+                if (endpointAt(entry.getKey(), x, y) < 0) {
+                    builder.cut(entry.getKey().edge(), entry.getValue(), nodeRef);
+                }
+            }
+        }
+
+        private int endpointAt(EdgeShape shape, double x, double y) {
+            double[] polyline = shape.polyline();
+            int last = polyline.length - 2;
+            if (Math.hypot(polyline[0] - x, polyline[1] - y) <= ENDPOINT_TOLERANCE_CM) {
+                return shape.edge().getStartNodeId();
+            }
+            if (Math.hypot(polyline[last] - x, polyline[last + 1] - y) <= ENDPOINT_TOLERANCE_CM) {
+                return shape.edge().getEndNodeId();
+            }
+            return -1;
+        }
+
+        private Plan build() {
+            return builder.build();
+        }
+    }
+
+    // Collects cuts on existing edges and new straight edges, then lays out the replacement edges.
+    static final class PlanBuilder {
+        static final int NO_NODE = Integer.MIN_VALUE;
+
+        private final DocumentGraph graph;
+        private final PolygonBuffer newNodes = new PolygonBuffer();
+        private final Map<Integer, Edge> cutEdges = new LinkedHashMap<>();
+        private final Map<Integer, List<Cut>> cuts = new HashMap<>();
+        private final List<int[]> added = new ArrayList<>();
+
+        PlanBuilder(DocumentGraph graph) {
+            this.graph = graph;
+        }
+
+        int newNode(double x, double y) {
+            newNodes.add(x, y);
+            return -newNodes.size();
+        }
+
+        // t is the edge's own parameter, 0 at its start node.
+        void cut(Edge edge, double t, int nodeRef) {
+            cutEdges.putIfAbsent(edge.getId(), edge);
+            cuts.computeIfAbsent(edge.getId(), key -> new ArrayList<>()).add(new Cut(t, nodeRef));
+        }
+
+        // Node already cutting the edge within the distance, or NO_NODE.
+        int cutNear(Edge edge, double x, double y, double distance) {
+            for (Cut cut : cuts.getOrDefault(edge.getId(), List.of())) {
+                if (Math.hypot(nodeX(cut.nodeRef()) - x, nodeY(cut.nodeRef()) - y) <= distance) {
+                    return cut.nodeRef();
+                }
+            }
+            return NO_NODE;
+        }
+
+        void addEdge(int fromRef, int toRef) {
+            added.add(new int[] {fromRef, toRef});
+        }
+
+        double nodeX(int nodeRef) {
+            return nodeRef >= 0 ? graph.getNode(nodeRef).getXCm() : newNodes.x(-nodeRef - 1);
+        }
+
+        double nodeY(int nodeRef) {
+            return nodeRef >= 0 ? graph.getNode(nodeRef).getYCm() : newNodes.y(-nodeRef - 1);
+        }
+
+        Plan build() {
+            List<Integer> removed = new ArrayList<>();
+            List<Edge> edges = new ArrayList<>();
+            Set<Long> straight = new HashSet<>();
+            for (Edge edge : cutEdges.values()) {
+                List<Cut> edgeCuts = cuts.get(edge.getId());
+                edgeCuts.sort((left, right) -> Double.compare(left.t(), right.t()));
+                removed.add(edge.getId());
+                int fromRef = edge.getStartNodeId();
+                double fromT = 0;
+                for (Cut cut : edgeCuts) {
+                    if (cut.nodeRef() == fromRef) {
+                        continue;
+                    }
+                    addPiece(edges, straight, edge, fromRef, fromT, cut.nodeRef(), cut.t());
+                    fromRef = cut.nodeRef();
+                    fromT = cut.t();
+                }
+                if (fromRef != edge.getEndNodeId()) {
+                    addPiece(edges, straight, edge, fromRef, fromT, edge.getEndNodeId(), 1);
+                }
+            }
+            for (int[] pair : added) {
+                addStraight(edges, straight, pair[0], pair[1]);
+            }
+            removed.sort(Integer::compare);
+            return new Plan(newNodes, removed, edges);
+        }
+
+        private void addPiece(List<Edge> edges, Set<Long> straight, Edge edge, int fromRef, double fromT,
+                              int toRef, double toT) {
+            if (!hasControls(edge)) {
+                addStraight(edges, straight, fromRef, toRef);
+                return;
+            }
+            NodePoint start = graph.getNode(edge.getStartNodeId());
+            NodePoint end = graph.getNode(edge.getEndNodeId());
+            double[] curve = {
+                    start.getXCm(), start.getYCm(),
+                    edge.getControlStartXCm(), edge.getControlStartYCm(),
+                    edge.getControlEndXCm(), edge.getControlEndYCm(),
+                    end.getXCm(), end.getYCm()
+            };
+            double[] piece = subCurve(curve, fromT, toT);
+            // A node may sit on the polyline rather than exactly on the curve; move the inner controls
+            // along with the ends so the tangents are kept.
+            piece[2] += nodeX(fromRef) - piece[0];
+            piece[3] += nodeY(fromRef) - piece[1];
+            piece[4] += nodeX(toRef) - piece[6];
+            piece[5] += nodeY(toRef) - piece[7];
+            edges.add(new Edge(-1, -1, fromRef, toRef, piece[2], piece[3], piece[4], piece[5]));
+        }
+
+        private void addStraight(List<Edge> edges, Set<Long> straight, int fromRef, int toRef) {
+            // Overlapping straight edges split into the same pieces; keep one copy of each.
+            long key = Math.min(fromRef, toRef) * 0x100000000L + Math.max(fromRef, toRef);
+            if (fromRef == toRef || !straight.add(key) || existsStraight(fromRef, toRef)) {
+                return;
+            }
+            edges.add(new Edge(-1, -1, fromRef, toRef));
+        }
+
+        private boolean existsStraight(int fromRef, int toRef) {
+            if (fromRef < 0 || toRef < 0) {
+                return false;
+            }
+            Edge existing = graph.findEdge(fromRef, toRef);
+            return existing != null && !hasControls(existing) && !cuts.containsKey(existing.getId());
+        }
+    }
+
+    // Control points {x0, y0, c1x, c1y, c2x, c2y, x3, y3} of the part of the cubic between t0 and t1.
+    static double[] subCurve(double[] curve, double t0, double t1) {
+        double[] right = curve;
+        if (t0 > 0) {
+            right = splitAt(curve, t0, false);
+        }
+        if (t1 >= 1) {
+            return right.clone();
+        }
+        double local = t0 >= 1 ? 0 : (t1 - t0) / (1 - t0);
+        return splitAt(right, local, true);
+    }
+
+    // de Casteljau; returns the left or right half.
+    private static double[] splitAt(double[] c, double t, boolean left) {
+        double q0x = lerp(c[0], c[2], t);
+        double q0y = lerp(c[1], c[3], t);
+        double q1x = lerp(c[2], c[4], t);
+        double q1y = lerp(c[3], c[5], t);
+        double q2x = lerp(c[4], c[6], t);
+        double q2y = lerp(c[5], c[7], t);
+        double r0x = lerp(q0x, q1x, t);
+        double r0y = lerp(q0y, q1y, t);
+        double r1x = lerp(q1x, q2x, t);
+        double r1y = lerp(q1y, q2y, t);
+        double sx = lerp(r0x, r1x, t);
+        double sy = lerp(r0y, r1y, t);
+        if (left) {
+            return new double[] {c[0], c[1], q0x, q0y, r0x, r0y, sx, sy};
+        }
+        return new double[] {sx, sy, r1x, r1y, q2x, q2y, c[6], c[7]};
+    }
+
+    private static double lerp(double a, double b, double t) {
+        return a + (b - a) * t;
+    }
+
+    private static boolean hasControls(Edge edge) {
+        return edge.getControlStartXCm() != null && edge.getControlStartYCm() != null
+                && edge.getControlEndXCm() != null && edge.getControlEndYCm() != null;
+    }
+}
@@ -1,56 +1,143 @@
 package unze.ptf.woodcraft.woodcraft.service;
 
 import unze.ptf.woodcraft.woodcraft.dao.MaterialDao;
+import unze.ptf.woodcraft.woodcraft.dao.RemnantDao;
 import unze.ptf.woodcraft.woodcraft.dao.ShapeDao;
+import unze.ptf.woodcraft.woodcraft.model.GrainDirection;
 import unze.ptf.woodcraft.woodcraft.model.Material;
 import unze.ptf.woodcraft.woodcraft.model.MaterialType;
+import unze.ptf.woodcraft.woodcraft.model.Remnant;
 import unze.ptf.woodcraft.woodcraft.model.ShapePolygon;
+import unze.ptf.woodcraft.woodcraft.util.PartSignature;
+import unze.ptf.woodcraft.woodcraft.util.PolygonBuffer;
+import unze.ptf.woodcraft.woodcraft.util.PolygonMath;
+import unze.ptf.woodcraft.woodcraft.util.RecentCache;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
 
 public class EstimationService {
     private final MaterialDao materialDao;
     private final ShapeDao shapeDao;
+    private final RemnantDao remnantDao;
     private final GeometryService geometryService;
+    // Shapes that fill less of their bounding box than this are also nested by their true outline.
+    private static final double RECTANGULAR_FILL = 0.98;
+    private static final double GRAIN_TURN_STEP_DEG = 0.5;
 
-    public EstimationService(MaterialDao materialDao, ShapeDao shapeDao, GeometryService geometryService) {
+    // Outline layouts and cut plans of the last few inputs, keyed by their signature.
+    private static final int CACHED_LAYOUTS = 16;
+
+    // A slower pass that estimate() leaves for the background: the true-outline nest of irregular sheet
+    // parts, or column generation over a lumber order. Its inputs are gathered during the estimate, so
+    // start() may run while the caller moves on.
+    public static final class Refinement {
+        private final Function<BooleanSupplier, EstimationSummary> work;
+        private final ForkJoinPool pool;
+        private volatile boolean cancelled;
+
+        private Refinement(Function<BooleanSupplier, EstimationSummary> work, ForkJoinPool pool) {
+            this.work = work;
+            this.pool = pool;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        // Completes with a better summary for the material, or with null when there is none or the
+        // refinement was cancelled.
+        public CompletableFuture<EstimationSummary> start() {
+            return CompletableFuture.supplyAsync(() -> cancelled ? null : work.apply(() -> cancelled), pool);
+        }
+    }
+
+    private record SheetNest(SheetNester.Layout layout, OutlineJob outlineJob) {
+    }
+
+    private record OutlineJob(long signature, List<ShapeNester.Part> outlines, double sheetWidthCm,
+                              double sheetHeightCm, double kerfCm, double[] rotationsDeg,
+                              List<SheetNester.RemnantSheet> remnants) {
+    }
+
+    private record LumberCut(LumberCutter.Plan plan, LumberJob job) {
+    }
+
+    private record LumberJob(long signature, List<LumberCutter.Piece> pieces, double[] stockLengths, double kerfCm,
+                             List<Remnant> remnants) {
+    }
+
+    // Which drawn parts count as the same part on a material. Under grain the turn they are drawn at (in
+    // half-degree steps, up to a half turn) is part of the key, since the nester keeps that turn.
+    public record PartKey(PartSignature signature, long turn) {
+        public static PartKey of(PartSignature signature, GrainDirection grain) {
+            long turn = SheetNester.quarterTurnsAllowed(grain) ? 0
+                    : Math.floorMod(Math.round(signature.startAngleDeg() / GRAIN_TURN_STEP_DEG),
+                    Math.round(180 / GRAIN_TURN_STEP_DEG));
+            return new PartKey(signature, turn);
+        }
+    }
+
+    private final SheetNester sheetNester = new SheetNester();
+    private final ShapeNester shapeNester = new ShapeNester();
+    private final LumberCutter lumberCutter = new LumberCutter();
+    private final RecentCache<Long, SheetNester.Layout> outlineLayouts = new RecentCache<>(CACHED_LAYOUTS);
+    // Two at a time: each outline nest already fans its NFPs out over the common pool.
+    private final ForkJoinPool refinementPool = new ForkJoinPool(2);
+    private final RecentCache<Long, LumberCutter.Plan> cutPlans = new RecentCache<>(CACHED_LAYOUTS);
+    private final PolygonBuffer outline = new PolygonBuffer();
+    private final double[] bounds = new double[4];
+
+    public EstimationService(MaterialDao materialDao, ShapeDao shapeDao, RemnantDao remnantDao,
+                             GeometryService geometryService) {
         this.materialDao = materialDao;
         this.shapeDao = shapeDao;
+        this.remnantDao = remnantDao;
         this.geometryService = geometryService;
     }
 
-    public List<EstimationSummary> estimate(int documentId, double wastePercent) {
-        List<ShapePolygon> shapes = shapeDao.findByDocument(documentId);
-        Map<Integer, List<ShapePolygon>> grouped = new HashMap<>();
-        for (ShapePolygon shape : shapes) {
-            if (shape.getMaterialId() != null) {
-                grouped.computeIfAbsent(shape.getMaterialId(), key -> new ArrayList<>()).add(shape);
-            }
-        }
+    // The graph supplies the outlines that sheet materials are nested with; kerf comes from the document.
+    public List<EstimationSummary> estimate(int documentId, DocumentGraph graph, double kerfMm, double wastePercent) {
         List<EstimationSummary> summaries = new ArrayList<>();
-        for (Map.Entry<Integer, List<ShapePolygon>> entry : grouped.entrySet()) {
-            Optional<Material> materialOptional = materialDao.findById(entry.getKey());
-            if (materialOptional.isEmpty()) {
-                continue;
-            }
-            Material material = materialOptional.get();
-            summaries.add(buildSummary(material, entry.getValue(), wastePercent));
+        for (Map.Entry<Material, List<ShapePolygon>> entry : groupByMaterial(documentId).entrySet()) {
+            summaries.add(buildSummary(entry.getKey(), entry.getValue(), graph, kerfMm, wastePercent));
         }
         return summaries;
     }
 
-    public EstimationSummary estimateMaterial(Material material, List<ShapePolygon> shapes, double wastePercent) {
+    // Nesting input for every sheet material with a known sheet size, e.g. for NestingOptimizer. Parts that
+    // fit on remnants are left out, as they are in the estimate.
+    public Map<Material, List<SheetNester.Part>> sheetParts(int documentId, DocumentGraph graph, double kerfMm) {
+        Map<Material, List<SheetNester.Part>> parts = new LinkedHashMap<>();
+        for (Map.Entry<Material, List<ShapePolygon>> entry : groupByMaterial(documentId).entrySet()) {
+            Material material = entry.getKey();
+            if (material.getType() == MaterialType.SHEET && material.getSheetAreaCm2() > 0) {
+                List<SheetNester.Part> boxes = nestingParts(entry.getValue(), graph, material.getGrainDirection(),
+                        null);
+                parts.put(material, fillRemnants(material, boxes, kerfMm / 10.0).rest());
+            }
+        }
+        return parts;
+    }
+
+    public EstimationSummary estimateMaterial(Material material, List<ShapePolygon> shapes, DocumentGraph graph,
+                                              double kerfMm, double wastePercent) {
         if (material == null || shapes == null || shapes.isEmpty()) {
             return null;
         }
-        return buildSummary(material, shapes, wastePercent);
+        return buildSummary(material, shapes, graph, kerfMm, wastePercent);
     }
 
-    private EstimationSummary buildSummary(Material material, List<ShapePolygon> shapes, double wastePercent) {
+    private EstimationSummary buildSummary(Material material, List<ShapePolygon> shapes, DocumentGraph graph,
+                                           double kerfMm, double wastePercent) {
         double totalAreaCm2 = 0;
         double totalPerimeterCm = 0;
         for (ShapePolygon shape : shapes) {
@@ -63,24 +150,326 @@ public class EstimationService {
             double wasteMultiplier = 1 + (wastePercent / 100.0);
             double adjustedAreaM2 = areaM2 * wasteMultiplier;
             if (material.getSheetPrice() > 0 && material.getSheetAreaCm2() > 0) {
-                double sheetAreaM2 = material.getSheetAreaCm2() / 10000.0;
-                int sheets = (int) Math.ceil(adjustedAreaM2 / sheetAreaM2);
-                double cost = sheets * material.getSheetPrice();
-                double edgeBandingCost = computeEdgeBandingCost(material, totalPerimeterCm);
-                String details = String.format("Ploce: %d (%.2f m2 + %.1f%% otpada)", sheets, areaM2, wastePercent);
-                return new EstimationSummary(material.getName(), appendEdgeBanding(details, edgeBandingCost), cost + edgeBandingCost);
+                SheetNest nest = nestSheets(material, shapes, graph, kerfMm / 10.0);
+                EstimationSummary summary = sheetSummary(material, areaM2, totalPerimeterCm, wastePercent,
+                        nest.layout());
+                OutlineJob job = nest.outlineJob();
+                if (job == null) {
+                    return summary;
+                }
+                double perimeterCm = totalPerimeterCm;
+                return summary.withRefinement(new Refinement(cancelled -> {
+                    SheetNester.Layout layout = nestOutlines(job, cancelled);
+                    return layout != null && layout.betterThan(nest.layout())
+                            ? sheetSummary(material, areaM2, perimeterCm, wastePercent, layout) : null;
+                }, refinementPool));
             }
             double cost = adjustedAreaM2 * material.getPricePerSquareMeter();
             double edgeBandingCost = computeEdgeBandingCost(material, totalPerimeterCm);
             String details = String.format("Povrsina: %.2f m2 (%.1f%% otpada)", adjustedAreaM2, wastePercent);
-            return new EstimationSummary(material.getName(), appendEdgeBanding(details, edgeBandingCost), cost + edgeBandingCost);
+            return new EstimationSummary(material.getId(), material.getName(), appendEdgeBanding(details, edgeBandingCost),
+                    cost + edgeBandingCost);
         }
 
+        double[] stockLengths = LumberCutter.parseStockLengths(material.getStockLengthsCm());
+        if (stockLengths.length > 0) {
+            LumberCut cut = cutLumber(material, shapes, graph, stockLengths, kerfMm / 10.0);
+            EstimationSummary summary = lumberSummary(material, totalPerimeterCm, cut.plan());
+            LumberJob job = cut.job();
+            if (job == null) {
+                return summary;
+            }
+            double perimeterCm = totalPerimeterCm;
+            return summary.withRefinement(new Refinement(cancelled -> {
+                LumberCutter.Plan plan = planLumber(job, cancelled);
+                return plan != null && plan.betterThan(cut.plan())
+                        ? lumberSummary(material, perimeterCm, plan) : null;
+            }, refinementPool));
+        }
         double totalMeters = totalPerimeterCm / 100.0;
         double cost = totalMeters * material.getPricePerLinearMeter();
         double edgeBandingCost = computeEdgeBandingCost(material, totalPerimeterCm);
         String details = String.format("Duzina: %.2f m", totalMeters);
-        return new EstimationSummary(material.getName(), appendEdgeBanding(details, edgeBandingCost), cost + edgeBandingCost);
+        return new EstimationSummary(material.getId(), material.getName(), appendEdgeBanding(details, edgeBandingCost),
+                cost + edgeBandingCost);
+    }
+
+    // The summary of a sheet material for a layout found after the estimate, e.g. by NestingOptimizer.
+    public EstimationSummary sheetSummary(Material material, List<ShapePolygon> shapes, double wastePercent,
+                                          SheetNester.Layout layout) {
+        double totalAreaCm2 = 0;
+        double totalPerimeterCm = 0;
+        for (ShapePolygon shape : shapes) {
+            totalAreaCm2 += shape.getAreaCm2() * shape.getQuantity();
+            totalPerimeterCm += shape.getPerimeterCm() * shape.getQuantity();
+        }
+        return sheetSummary(material, totalAreaCm2 / 10000.0, totalPerimeterCm, wastePercent, layout);
+    }
+
+    // Parts larger than the sheet are not on any sheet, so they are priced as before nesting: their area plus
+    // the waste allowance, at the square-metre price (or the sheet price spread over its area).
+    private EstimationSummary sheetSummary(Material material, double areaM2, double perimeterCm, double wastePercent,
+                                           SheetNester.Layout layout) {
+        int sheets = layout.sheetCount();
+        double cost = sheets * material.getSheetPrice();
+        double oversizedAreaM2 = 0;
+        for (SheetNester.Part part : layout.oversized()) {
+            oversizedAreaM2 += part.widthCm() * part.heightCm() * part.quantity() / 10000.0;
+        }
+        if (oversizedAreaM2 > 0) {
+            double pricePerSquareMeter = material.getPricePerSquareMeter() > 0 ? material.getPricePerSquareMeter()
+                    : material.getSheetPrice() / (material.getSheetAreaCm2() / 10000.0);
+            cost += oversizedAreaM2 * (1 + wastePercent / 100.0) * pricePerSquareMeter;
+        }
+        double edgeBandingCost = computeEdgeBandingCost(material, perimeterCm);
+        String details = String.format("Ploce: %d (%.2f m2, iskoristenje %.1f%%)",
+                sheets, areaM2, layout.yield() * 100);
+        if (!layout.remnants().isEmpty()) {
+            details += String.format(", ostaci: %d", layout.remnants().size());
+        }
+        if (!layout.oversized().isEmpty()) {
+            details += String.format(", %d dijelova vece od ploce (%.2f m2, obracunato po m2 uz %.1f%% otpada)",
+                    layout.oversized().size(), oversizedAreaM2, wastePercent);
+        }
+        return new EstimationSummary(material.getId(), material.getName(), appendEdgeBanding(details, edgeBandingCost),
+                cost + edgeBandingCost, layout);
+    }
+
+    private EstimationSummary lumberSummary(Material material, double perimeterCm, LumberCutter.Plan plan) {
+        double purchasedMeters = plan.purchasedLengthCm() / 100.0;
+        double cost = purchasedMeters * material.getPricePerLinearMeter();
+        double edgeBandingCost = computeEdgeBandingCost(material, perimeterCm);
+        String details = String.format("Daske: %d (%.2f m, iskoristenje %.1f%%)",
+                plan.boardCount(), purchasedMeters, plan.yield() * 100);
+        if (plan.remnantCount() > 0) {
+            details += String.format(", ostaci: %d", plan.remnantCount());
+        }
+        if (!plan.oversized().isEmpty()) {
+            details += String.format(", %d dijelova duzih od daske", plan.oversized().size());
+        }
+        return new EstimationSummary(material.getId(), material.getName(), appendEdgeBanding(details, edgeBandingCost),
+                cost + edgeBandingCost, plan);
+    }
+
+    // Plans are remembered until the pieces, stock lengths, remnants or kerf change. Column generation can
+    // take most of a second on large orders, so a new input gets the first-fit plan at once and a job that
+    // improves on it in the background.
+    private LumberCut cutLumber(Material material, List<ShapePolygon> shapes, DocumentGraph graph,
+                                double[] stockLengths, double kerfCm) {
+        List<LumberCutter.Piece> pieces = lumberPieces(material, shapes, graph);
+        List<Remnant> remnants = remnantDao.findByMaterial(material.getId());
+        long signature = Arrays.hashCode(stockLengths) * 31L + Double.hashCode(kerfCm);
+        signature = signature * 31 + remnantSignature(remnants);
+        for (LumberCutter.Piece piece : pieces) {
+            signature = signature * 31 + piece.shapeId();
+            signature = signature * 31 + piece.quantity();
+            signature = signature * 31 + Double.hashCode(piece.lengthCm());
+        }
+        LumberCutter.Plan cached = cutPlans.get(signature);
+        if (cached != null) {
+            return new LumberCut(cached, null);
+        }
+        return new LumberCut(lumberCutter.firstFit(pieces, stockLengths, kerfCm, remnants),
+                new LumberJob(signature, pieces, stockLengths, kerfCm, remnants));
+    }
+
+    // Runs off the FX thread. A cancelled run is not cached, since it may have stopped short.
+    private LumberCutter.Plan planLumber(LumberJob job, BooleanSupplier cancelled) {
+        LumberCutter.Plan plan = lumberCutter.cut(job.pieces(), job.stockLengths(), job.kerfCm(), job.remnants(),
+                cancelled);
+        if (cancelled.getAsBoolean()) {
+            return null;
+        }
+        cutPlans.put(job.signature(), plan);
+        return plan;
+    }
+
+    // A lumber piece is as long as its outline along the grain; without a grain direction the longer side
+    // of the bounding box is taken.
+    private List<LumberCutter.Piece> lumberPieces(Material material, List<ShapePolygon> shapes, DocumentGraph graph) {
+        List<LumberCutter.Piece> pieces = new ArrayList<>(shapes.size());
+        for (ShapePolygon shape : shapes) {
+            if (shape.getQuantity() <= 0 || shape.getNodeIds() == null || shape.getNodeIds().size() < 3) {
+                continue;
+            }
+            geometryService.sampleCycle(shape.getNodeIds(), graph, outline);
+            if (outline.size() < 3) {
+                continue;
+            }
+            PolygonMath.bounds(outline, bounds);
+            double width = bounds[2] - bounds[0];
+            double height = bounds[3] - bounds[1];
+            double length = switch (material.getGrainDirection()) {
+                case HORIZONTAL -> width;
+                case VERTICAL -> height;
+                case NONE -> Math.max(width, height);
+            };
+            pieces.add(new LumberCutter.Piece(shape.getId(), length, shape.getQuantity()));
+        }
+        return pieces;
+    }
+
+    private Map<Material, List<ShapePolygon>> groupByMaterial(int documentId) {
+        Map<Integer, List<ShapePolygon>> grouped = new HashMap<>();
+        for (ShapePolygon shape : shapeDao.findByDocument(documentId)) {
+            if (shape.getMaterialId() != null) {
+                grouped.computeIfAbsent(shape.getMaterialId(), key -> new ArrayList<>()).add(shape);
+            }
+        }
+        Map<Integer, Material> materials = materialDao.findByIds(grouped.keySet());
+        Map<Material, List<ShapePolygon>> byMaterial = new LinkedHashMap<>();
+        for (Map.Entry<Integer, List<ShapePolygon>> entry : grouped.entrySet()) {
+            Material material = materials.get(entry.getKey());
+            if (material != null) {
+                byMaterial.put(material, entry.getValue());
+            }
+        }
+        return byMaterial;
+    }
+
+    // Remnants on the rack are filled first. The remaining rectangles go through the fast box nester. When
+    // some shapes are clearly not rectangles their outlines are nested too and the layout with fewer
+    // sheets wins; that nest takes up to seconds, so unless an earlier run left it in the cache it is
+    // handed back as a job for the background.
+    private SheetNest nestSheets(Material material, List<ShapePolygon> shapes, DocumentGraph graph,
+                                          double kerfCm) {
+        List<ShapeNester.Part> allOutlines = new ArrayList<>();
+        List<SheetNester.Part> allBoxes = nestingParts(shapes, graph, material.getGrainDirection(), allOutlines);
+        SheetNester.RemnantFill fill = fillRemnants(material, allBoxes, kerfCm);
+        List<SheetNester.Part> boxes = fill.rest();
+        List<ShapeNester.Part> outlines = allOutlines;
+        if (boxes != allBoxes) {
+            Map<Integer, ShapeNester.Part> outlineById = new HashMap<>();
+            for (ShapeNester.Part part : allOutlines) {
+                outlineById.put(part.shapeId(), part);
+            }
+            outlines = new ArrayList<>(boxes.size());
+            for (SheetNester.Part box : boxes) {
+                outlines.add(new ShapeNester.Part(box.shapeId(), outlineById.get(box.shapeId()).outline(),
+                        box.quantity()));
+            }
+        }
+        GrainDirection grain = material.getGrainDirection();
+        SheetNester.Layout layout = sheetNester.nest(boxes, material.getSheetWidthCm(), material.getSheetHeightCm(),
+                kerfCm, SheetNester.quarterTurnsAllowed(grain));
+        boolean irregular = false;
+        long signature = Double.hashCode(material.getSheetWidthCm()) * 31L + Double.hashCode(material.getSheetHeightCm());
+        signature = signature * 31 + Double.hashCode(kerfCm);
+        signature = signature * 31 + grain.ordinal();
+        for (int i = 0; i < outlines.size(); i++) {
+            PolygonBuffer polygon = outlines.get(i).outline();
+            SheetNester.Part box = boxes.get(i);
+            irregular |= Math.abs(PolygonMath.signedArea(polygon)) < box.widthCm() * box.heightCm() * RECTANGULAR_FILL;
+            signature = signature * 31 + box.shapeId();
+            signature = signature * 31 + box.quantity();
+            for (int k = 0; k < polygon.size(); k++) {
+                signature = signature * 31 + Double.hashCode(polygon.x(k));
+                signature = signature * 31 + Double.hashCode(polygon.y(k));
+            }
+        }
+        OutlineJob job = null;
+        if (irregular) {
+            SheetNester.Layout cached = outlineLayouts.get(signature);
+            if (cached == null) {
+                job = new OutlineJob(signature, outlines, material.getSheetWidthCm(), material.getSheetHeightCm(),
+                        kerfCm, ShapeNester.rotationsFor(grain), fill.remnants());
+            } else if (cached.betterThan(layout)) {
+                layout = cached;
+            }
+        }
+        return new SheetNest(withRemnants(layout, fill.remnants()), job);
+    }
+
+    // Runs off the FX thread; the shared scratch buffers are not touched here.
+    private SheetNester.Layout nestOutlines(OutlineJob job, BooleanSupplier cancelled) {
+        SheetNester.Layout layout = shapeNester.nest(job.outlines(), job.sheetWidthCm(), job.sheetHeightCm(),
+                job.kerfCm(), job.rotationsDeg(), cancelled);
+        if (layout == null) {
+            return null;
+        }
+        outlineLayouts.put(job.signature(), layout);
+        return withRemnants(layout, job.remnants());
+    }
+
+    private static SheetNester.Layout withRemnants(SheetNester.Layout layout,
+                                                   List<SheetNester.RemnantSheet> remnants) {
+        return remnants.isEmpty() ? layout : layout.withRemnants(remnants);
+    }
+
+    private SheetNester.RemnantFill fillRemnants(Material material, List<SheetNester.Part> boxes, double kerfCm) {
+        List<Remnant> remnants = remnantDao.findByMaterial(material.getId());
+        return sheetNester.fillRemnants(boxes, remnants, kerfCm,
+                SheetNester.quarterTurnsAllowed(material.getGrainDirection()));
+    }
+
+    private static long remnantSignature(List<Remnant> remnants) {
+        long signature = remnants.size();
+        for (Remnant remnant : remnants) {
+            signature = signature * 31 + remnant.getId();
+            signature = signature * 31 + Double.hashCode(remnant.getWidthCm());
+            signature = signature * 31 + Double.hashCode(remnant.getHeightCm());
+        }
+        return signature;
+    }
+
+    // Each shape is nested as the bounding box of its sampled outline, so curved edges are covered.
+    // The outlines themselves are collected as well when a list is passed in. Shapes with the same
+    // PartSignature become one part with their quantities summed, so the nesters orient, decompose and
+    // place the outline once; the copy with the smallest box stands for the group. Under grain only
+    // copies drawn at the same turn (or half a turn apart) are merged, since the nester keeps that turn.
+    private List<SheetNester.Part> nestingParts(List<ShapePolygon> shapes, DocumentGraph graph, GrainDirection grain,
+                                                List<ShapeNester.Part> outlines) {
+        List<SheetNester.Part> parts = new ArrayList<>(shapes.size());
+        List<PolygonBuffer> copies = new ArrayList<>(shapes.size());
+        Map<PartKey, Integer> indexByKey = new HashMap<>();
+        for (ShapePolygon shape : shapes) {
+            if (shape.getQuantity() <= 0 || shape.getNodeIds() == null || shape.getNodeIds().size() < 3) {
+                continue;
+            }
+            geometryService.sampleCycle(shape.getNodeIds(), graph, outline);
+            if (outline.size() < 3) {
+                continue;
+            }
+            PolygonMath.bounds(outline, bounds);
+            double width = bounds[2] - bounds[0];
+            double height = bounds[3] - bounds[1];
+            PartSignature signature = PartSignature.of(outline);
+            PartKey key = signature == null ? null : PartKey.of(signature, grain);
+            Integer index = key == null ? null : indexByKey.get(key);
+            if (index == null) {
+                if (key != null) {
+                    indexByKey.put(key, parts.size());
+                }
+                parts.add(new SheetNester.Part(shape.getId(), width, height, shape.getQuantity()));
+                copies.add(copyOf(outline, outlines));
+                continue;
+            }
+            SheetNester.Part merged = parts.get(index);
+            int quantity = merged.quantity() + shape.getQuantity();
+            if (width * height < merged.widthCm() * merged.heightCm() - 1e-9) {
+                parts.set(index, new SheetNester.Part(shape.getId(), width, height, quantity));
+                copies.set(index, copyOf(outline, outlines));
+            } else {
+                parts.set(index, new SheetNester.Part(merged.shapeId(), merged.widthCm(), merged.heightCm(),
+                        quantity));
+            }
+        }
+        if (outlines != null) {
+            for (int i = 0; i < parts.size(); i++) {
+                SheetNester.Part part = parts.get(i);
+                outlines.add(new ShapeNester.Part(part.shapeId(), copies.get(i), part.quantity()));
+            }
+        }
+        return parts;
+    }
+
+    private static PolygonBuffer copyOf(PolygonBuffer polygon, List<ShapeNester.Part> outlines) {
+        if (outlines == null) {
+            return null;
+        }
+        PolygonBuffer copy = new PolygonBuffer(polygon.size());
+        copy.copyFrom(polygon);
+        return copy;
     }
 
     private double computeEdgeBandingCost(Material material, double perimeterCm) {
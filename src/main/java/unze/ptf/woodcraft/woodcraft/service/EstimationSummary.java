@@ -1,14 +1,51 @@
 package unze.ptf.woodcraft.woodcraft.service;
 
 public class EstimationSummary {
+    private final int materialId;
     private final String materialName;
     private final String details;
     private final double cost;
+    private final SheetNester.Layout layout;
+    private final LumberCutter.Plan cutPlan;
+    private final EstimationService.Refinement refinement;
 
-    public EstimationSummary(String materialName, String details, double cost) {
+    public EstimationSummary(int materialId, String materialName, String details, double cost) {
+        this(materialId, materialName, details, cost, null, null);
+    }
+
+    public EstimationSummary(int materialId, String materialName, String details, double cost,
+                             SheetNester.Layout layout) {
+        this(materialId, materialName, details, cost, layout, null);
+    }
+
+    public EstimationSummary(int materialId, String materialName, String details, double cost,
+                             LumberCutter.Plan cutPlan) {
+        this(materialId, materialName, details, cost, null, cutPlan);
+    }
+
+    private EstimationSummary(int materialId, String materialName, String details, double cost,
+                              SheetNester.Layout layout, LumberCutter.Plan cutPlan) {
+        this(materialId, materialName, details, cost, layout, cutPlan, null);
+    }
+
+    private EstimationSummary(int materialId, String materialName, String details, double cost,
+                              SheetNester.Layout layout, LumberCutter.Plan cutPlan,
+                              EstimationService.Refinement refinement) {
+        this.materialId = materialId;
         this.materialName = materialName;
         this.details = details;
         this.cost = cost;
+        this.layout = layout;
+        this.cutPlan = cutPlan;
+        this.refinement = refinement;
+    }
+
+    public EstimationSummary withRefinement(EstimationService.Refinement refinement) {
+        return new EstimationSummary(materialId, materialName, details, cost, layout, cutPlan, refinement);
+    }
+
+    public int getMaterialId() {
+        return materialId;
     }
 
     public String getMaterialName() {
@@ -22,4 +59,19 @@ public class EstimationSummary {
     public double getCost() {
         return cost;
     }
+
+    // Sheet layout for nested sheet materials, null otherwise.
+    public SheetNester.Layout getLayout() {
+        return layout;
+    }
+
+    // Board cutting plan for lumber with stock lengths, null otherwise.
+    public LumberCutter.Plan getCutPlan() {
+        return cutPlan;
+    }
+
+    // A background pass that may improve this summary, null when there is nothing left to refine.
+    public EstimationService.Refinement getRefinement() {
+        return refinement;
+    }
 }
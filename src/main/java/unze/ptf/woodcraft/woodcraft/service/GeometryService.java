@@ -1,20 +1,80 @@
 package unze.ptf.woodcraft.woodcraft.service;
 
-import javafx.geometry.Point2D;
 import unze.ptf.woodcraft.woodcraft.model.Edge;
 import unze.ptf.woodcraft.woodcraft.model.NodePoint;
 import unze.ptf.woodcraft.woodcraft.model.ShapePolygon;
+import unze.ptf.woodcraft.woodcraft.util.PolygonBuffer;
+import unze.ptf.woodcraft.woodcraft.util.PolygonMath;
 
+import java.io.Serial;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Deque;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 public class GeometryService {
+    private static final double MIN_FACE_AREA_CM2 = 1e-6;
+    private static final int PARALLEL_SEED_CUTOFF = 512;
+
+    private final CurveFlattener curveFlattener = new CurveFlattener();
+
+    private record CycleMeasure(double signedArea, double perimeter) {
+    }
+
+    // The graph is only read while tasks run; componentOf has already been resolved by the caller.
+    // Tasks are never serialized; the markers only keep the Serializable contract of ForkJoinTask honest.
+    private final class FaceTask extends RecursiveTask<List<ShapePolygon>> {
+        @Serial
+        private static final long serialVersionUID = 1L;
+        private final int documentId;
+        private final transient DocumentGraph graph;
+        private final transient List<List<Integer>> groups;
+        private final int from;
+        private final int to;
+
+        private FaceTask(int documentId, DocumentGraph graph, List<List<Integer>> groups, int from, int to) {
+            this.documentId = documentId;
+            this.graph = graph;
+            this.groups = groups;
+            this.from = from;
+            this.to = to;
+        }
+
+        private int seedCount() {
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                count += groups.get(i).size();
+            }
+            return count;
+        }
+
+        @Override
+        protected List<ShapePolygon> compute() {
+            if (to - from < 2 || seedCount() < PARALLEL_SEED_CUTOFF) {
+                List<ShapePolygon> shapes = new ArrayList<>();
+                for (int i = from; i < to; i++) {
+                    PlanarFaceExtractor extractor = new PlanarFaceExtractor(graph);
+                    shapes.addAll(buildFaceShapes(documentId, graph, extractor.extractFacesAround(groups.get(i))));
+                }
+                return shapes;
+            }
+            int middle = (from + to) >>> 1;
+            FaceTask left = new FaceTask(documentId, graph, groups, from, middle);
+            FaceTask right = new FaceTask(documentId, graph, groups, middle, to);
+            left.fork();
+            List<ShapePolygon> rightShapes = right.compute();
+            List<ShapePolygon> shapes = new ArrayList<>(left.join());
+            shapes.addAll(rightShapes);
+            return shapes;
+        }
+    }
+
     public static final class CycleResult {
         private final boolean cycleDetected;
         private final List<Integer> nodeIds;
@@ -33,36 +93,31 @@ public class GeometryService {
         }
     }
 
-    public CycleResult detectCycleForEdge(List<Edge> existingEdges, int startNodeId, int endNodeId) {
-        Map<Integer, List<Integer>> adjacency = buildAdjacency(existingEdges);
-        List<Integer> path = findPath(adjacency, startNodeId, endNodeId);
+    // Call before the new edge is added to the graph; the union-find answers the common "no loop" case
+    // without touching the adjacency, and only a closing edge pays for the path search.
+    public CycleResult detectCycleForEdge(DocumentGraph graph, int startNodeId, int endNodeId) {
+        if (!graph.connected(startNodeId, endNodeId)) {
+            return new CycleResult(false, List.of());
+        }
+        List<Integer> path = findPath(graph, startNodeId, endNodeId);
         if (path.isEmpty()) {
             return new CycleResult(false, List.of());
         }
         return new CycleResult(true, path);
     }
 
-    public List<List<Integer>> detectAllCycles(List<Edge> edges) {
-        Set<String> seen = new HashSet<>();
+    public List<List<Integer>> detectAllCycles(List<NodePoint> nodes, List<Edge> edges) {
+        DocumentGraph graph = new DocumentGraph(nodes, edges);
         List<List<Integer>> cycles = new ArrayList<>();
-        for (int i = 0; i < edges.size(); i++) {
-            Edge edge = edges.get(i);
-            List<Edge> remaining = new ArrayList<>(edges);
-            remaining.remove(i);
-            CycleResult result = detectCycleForEdge(remaining, edge.getStartNodeId(), edge.getEndNodeId());
-            if (result.cycleDetected()) {
-                List<Integer> cycle = result.nodeIds();
-                String key = normalizeCycle(cycle);
-                if (seen.add(key)) {
-                    cycles.add(cycle);
-                }
-            }
+        for (ShapePolygon shape : buildShapesAround(-1, graph, graph.nodeMap().keySet())) {
+            cycles.add(shape.getNodeIds());
         }
         return cycles;
     }
 
     public ShapePolygon buildShapeFromCycle(int documentId, Integer materialId, List<Integer> nodeIds,
-                                            Map<Integer, NodePoint> nodeMap, Map<String, Edge> edgeMap) {
+                                            DocumentGraph graph) {
+        Map<Integer, NodePoint> nodeMap = graph.nodeMap();
         List<NodePoint> nodes = new ArrayList<>();
         for (Integer nodeId : nodeIds) {
             NodePoint node = nodeMap.get(nodeId);
@@ -70,84 +125,73 @@ public class GeometryService {
                 nodes.add(node);
             }
         }
-        List<Point2D> sampled = samplePath(nodeIds, nodeMap, edgeMap);
-        double area = computeAreaCm2(sampled);
-        double perimeter = computePerimeterCm(sampled);
-        return new ShapePolygon(0, documentId, materialId, 1, nodeIds, nodes, area, perimeter);
+        CycleMeasure measure = measureCycle(nodeIds, graph);
+        return new ShapePolygon(0, documentId, materialId, 1, nodeIds, nodes, Math.abs(measure.signedArea()),
+                measure.perimeter());
     }
 
     public List<ShapePolygon> buildShapes(int documentId, List<NodePoint> nodes, List<Edge> edges) {
-        Map<Integer, NodePoint> nodeMap = new HashMap<>();
-        for (NodePoint node : nodes) {
-            nodeMap.put(node.getId(), node);
-        }
-        Map<String, Edge> edgeMap = buildEdgeMap(edges);
-        Map<Integer, List<Integer>> adjacency = new HashMap<>();
-        for (Edge edge : edges) {
-            adjacency.computeIfAbsent(edge.getStartNodeId(), key -> new ArrayList<>()).add(edge.getEndNodeId());
-            adjacency.computeIfAbsent(edge.getEndNodeId(), key -> new ArrayList<>()).add(edge.getStartNodeId());
-        }
-
-        Set<String> seenCycles = new HashSet<>();
-        List<ShapePolygon> shapes = new ArrayList<>();
-        for (NodePoint node : nodes) {
-            List<Integer> path = new ArrayList<>();
-            path.add(node.getId());
-            dfsCycles(node.getId(), node.getId(), adjacency, path, seenCycles, shapes, nodeMap, edgeMap, documentId);
-        }
-        return shapes;
+        DocumentGraph graph = new DocumentGraph(nodes, edges);
+        return buildShapesAround(documentId, graph, graph.nodeMap().keySet());
     }
 
-    public double computeAreaCm2(List<Point2D> points) {
-        if (points.size() < 3) {
-            return 0;
+    // Faces never cross components, so the seeds are grouped per component (in first-seen order) and the
+    // groups traced independently. Large inputs are split across the common ForkJoin pool; results are
+    // concatenated in group order either way, so the output does not depend on scheduling.
+    public List<ShapePolygon> buildShapesAround(int documentId, DocumentGraph graph, Collection<Integer> nodeIds) {
+        Map<Integer, List<Integer>> byComponent = new LinkedHashMap<>();
+        for (int nodeId : nodeIds) {
+            if (graph.containsNode(nodeId)) {
+                byComponent.computeIfAbsent(graph.componentOf(nodeId), key -> new ArrayList<>()).add(nodeId);
+            }
         }
-        double sum = 0;
-        for (int i = 0; i < points.size(); i++) {
-            Point2D current = points.get(i);
-            Point2D next = points.get((i + 1) % points.size());
-            sum += (current.getX() * next.getY()) - (next.getX() * current.getY());
+        List<List<Integer>> groups = new ArrayList<>(byComponent.values());
+        FaceTask task = new FaceTask(documentId, graph, groups, 0, groups.size());
+        if (groups.size() < 2 || task.seedCount() < PARALLEL_SEED_CUTOFF) {
+            return task.compute();
         }
-        return Math.abs(sum) / 2.0;
+        return ForkJoinPool.commonPool().invoke(task);
     }
 
-    public double computePerimeterCm(List<Point2D> points) {
-        if (points.size() < 2) {
-            return 0;
-        }
-        double perimeter = 0;
-        for (int i = 0; i < points.size(); i++) {
-            Point2D current = points.get(i);
-            Point2D next = points.get((i + 1) % points.size());
-            double dx = current.getX() - next.getX();
-            double dy = current.getY() - next.getY();
-            perimeter += Math.hypot(dx, dy);
-        }
-        return perimeter;
+    public CurveFlattener getCurveFlattener() {
+        return curveFlattener;
     }
 
-    private Map<Integer, List<Integer>> buildAdjacency(List<Edge> edges) {
-        Map<Integer, List<Integer>> adjacency = new HashMap<>();
-        for (Edge edge : edges) {
-            adjacency.computeIfAbsent(edge.getStartNodeId(), key -> new ArrayList<>()).add(edge.getEndNodeId());
-            adjacency.computeIfAbsent(edge.getEndNodeId(), key -> new ArrayList<>()).add(edge.getStartNodeId());
-        }
-        return adjacency;
+    public double computeAreaCm2(PolygonBuffer points) {
+        return Math.abs(PolygonMath.signedArea(points));
     }
 
-    private Map<String, Edge> buildEdgeMap(List<Edge> edges) {
-        Map<String, Edge> map = new HashMap<>();
-        for (Edge edge : edges) {
-            map.put(edgeKey(edge.getStartNodeId(), edge.getEndNodeId()), edge);
-        }
-        return map;
+    public double computeSignedAreaCm2(PolygonBuffer points) {
+        return PolygonMath.signedArea(points);
+    }
+
+    public double computePerimeterCm(PolygonBuffer points) {
+        return PolygonMath.perimeter(points);
     }
 
-    private String edgeKey(int a, int b) {
-        return a < b ? a + "-" + b : b + "-" + a;
+    private List<ShapePolygon> buildFaceShapes(int documentId, DocumentGraph graph,
+                                               List<PlanarFaceExtractor.Face> faces) {
+        Map<Integer, NodePoint> nodeMap = graph.nodeMap();
+        List<ShapePolygon> shapes = new ArrayList<>();
+        for (PlanarFaceExtractor.Face face : faces) {
+            List<Integer> cycle = face.nodeIds();
+            CycleMeasure measure = measureCycle(cycle, graph);
+            // Bounded faces wind positively; each component's outer boundary comes back negative.
+            double signedArea = measure.signedArea();
+            if (signedArea <= MIN_FACE_AREA_CM2) {
+                continue;
+            }
+            List<NodePoint> cycleNodes = new ArrayList<>();
+            for (int nodeId : cycle) {
+                cycleNodes.add(nodeMap.get(nodeId));
+            }
+            shapes.add(new ShapePolygon(-1, documentId, null, 1, cycle, cycleNodes, signedArea,
+                    measure.perimeter()));
+        }
+        return shapes;
     }
 
-    private List<Integer> findPath(Map<Integer, List<Integer>> adjacency, int startNodeId, int endNodeId) {
+    private List<Integer> findPath(DocumentGraph graph, int startNodeId, int endNodeId) {
         if (startNodeId == endNodeId) {
             return List.of(startNodeId);
         }
@@ -157,7 +201,7 @@ public class GeometryService {
         prev.put(startNodeId, null);
         while (!queue.isEmpty()) {
             int current = queue.removeFirst();
-            for (int neighbor : adjacency.getOrDefault(current, List.of())) {
+            for (int neighbor : graph.neighbours(current)) {
                 if (prev.containsKey(neighbor)) {
                     continue;
                 }
@@ -185,37 +229,43 @@ public class GeometryService {
         return ordered;
     }
 
-    private void dfsCycles(int start, int current, Map<Integer, List<Integer>> adjacency, List<Integer> path,
-                           Set<String> seenCycles, List<ShapePolygon> shapes, Map<Integer, NodePoint> nodeMap,
-                           Map<String, Edge> edgeMap, int documentId) {
-        List<Integer> neighbors = adjacency.getOrDefault(current, List.of());
-        for (int neighbor : neighbors) {
-            if (neighbor == start && path.size() >= 3) {
-                String key = normalizeCycle(path);
-                if (seenCycles.add(key)) {
-                    List<NodePoint> cycleNodes = new ArrayList<>();
-                    for (int nodeId : path) {
-                        NodePoint node = nodeMap.get(nodeId);
-                        if (node != null) {
-                            cycleNodes.add(node);
-                        }
-                    }
-                    List<Point2D> sampled = samplePath(path, nodeMap, edgeMap);
-                    double area = computeAreaCm2(sampled);
-                    double perimeter = computePerimeterCm(sampled);
-                    shapes.add(new ShapePolygon(-1, documentId, null, 1, new ArrayList<>(path), cycleNodes, area, perimeter));
-                }
-            } else if (!path.contains(neighbor)) {
-                path.add(neighbor);
-                dfsCycles(start, neighbor, adjacency, path, seenCycles, shapes, nodeMap, edgeMap, documentId);
-                path.remove(path.size() - 1);
+    // Exact per-segment integrals over the cycle's lines and cubics; no sample points are created.
+    private CycleMeasure measureCycle(List<Integer> nodeIds, DocumentGraph graph) {
+        Map<Integer, NodePoint> nodeMap = graph.nodeMap();
+        double area = 0;
+        double perimeter = 0;
+        for (int i = 0; i < nodeIds.size(); i++) {
+            int startId = nodeIds.get(i);
+            int endId = nodeIds.get((i + 1) % nodeIds.size());
+            NodePoint start = nodeMap.get(startId);
+            NodePoint end = nodeMap.get(endId);
+            if (start == null || end == null) {
+                continue;
+            }
+            Edge edge = graph.findEdge(startId, endId);
+            if (edge != null && edge.getControlStartXCm() != null && edge.getControlStartYCm() != null
+                    && edge.getControlEndXCm() != null && edge.getControlEndYCm() != null) {
+                boolean reversed = edge.getStartNodeId() != startId;
+                double c1x = reversed ? edge.getControlEndXCm() : edge.getControlStartXCm();
+                double c1y = reversed ? edge.getControlEndYCm() : edge.getControlStartYCm();
+                double c2x = reversed ? edge.getControlStartXCm() : edge.getControlEndXCm();
+                double c2y = reversed ? edge.getControlStartYCm() : edge.getControlEndYCm();
+                area += CurveMetrics.cubicArea(start.getXCm(), start.getYCm(), c1x, c1y, c2x, c2y,
+                        end.getXCm(), end.getYCm());
+                perimeter += CurveMetrics.cubicLength(start.getXCm(), start.getYCm(), c1x, c1y, c2x, c2y,
+                        end.getXCm(), end.getYCm());
+            } else {
+                area += CurveMetrics.lineArea(start.getXCm(), start.getYCm(), end.getXCm(), end.getYCm());
+                perimeter += CurveMetrics.lineLength(start.getXCm(), start.getYCm(), end.getXCm(), end.getYCm());
             }
         }
+        return new CycleMeasure(area, perimeter);
     }
 
-    private List<Point2D> samplePath(List<Integer> nodeIds, Map<Integer, NodePoint> nodeMap,
-                                     Map<String, Edge> edgeMap) {
-        List<Point2D> points = new ArrayList<>();
+    // Flattened outline for display and plank clipping; measurements come from measureCycle.
+    public void sampleCycle(List<Integer> nodeIds, DocumentGraph graph, PolygonBuffer points) {
+        Map<Integer, NodePoint> nodeMap = graph.nodeMap();
+        points.clear();
         for (int i = 0; i < nodeIds.size(); i++) {
             int startId = nodeIds.get(i);
             int endId = nodeIds.get((i + 1) % nodeIds.size());
@@ -224,76 +274,24 @@ public class GeometryService {
             if (start == null || end == null) {
                 continue;
             }
-            Edge edge = edgeMap.get(edgeKey(startId, endId));
+            Edge edge = graph.findEdge(startId, endId);
             if (edge != null && edge.getControlStartXCm() != null && edge.getControlStartYCm() != null
                     && edge.getControlEndXCm() != null && edge.getControlEndYCm() != null) {
-                Point2D c1;
-                Point2D c2;
-                if (edge.getStartNodeId() == startId) {
-                    c1 = new Point2D(edge.getControlStartXCm(), edge.getControlStartYCm());
-                    c2 = new Point2D(edge.getControlEndXCm(), edge.getControlEndYCm());
-                } else {
-                    c1 = new Point2D(edge.getControlEndXCm(), edge.getControlEndYCm());
-                    c2 = new Point2D(edge.getControlStartXCm(), edge.getControlStartYCm());
-                }
-                sampleCubic(points,
-                        new Point2D(start.getXCm(), start.getYCm()),
-                        c1, c2,
-                        new Point2D(end.getXCm(), end.getYCm()),
-                        20);
+                boolean reversed = edge.getStartNodeId() != startId;
+                NodePoint edgeStart = reversed ? end : start;
+                NodePoint edgeEnd = reversed ? start : end;
+                curveFlattener.appendEdge(points, edge.getId(),
+                        edgeStart.getXCm(), edgeStart.getYCm(),
+                        edge.getControlStartXCm(), edge.getControlStartYCm(),
+                        edge.getControlEndXCm(), edge.getControlEndYCm(),
+                        edgeEnd.getXCm(), edgeEnd.getYCm(),
+                        reversed, CurveFlattener.DEFAULT_TOLERANCE_CM);
             } else {
                 if (points.isEmpty()) {
-                    points.add(new Point2D(start.getXCm(), start.getYCm()));
+                    points.add(start.getXCm(), start.getYCm());
                 }
-                points.add(new Point2D(end.getXCm(), end.getYCm()));
-            }
-        }
-        return points;
-    }
-
-    private void sampleCubic(List<Point2D> points, Point2D p0, Point2D p1, Point2D p2, Point2D p3, int segments) {
-        if (points.isEmpty()) {
-            points.add(p0);
-        }
-        for (int i = 1; i <= segments; i++) {
-            double t = (double) i / segments;
-            double u = 1 - t;
-            double x = u * u * u * p0.getX()
-                    + 3 * u * u * t * p1.getX()
-                    + 3 * u * t * t * p2.getX()
-                    + t * t * t * p3.getX();
-            double y = u * u * u * p0.getY()
-                    + 3 * u * u * t * p1.getY()
-                    + 3 * u * t * t * p2.getY()
-                    + t * t * t * p3.getY();
-            points.add(new Point2D(x, y));
-        }
-    }
-
-    private String normalizeCycle(List<Integer> path) {
-        int size = path.size();
-        List<Integer> forward = new ArrayList<>(path);
-        List<Integer> backward = new ArrayList<>();
-        for (int i = path.size() - 1; i >= 0; i--) {
-            backward.add(path.get(i));
-        }
-        String a = rotationKey(forward, size);
-        String b = rotationKey(backward, size);
-        return (a.compareTo(b) <= 0) ? a : b;
-    }
-
-    private String rotationKey(List<Integer> cycle, int size) {
-        int minIndex = 0;
-        for (int i = 1; i < size; i++) {
-            if (cycle.get(i) < cycle.get(minIndex)) {
-                minIndex = i;
+                points.add(end.getXCm(), end.getYCm());
             }
         }
-        StringBuilder builder = new StringBuilder();
-        for (int i = 0; i < size; i++) {
-            int index = (minIndex + i) % size;
-            builder.append(cycle.get(index)).append('-');
-        }
-        return builder.toString();
     }
 }
@@ -0,0 +1,769 @@
+package unze.ptf.woodcraft.woodcraft.service;
+
+import unze.ptf.woodcraft.woodcraft.model.Remnant;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BooleanSupplier;
+
+// Cuts lumber pieces from stock boards (one-dimensional cutting stock). Lengths are handled in 0.1 mm
+// steps with pieces rounded up and boards rounded down, so every pattern can really be cut. First-fit
+// decreasing gives a plan straight away. Column generation then solves the pattern LP, priced by a
+// branch-and-bound knapsack; its solution is rounded down, the residual is solved the same way and the
+// plan that buys less wood wins. A greedy plan that already meets the LP bound is kept as is. Remnants
+// on the rack are filled first, best fit decreasing, since they cost nothing.
+public class LumberCutter {
+    private static final double UNITS_PER_CM = 100;
+    private static final long BUDGET_NANOS = 600_000_000L;
+    // Beyond this many distinct lengths the dense LP gets slow and first fit is close to optimal anyway.
+    private static final int MAX_TYPES = 150;
+    private static final int MAX_PIVOTS = 5000;
+    private static final int MAX_KNAPSACK_NODES = 20_000;
+    private static final double EPS = 1e-9;
+    // Pricing settles for a pattern worth this much more than its board instead of the very best one.
+    private static final double GOOD_PATTERN = 1.05;
+
+    public record Piece(int shapeId, double lengthCm, int quantity) {
+    }
+
+    public record Cut(int shapeId, double lengthCm) {
+    }
+
+    // remnantId is the rack remnant the board was cut from, -1 for new stock.
+    public record Board(double stockLengthCm, List<Cut> cuts, double offcutCm, int remnantId) {
+        public Board(double stockLengthCm, List<Cut> cuts, double offcutCm) {
+            this(stockLengthCm, cuts, offcutCm, -1);
+        }
+
+        public boolean fromRemnant() {
+            return remnantId >= 0;
+        }
+    }
+
+    public record Pattern(double stockLengthCm, List<Double> lengthsCm, double offcutCm, int count, boolean remnant) {
+    }
+
+    public record Plan(List<Board> boards, List<Piece> oversized) {
+        // New boards only; remnants are already paid for.
+        public int boardCount() {
+            return boards.size() - remnantCount();
+        }
+
+        public int remnantCount() {
+            int count = 0;
+            for (Board board : boards) {
+                if (board.fromRemnant()) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        public double purchasedLengthCm() {
+            double total = 0;
+            for (Board board : boards) {
+                if (!board.fromRemnant()) {
+                    total += board.stockLengthCm();
+                }
+            }
+            return total;
+        }
+
+        // Less purchased length first, then fewer boards; the same rule the cutter itself keeps plans by.
+        public boolean betterThan(Plan other) {
+            if (other == null) {
+                return true;
+            }
+            double purchased = purchasedLengthCm();
+            double otherPurchased = other.purchasedLengthCm();
+            if (Math.abs(purchased - otherPurchased) > 1e-6) {
+                return purchased < otherPurchased;
+            }
+            return boards.size() < other.boards.size();
+        }
+
+        public double stockLengthCm() {
+            double total = 0;
+            for (Board board : boards) {
+                total += board.stockLengthCm();
+            }
+            return total;
+        }
+
+        public double usedLengthCm() {
+            double total = 0;
+            for (Board board : boards) {
+                for (Cut cut : board.cuts()) {
+                    total += cut.lengthCm();
+                }
+            }
+            return total;
+        }
+
+        public double yield() {
+            double stock = stockLengthCm();
+            return stock <= 0 ? 0 : usedLengthCm() / stock;
+        }
+
+        // Offcut lengths, longest first.
+        public List<Double> offcutsCm() {
+            List<Double> offcuts = new ArrayList<>();
+            for (Board board : boards) {
+                if (board.offcutCm() > 0) {
+                    offcuts.add(board.offcutCm());
+                }
+            }
+            offcuts.sort(Comparator.reverseOrder());
+            return offcuts;
+        }
+
+        // Boards cut the same way, counted together.
+        public List<Pattern> patterns() {
+            Map<List<Double>, Pattern> grouped = new LinkedHashMap<>();
+            for (Board board : boards) {
+                List<Double> key = new ArrayList<>(board.cuts().size() + 2);
+                key.add(board.fromRemnant() ? 1.0 : 0.0);
+                key.add(board.stockLengthCm());
+                for (Cut cut : board.cuts()) {
+                    key.add(cut.lengthCm());
+                }
+                Pattern pattern = grouped.get(key);
+                grouped.put(key, pattern == null
+                        ? new Pattern(board.stockLengthCm(), List.copyOf(key.subList(2, key.size())), board.offcutCm(), 1,
+                                board.fromRemnant())
+                        : new Pattern(pattern.stockLengthCm(), pattern.lengthsCm(), pattern.offcutCm(), pattern.count() + 1,
+                                pattern.remnant()));
+            }
+            return new ArrayList<>(grouped.values());
+        }
+    }
+
+    // A board of the given stock length with counts[i] pieces of length type i. Entries holds the same
+    // counts as type and count pairs; a board holds only a few different lengths.
+    private record Column(int stock, int[] counts, int[] entries) {
+        Column(int stock, int[] counts) {
+            this(stock, counts, entries(counts));
+        }
+
+        private static int[] entries(int[] counts) {
+            int nonZero = 0;
+            for (int count : counts) {
+                if (count > 0) {
+                    nonZero++;
+                }
+            }
+            int[] entries = new int[nonZero * 2];
+            int k = 0;
+            for (int type = 0; type < counts.length; type++) {
+                if (counts[type] > 0) {
+                    entries[k++] = type;
+                    entries[k++] = counts[type];
+                }
+            }
+            return entries;
+        }
+    }
+
+    private static final class RemnantBoard {
+        final int remnantId;
+        final int length;
+        final List<Cut> cuts = new ArrayList<>();
+        int free;
+
+        RemnantBoard(int remnantId, int length, int kerf) {
+            this.remnantId = remnantId;
+            this.length = length;
+            this.free = length + kerf;
+        }
+    }
+
+    private static final class Lp {
+        final List<Column> columns = new ArrayList<>();
+        final List<Double> values = new ArrayList<>();
+        double objective;
+        // Lower bound on the optimal LP objective, and so on any plan.
+        double bound;
+    }
+
+    // Stock lengths as typed by the user, e.g. "240, 300; 420".
+    public static double[] parseStockLengths(String text) {
+        if (text == null || text.isBlank()) {
+            return new double[0];
+        }
+        List<Double> lengths = new ArrayList<>();
+        for (String token : text.trim().split("[,;\\s]+")) {
+            try {
+                double length = Double.parseDouble(token);
+                if (length > 0) {
+                    lengths.add(length);
+                }
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        double[] result = new double[lengths.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = lengths.get(i);
+        }
+        return result;
+    }
+
+    public Plan cut(List<Piece> pieces, double[] stockLengthsCm, double kerfCm) {
+        return cut(pieces, stockLengthsCm, kerfCm, List.of());
+    }
+
+    // Lumber remnants carry their length in widthCm.
+    public Plan cut(List<Piece> pieces, double[] stockLengthsCm, double kerfCm, List<Remnant> remnants) {
+        return cut(pieces, stockLengthsCm, kerfCm, remnants, true, () -> false);
+    }
+
+    // The first-fit plan alone, in milliseconds even for large orders; cut(...) can only improve on it.
+    public Plan firstFit(List<Piece> pieces, double[] stockLengthsCm, double kerfCm, List<Remnant> remnants) {
+        return cut(pieces, stockLengthsCm, kerfCm, remnants, false, () -> false);
+    }
+
+    // Stops improving once cancelled is set and returns the best plan found so far.
+    public Plan cut(List<Piece> pieces, double[] stockLengthsCm, double kerfCm, List<Remnant> remnants,
+                    BooleanSupplier cancelled) {
+        return cut(pieces, stockLengthsCm, kerfCm, remnants, true, cancelled);
+    }
+
+    private Plan cut(List<Piece> pieces, double[] stockLengthsCm, double kerfCm, List<Remnant> remnants,
+                     boolean improve, BooleanSupplier cancelled) {
+        int[] stocks = Arrays.stream(stockLengthsCm)
+                .mapToInt(length -> (int) Math.floor(length * UNITS_PER_CM + 1e-6))
+                .filter(length -> length > 0)
+                .distinct()
+                .sorted()
+                .toArray();
+        int kerf = (int) Math.ceil(Math.max(0, kerfCm) * UNITS_PER_CM - 1e-6);
+        int longest = stocks.length == 0 ? 0 : stocks[stocks.length - 1];
+        int longestRemnant = 0;
+        for (Remnant remnant : remnants) {
+            longestRemnant = Math.max(longestRemnant, (int) Math.floor(remnant.getWidthCm() * UNITS_PER_CM + 1e-6));
+        }
+
+        // Pieces of the same length become one type; the shape ids are handed out again at the end.
+        TreeMap<Integer, ArrayDeque<Integer>> byLength = new TreeMap<>(Comparator.reverseOrder());
+        List<Piece> oversized = new ArrayList<>();
+        for (Piece piece : pieces) {
+            if (piece.quantity() <= 0 || piece.lengthCm() <= 0) {
+                continue;
+            }
+            int length = (int) Math.ceil(piece.lengthCm() * UNITS_PER_CM - 1e-6);
+            if (length > Math.max(longest, longestRemnant)) {
+                oversized.add(piece);
+                continue;
+            }
+            ArrayDeque<Integer> ids = byLength.computeIfAbsent(length, key -> new ArrayDeque<>());
+            for (int copy = 0; copy < piece.quantity(); copy++) {
+                ids.add(piece.shapeId());
+            }
+        }
+        List<Board> remnantBoards = fillRemnants(byLength, remnants, kerf);
+        // Whatever is left of a length that only a remnant could hold cannot be cut.
+        byLength.values().removeIf(ArrayDeque::isEmpty);
+        for (Map.Entry<Integer, ArrayDeque<Integer>> entry : byLength.headMap(longest).entrySet()) {
+            for (int shapeId : entry.getValue()) {
+                oversized.add(new Piece(shapeId, entry.getKey() / UNITS_PER_CM, 1));
+            }
+        }
+        byLength.headMap(longest).clear();
+        int types = byLength.size();
+        int[] lengths = new int[types];
+        int[] demand = new int[types];
+        List<ArrayDeque<Integer>> shapeIds = new ArrayList<>(types);
+        int index = 0;
+        for (Map.Entry<Integer, ArrayDeque<Integer>> entry : byLength.entrySet()) {
+            lengths[index] = entry.getKey();
+            demand[index] = entry.getValue().size();
+            shapeIds.add(entry.getValue());
+            index++;
+        }
+        if (types == 0) {
+            return new Plan(remnantBoards, oversized);
+        }
+
+        long deadline = System.nanoTime() + BUDGET_NANOS;
+        BooleanSupplier stop = () -> cancelled.getAsBoolean() || System.nanoTime() > deadline;
+        List<Column> best = firstFitDecreasing(demand, lengths, stocks, kerf);
+        if (improve && types <= MAX_TYPES) {
+            List<Column> pool = new ArrayList<>();
+            Lp relaxation = solveLp(demand, lengths, stocks, kerf, pool, stop);
+            if (relaxation != null && cost(best) > lowerBound(relaxation.bound, stocks) + EPS) {
+                List<Column> rounded = roundResidual(relaxation, demand, lengths, stocks, kerf, pool, stop);
+                if (better(rounded, best)) {
+                    best = rounded;
+                }
+            }
+        }
+        Plan plan = toPlan(best, lengths, stocks, kerf, shapeIds, oversized);
+        if (remnantBoards.isEmpty()) {
+            return plan;
+        }
+        List<Board> boards = new ArrayList<>(remnantBoards);
+        boards.addAll(plan.boards());
+        return new Plan(boards, oversized);
+    }
+
+    // Best fit decreasing over the remnants: each piece, longest first, goes to the board whose free
+    // length fits it most tightly. Cut pieces are taken out of byLength.
+    private static List<Board> fillRemnants(TreeMap<Integer, ArrayDeque<Integer>> byLength, List<Remnant> remnants,
+                                            int kerf) {
+        TreeMap<Integer, ArrayDeque<RemnantBoard>> byFree = new TreeMap<>();
+        for (Remnant remnant : remnants) {
+            int length = (int) Math.floor(remnant.getWidthCm() * UNITS_PER_CM + 1e-6);
+            if (length > 0) {
+                RemnantBoard board = new RemnantBoard(remnant.getId(), length, kerf);
+                byFree.computeIfAbsent(board.free, key -> new ArrayDeque<>()).add(board);
+            }
+        }
+        if (byFree.isEmpty()) {
+            return List.of();
+        }
+        List<RemnantBoard> used = new ArrayList<>();
+        for (Map.Entry<Integer, ArrayDeque<Integer>> entry : byLength.entrySet()) {
+            int need = entry.getKey() + kerf;
+            ArrayDeque<Integer> ids = entry.getValue();
+            while (!ids.isEmpty()) {
+                Map.Entry<Integer, ArrayDeque<RemnantBoard>> fit = byFree.ceilingEntry(need);
+                if (fit == null) {
+                    break;
+                }
+                RemnantBoard board = fit.getValue().poll();
+                if (fit.getValue().isEmpty()) {
+                    byFree.remove(fit.getKey());
+                }
+                if (board.cuts.isEmpty()) {
+                    used.add(board);
+                }
+                board.cuts.add(new Cut(ids.poll(), entry.getKey() / UNITS_PER_CM));
+                board.free -= need;
+                if (board.free > 0) {
+                    byFree.computeIfAbsent(board.free, key -> new ArrayDeque<>()).add(board);
+                }
+            }
+        }
+        used.sort(Comparator.comparingInt((RemnantBoard board) -> board.length).reversed());
+        List<Board> boards = new ArrayList<>(used.size());
+        for (RemnantBoard board : used) {
+            boards.add(new Board(board.length / UNITS_PER_CM, board.cuts,
+                    Math.max(0, board.free - kerf) / UNITS_PER_CM, board.remnantId));
+        }
+        return boards;
+    }
+
+    // Pieces longest first, each into the first open board with room; boards are opened at the longest
+    // stock length and cut down to the shortest one that still holds them.
+    private static List<Column> firstFitDecreasing(int[] demand, int[] lengths, int[] stocks, int kerf) {
+        int longest = stocks[stocks.length - 1];
+        List<int[]> open = new ArrayList<>();
+        int[] free = new int[16];
+        for (int type = 0; type < demand.length; type++) {
+            int need = lengths[type] + kerf;
+            int start = 0;
+            for (int copy = 0; copy < demand[type]; copy++) {
+                int board = start;
+                while (board < open.size() && free[board] < need) {
+                    board++;
+                }
+                // Boards that could not take this length cannot take the next copy either.
+                start = board;
+                if (board == open.size()) {
+                    open.add(new int[demand.length]);
+                    if (board == free.length) {
+                        free = Arrays.copyOf(free, free.length * 2);
+                    }
+                    free[board] = longest + kerf;
+                }
+                open.get(board)[type]++;
+                free[board] -= need;
+            }
+        }
+        List<Column> boards = new ArrayList<>(open.size());
+        for (int[] counts : open) {
+            boards.add(new Column(shortestStock(counts, lengths, stocks, kerf), counts));
+        }
+        return boards;
+    }
+
+    // Column generation on min sum(stock * x) subject to A x = demand. The basis inverse is kept dense;
+    // the starting basis cuts each length on its own at the cheapest stock length per piece.
+    private static Lp solveLp(int[] demand, int[] lengths, int[] stocks, int kerf, List<Column> pool,
+                              BooleanSupplier stop) {
+        int[] rows = new int[demand.length];
+        int[] rowOf = new int[demand.length];
+        int m = 0;
+        for (int type = 0; type < demand.length; type++) {
+            rowOf[type] = -1;
+            if (demand[type] > 0) {
+                rowOf[type] = m;
+                rows[m++] = type;
+            }
+        }
+        if (m == 0) {
+            return new Lp();
+        }
+        double[][] inverse = new double[m][m];
+        double[] basic = new double[m];
+        double[] basisCost = new double[m];
+        Column[] basis = new Column[m];
+        for (int row = 0; row < m; row++) {
+            int type = rows[row];
+            double bestRatio = Double.POSITIVE_INFINITY;
+            for (int stock : stocks) {
+                int fit = Math.min(demand[type], (stock + kerf) / (lengths[type] + kerf));
+                if (fit > 0 && (double) stock / fit < bestRatio) {
+                    bestRatio = (double) stock / fit;
+                    int[] counts = new int[demand.length];
+                    counts[type] = fit;
+                    basis[row] = new Column(stock, counts);
+                }
+            }
+            int fit = basis[row].counts()[type];
+            inverse[row][row] = 1.0 / fit;
+            basic[row] = (double) demand[type] / fit;
+            basisCost[row] = basis[row].stock();
+        }
+
+        double[] duals = new double[m];
+        double[] entering = new double[m];
+        double[] direction = new double[m];
+        double bound = 0;
+        int[] order = new int[m];
+        for (int row = 0; row < m; row++) {
+            order[row] = row;
+        }
+        for (int pivot = 0; pivot < MAX_PIVOTS; pivot++) {
+            if (stop.getAsBoolean()) {
+                return null;
+            }
+            Arrays.fill(duals, 0);
+            for (int row = 0; row < m; row++) {
+                double cost = basisCost[row];
+                double[] inverseRow = inverse[row];
+                for (int column = 0; column < m; column++) {
+                    duals[column] += cost * inverseRow[column];
+                }
+            }
+            double objective = 0;
+            for (int row = 0; row < m; row++) {
+                objective += basisCost[row] * basic[row];
+            }
+            // Patterns found earlier are priced first; the knapsack only runs once none of them improves.
+            Column candidate = null;
+            double bestReduced = -1e-7;
+            for (Column column : pool) {
+                int[] entries = column.entries();
+                double value = 0;
+                for (int k = 0; k < entries.length && value > -1; k += 2) {
+                    int type = entries[k];
+                    // Patterns that need more of a length than is left are out; -1 marks them.
+                    value = entries[k + 1] > demand[type] ? -1 : value + duals[rowOf[type]] * entries[k + 1];
+                }
+                if (value < 0) {
+                    continue;
+                }
+                double reduced = (column.stock() - value) / column.stock();
+                if (reduced < bestReduced) {
+                    bestReduced = reduced;
+                    candidate = column;
+                }
+            }
+            if (candidate == null) {
+                sortByDensity(order, duals, rows, lengths, kerf);
+                double bestRatio = 1;
+                for (int stock : stocks) {
+                    Knapsack pricing = knapsack(duals, rows, order, demand, lengths, stock + kerf, kerf, stock * GOOD_PATTERN);
+                    bestRatio = Math.max(bestRatio, pricing.upperBound / stock);
+                    double reduced = (stock - pricing.bestValue) / stock;
+                    if (reduced < -1e-7) {
+                        Column column = new Column(stock, pricing.counts);
+                        pool.add(column);
+                        if (reduced < bestReduced) {
+                            bestReduced = reduced;
+                            candidate = column;
+                        }
+                    }
+                }
+                // Farley's bound: no column prices out by more than bestRatio, so the duals scaled down by it
+                // are feasible and bound the optimum. Once rounding up cannot change the answer the tail is
+                // skipped.
+                double dualObjective = 0;
+                for (int row = 0; row < m; row++) {
+                    dualObjective += duals[row] * demand[rows[row]];
+                }
+                bound = Math.max(bound, dualObjective / bestRatio);
+            }
+            if (candidate == null || closeEnough(objective, bound, stocks)) {
+                Lp lp = new Lp();
+                for (int row = 0; row < m; row++) {
+                    if (basic[row] > EPS) {
+                        lp.columns.add(basis[row]);
+                        lp.values.add(basic[row]);
+                    }
+                }
+                lp.objective = objective;
+                lp.bound = bound;
+                return lp;
+            }
+            for (int row = 0; row < m; row++) {
+                entering[row] = candidate.counts()[rows[row]];
+            }
+            for (int row = 0; row < m; row++) {
+                double sum = 0;
+                for (int k = 0; k < m; k++) {
+                    sum += inverse[row][k] * entering[k];
+                }
+                direction[row] = sum;
+            }
+            int leaving = -1;
+            double ratio = Double.POSITIVE_INFINITY;
+            for (int row = 0; row < m; row++) {
+                if (direction[row] > EPS && basic[row] / direction[row] < ratio - EPS) {
+                    ratio = basic[row] / direction[row];
+                    leaving = row;
+                }
+            }
+            if (leaving < 0) {
+                return null;
+            }
+            double pivotValue = direction[leaving];
+            double[] pivotRow = inverse[leaving];
+            for (int k = 0; k < m; k++) {
+                pivotRow[k] /= pivotValue;
+            }
+            basic[leaving] /= pivotValue;
+            for (int row = 0; row < m; row++) {
+                if (row == leaving || Math.abs(direction[row]) < EPS) {
+                    continue;
+                }
+                double factor = direction[row];
+                double[] target = inverse[row];
+                for (int k = 0; k < m; k++) {
+                    target[k] -= factor * pivotRow[k];
+                }
+                basic[row] = Math.max(0, basic[row] - factor * basic[leaving]);
+            }
+            basis[leaving] = candidate;
+            basisCost[leaving] = candidate.stock();
+        }
+        return null;
+    }
+
+    // Insertion sort, starting from the previous order: the duals only move a little between pivots.
+    private static void sortByDensity(int[] order, double[] duals, int[] rows, int[] lengths, int kerf) {
+        double[] density = new double[order.length];
+        for (int row = 0; row < order.length; row++) {
+            density[row] = duals[row] / (lengths[rows[row]] + kerf);
+        }
+        for (int i = 1; i < order.length; i++) {
+            int row = order[i];
+            int j = i - 1;
+            while (j >= 0 && density[order[j]] < density[row]) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = row;
+        }
+    }
+
+    // Bounded integer knapsack: the most dual value that fits into one board. Depth first over the
+    // lengths by value density (rows without a positive dual sort last), pruned with the fractional
+    // (Dantzig) bound. The search stops once the board is worth target; the bound it reports stays valid.
+    private static Knapsack knapsack(double[] duals, int[] rows, int[] order, int[] demand, int[] lengths,
+                                     int capacity, int kerf, double target) {
+        int items = 0;
+        while (items < order.length && duals[order[items]] > EPS) {
+            items++;
+        }
+        int[] size = new int[items];
+        int[] limit = new int[items];
+        double[] value = new double[items];
+        for (int i = 0; i < items; i++) {
+            int row = order[i];
+            size[i] = lengths[rows[row]] + kerf;
+            limit[i] = demand[rows[row]];
+            value[i] = duals[row];
+        }
+        Knapsack search = new Knapsack(size, limit, value, target);
+        search.upperBound = search.bound(0, capacity);
+        search.explore(0, capacity, 0);
+        if (!search.stopped) {
+            search.upperBound = search.bestValue;
+        }
+        search.counts = new int[demand.length];
+        for (int i = 0; i < items; i++) {
+            search.counts[rows[order[i]]] = search.best[i];
+        }
+        return search;
+    }
+
+    private static final class Knapsack {
+        final int[] size;
+        final int[] limit;
+        final double[] value;
+        final double target;
+        final int[] current;
+        final int[] best;
+        double bestValue;
+        double upperBound;
+        int[] counts;
+        int nodes;
+        boolean stopped;
+
+        Knapsack(int[] size, int[] limit, double[] value, double target) {
+            this.size = size;
+            this.limit = limit;
+            this.value = value;
+            this.target = target;
+            this.current = new int[size.length];
+            this.best = new int[size.length];
+        }
+
+        void explore(int item, int room, double total) {
+            if (total > bestValue + EPS) {
+                bestValue = total;
+                System.arraycopy(current, 0, best, 0, current.length);
+            }
+            if (stopped || item == size.length || total + bound(item, room) <= bestValue + EPS) {
+                return;
+            }
+            if (bestValue >= target || ++nodes > MAX_KNAPSACK_NODES) {
+                stopped = true;
+                return;
+            }
+            for (int count = Math.min(limit[item], room / size[item]); count >= 0 && !stopped; count--) {
+                current[item] = count;
+                explore(item + 1, room - count * size[item], total + count * value[item]);
+            }
+            current[item] = 0;
+        }
+
+        double bound(int item, int room) {
+            double total = 0;
+            for (int i = item; i < size.length && room > 0; i++) {
+                int whole = Math.min(limit[i], room / size[i]);
+                total += whole * value[i];
+                room -= whole * size[i];
+                if (whole < limit[i]) {
+                    return total + value[i] * room / size[i];
+                }
+            }
+            return total;
+        }
+    }
+
+    // Whole boards of the LP solution are kept, the rest of the demand is solved again. When nothing
+    // rounds down the largest fraction is rounded up instead, and what is left at the end goes first fit.
+    private static List<Column> roundResidual(Lp relaxation, int[] demand, int[] lengths, int[] stocks, int kerf,
+                                              List<Column> pool, BooleanSupplier stop) {
+        List<Column> boards = new ArrayList<>();
+        int[] residual = demand.clone();
+        Lp lp = relaxation;
+        while (lp != null && !lp.columns.isEmpty()) {
+            boolean fixed = false;
+            int largest = 0;
+            for (int i = 0; i < lp.columns.size(); i++) {
+                int copies = (int) Math.floor(lp.values.get(i) + 1e-6);
+                for (int copy = 0; copy < copies; copy++) {
+                    fixed |= take(lp.columns.get(i), residual, boards, lengths, stocks, kerf);
+                }
+                if (lp.values.get(i) > lp.values.get(largest)) {
+                    largest = i;
+                }
+            }
+            if (!fixed) {
+                take(lp.columns.get(largest), residual, boards, lengths, stocks, kerf);
+            }
+            lp = solveLp(residual, lengths, stocks, kerf, pool, stop);
+        }
+        boolean left = false;
+        for (int count : residual) {
+            left |= count > 0;
+        }
+        if (left) {
+            boards.addAll(firstFitDecreasing(residual, lengths, stocks, kerf));
+        }
+        return boards;
+    }
+
+    private static boolean take(Column column, int[] residual, List<Column> boards, int[] lengths, int[] stocks,
+                                int kerf) {
+        int[] counts = new int[residual.length];
+        boolean any = false;
+        for (int type = 0; type < residual.length; type++) {
+            counts[type] = Math.min(column.counts()[type], residual[type]);
+            residual[type] -= counts[type];
+            any |= counts[type] > 0;
+        }
+        if (any) {
+            boards.add(new Column(shortestStock(counts, lengths, stocks, kerf), counts));
+        }
+        return any;
+    }
+
+    private static int shortestStock(int[] counts, int[] lengths, int[] stocks, int kerf) {
+        int used = 0;
+        for (int type = 0; type < counts.length; type++) {
+            used += counts[type] * (lengths[type] + kerf);
+        }
+        for (int stock : stocks) {
+            if (stock + kerf >= used) {
+                return stock;
+            }
+        }
+        return stocks[stocks.length - 1];
+    }
+
+    // With a single stock length the LP bound rounds up to whole boards.
+    private static double lowerBound(double bound, int[] stocks) {
+        return stocks.length == 1 ? Math.ceil(bound / stocks[0] - 1e-6) * stocks[0] : bound;
+    }
+
+    private static boolean closeEnough(double objective, double bound, int[] stocks) {
+        if (stocks.length == 1) {
+            return lowerBound(bound, stocks) >= lowerBound(objective, stocks);
+        }
+        return objective - bound <= objective * 1e-3;
+    }
+
+    private static long cost(List<Column> boards) {
+        long total = 0;
+        for (Column board : boards) {
+            total += board.stock();
+        }
+        return total;
+    }
+
+    private static boolean better(List<Column> candidate, List<Column> incumbent) {
+        long candidateCost = cost(candidate);
+        long incumbentCost = cost(incumbent);
+        return candidateCost != incumbentCost ? candidateCost < incumbentCost : candidate.size() < incumbent.size();
+    }
+
+    private static Plan toPlan(List<Column> columns, int[] lengths, int[] stocks, int kerf,
+                               List<ArrayDeque<Integer>> shapeIds, List<Piece> oversized) {
+        List<Column> ordered = new ArrayList<>(columns);
+        ordered.sort(Comparator.comparingInt(Column::stock).reversed()
+                .thenComparing(Column::counts, (left, right) -> Arrays.compare(right, left)));
+        List<Board> boards = new ArrayList<>(ordered.size());
+        for (Column column : ordered) {
+            List<Cut> cuts = new ArrayList<>();
+            int used = 0;
+            for (int type = 0; type < lengths.length; type++) {
+                for (int copy = 0; copy < column.counts()[type]; copy++) {
+                    cuts.add(new Cut(shapeIds.get(type).poll(), lengths[type] / UNITS_PER_CM));
+                    used += lengths[type] + kerf;
+                }
+            }
+            boards.add(new Board(column.stock() / UNITS_PER_CM, cuts, Math.max(0, column.stock() - used) / UNITS_PER_CM));
+        }
+        return new Plan(boards, oversized);
+    }
+}
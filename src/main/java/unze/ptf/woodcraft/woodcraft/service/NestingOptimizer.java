@@ -0,0 +1,252 @@
+package unze.ptf.woodcraft.woodcraft.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+// Searches part orderings for a layout with fewer sheets than the greedy pass. One worker per core runs
+// until the wall-clock budget is spent or the run is cancelled: randomised restarts keep the search
+// wide, while order crossover and swap/shift mutations on a shared elite refine the best sequences.
+public class NestingOptimizer {
+    private static final int ELITE_SIZE = 12;
+    private static final double RESTART_RATE = 0.2;
+
+    public static final class Run {
+        private final List<SheetNester.Part> units;
+        private final double sheetWidthCm;
+        private final double sheetHeightCm;
+        private final double kerfCm;
+        private final boolean allowRotation;
+        private final long deadline;
+        private final Consumer<SheetNester.Layout> onImprovement;
+        private final List<Candidate> elite = new ArrayList<>();
+        private volatile boolean cancelled;
+        private volatile SheetNester.Layout best;
+        private CompletableFuture<SheetNester.Layout> result;
+        private long evaluations;
+
+        private Run(List<SheetNester.Part> units, double sheetWidthCm, double sheetHeightCm, double kerfCm,
+                    boolean allowRotation, long deadline, Consumer<SheetNester.Layout> onImprovement) {
+            this.units = units;
+            this.sheetWidthCm = sheetWidthCm;
+            this.sheetHeightCm = sheetHeightCm;
+            this.kerfCm = kerfCm;
+            this.allowRotation = allowRotation;
+            this.deadline = deadline;
+            this.onImprovement = onImprovement;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public SheetNester.Layout best() {
+            return best;
+        }
+
+        // Completes with the best layout once every worker has stopped, or exceptionally when one failed.
+        public CompletableFuture<SheetNester.Layout> result() {
+            return result;
+        }
+
+        public synchronized long evaluations() {
+            return evaluations;
+        }
+
+        private boolean running() {
+            return !cancelled && System.nanoTime() < deadline;
+        }
+
+        // Keeps the elite sorted best first and reports a new overall best to the listener.
+        private void offer(Candidate candidate) {
+            boolean improved;
+            synchronized (this) {
+                evaluations++;
+                if (elite.size() == ELITE_SIZE && !candidate.layout().betterThan(elite.get(ELITE_SIZE - 1).layout())) {
+                    return;
+                }
+                for (Candidate member : elite) {
+                    if (member.sequence().equals(candidate.sequence())) {
+                        return;
+                    }
+                }
+                int index = 0;
+                while (index < elite.size() && !candidate.layout().betterThan(elite.get(index).layout())) {
+                    index++;
+                }
+                elite.add(index, candidate);
+                if (elite.size() > ELITE_SIZE) {
+                    elite.remove(ELITE_SIZE);
+                }
+                improved = index == 0 && candidate.layout().betterThan(best);
+                if (improved) {
+                    best = candidate.layout();
+                }
+            }
+            if (improved && onImprovement != null) {
+                onImprovement.accept(candidate.layout());
+            }
+        }
+
+        private synchronized Candidate pickElite(ThreadLocalRandom random) {
+            if (elite.isEmpty()) {
+                return null;
+            }
+            // Biased towards the front: the minimum of two uniform picks.
+            return elite.get(Math.min(random.nextInt(elite.size()), random.nextInt(elite.size())));
+        }
+    }
+
+    private record Candidate(List<SheetNester.Part> sequence, SheetNester.Heuristic heuristic,
+                             SheetNester.Layout layout) {
+    }
+
+    private final SheetNester sheetNester;
+    private final ForkJoinPool pool;
+
+    // A pool of its own, so a long search does not starve the common pool used by shape tracing.
+    public NestingOptimizer(SheetNester sheetNester) {
+        this(sheetNester, new ForkJoinPool(Runtime.getRuntime().availableProcessors()));
+    }
+
+    public NestingOptimizer(SheetNester sheetNester, ForkJoinPool pool) {
+        this.sheetNester = sheetNester;
+        this.pool = pool;
+    }
+
+    // The greedy orderings are evaluated first, so the result is never worse than SheetNester.nest and the
+    // listener has something to show straight away. The listener is called from worker threads.
+    public Run optimize(List<SheetNester.Part> parts, double sheetWidthCm, double sheetHeightCm, double kerfCm,
+                        boolean allowRotation, long budgetMillis, Consumer<SheetNester.Layout> onImprovement) {
+        List<SheetNester.Part> units = new ArrayList<>();
+        for (SheetNester.Part part : parts) {
+            for (int copy = 0; copy < part.quantity(); copy++) {
+                units.add(new SheetNester.Part(part.shapeId(), part.widthCm(), part.heightCm(), 1));
+            }
+        }
+        Run run = new Run(units, sheetWidthCm, sheetHeightCm, kerfCm, allowRotation,
+                System.nanoTime() + budgetMillis * 1_000_000L, onImprovement);
+        for (Comparator<SheetNester.Part> ordering : SheetNester.ORDERINGS) {
+            List<SheetNester.Part> sequence = new ArrayList<>(units);
+            sequence.sort(ordering);
+            for (SheetNester.Heuristic heuristic : SheetNester.Heuristic.values()) {
+                run.offer(evaluate(run, sequence, heuristic));
+            }
+        }
+        // Nothing to reorder: the empty layout of the greedy pass is final, and the workers would only spin.
+        if (units.isEmpty()) {
+            run.result = CompletableFuture.completedFuture(run.best());
+            return run;
+        }
+        int workers = Math.max(1, pool.getParallelism());
+        List<CompletableFuture<Void>> futures = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            futures.add(CompletableFuture.runAsync(() -> search(run), pool));
+        }
+        run.result = CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> run.best());
+        return run;
+    }
+
+    private void search(Run run) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        SheetNester.Heuristic[] heuristics = SheetNester.Heuristic.values();
+        while (run.running()) {
+            Candidate parent = run.pickElite(random);
+            List<SheetNester.Part> sequence;
+            SheetNester.Heuristic heuristic;
+            if (parent == null || random.nextDouble() < RESTART_RATE) {
+                sequence = noisyOrder(run.units, random);
+                heuristic = heuristics[random.nextInt(heuristics.length)];
+            } else {
+                Candidate other = run.pickElite(random);
+                sequence = other != null && other != parent && random.nextBoolean()
+                        ? crossover(parent.sequence(), other.sequence(), random)
+                        : new ArrayList<>(parent.sequence());
+                mutate(sequence, random);
+                heuristic = random.nextDouble() < 0.9 ? parent.heuristic() : heuristics[random.nextInt(heuristics.length)];
+            }
+            run.offer(evaluate(run, sequence, heuristic));
+        }
+    }
+
+    private Candidate evaluate(Run run, List<SheetNester.Part> sequence, SheetNester.Heuristic heuristic) {
+        SheetNester.Layout layout = sheetNester.pack(sequence, run.sheetWidthCm, run.sheetHeightCm, run.kerfCm,
+                run.allowRotation, heuristic);
+        return new Candidate(List.copyOf(sequence), heuristic, layout);
+    }
+
+    // Largest first with a random weight per part, so restarts stay close to the good greedy orders.
+    private static List<SheetNester.Part> noisyOrder(List<SheetNester.Part> units, ThreadLocalRandom random) {
+        int count = units.size();
+        double[] keys = new double[count];
+        Integer[] indices = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            SheetNester.Part part = units.get(i);
+            double size = random.nextBoolean()
+                    ? part.widthCm() * part.heightCm()
+                    : Math.pow(Math.max(part.widthCm(), part.heightCm()), 2);
+            keys[i] = size * (0.6 + 0.8 * random.nextDouble());
+            indices[i] = i;
+        }
+        Arrays.sort(indices, (left, right) -> Double.compare(keys[right], keys[left]));
+        List<SheetNester.Part> sequence = new ArrayList<>(count);
+        for (int index : indices) {
+            sequence.add(units.get(index));
+        }
+        return sequence;
+    }
+
+    // Order crossover: a slice of the first parent is kept in place and the remaining parts follow in
+    // the second parent's order. Parts are matched by identity, since every unit is its own instance.
+    private static List<SheetNester.Part> crossover(List<SheetNester.Part> first, List<SheetNester.Part> second,
+                                                    ThreadLocalRandom random) {
+        int count = first.size();
+        int from = random.nextInt(count);
+        int to = from + random.nextInt(count - from) + 1;
+        IdentityHashMap<SheetNester.Part, Boolean> taken = new IdentityHashMap<>();
+        for (int i = from; i < to; i++) {
+            taken.put(first.get(i), Boolean.TRUE);
+        }
+        List<SheetNester.Part> child = new ArrayList<>(count);
+        int cursor = 0;
+        for (int i = 0; i < count; i++) {
+            if (i >= from && i < to) {
+                child.add(first.get(i));
+                continue;
+            }
+            while (taken.containsKey(second.get(cursor))) {
+                cursor++;
+            }
+            child.add(second.get(cursor++));
+        }
+        return child;
+    }
+
+    private static void mutate(List<SheetNester.Part> sequence, ThreadLocalRandom random) {
+        int count = sequence.size();
+        if (count < 2) {
+            return;
+        }
+        int moves = 1 + random.nextInt(3);
+        for (int move = 0; move < moves; move++) {
+            int first = random.nextInt(count);
+            int second = random.nextInt(count);
+            if (random.nextBoolean()) {
+                Collections.swap(sequence, first, second);
+            } else {
+                sequence.add(second, sequence.remove(first));
+            }
+        }
+    }
+}
@@ -4,6 +4,8 @@ import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDPageContentStream;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType0Font;
 import unze.ptf.woodcraft.woodcraft.model.Document;
 import unze.ptf.woodcraft.woodcraft.model.Edge;
 import unze.ptf.woodcraft.woodcraft.model.NodePoint;
@@ -11,11 +13,18 @@ import unze.ptf.woodcraft.woodcraft.model.NodePoint;
 import java.awt.Color;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 public class PdfExportService {
     private static final float POINTS_PER_CM = 28.3465f;
     private static final float MARGIN_CM = 1.5f;
+    private static final float TEXT_SIZE = 9;
+    private static final float LINE_HEIGHT = 12;
+    // Embedded as a subset: Helvetica's WinAnsi encoding has no c-caron, c-acute or d-stroke for material names.
+    private static final String TEXT_FONT = "/fonts/DejaVuSans.ttf";
 
     public void export(Document document, List<NodePoint> nodes, List<Edge> edges, File target) throws IOException {
         try (PDDocument pdf = new PDDocument()) {
@@ -66,6 +75,71 @@ public class PdfExportService {
         }
     }
 
+    // Adds A4 pages with the saw instructions per material, in cutting order. Plans are keyed by material name.
+    public void appendCutSequences(PDDocument pdf, Map<String, CutSequencer.Plan> plans) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, CutSequencer.Plan> entry : plans.entrySet()) {
+            CutSequencer.Plan plan = entry.getValue();
+            if (plan.outlineNested()) {
+                lines.add(String.format("Redoslijed rezanja - %s: slozeno po obrisu, dijelovi se rezu po obrisu "
+                        + "(CNC ili ubodna pila), bez ravnih rezova", entry.getKey()));
+                lines.add("");
+                continue;
+            }
+            lines.add(String.format("Redoslijed rezanja - %s: %d rezova, %.1f m, %d okretanja, %d namjestanja, oko %.0f min",
+                    entry.getKey(), plan.cutCount(), plan.cutLengthCm() / 100.0, plan.rotations(), plan.fenceResets(),
+                    plan.sawSeconds() / 60.0));
+            for (int i = 0; i < plan.sheets().size(); i++) {
+                CutSequencer.SheetSequence sheet = plan.sheets().get(i);
+                lines.add("");
+                lines.add(String.format("Ploca %d%s: %d rezova, %d okretanja, %d namjestanja%s", i + 1,
+                        sheet.repacked() ? " (preslozena)" : "", sheet.cuts().size(), sheet.rotations(),
+                        sheet.fenceResets(), sheet.blockedParts() > 0
+                                ? String.format(", %d dijelova bez ravnog reza", sheet.blockedParts()) : ""));
+                int number = 1;
+                for (CutSequencer.Cut cut : sheet.cuts()) {
+                    lines.add(String.format("  %d. %s rez %s=%.1f cm (%.1f-%.1f), granicnik %.1f cm%s%s", number++,
+                            cut.vertical() ? "okomiti" : "vodoravni", cut.vertical() ? "x" : "y", cut.positionCm(),
+                            cut.startCm(), cut.endCm(), cut.fenceCm(), cut.rotated() ? " [okreni]" : "",
+                            cut.fenceReset() ? " [namjesti]" : ""));
+                }
+            }
+            lines.add("");
+        }
+        writeLines(pdf, lines);
+    }
+
+    private void writeLines(PDDocument pdf, List<String> lines) throws IOException {
+        float margin = MARGIN_CM * POINTS_PER_CM;
+        float top = PDRectangle.A4.getHeight() - margin;
+        int linesPerPage = (int) ((top - margin) / LINE_HEIGHT);
+        PDFont font = loadFont(pdf);
+        for (int start = 0; start < lines.size(); start += linesPerPage) {
+            PDPage page = new PDPage(PDRectangle.A4);
+            pdf.addPage(page);
+            try (PDPageContentStream content = new PDPageContentStream(pdf, page)) {
+                content.beginText();
+                content.setFont(font, TEXT_SIZE);
+                content.setLeading(LINE_HEIGHT);
+                content.newLineAtOffset(margin, top);
+                for (String line : lines.subList(start, Math.min(lines.size(), start + linesPerPage))) {
+                    content.showText(line);
+                    content.newLine();
+                }
+                content.endText();
+            }
+        }
+    }
+
+    private PDFont loadFont(PDDocument pdf) throws IOException {
+        try (InputStream stream = PdfExportService.class.getResourceAsStream(TEXT_FONT)) {
+            if (stream == null) {
+                throw new IOException("Missing font resource " + TEXT_FONT);
+            }
+            return PDType0Font.load(pdf, stream);
+        }
+    }
+
     private NodePoint findNode(List<NodePoint> nodes, int id) {
         for (NodePoint node : nodes) {
             if (node.getId() == id) {
@@ -0,0 +1,202 @@
+package unze.ptf.woodcraft.woodcraft.service;
+
+import unze.ptf.woodcraft.woodcraft.model.Edge;
+import unze.ptf.woodcraft.woodcraft.model.NodePoint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class PlanarFaceExtractor {
+    public record Face(List<Integer> nodeIds) {
+    }
+
+    private final DocumentGraph graph;
+    private final List<Edge> edges = new ArrayList<>();
+    private final Map<Integer, Integer> slotByEdgeId = new HashMap<>();
+    private final Map<Integer, int[]> rotations = new HashMap<>();
+    private int[] rotationIndex = new int[16];
+
+    public PlanarFaceExtractor(DocumentGraph graph) {
+        this.graph = graph;
+    }
+
+    public List<Face> extractFaces() {
+        return extractFacesAround(graph.nodeMap().keySet());
+    }
+
+    // Only faces passing through the given nodes are traced; half-edges are discovered on demand,
+    // so the cost follows the size of those faces rather than the size of the document.
+    public List<Face> extractFacesAround(Collection<Integer> nodeIds) {
+        BitSet visited = new BitSet();
+        List<Face> faces = new ArrayList<>();
+        for (int nodeId : nodeIds) {
+            if (!graph.containsNode(nodeId)) {
+                continue;
+            }
+            for (int halfEdge : rotation(nodeId)) {
+                if (!visited.get(halfEdge)) {
+                    Face face = traceFace(halfEdge, visited);
+                    if (face != null) {
+                        faces.add(face);
+                    }
+                }
+            }
+        }
+        return faces;
+    }
+
+    private Face traceFace(int startHalfEdge, BitSet visited) {
+        List<Integer> walk = new ArrayList<>();
+        int current = startHalfEdge;
+        while (!visited.get(current)) {
+            visited.set(current);
+            walk.add(origin(current));
+            current = next(current);
+        }
+        List<Integer> boundary = removeSpurs(walk);
+        if (boundary.size() < 3) {
+            return null;
+        }
+        return new Face(boundary);
+    }
+
+    private int next(int halfEdge) {
+        int twin = halfEdge ^ 1;
+        int vertex = origin(twin);
+        int[] rotation = rotation(vertex);
+        int position = rotationIndex[twin];
+        return rotation[(position - 1 + rotation.length) % rotation.length];
+    }
+
+    private int[] rotation(int nodeId) {
+        int[] rotation = rotations.get(nodeId);
+        if (rotation != null) {
+            return rotation;
+        }
+        List<Integer> halfEdges = outgoing(nodeId);
+        int size = halfEdges.size();
+        double[] angles = new double[size];
+        double[] chordAngles = new double[size];
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            int halfEdge = halfEdges.get(i);
+            angles[i] = tangentAngle(halfEdge);
+            chordAngles[i] = chordAngle(halfEdge);
+            order[i] = i;
+        }
+        Arrays.sort(order, (left, right) -> {
+            int byTangent = Double.compare(angles[left], angles[right]);
+            return byTangent != 0 ? byTangent : Double.compare(chordAngles[left], chordAngles[right]);
+        });
+        rotation = new int[size];
+        for (int i = 0; i < size; i++) {
+            rotation[i] = halfEdges.get(order[i]);
+            rotationIndex[rotation[i]] = i;
+        }
+        rotations.put(nodeId, rotation);
+        return rotation;
+    }
+
+    private List<Integer> outgoing(int nodeId) {
+        // Parallel edges collapse onto the one the graph's edge index resolves for the pair.
+        List<Edge> incident = graph.incidentEdges(nodeId);
+        List<Integer> halfEdges = new ArrayList<>(incident.size());
+        for (Edge edge : incident) {
+            int other = edge.getStartNodeId() == nodeId ? edge.getEndNodeId() : edge.getStartNodeId();
+            if (other == nodeId || !graph.containsNode(other) || graph.findEdge(nodeId, other) != edge) {
+                continue;
+            }
+            int halfEdge = slot(edge) * 2;
+            halfEdges.add(edge.getStartNodeId() == nodeId ? halfEdge : halfEdge + 1);
+        }
+        return halfEdges;
+    }
+
+    private int slot(Edge edge) {
+        Integer slot = slotByEdgeId.get(edge.getId());
+        if (slot != null) {
+            return slot;
+        }
+        slot = edges.size();
+        edges.add(edge);
+        slotByEdgeId.put(edge.getId(), slot);
+        if (rotationIndex.length < edges.size() * 2) {
+            rotationIndex = Arrays.copyOf(rotationIndex, Math.max(rotationIndex.length * 2, edges.size() * 2));
+        }
+        return slot;
+    }
+
+    private double tangentAngle(int halfEdge) {
+        Edge edge = edges.get(halfEdge >> 1);
+        NodePoint from = graph.getNode(origin(halfEdge));
+        NodePoint to = graph.getNode(origin(halfEdge ^ 1));
+        if (hasControls(edge)) {
+            boolean forward = (halfEdge & 1) == 0;
+            double nearX = forward ? edge.getControlStartXCm() : edge.getControlEndXCm();
+            double nearY = forward ? edge.getControlStartYCm() : edge.getControlEndYCm();
+            double farX = forward ? edge.getControlEndXCm() : edge.getControlStartXCm();
+            double farY = forward ? edge.getControlEndYCm() : edge.getControlStartYCm();
+            if (!coincident(nearX, nearY, from.getXCm(), from.getYCm())) {
+                return Math.atan2(nearY - from.getYCm(), nearX - from.getXCm());
+            }
+            if (!coincident(farX, farY, from.getXCm(), from.getYCm())) {
+                return Math.atan2(farY - from.getYCm(), farX - from.getXCm());
+            }
+        }
+        return Math.atan2(to.getYCm() - from.getYCm(), to.getXCm() - from.getXCm());
+    }
+
+    private double chordAngle(int halfEdge) {
+        NodePoint from = graph.getNode(origin(halfEdge));
+        NodePoint to = graph.getNode(origin(halfEdge ^ 1));
+        return Math.atan2(to.getYCm() - from.getYCm(), to.getXCm() - from.getXCm());
+    }
+
+    private int origin(int halfEdge) {
+        Edge edge = edges.get(halfEdge >> 1);
+        return (halfEdge & 1) == 0 ? edge.getStartNodeId() : edge.getEndNodeId();
+    }
+
+    private boolean hasControls(Edge edge) {
+        return edge.getControlStartXCm() != null && edge.getControlStartYCm() != null
+                && edge.getControlEndXCm() != null && edge.getControlEndYCm() != null;
+    }
+
+    private boolean coincident(double ax, double ay, double bx, double by) {
+        return Math.abs(ax - bx) < 1e-9 && Math.abs(ay - by) < 1e-9;
+    }
+
+    private List<Integer> removeSpurs(List<Integer> walk) {
+        // Filaments (dangling edges, bridges into a face) are walked there and back; cancel those pairs.
+        List<Integer> stack = new ArrayList<>(walk.size());
+        for (int nodeId : walk) {
+            int size = stack.size();
+            if (size >= 2 && stack.get(size - 2) == nodeId) {
+                stack.remove(size - 1);
+            } else {
+                stack.add(nodeId);
+            }
+        }
+        boolean changed = true;
+        while (changed && stack.size() >= 2) {
+            changed = false;
+            int size = stack.size();
+            if (stack.get(size - 1).equals(stack.get(0))) {
+                stack.remove(size - 1);
+                changed = true;
+            } else if (size >= 3 && stack.get(size - 1).equals(stack.get(1))) {
+                stack.remove(0);
+                changed = true;
+            } else if (size >= 3 && stack.get(size - 2).equals(stack.get(0))) {
+                stack.remove(size - 1);
+                changed = true;
+            }
+        }
+        return stack;
+    }
+}
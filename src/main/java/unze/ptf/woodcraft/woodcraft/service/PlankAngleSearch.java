@@ -0,0 +1,242 @@
+package unze.ptf.woodcraft.woodcraft.service;
+
+import unze.ptf.woodcraft.woodcraft.util.PolygonBuffer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+// Finds the plank angle with the least waste. Candidates come from the convex hull (rotating calipers):
+// planks laid along or across a hull edge are where the strips hug the outline, so every hull edge gives
+// four angles, topped up by a coarse sweep for concave shapes. Candidates are evaluated in parallel, then
+// the best few are refined on a fine step. The run is checked for cancellation before every evaluation.
+// Strip planks and stock board layouts are searched the same way; only the waste function differs.
+public class PlankAngleSearch {
+    private static final double COARSE_STEP_DEG = 15;
+    private static final int REFINED_CANDIDATES = 3;
+    private static final double FINE_WINDOW_DEG = 2;
+    private static final double FINE_STEP_DEG = 0.1;
+    // The angle slider runs from 0 to 359.
+    private static final double MAX_ANGLE_DEG = 359;
+    private static final double SAME_ANGLE_DEG = 0.05;
+
+    // count is the number of strip planks, or of stock boards bought for searchBoards. plankWidthCm is the
+    // strip width, which by width may have been widened to fit; boards take their widths from the stock, so
+    // there it is 0.
+    public record Best(double angleDeg, double wastePercent, int count, double plankWidthCm) {
+    }
+
+    // Waste at one angle; called from several workers at once.
+    private interface Cost {
+        double wastePercent(PolygonBuffer outline, double angleDeg);
+    }
+
+    // The full plan at the winning angle, planned once to report its count and width.
+    private interface Outcome {
+        Best at(PolygonBuffer outline, double angleDeg);
+    }
+
+    public static final class Run {
+        private volatile boolean cancelled;
+        private CompletableFuture<Best> result;
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        // Completes with the best angle, or with null when the run was cancelled.
+        public CompletableFuture<Best> result() {
+            return result;
+        }
+    }
+
+    private final PlankPlanner plankPlanner;
+    private final BoardPlanner boardPlanner;
+    private final ForkJoinPool pool;
+    private final ThreadLocal<PlankPlanner.Workspace> plankWorkspaces =
+            ThreadLocal.withInitial(PlankPlanner.Workspace::new);
+    private final ThreadLocal<BoardPlanner.Workspace> boardWorkspaces =
+            ThreadLocal.withInitial(BoardPlanner.Workspace::new);
+
+    public PlankAngleSearch(PlankPlanner plankPlanner, BoardPlanner boardPlanner) {
+        this(plankPlanner, boardPlanner, new ForkJoinPool(Runtime.getRuntime().availableProcessors()));
+    }
+
+    public PlankAngleSearch(PlankPlanner plankPlanner, BoardPlanner boardPlanner, ForkJoinPool pool) {
+        this.plankPlanner = plankPlanner;
+        this.boardPlanner = boardPlanner;
+        this.pool = pool;
+    }
+
+    // The outline is copied, so the caller may reuse its buffer straight away.
+    public Run search(PolygonBuffer polygon, double shapeAreaCm2, boolean byWidth, int count, double widthCm) {
+        return start(polygon, (outline, angleDeg) -> plankPlanner.wastePercent(outline, shapeAreaCm2, angleDeg,
+                byWidth, count, widthCm, plankWorkspaces.get()), (outline, angleDeg) -> {
+            PlankPlanner.Result result = plankPlanner.plan(outline, shapeAreaCm2, angleDeg, byWidth, count, widthCm,
+                    plankWorkspaces.get());
+            return new Best(angleDeg, result.wastePercent(), result.count(), result.plankWidthCm());
+        });
+    }
+
+    public Run searchBoards(PolygonBuffer polygon, double shapeAreaCm2, List<BoardPlanner.Stock> stock,
+                            double staggerCm, double kerfCm) {
+        return start(polygon, (outline, angleDeg) -> boardPlanner.wastePercent(outline, shapeAreaCm2, angleDeg,
+                stock, staggerCm, kerfCm, boardWorkspaces.get()), (outline, angleDeg) -> {
+            BoardPlanner.Layout layout = boardPlanner.plan(outline, shapeAreaCm2, angleDeg, stock, staggerCm, kerfCm,
+                    boardWorkspaces.get());
+            return new Best(angleDeg, layout.wastePercent(), layout.boardCount(), 0);
+        });
+    }
+
+    private Run start(PolygonBuffer polygon, Cost cost, Outcome outcome) {
+        PolygonBuffer outline = new PolygonBuffer(polygon.size());
+        outline.copyFrom(polygon);
+        Run run = new Run();
+        run.result = CompletableFuture.supplyAsync(() -> search(run, outline, cost, outcome), pool);
+        return run;
+    }
+
+    private Best search(Run run, PolygonBuffer outline, Cost cost, Outcome outcome) {
+        double[] candidates = candidateAngles(outline);
+        double[] waste = evaluate(run, outline, candidates, cost);
+        if (run.cancelled) {
+            return null;
+        }
+        double[] seeds = bestDistinct(candidates, waste);
+        int steps = (int) Math.round(FINE_WINDOW_DEG / FINE_STEP_DEG);
+        double[] fine = new double[seeds.length * (steps * 2 + 1)];
+        int size = 0;
+        for (double seed : seeds) {
+            for (int step = -steps; step <= steps; step++) {
+                fine[size++] = clamp(seed + step * FINE_STEP_DEG);
+            }
+        }
+        double[] fineWaste = evaluate(run, outline, fine, cost);
+        if (run.cancelled) {
+            return null;
+        }
+        double bestAngle = candidates[0];
+        double bestWaste = Double.MAX_VALUE;
+        for (int i = 0; i < candidates.length; i++) {
+            if (waste[i] < bestWaste) {
+                bestWaste = waste[i];
+                bestAngle = candidates[i];
+            }
+        }
+        for (int i = 0; i < fine.length; i++) {
+            if (fineWaste[i] < bestWaste - 1e-9) {
+                bestWaste = fineWaste[i];
+                bestAngle = fine[i];
+            }
+        }
+        return outcome.at(outline, bestAngle);
+    }
+
+    private double[] evaluate(Run run, PolygonBuffer outline, double[] angles, Cost cost) {
+        double[] waste = new double[angles.length];
+        IntStream.range(0, angles.length).parallel().forEach(index -> {
+            waste[index] = run.cancelled ? Double.MAX_VALUE : cost.wastePercent(outline, angles[index]);
+        });
+        return waste;
+    }
+
+    // Seeds for the fine pass, best first, far enough apart that their windows do not overlap.
+    private static double[] bestDistinct(double[] angles, double[] waste) {
+        Integer[] order = new Integer[angles.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (left, right) -> Double.compare(waste[left], waste[right]));
+        double[] seeds = new double[REFINED_CANDIDATES];
+        int size = 0;
+        for (int index : order) {
+            if (size == REFINED_CANDIDATES) {
+                break;
+            }
+            boolean distinct = true;
+            for (int i = 0; i < size; i++) {
+                distinct &= Math.abs(seeds[i] - angles[index]) > FINE_WINDOW_DEG * 2;
+            }
+            if (distinct) {
+                seeds[size++] = angles[index];
+            }
+        }
+        return Arrays.copyOf(seeds, size);
+    }
+
+    private static double[] candidateAngles(PolygonBuffer outline) {
+        PolygonBuffer hull = convexHull(outline);
+        int coarse = (int) (360 / COARSE_STEP_DEG);
+        double[] angles = new double[hull.size() * 4 + coarse];
+        int size = 0;
+        for (int i = 0; i < hull.size(); i++) {
+            int next = i + 1 == hull.size() ? 0 : i + 1;
+            double edge = Math.toDegrees(Math.atan2(hull.y(next) - hull.y(i), hull.x(next) - hull.x(i)));
+            for (int quarter = 0; quarter < 4; quarter++) {
+                angles[size++] = clamp(edge + quarter * 90);
+            }
+        }
+        for (int i = 0; i < coarse; i++) {
+            angles[size++] = clamp(i * COARSE_STEP_DEG);
+        }
+        Arrays.sort(angles, 0, size);
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            if (unique == 0 || angles[i] - angles[unique - 1] > SAME_ANGLE_DEG) {
+                angles[unique++] = angles[i];
+            }
+        }
+        return Arrays.copyOf(angles, unique);
+    }
+
+    private static double clamp(double angleDeg) {
+        double normalized = ((angleDeg % 360) + 360) % 360;
+        return Math.min(MAX_ANGLE_DEG, normalized);
+    }
+
+    // Andrew's monotone chain, counter-clockwise without collinear points.
+    private static PolygonBuffer convexHull(PolygonBuffer outline) {
+        int size = outline.size();
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (left, right) -> {
+            int byX = Double.compare(outline.x(left), outline.x(right));
+            return byX != 0 ? byX : Double.compare(outline.y(left), outline.y(right));
+        });
+        double[] xs = new double[size * 2];
+        double[] ys = new double[size * 2];
+        int hullSize = 0;
+        int floor = 2;
+        // Lower chain left to right, then the upper chain back from the second-rightmost point.
+        for (int k = 0; k < size * 2 - 1; k++) {
+            if (k == size) {
+                floor = hullSize + 1;
+            }
+            int index = order[k < size ? k : size * 2 - 2 - k];
+            double x = outline.x(index);
+            double y = outline.y(index);
+            while (hullSize >= floor
+                    && (xs[hullSize - 1] - xs[hullSize - 2]) * (y - ys[hullSize - 2])
+                    - (ys[hullSize - 1] - ys[hullSize - 2]) * (x - xs[hullSize - 2]) <= 0) {
+                hullSize--;
+            }
+            xs[hullSize] = x;
+            ys[hullSize] = y;
+            hullSize++;
+        }
+        hullSize = Math.max(0, hullSize - 1);
+        PolygonBuffer hull = new PolygonBuffer(Math.max(1, hullSize));
+        for (int i = 0; i < hullSize; i++) {
+            hull.add(xs[i], ys[i]);
+        }
+        return hull;
+    }
+}
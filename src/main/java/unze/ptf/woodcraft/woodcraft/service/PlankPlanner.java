@@ -0,0 +1,133 @@
+package unze.ptf.woodcraft.woodcraft.service;
+
+import unze.ptf.woodcraft.woodcraft.util.PolygonBuffer;
+import unze.ptf.woodcraft.woodcraft.util.PolygonMath;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Approximates a shape with parallel planks. The outline is turned by -angle about its centroid so the
+// planks run along y, and its span in x is split into strips; each plank is as long as the outline
+// inside its strip. Waste is the plank area that falls outside the shape. All strips come from a single
+// pass over the outline's edges (PolygonMath.slabs).
+public class PlankPlanner {
+    public static final int MAX_PLANKS = 50;
+
+    // A plank in the turned frame: x0..x1 across, y0..y1 along.
+    public record Strip(double x0, double x1, double y0, double y1) {
+    }
+
+    public record Result(double angleDeg, double centerX, double centerY, int count, double plankWidthCm,
+                         boolean widthLimited, List<Strip> strips, double wastePercent, double coveragePercent) {
+    }
+
+    // Scratch buffers for one thread; the preview keeps one and every search worker has its own.
+    public static final class Workspace {
+        private final PolygonBuffer rotated = new PolygonBuffer();
+        private final double[] centroid = new double[2];
+        private final double[] extent = new double[4];
+        private double[] bounds = new double[0];
+        private double[] areas = new double[0];
+        private double[] lows = new double[0];
+        private double[] highs = new double[0];
+        private int count;
+        private double width;
+        private boolean widthLimited;
+        private double rectArea;
+        private double intersectArea;
+
+        private void ensureStrips(int count) {
+            if (areas.length < count) {
+                bounds = new double[count + 1];
+                areas = new double[count];
+                lows = new double[count];
+                highs = new double[count];
+            }
+        }
+    }
+
+    public double span(PolygonBuffer polygon, double angleDeg, Workspace workspace) {
+        turn(polygon, angleDeg, workspace);
+        return workspace.extent[2] - workspace.extent[0];
+    }
+
+    // By count the span is split evenly; by width the count follows from the span, up to MAX_PLANKS,
+    // past which the width is widened to fit.
+    public Result plan(PolygonBuffer polygon, double shapeAreaCm2, double angleDeg, boolean byWidth, int count,
+                       double widthCm, Workspace workspace) {
+        List<Strip> strips = new ArrayList<>();
+        layout(polygon, angleDeg, byWidth, count, widthCm, workspace, strips);
+        return new Result(angleDeg, workspace.centroid[0], workspace.centroid[1], workspace.count, workspace.width,
+                workspace.widthLimited, strips, wastePercent(workspace, shapeAreaCm2),
+                shapeAreaCm2 > 0 ? (workspace.intersectArea / shapeAreaCm2) * 100.0 : 0);
+    }
+
+    // The waste of plan(...) without building the strips, for searches that try many angles.
+    public double wastePercent(PolygonBuffer polygon, double shapeAreaCm2, double angleDeg, boolean byWidth,
+                               int count, double widthCm, Workspace workspace) {
+        layout(polygon, angleDeg, byWidth, count, widthCm, workspace, null);
+        return wastePercent(workspace, shapeAreaCm2);
+    }
+
+    private static double wastePercent(Workspace workspace, double shapeAreaCm2) {
+        return shapeAreaCm2 > 0
+                ? (Math.max(0, workspace.rectArea - workspace.intersectArea) / shapeAreaCm2) * 100.0 : 0;
+    }
+
+    private void layout(PolygonBuffer polygon, double angleDeg, boolean byWidth, int count, double widthCm,
+                        Workspace workspace, List<Strip> strips) {
+        turn(polygon, angleDeg, workspace);
+        double minX = workspace.extent[0];
+        double maxX = workspace.extent[2];
+        double span = maxX - minX;
+        boolean widthLimited = false;
+        if (byWidth) {
+            count = (int) Math.ceil(span / Math.max(0.01, widthCm));
+            if (count > MAX_PLANKS) {
+                count = MAX_PLANKS;
+                widthCm = span / count;
+                widthLimited = true;
+            }
+            count = Math.max(1, count);
+        }
+        double width = byWidth ? widthCm : span / count;
+        if (width <= 0.01) {
+            width = span / Math.max(1, count);
+        }
+        double rectArea = 0;
+        double intersectArea = 0;
+        workspace.ensureStrips(count);
+        for (int i = 0; i < count; i++) {
+            workspace.bounds[i] = minX + i * width;
+        }
+        workspace.bounds[count] = maxX;
+        PolygonMath.slabs(workspace.rotated, workspace.bounds, count, workspace.areas, workspace.lows,
+                workspace.highs);
+        for (int i = 0; i < count; i++) {
+            double area = workspace.areas[i];
+            double plankLength = workspace.highs[i] - workspace.lows[i];
+            if (area <= 0.0001 || plankLength <= 0) {
+                continue;
+            }
+            if (strips != null) {
+                double x0 = minX + i * width;
+                double x1 = (i == count - 1) ? maxX : x0 + width;
+                strips.add(new Strip(x0, x1, workspace.lows[i], workspace.highs[i]));
+            }
+            rectArea += width * plankLength;
+            intersectArea += area;
+        }
+        workspace.count = count;
+        workspace.width = width;
+        workspace.widthLimited = widthLimited;
+        workspace.rectArea = rectArea;
+        workspace.intersectArea = intersectArea;
+    }
+
+    private void turn(PolygonBuffer polygon, double angleDeg, Workspace workspace) {
+        PolygonMath.centroid(polygon, workspace.centroid);
+        PolygonMath.rotate(polygon, workspace.centroid[0], workspace.centroid[1], -Math.toRadians(angleDeg),
+                workspace.rotated);
+        PolygonMath.bounds(workspace.rotated, workspace.extent);
+    }
+}
@@ -0,0 +1,63 @@
+package unze.ptf.woodcraft.woodcraft.service;
+
+import unze.ptf.woodcraft.woodcraft.dao.RemnantDao;
+import unze.ptf.woodcraft.woodcraft.model.Remnant;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Keeps the remnant rack in step with confirmed jobs: remnants a job was nested on are taken off the
+// rack, and offcuts big enough to use again are put on it.
+public class RemnantService {
+    public static final double MIN_SHEET_SIDE_CM = 20;
+    public static final double MIN_LUMBER_LENGTH_CM = 30;
+
+    private final RemnantDao remnantDao;
+    private final SheetNester sheetNester;
+
+    public RemnantService(RemnantDao remnantDao, SheetNester sheetNester) {
+        this.remnantDao = remnantDao;
+        this.sheetNester = sheetNester;
+    }
+
+    // Layouts and plans are keyed by material id. Returns the number of new remnants.
+    public int confirmJob(int documentId, double kerfMm, Map<Integer, SheetNester.Layout> layouts,
+                          Map<Integer, LumberCutter.Plan> plans) {
+        double kerfCm = kerfMm / 10.0;
+        List<Integer> consumed = new ArrayList<>();
+        List<Remnant> produced = new ArrayList<>();
+        for (Map.Entry<Integer, SheetNester.Layout> entry : layouts.entrySet()) {
+            int materialId = entry.getKey();
+            SheetNester.Layout layout = entry.getValue();
+            for (SheetNester.Sheet sheet : layout.sheets()) {
+                addOffcuts(produced, materialId, documentId, sheet, layout.sheetWidthCm(), layout.sheetHeightCm(),
+                        kerfCm);
+            }
+            for (SheetNester.RemnantSheet remnant : layout.remnants()) {
+                consumed.add(remnant.remnantId());
+                addOffcuts(produced, materialId, documentId, remnant.sheet(), remnant.widthCm(), remnant.heightCm(),
+                        kerfCm);
+            }
+        }
+        for (Map.Entry<Integer, LumberCutter.Plan> entry : plans.entrySet()) {
+            for (LumberCutter.Board board : entry.getValue().boards()) {
+                if (board.fromRemnant()) {
+                    consumed.add(board.remnantId());
+                }
+                if (board.offcutCm() >= MIN_LUMBER_LENGTH_CM) {
+                    produced.add(new Remnant(-1, entry.getKey(), board.offcutCm(), 0, documentId));
+                }
+            }
+        }
+        remnantDao.replace(consumed, produced);
+        return produced.size();
+    }
+
+    private void addOffcuts(List<Remnant> produced, int materialId, int documentId, SheetNester.Sheet sheet,
+                            double widthCm, double heightCm, double kerfCm) {
+        for (SheetNester.Offcut offcut : sheetNester.offcuts(sheet, widthCm, heightCm, kerfCm, MIN_SHEET_SIDE_CM)) {
+            produced.add(new Remnant(-1, materialId, offcut.widthCm(), offcut.heightCm(), documentId));
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package unze.ptf.woodcraft.woodcraft.service;
+
+import unze.ptf.woodcraft.woodcraft.dao.ShapeDao;
+import unze.ptf.woodcraft.woodcraft.model.Edge;
+import unze.ptf.woodcraft.woodcraft.model.NodePoint;
+import unze.ptf.woodcraft.woodcraft.model.ShapePolygon;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+public class ShapeMaintainer {
+    private final ShapeDao shapeDao;
+    private final GeometryService geometryService;
+    private final ShapeReconciler reconciler = new ShapeReconciler();
+    private final DocumentGraph graph = new DocumentGraph();
+    private final Map<Integer, ShapePolygon> shapesById = new LinkedHashMap<>();
+    private final Map<List<Integer>, Integer> shapeIdByCycle = new HashMap<>();
+    private final Map<Integer, Set<Integer>> shapeIdsByNode = new HashMap<>();
+    private final Set<Integer> dirtyNodes = new LinkedHashSet<>();
+    private int documentId = -1;
+
+    public ShapeMaintainer(ShapeDao shapeDao, GeometryService geometryService) {
+        this.shapeDao = shapeDao;
+        this.geometryService = geometryService;
+    }
+
+    public void load(int documentId, List<NodePoint> nodes, List<Edge> edges, List<ShapePolygon> storedShapes) {
+        this.documentId = documentId;
+        graph.load(nodes, edges);
+        geometryService.getCurveFlattener().clear();
+        shapesById.clear();
+        shapeIdByCycle.clear();
+        shapeIdsByNode.clear();
+        dirtyNodes.clear();
+        for (ShapePolygon stored : storedShapes) {
+            ShapePolygon hydrated = geometryService.buildShapeFromCycle(documentId, stored.getMaterialId(),
+                    stored.getNodeIds(), graph);
+            index(new ShapePolygon(stored.getId(), documentId, stored.getMaterialId(), stored.getQuantity(),
+                    stored.getNodeIds(), hydrated.getNodes(), hydrated.getAreaCm2(), hydrated.getPerimeterCm()));
+        }
+    }
+
+    public DocumentGraph getGraph() {
+        return graph;
+    }
+
+    public List<ShapePolygon> getShapes() {
+        return new ArrayList<>(shapesById.values());
+    }
+
+    public void markAllDirty() {
+        dirtyNodes.addAll(graph.nodeMap().keySet());
+        for (ShapePolygon shape : shapesById.values()) {
+            dirtyNodes.addAll(shape.getNodeIds());
+        }
+    }
+
+    public void nodeAdded(NodePoint node) {
+        // An isolated node bounds nothing; it only matters once an edge closes a loop through it.
+        graph.putNode(node);
+    }
+
+    public void nodeMoved(NodePoint node) {
+        // Moving a node turns the edges around its neighbours as well, so their rotations are stale too.
+        graph.putNode(node);
+        dirtyNodes.add(node.getId());
+        dirtyNodes.addAll(graph.neighbours(node.getId()));
+    }
+
+    public void nodeRemoved(int nodeId) {
+        dirtyNodes.add(nodeId);
+        dirtyNodes.addAll(graph.neighbours(nodeId));
+        for (Edge edge : graph.incidentEdges(nodeId)) {
+            geometryService.getCurveFlattener().evict(edge.getId());
+        }
+        graph.removeNode(nodeId);
+    }
+
+    public void edgeAdded(Edge edge) {
+        int start = edge.getStartNodeId();
+        int end = edge.getEndNodeId();
+        // A pendant edge (no loop closed, one end was isolated) is walked there and back by the face
+        // around it, so while a polyline is being drawn no face has to be re-traced.
+        boolean pendant = !graph.connected(start, end) && (graph.degree(start) == 0 || graph.degree(end) == 0);
+        graph.putEdge(edge);
+        if (!pendant) {
+            dirtyNodes.add(start);
+            dirtyNodes.add(end);
+        }
+    }
+
+    public void edgeChanged(Edge edge) {
+        graph.putEdge(edge);
+        dirtyNodes.add(edge.getStartNodeId());
+        dirtyNodes.add(edge.getEndNodeId());
+    }
+
+    public void edgeRemoved(int edgeId) {
+        Edge removed = graph.removeEdge(edgeId);
+        if (removed != null) {
+            geometryService.getCurveFlattener().evict(edgeId);
+            dirtyNodes.add(removed.getStartNodeId());
+            dirtyNodes.add(removed.getEndNodeId());
+        }
+    }
+
+    public boolean refresh(Integer defaultMaterialId) {
+        if (dirtyNodes.isEmpty()) {
+            return false;
+        }
+        // Faces that lost an edge may now run through nodes that were never touched, so trace from
+        // every node of the shapes that are about to be replaced as well.
+        Map<Integer, ShapePolygon> candidates = new LinkedHashMap<>();
+        Set<Integer> seeds = new LinkedHashSet<>(dirtyNodes);
+        for (int nodeId : dirtyNodes) {
+            for (int shapeId : shapeIdsByNode.getOrDefault(nodeId, Set.of())) {
+                candidates.put(shapeId, shapesById.get(shapeId));
+            }
+        }
+        for (ShapePolygon stale : candidates.values()) {
+            seeds.addAll(stale.getNodeIds());
+        }
+        dirtyNodes.clear();
+
+        List<ShapePolygon> faces = geometryService.buildShapesAround(documentId, graph, seeds);
+        for (ShapePolygon face : faces) {
+            Integer existingId = shapeIdByCycle.get(reconciler.cycleKey(face.getNodeIds()));
+            if (existingId != null) {
+                candidates.putIfAbsent(existingId, shapesById.get(existingId));
+            }
+        }
+        ShapeReconciler.Result result = reconciler.reconcile(new ArrayList<>(candidates.values()), faces,
+                defaultMaterialId);
+        List<ShapePolygon> inserted = result.hasChanges()
+                ? shapeDao.applyChanges(result.inserted(), result.updated(), result.deletedIds())
+                : List.of();
+        for (ShapePolygon candidate : candidates.values()) {
+            unindex(candidate);
+        }
+        for (ShapePolygon shape : result.retained()) {
+            index(shape);
+        }
+        for (ShapePolygon shape : result.updated()) {
+            index(shape);
+        }
+        for (ShapePolygon shape : inserted) {
+            index(shape);
+        }
+        return result.hasChanges();
+    }
+
+    public void assignMaterial(Collection<Integer> shapeIds, Integer materialId) {
+        for (int shapeId : shapeIds) {
+            ShapePolygon shape = shapesById.get(shapeId);
+            if (shape == null || Objects.equals(shape.getMaterialId(), materialId)) {
+                continue;
+            }
+            shapeDao.updateMaterial(shapeId, materialId);
+            shapesById.put(shapeId, new ShapePolygon(shapeId, shape.getDocumentId(), materialId,
+                    shape.getQuantity(), shape.getNodeIds(), shape.getNodes(), shape.getAreaCm2(),
+                    shape.getPerimeterCm()));
+        }
+    }
+
+    private void index(ShapePolygon shape) {
+        shapesById.put(shape.getId(), shape);
+        shapeIdByCycle.putIfAbsent(reconciler.cycleKey(shape.getNodeIds()), shape.getId());
+        for (int nodeId : shape.getNodeIds()) {
+            shapeIdsByNode.computeIfAbsent(nodeId, key -> new HashSet<>()).add(shape.getId());
+        }
+    }
+
+    private void unindex(ShapePolygon shape) {
+        shapesById.remove(shape.getId());
+        shapeIdByCycle.remove(reconciler.cycleKey(shape.getNodeIds()), shape.getId());
+        for (int nodeId : shape.getNodeIds()) {
+            Set<Integer> ids = shapeIdsByNode.get(nodeId);
+            if (ids != null) {
+                ids.remove(shape.getId());
+                if (ids.isEmpty()) {
+                    shapeIdsByNode.remove(nodeId);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,778 @@
+package unze.ptf.woodcraft.woodcraft.service;
+
+import unze.ptf.woodcraft.woodcraft.model.GrainDirection;
+import unze.ptf.woodcraft.woodcraft.util.PolygonBuffer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BooleanSupplier;
+
+// True-shape nesting on no-fit polygons. Outlines are split into convex pieces once; the NFP of a placed
+// and a moving part is the union of the Minkowski sums of their pieces, grown by the kerf. Each part
+// goes to the lowest, then leftmost NFP vertex that lies on the sheet and outside every NFP. NFPs are
+// cached per (part, rotation) pair for the run and the ones a placement is missing are built in parallel.
+public class ShapeNester {
+    public record Part(int shapeId, PolygonBuffer outline, int quantity) {
+    }
+
+    public static final double[] QUARTER_TURNS = {0, 90, 180, 270};
+    public static final double[] HALF_TURNS = {0, 180};
+
+    private static final double EPSILON = 1e-7;
+    private static final double MITER_LIMIT = 2.0;
+    private static final int PARALLEL_NFP_CUTOFF = 8;
+
+    // One part turned to one allowed angle and shifted so its bounds start at the origin.
+    private static final class Orientation {
+        private final int index;
+        private final double angleDeg;
+        private final double[][] pieces;
+        private final double width;
+        private final double height;
+
+        private Orientation(int index, double angleDeg, double[][] pieces, double width, double height) {
+            this.index = index;
+            this.angleDeg = angleDeg;
+            this.pieces = pieces;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private record PartType(int id, int shapeId, int quantity, double area, List<Orientation> orientations) {
+    }
+
+    // Convex pieces as interleaved x,y plus {minX, minY, maxX, maxY} per piece and for the whole NFP.
+    // vertices keeps the piece corners that are not inside another piece: the candidate positions.
+    private record Nfp(double[][] pieces, double[] pieceBounds, double[] bounds, double[] vertices) {
+    }
+
+    private static final class SheetState {
+        private final List<SheetNester.Placement> placements = new ArrayList<>();
+        private final List<Orientation> placed = new ArrayList<>();
+        private final Set<Orientation> placedKinds = new HashSet<>();
+        private final Set<Integer> failedTypes = new HashSet<>();
+        private double[] xs = new double[16];
+        private double[] ys = new double[16];
+        private double usedArea;
+
+        private void add(Orientation orientation, double x, double y) {
+            int count = placed.size();
+            if (count == xs.length) {
+                xs = Arrays.copyOf(xs, count * 2);
+                ys = Arrays.copyOf(ys, count * 2);
+            }
+            xs[count] = x;
+            ys[count] = y;
+            placed.add(orientation);
+            placedKinds.add(orientation);
+            // Anything that failed before may fit next to the new part, but not in the space it took.
+            failedTypes.clear();
+        }
+    }
+
+    private record Spot(Orientation orientation, double x, double y) {
+    }
+
+    private final ForkJoinPool pool;
+
+    public ShapeNester() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ShapeNester(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    // Grained parts keep the grain along its axis. Free parts get quarter turns: finer steps cost
+    // quadratically more NFPs and did not save sheets on our test sets.
+    public static double[] rotationsFor(GrainDirection grain) {
+        return SheetNester.quarterTurnsAllowed(grain) ? QUARTER_TURNS : HALF_TURNS;
+    }
+
+    // Placements carry the bounds of the outline turned by angleDeg about the origin. Parts that fit the
+    // sheet in no allowed rotation come back in oversized with their unturned bounds.
+    public SheetNester.Layout nest(List<Part> parts, double sheetWidthCm, double sheetHeightCm, double kerfCm,
+                                   double[] rotationsDeg) {
+        return nest(parts, sheetWidthCm, sheetHeightCm, kerfCm, rotationsDeg, () -> false);
+    }
+
+    // Checks cancelled before every placement and returns null once it is set.
+    public SheetNester.Layout nest(List<Part> parts, double sheetWidthCm, double sheetHeightCm, double kerfCm,
+                                   double[] rotationsDeg, BooleanSupplier cancelled) {
+        List<PartType> types = new ArrayList<>();
+        List<SheetNester.Part> oversized = new ArrayList<>();
+        int nextOrientation = 0;
+        for (Part part : parts) {
+            double[] outline = cleanOutline(part.outline());
+            if (outline == null || part.quantity() <= 0) {
+                continue;
+            }
+            List<int[]> convex = decompose(outline);
+            List<Orientation> orientations = new ArrayList<>(rotationsDeg.length);
+            for (double angle : rotationsDeg) {
+                Orientation orientation = orient(nextOrientation, outline, convex, angle);
+                if (orientation.width <= sheetWidthCm + EPSILON && orientation.height <= sheetHeightCm + EPSILON) {
+                    orientations.add(orientation);
+                    nextOrientation++;
+                }
+            }
+            if (orientations.isEmpty()) {
+                double[] bounds = bounds(outline);
+                oversized.add(new SheetNester.Part(part.shapeId(), bounds[2] - bounds[0], bounds[3] - bounds[1],
+                        part.quantity()));
+                continue;
+            }
+            types.add(new PartType(types.size(), part.shapeId(), part.quantity(), area(outline), orientations));
+        }
+        types.sort((left, right) -> Double.compare(right.area(), left.area()));
+
+        Map<Long, Nfp> cache = new ConcurrentHashMap<>();
+        List<SheetState> sheets = new ArrayList<>();
+        for (PartType type : types) {
+            for (int copy = 0; copy < type.quantity(); copy++) {
+                if (cancelled.getAsBoolean()) {
+                    return null;
+                }
+                Spot spot = null;
+                SheetState target = null;
+                for (SheetState sheet : sheets) {
+                    if (sheet.failedTypes.contains(type.id())
+                            || sheetWidthCm * sheetHeightCm - sheet.usedArea < type.area() - EPSILON) {
+                        continue;
+                    }
+                    ensureNfps(sheet, type, cache, kerfCm);
+                    spot = findSpot(sheet, type, cache, sheetWidthCm, sheetHeightCm);
+                    if (spot != null) {
+                        target = sheet;
+                        break;
+                    }
+                    sheet.failedTypes.add(type.id());
+                }
+                if (target == null) {
+                    target = new SheetState();
+                    sheets.add(target);
+                    spot = new Spot(lowest(type), 0, 0);
+                }
+                Orientation orientation = spot.orientation();
+                target.add(orientation, spot.x(), spot.y());
+                target.placements.add(new SheetNester.Placement(type.shapeId(), spot.x(), spot.y(),
+                        orientation.width, orientation.height, orientation.angleDeg));
+                target.usedArea += type.area();
+            }
+        }
+        List<SheetNester.Sheet> result = new ArrayList<>(sheets.size());
+        for (SheetState sheet : sheets) {
+            result.add(new SheetNester.Sheet(List.copyOf(sheet.placements), sheet.usedArea));
+        }
+        return new SheetNester.Layout(sheetWidthCm, sheetHeightCm, result, oversized, List.of(), true);
+    }
+
+    private static Orientation lowest(PartType type) {
+        Orientation best = null;
+        for (Orientation orientation : type.orientations()) {
+            if (best == null || orientation.height < best.height - EPSILON
+                    || (Math.abs(orientation.height - best.height) <= EPSILON && orientation.width < best.width)) {
+                best = orientation;
+            }
+        }
+        return best;
+    }
+
+    private void ensureNfps(SheetState sheet, PartType type, Map<Long, Nfp> cache, double kerfCm) {
+        Map<Long, Orientation[]> missing = new HashMap<>();
+        for (Orientation fixed : sheet.placedKinds) {
+            for (Orientation moving : type.orientations()) {
+                long key = key(fixed, moving);
+                if (!cache.containsKey(key)) {
+                    missing.putIfAbsent(key, new Orientation[] {fixed, moving});
+                }
+            }
+        }
+        if (missing.size() < PARALLEL_NFP_CUTOFF) {
+            missing.forEach((key, pair) -> cache.put(key, noFitPolygon(pair[0], pair[1], kerfCm)));
+            return;
+        }
+        pool.submit(() -> missing.entrySet().parallelStream().forEach(entry ->
+                cache.put(entry.getKey(), noFitPolygon(entry.getValue()[0], entry.getValue()[1], kerfCm)))).join();
+    }
+
+    // Candidates per rotation are tried from the top-left; the first one outside every NFP wins.
+    private static Spot findSpot(SheetState sheet, PartType type, Map<Long, Nfp> cache, double sheetWidthCm,
+                                 double sheetHeightCm) {
+        Spot best = null;
+        double bestBottom = Double.MAX_VALUE;
+        double bestLeft = Double.MAX_VALUE;
+        double[] candidates = new double[64];
+        Nfp[] nfps = new Nfp[sheet.placed.size()];
+        for (Orientation moving : type.orientations()) {
+            double maxX = sheetWidthCm - moving.width;
+            double maxY = sheetHeightCm - moving.height;
+            int count = 0;
+            candidates[count++] = 0;
+            candidates[count++] = 0;
+            for (int i = 0; i < nfps.length; i++) {
+                nfps[i] = cache.get(key(sheet.placed.get(i), moving));
+                double[] vertices = nfps[i].vertices();
+                candidates = ensure(candidates, count + vertices.length * 3);
+                for (int k = 0; k < vertices.length; k += 2) {
+                    double x = vertices[k] + sheet.xs[i];
+                    double y = vertices[k + 1] + sheet.ys[i];
+                    if (x < -EPSILON || x > maxX + EPSILON || y < -EPSILON || y > maxY + EPSILON) {
+                        continue;
+                    }
+                    // Also slide the vertex against the top and left edges of the sheet.
+                    candidates[count++] = x;
+                    candidates[count++] = y;
+                    candidates[count++] = x;
+                    candidates[count++] = 0;
+                    candidates[count++] = 0;
+                    candidates[count++] = y;
+                }
+            }
+            Integer[] order = new Integer[count / 2];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            double[] points = candidates;
+            Arrays.sort(order, (left, right) -> {
+                int byY = Double.compare(points[left * 2 + 1], points[right * 2 + 1]);
+                return byY != 0 ? byY : Double.compare(points[left * 2], points[right * 2]);
+            });
+            int blocker = 0;
+            for (int index : order) {
+                double x = Math.max(0, Math.min(maxX, points[index * 2]));
+                double y = Math.max(0, Math.min(maxY, points[index * 2 + 1]));
+                double bottom = y + moving.height;
+                if (bottom > bestBottom + EPSILON) {
+                    break;
+                }
+                // Neighbouring candidates tend to be blocked by the same part, so it is tried first.
+                int blocking = blockingPart(sheet, nfps, x, y, blocker);
+                if (blocking >= 0) {
+                    blocker = blocking;
+                    continue;
+                }
+                if (bottom < bestBottom - EPSILON || x < bestLeft) {
+                    best = new Spot(moving, x, y);
+                    bestBottom = bottom;
+                    bestLeft = x;
+                }
+                break;
+            }
+        }
+        return best;
+    }
+
+    // Index of a placed part the position would overlap, or -1 when it is free.
+    private static int blockingPart(SheetState sheet, Nfp[] nfps, double x, double y, int first) {
+        for (int n = 0; n < nfps.length; n++) {
+            int i = (first + n) % nfps.length;
+            if (insideNfp(nfps[i], x - sheet.xs[i], y - sheet.ys[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean insideNfp(Nfp nfp, double px, double py) {
+        double[] bounds = nfp.bounds();
+        if (px <= bounds[0] || py <= bounds[1] || px >= bounds[2] || py >= bounds[3]) {
+            return false;
+        }
+        double[][] pieces = nfp.pieces();
+        double[] pieceBounds = nfp.pieceBounds();
+        for (int p = 0; p < pieces.length; p++) {
+            if (px <= pieceBounds[p * 4] || py <= pieceBounds[p * 4 + 1]
+                    || px >= pieceBounds[p * 4 + 2] || py >= pieceBounds[p * 4 + 3]) {
+                continue;
+            }
+            if (strictlyInside(pieces[p], px, py)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Points on the boundary count as outside, so parts may touch (kerf is already in the NFP).
+    private static boolean strictlyInside(double[] piece, double x, double y) {
+        int count = piece.length;
+        double ax = piece[count - 2];
+        double ay = piece[count - 1];
+        for (int k = 0; k < count; k += 2) {
+            double bx = piece[k];
+            double by = piece[k + 1];
+            double ex = bx - ax;
+            double ey = by - ay;
+            double turn = ex * (y - ay) - ey * (x - ax);
+            if (turn <= 0 || turn * turn <= EPSILON * EPSILON * (ex * ex + ey * ey)) {
+                return false;
+            }
+            ax = bx;
+            ay = by;
+        }
+        return true;
+    }
+
+    // Spread over the low bits, which is all Long.hashCode looks at for small values.
+    private static long key(Orientation fixed, Orientation moving) {
+        return (long) fixed.index * 1_000_003L + moving.index;
+    }
+
+    // Positions of the moving part's origin where it would overlap the fixed part at the origin:
+    // fixed (+) -moving, piece by piece, each sum grown outward by the kerf.
+    private static Nfp noFitPolygon(Orientation fixed, Orientation moving, double kerfCm) {
+        double[][] pieces = new double[fixed.pieces.length * moving.pieces.length][];
+        double[] pieceBounds = new double[pieces.length * 4];
+        double[] bounds = {Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+        int index = 0;
+        for (double[] a : fixed.pieces) {
+            for (double[] b : moving.pieces) {
+                double[] piece = minkowskiSum(a, negate(b));
+                if (kerfCm > 0) {
+                    piece = grow(piece, kerfCm);
+                }
+                pieces[index] = piece;
+                double[] box = bounds(piece);
+                System.arraycopy(box, 0, pieceBounds, index * 4, 4);
+                bounds[0] = Math.min(bounds[0], box[0]);
+                bounds[1] = Math.min(bounds[1], box[1]);
+                bounds[2] = Math.max(bounds[2], box[2]);
+                bounds[3] = Math.max(bounds[3], box[3]);
+                index++;
+            }
+        }
+        Nfp nfp = new Nfp(pieces, pieceBounds, bounds, null);
+        double[] vertices = new double[64];
+        int count = 0;
+        for (double[] piece : pieces) {
+            for (int k = 0; k < piece.length; k += 2) {
+                if (!insideNfp(nfp, piece[k], piece[k + 1])) {
+                    vertices = ensure(vertices, count + 2);
+                    vertices[count++] = piece[k];
+                    vertices[count++] = piece[k + 1];
+                }
+            }
+        }
+        return new Nfp(pieces, pieceBounds, bounds, Arrays.copyOf(vertices, count));
+    }
+
+    private static double[] negate(double[] piece) {
+        double[] negated = new double[piece.length];
+        for (int k = 0; k < piece.length; k++) {
+            negated[k] = -piece[k];
+        }
+        return negated;
+    }
+
+    // Sum of two convex counter-clockwise polygons by merging their edges in angle order.
+    private static double[] minkowskiSum(double[] first, double[] second) {
+        int n = first.length / 2;
+        int m = second.length / 2;
+        int i0 = lowestVertex(first);
+        int j0 = lowestVertex(second);
+        double[] sum = new double[(n + m) * 2];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < n || j < m) {
+            int a = (i0 + i) % n;
+            int b = (j0 + j) % m;
+            sum[size++] = first[a * 2] + second[b * 2];
+            sum[size++] = first[a * 2 + 1] + second[b * 2 + 1];
+            int nextA = (a + 1) % n;
+            int nextB = (b + 1) % m;
+            double turn = (first[nextA * 2] - first[a * 2]) * (second[nextB * 2 + 1] - second[b * 2 + 1])
+                    - (first[nextA * 2 + 1] - first[a * 2 + 1]) * (second[nextB * 2] - second[b * 2]);
+            boolean advanceFirst = i < n && (j >= m || turn >= 0);
+            boolean advanceSecond = j < m && (i >= n || turn <= 0);
+            if (advanceFirst) {
+                i++;
+            }
+            if (advanceSecond) {
+                j++;
+            }
+        }
+        return Arrays.copyOf(sum, size);
+    }
+
+    private static int lowestVertex(double[] piece) {
+        int lowest = 0;
+        for (int k = 1; k < piece.length / 2; k++) {
+            if (piece[k * 2 + 1] < piece[lowest * 2 + 1]
+                    || (piece[k * 2 + 1] == piece[lowest * 2 + 1] && piece[k * 2] < piece[lowest * 2])) {
+                lowest = k;
+            }
+        }
+        return lowest;
+    }
+
+    private static Orientation orient(int index, double[] outline, List<int[]> convex, double angleDeg) {
+        double radians = Math.toRadians(angleDeg);
+        double cos = Math.cos(radians);
+        double sin = Math.sin(radians);
+        // Quarter turns are taken exactly so rectangles keep their exact size.
+        if (angleDeg % 90 == 0) {
+            cos = Math.rint(cos);
+            sin = Math.rint(sin);
+        }
+        int count = outline.length / 2;
+        double[] turned = new double[outline.length];
+        double minX = Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            double x = outline[i * 2] * cos - outline[i * 2 + 1] * sin;
+            double y = outline[i * 2] * sin + outline[i * 2 + 1] * cos;
+            turned[i * 2] = x;
+            turned[i * 2 + 1] = y;
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+        }
+        double[][] pieces = new double[convex.size()][];
+        for (int p = 0; p < pieces.length; p++) {
+            int[] indices = convex.get(p);
+            double[] piece = new double[indices.length * 2];
+            for (int k = 0; k < indices.length; k++) {
+                piece[k * 2] = turned[indices[k] * 2] - minX;
+                piece[k * 2 + 1] = turned[indices[k] * 2 + 1] - minY;
+            }
+            // The edge merge in minkowskiSum needs strictly convex, counter-clockwise pieces.
+            pieces[p] = convexHull(piece);
+        }
+        return new Orientation(index, angleDeg, pieces, maxX - minX, maxY - minY);
+    }
+
+    // Drops repeated and collinear points (the sampled cycle repeats its first point) and makes the
+    // outline counter-clockwise in the sense of a positive shoelace area.
+    private static double[] cleanOutline(PolygonBuffer polygon) {
+        int size = polygon.size();
+        double[] points = new double[size * 2];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            double x = polygon.x(i);
+            double y = polygon.y(i);
+            if (count > 0 && Math.abs(points[count * 2 - 2] - x) < EPSILON && Math.abs(points[count * 2 - 1] - y) < EPSILON) {
+                continue;
+            }
+            points[count * 2] = x;
+            points[count * 2 + 1] = y;
+            count++;
+        }
+        while (count > 1 && Math.abs(points[0] - points[count * 2 - 2]) < EPSILON
+                && Math.abs(points[1] - points[count * 2 - 1]) < EPSILON) {
+            count--;
+        }
+        boolean removed = true;
+        while (removed && count >= 3) {
+            removed = false;
+            for (int i = 0; i < count && count >= 3; i++) {
+                int previous = (i + count - 1) % count;
+                int next = (i + 1) % count;
+                if (Math.abs(cross(points, previous, i, next)) <= EPSILON) {
+                    System.arraycopy(points, (i + 1) * 2, points, i * 2, (count - i - 1) * 2);
+                    count--;
+                    removed = true;
+                    i--;
+                }
+            }
+        }
+        if (count < 3) {
+            return null;
+        }
+        double[] outline = Arrays.copyOf(points, count * 2);
+        if (area(outline) < 0) {
+            for (int i = 0, j = count - 1; i < j; i++, j--) {
+                double x = outline[i * 2];
+                double y = outline[i * 2 + 1];
+                outline[i * 2] = outline[j * 2];
+                outline[i * 2 + 1] = outline[j * 2 + 1];
+                outline[j * 2] = x;
+                outline[j * 2 + 1] = y;
+            }
+        }
+        return outline;
+    }
+
+    // Ear clipping followed by Hertel-Mehlhorn: a diagonal is dropped whenever the two pieces on either
+    // side still form a convex polygon. Convex outlines come back as a single piece.
+    private static List<int[]> decompose(double[] outline) {
+        int count = outline.length / 2;
+        List<int[]> pieces = new ArrayList<>();
+        boolean convex = true;
+        for (int i = 0; i < count && convex; i++) {
+            convex = cross(outline, (i + count - 1) % count, i, (i + 1) % count) >= -EPSILON;
+        }
+        if (convex) {
+            int[] all = new int[count];
+            for (int i = 0; i < count; i++) {
+                all[i] = i;
+            }
+            pieces.add(all);
+            return pieces;
+        }
+        List<Integer> remaining = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            remaining.add(i);
+        }
+        while (remaining.size() > 3) {
+            int size = remaining.size();
+            int ear = -1;
+            double fallbackTurn = -Double.MAX_VALUE;
+            int fallback = 0;
+            for (int i = 0; i < size && ear < 0; i++) {
+                int a = remaining.get((i + size - 1) % size);
+                int b = remaining.get(i);
+                int c = remaining.get((i + 1) % size);
+                double turn = cross(outline, a, b, c);
+                if (turn > fallbackTurn) {
+                    fallbackTurn = turn;
+                    fallback = i;
+                }
+                if (turn <= EPSILON) {
+                    continue;
+                }
+                boolean empty = true;
+                for (int k = 0; k < size && empty; k++) {
+                    int other = remaining.get(k);
+                    if (other != a && other != b && other != c && inTriangle(outline, a, b, c, other)) {
+                        empty = false;
+                    }
+                }
+                if (empty) {
+                    ear = i;
+                }
+            }
+            // Numerically degenerate input: clip the most convex corner so the loop always ends.
+            int clip = ear >= 0 ? ear : fallback;
+            pieces.add(new int[] {remaining.get((clip + size - 1) % size), remaining.get(clip),
+                    remaining.get((clip + 1) % size)});
+            remaining.remove(clip);
+        }
+        pieces.add(new int[] {remaining.get(0), remaining.get(1), remaining.get(2)});
+        return mergeConvex(outline, pieces);
+    }
+
+    private static List<int[]> mergeConvex(double[] outline, List<int[]> triangles) {
+        int[][] pieces = triangles.toArray(new int[0][]);
+        Map<Long, Integer> owner = new HashMap<>();
+        for (int p = 0; p < pieces.length; p++) {
+            int[] piece = pieces[p];
+            for (int k = 0; k < piece.length; k++) {
+                owner.put(edgeKey(piece[k], piece[(k + 1) % piece.length]), p);
+            }
+        }
+        for (int p = 0; p < pieces.length; p++) {
+            if (pieces[p] == null) {
+                continue;
+            }
+            for (int k = 0; k < pieces[p].length; k++) {
+                int[] piece = pieces[p];
+                int u = piece[k];
+                int v = piece[(k + 1) % piece.length];
+                Integer other = owner.get(edgeKey(v, u));
+                if (other == null || other == p || pieces[other] == null) {
+                    continue;
+                }
+                int[] merged = merge(piece, pieces[other], u, v);
+                if (!isConvex(outline, merged)) {
+                    continue;
+                }
+                for (int m = 0; m < pieces[other].length; m++) {
+                    int[] otherPiece = pieces[other];
+                    owner.put(edgeKey(otherPiece[m], otherPiece[(m + 1) % otherPiece.length]), p);
+                }
+                owner.remove(edgeKey(u, v));
+                owner.remove(edgeKey(v, u));
+                pieces[p] = merged;
+                pieces[other] = null;
+                k = -1;
+            }
+        }
+        List<int[]> result = new ArrayList<>();
+        for (int[] piece : pieces) {
+            if (piece != null) {
+                result.add(piece);
+            }
+        }
+        return result;
+    }
+
+    // first holds the edge u -> v and second v -> u; the shared edge disappears.
+    private static int[] merge(int[] first, int[] second, int u, int v) {
+        int[] merged = new int[first.length + second.length - 2];
+        int count = 0;
+        int start = indexOf(first, v);
+        for (int k = 0; k < first.length; k++) {
+            merged[count++] = first[(start + k) % first.length];
+        }
+        int from = indexOf(second, u);
+        for (int k = 1; k < second.length - 1; k++) {
+            merged[count++] = second[(from + k) % second.length];
+        }
+        return merged;
+    }
+
+    private static int indexOf(int[] values, int value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isConvex(double[] outline, int[] piece) {
+        for (int k = 0; k < piece.length; k++) {
+            if (cross(outline, piece[(k + piece.length - 1) % piece.length], piece[k],
+                    piece[(k + 1) % piece.length]) < -EPSILON) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long edgeKey(int from, int to) {
+        return ((long) from << 32) | (to & 0xffffffffL);
+    }
+
+    private static boolean inTriangle(double[] points, int a, int b, int c, int p) {
+        return cross(points, a, b, p) >= -EPSILON && cross(points, b, c, p) >= -EPSILON
+                && cross(points, c, a, p) >= -EPSILON;
+    }
+
+    private static double cross(double[] points, int a, int b, int c) {
+        return (points[b * 2] - points[a * 2]) * (points[c * 2 + 1] - points[a * 2 + 1])
+                - (points[b * 2 + 1] - points[a * 2 + 1]) * (points[c * 2] - points[a * 2]);
+    }
+
+    // Andrew's monotone chain; collinear points are dropped.
+    private static double[] convexHull(double[] points) {
+        int count = points.length / 2;
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (left, right) -> {
+            int byX = Double.compare(points[left * 2], points[right * 2]);
+            return byX != 0 ? byX : Double.compare(points[left * 2 + 1], points[right * 2 + 1]);
+        });
+        double[] hull = new double[(count + 1) * 2];
+        int size = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            int floor = size;
+            for (int k = 0; k < count; k++) {
+                int index = order[pass == 0 ? k : count - 1 - k];
+                double x = points[index * 2];
+                double y = points[index * 2 + 1];
+                while (size >= floor + 2 && (hull[size * 2 - 2] - hull[size * 2 - 4]) * (y - hull[size * 2 - 3])
+                        - (hull[size * 2 - 1] - hull[size * 2 - 3]) * (x - hull[size * 2 - 4]) <= 0) {
+                    size--;
+                }
+                hull[size * 2] = x;
+                hull[size * 2 + 1] = y;
+                size++;
+            }
+            // The last point of each chain starts the other one.
+            size--;
+        }
+        return Arrays.copyOf(hull, Math.max(size, 1) * 2);
+    }
+
+    // Offsets a convex counter-clockwise polygon outward. Sharp corners are bevelled at the offset
+    // distance instead of mitred, which still contains the rounded offset.
+    private static double[] grow(double[] piece, double distance) {
+        int count = piece.length / 2;
+        if (count < 3) {
+            return growPoints(piece, distance);
+        }
+        double[] grown = new double[count * 4];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            int previous = (i + count - 1) % count;
+            int next = (i + 1) % count;
+            double vx = piece[i * 2];
+            double vy = piece[i * 2 + 1];
+            double inX = vx - piece[previous * 2];
+            double inY = vy - piece[previous * 2 + 1];
+            double inLength = Math.hypot(inX, inY);
+            double outX = piece[next * 2] - vx;
+            double outY = piece[next * 2 + 1] - vy;
+            double outLength = Math.hypot(outX, outY);
+            inX /= inLength;
+            inY /= inLength;
+            outX /= outLength;
+            outY /= outLength;
+            // Outward normals of a counter-clockwise polygon point to the right of each edge.
+            double n1x = inY;
+            double n1y = -inX;
+            double n2x = outY;
+            double n2y = -outX;
+            double bx = n1x + n2x;
+            double by = n1y + n2y;
+            double bLength = Math.hypot(bx, by);
+            bx /= bLength;
+            by /= bLength;
+            double cosine = n1x * bx + n1y * by;
+            if (1 / cosine <= MITER_LIMIT) {
+                grown[size++] = vx + bx * distance / cosine;
+                grown[size++] = vy + by * distance / cosine;
+                continue;
+            }
+            double t1 = distance * (1 - cosine) / (inX * bx + inY * by);
+            double t2 = distance * (1 - cosine) / (outX * bx + outY * by);
+            grown[size++] = vx + n1x * distance + inX * t1;
+            grown[size++] = vy + n1y * distance + inY * t1;
+            grown[size++] = vx + n2x * distance + outX * t2;
+            grown[size++] = vy + n2y * distance + outY * t2;
+        }
+        return Arrays.copyOf(grown, size);
+    }
+
+    // A degenerate sum (point or segment) becomes the hull of squares around its points.
+    private static double[] growPoints(double[] points, double distance) {
+        double[] corners = new double[points.length * 4];
+        int size = 0;
+        for (int i = 0; i < points.length; i += 2) {
+            for (int corner = 0; corner < 4; corner++) {
+                corners[size++] = points[i] + (corner % 2 == 0 ? -distance : distance);
+                corners[size++] = points[i + 1] + (corner < 2 ? -distance : distance);
+            }
+        }
+        return convexHull(corners);
+    }
+
+    private static double[] bounds(double[] points) {
+        double[] bounds = {Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+        for (int i = 0; i < points.length; i += 2) {
+            bounds[0] = Math.min(bounds[0], points[i]);
+            bounds[1] = Math.min(bounds[1], points[i + 1]);
+            bounds[2] = Math.max(bounds[2], points[i]);
+            bounds[3] = Math.max(bounds[3], points[i + 1]);
+        }
+        return bounds;
+    }
+
+    private static double area(double[] points) {
+        double sum = 0;
+        int count = points.length / 2;
+        for (int i = 0, j = count - 1; i < count; j = i++) {
+            sum += points[j * 2] * points[i * 2 + 1] - points[i * 2] * points[j * 2 + 1];
+        }
+        return sum / 2;
+    }
+
+    private static double[] ensure(double[] values, int size) {
+        return size <= values.length ? values : Arrays.copyOf(values, Math.max(size, values.length * 2));
+    }
+}
@@ -0,0 +1,218 @@
+package unze.ptf.woodcraft.woodcraft.service;
+
+import unze.ptf.woodcraft.woodcraft.model.NodePoint;
+import unze.ptf.woodcraft.woodcraft.model.ShapePolygon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ShapeReconciler {
+    private static final double GEOMETRY_EPSILON = 1e-9;
+
+    public record Result(List<ShapePolygon> inserted, List<ShapePolygon> updated, List<Integer> deletedIds,
+                         List<ShapePolygon> retained) {
+        public boolean hasChanges() {
+            return !inserted.isEmpty() || !updated.isEmpty() || !deletedIds.isEmpty();
+        }
+    }
+
+    private record Overlap(int faceIndex, int previousIndex, double score) {
+    }
+
+    // Faces that keep their node cycle keep their row. Faces produced by splitting or merging take over
+    // the row of the shape they overlap most; the remaining pieces inherit its material and quantity.
+    public Result reconcile(List<ShapePolygon> previous, List<ShapePolygon> faces, Integer defaultMaterialId) {
+        List<ShapePolygon> inserted = new ArrayList<>();
+        List<ShapePolygon> updated = new ArrayList<>();
+        List<Integer> deletedIds = new ArrayList<>();
+        List<ShapePolygon> retained = new ArrayList<>();
+
+        Map<List<Integer>, Integer> previousByCycle = new HashMap<>();
+        for (int i = 0; i < previous.size(); i++) {
+            previousByCycle.putIfAbsent(cycleKey(previous.get(i).getNodeIds()), i);
+        }
+        boolean[] previousMatched = new boolean[previous.size()];
+        List<Integer> openFaces = new ArrayList<>();
+        for (int i = 0; i < faces.size(); i++) {
+            ShapePolygon face = faces.get(i);
+            Integer match = previousByCycle.get(cycleKey(face.getNodeIds()));
+            if (match == null || previousMatched[match]) {
+                openFaces.add(i);
+                continue;
+            }
+            previousMatched[match] = true;
+            ShapePolygon existing = previous.get(match);
+            ShapePolygon refreshed = withGeometry(existing, face);
+            if (geometryChanged(existing, refreshed)) {
+                updated.add(refreshed);
+            } else {
+                retained.add(refreshed);
+            }
+        }
+        List<Integer> openPrevious = new ArrayList<>();
+        for (int i = 0; i < previous.size(); i++) {
+            if (!previousMatched[i]) {
+                openPrevious.add(i);
+            }
+        }
+
+        List<Overlap> overlaps = new ArrayList<>();
+        if (!openFaces.isEmpty() && !openPrevious.isEmpty()) {
+            Map<Integer, double[]> previousPoints = new HashMap<>();
+            for (int previousIndex : openPrevious) {
+                previousPoints.put(previousIndex, interiorPoint(previous.get(previousIndex).getNodes()));
+            }
+            for (int faceIndex : openFaces) {
+                ShapePolygon face = faces.get(faceIndex);
+                double[] facePoint = interiorPoint(face.getNodes());
+                for (int previousIndex : openPrevious) {
+                    ShapePolygon candidate = previous.get(previousIndex);
+                    if (contains(candidate.getNodes(), facePoint)
+                            || contains(face.getNodes(), previousPoints.get(previousIndex))) {
+                        overlaps.add(new Overlap(faceIndex, previousIndex,
+                                Math.min(face.getAreaCm2(), candidate.getAreaCm2())));
+                    }
+                }
+            }
+            overlaps.sort((left, right) -> Double.compare(right.score(), left.score()));
+        }
+
+        Map<Integer, Integer> assigned = new HashMap<>();
+        Map<Integer, Integer> parents = new HashMap<>();
+        for (Overlap overlap : overlaps) {
+            parents.putIfAbsent(overlap.faceIndex(), overlap.previousIndex());
+            if (!assigned.containsKey(overlap.faceIndex()) && !previousMatched[overlap.previousIndex()]) {
+                assigned.put(overlap.faceIndex(), overlap.previousIndex());
+                previousMatched[overlap.previousIndex()] = true;
+            }
+        }
+        for (int faceIndex : openFaces) {
+            ShapePolygon face = faces.get(faceIndex);
+            Integer previousIndex = assigned.get(faceIndex);
+            if (previousIndex != null) {
+                updated.add(withGeometry(previous.get(previousIndex), face));
+                continue;
+            }
+            Integer parentIndex = parents.get(faceIndex);
+            ShapePolygon parent = parentIndex == null ? null : previous.get(parentIndex);
+            inserted.add(new ShapePolygon(-1, face.getDocumentId(),
+                    parent == null ? defaultMaterialId : parent.getMaterialId(),
+                    parent == null ? 1 : parent.getQuantity(),
+                    face.getNodeIds(), face.getNodes(), face.getAreaCm2(), face.getPerimeterCm()));
+        }
+        for (int previousIndex : openPrevious) {
+            if (!previousMatched[previousIndex]) {
+                deletedIds.add(previous.get(previousIndex).getId());
+            }
+        }
+        return new Result(inserted, updated, deletedIds, retained);
+    }
+
+    // Same cycle regardless of start node or winding; faces with bridges may visit a node twice.
+    public List<Integer> cycleKey(List<Integer> nodeIds) {
+        int size = nodeIds.size();
+        if (size == 0) {
+            return List.of();
+        }
+        int min = Integer.MAX_VALUE;
+        for (int nodeId : nodeIds) {
+            min = Math.min(min, nodeId);
+        }
+        List<Integer> best = null;
+        for (int start = 0; start < size; start++) {
+            if (nodeIds.get(start) != min) {
+                continue;
+            }
+            for (int direction = -1; direction <= 1; direction += 2) {
+                List<Integer> candidate = new ArrayList<>(size);
+                for (int step = 0; step < size; step++) {
+                    candidate.add(nodeIds.get(Math.floorMod(start + direction * step, size)));
+                }
+                if (best == null || compare(candidate, best) < 0) {
+                    best = candidate;
+                }
+            }
+        }
+        return best;
+    }
+
+    private ShapePolygon withGeometry(ShapePolygon existing, ShapePolygon face) {
+        return new ShapePolygon(existing.getId(), existing.getDocumentId(), existing.getMaterialId(),
+                existing.getQuantity(), face.getNodeIds(), face.getNodes(), face.getAreaCm2(),
+                face.getPerimeterCm());
+    }
+
+    // Callers only compare shapes with the same cycle key, so a different start node is not a change.
+    private boolean geometryChanged(ShapePolygon before, ShapePolygon after) {
+        return Math.abs(before.getAreaCm2() - after.getAreaCm2()) > GEOMETRY_EPSILON
+                || Math.abs(before.getPerimeterCm() - after.getPerimeterCm()) > GEOMETRY_EPSILON;
+    }
+
+    private double[] interiorPoint(List<NodePoint> polygon) {
+        if (polygon == null || polygon.size() < 3) {
+            return null;
+        }
+        double minY = Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        for (NodePoint node : polygon) {
+            minY = Math.min(minY, node.getYCm());
+            maxY = Math.max(maxY, node.getYCm());
+        }
+        double y = (minY + maxY) / 2.0;
+        double[] crossings = new double[polygon.size()];
+        int count = 0;
+        for (int i = 0; i < polygon.size(); i++) {
+            NodePoint a = polygon.get(i);
+            NodePoint b = polygon.get((i + 1) % polygon.size());
+            if ((a.getYCm() > y) != (b.getYCm() > y)) {
+                double t = (y - a.getYCm()) / (b.getYCm() - a.getYCm());
+                crossings[count++] = a.getXCm() + t * (b.getXCm() - a.getXCm());
+            }
+        }
+        if (count < 2) {
+            return null;
+        }
+        Arrays.sort(crossings, 0, count);
+        double bestWidth = -1;
+        double bestX = 0;
+        for (int i = 0; i + 1 < count; i += 2) {
+            double width = crossings[i + 1] - crossings[i];
+            if (width > bestWidth) {
+                bestWidth = width;
+                bestX = (crossings[i] + crossings[i + 1]) / 2.0;
+            }
+        }
+        return new double[]{bestX, y};
+    }
+
+    private boolean contains(List<NodePoint> polygon, double[] point) {
+        if (point == null || polygon == null || polygon.size() < 3) {
+            return false;
+        }
+        boolean inside = false;
+        for (int i = 0, j = polygon.size() - 1; i < polygon.size(); j = i++) {
+            NodePoint a = polygon.get(i);
+            NodePoint b = polygon.get(j);
+            if ((a.getYCm() > point[1]) != (b.getYCm() > point[1])) {
+                double x = a.getXCm() + (point[1] - a.getYCm()) / (b.getYCm() - a.getYCm()) * (b.getXCm() - a.getXCm());
+                if (point[0] < x) {
+                    inside = !inside;
+                }
+            }
+        }
+        return inside;
+    }
+
+    private int compare(List<Integer> left, List<Integer> right) {
+        for (int i = 0; i < left.size(); i++) {
+            int result = Integer.compare(left.get(i), right.get(i));
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+}
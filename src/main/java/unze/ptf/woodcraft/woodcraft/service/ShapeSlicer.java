@@ -0,0 +1,232 @@
+package unze.ptf.woodcraft.woodcraft.service;
+
+import unze.ptf.woodcraft.woodcraft.model.Edge;
+import unze.ptf.woodcraft.woodcraft.model.NodePoint;
+import unze.ptf.woodcraft.woodcraft.model.ShapePolygon;
+import unze.ptf.woodcraft.woodcraft.util.PolygonBuffer;
+import unze.ptf.woodcraft.woodcraft.util.PolygonMath;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Cuts shapes along lines. Lines meet the true boundary, curves included: the control hull is boxed in
+// the line's frame and subdivided until it is flat. Chords are added where a line runs inside the shape
+// and every node and edge change is written in one transaction.
+public class ShapeSlicer {
+    public record Line(double x1, double y1, double x2, double y2) {
+    }
+
+    private record Hit(double s, int nodeRef, double x, double y) {
+    }
+
+    // Hits this close to a corner reuse the corner instead of leaving a sliver.
+    private static final double CORNER_SNAP_CM = 0.2;
+    private static final double MATCH_CM = 1e-6;
+    private static final double FLATNESS_CM = 1e-5;
+    private static final int MAX_DEPTH = 30;
+
+    private final EdgeSplitter edgeSplitter;
+    private final GeometryService geometryService;
+    private final PolygonBuffer outline = new PolygonBuffer();
+
+    public ShapeSlicer(EdgeSplitter edgeSplitter, GeometryService geometryService) {
+        this.edgeSplitter = edgeSplitter;
+        this.geometryService = geometryService;
+    }
+
+    // With strips > 1 each shape is ripped into that many equal strips parallel to the line; otherwise
+    // the line itself is the cut.
+    public EdgeSplitter.Result slice(int documentId, DocumentGraph graph, List<ShapePolygon> shapes, Line line,
+                                     int strips) {
+        EdgeSplitter.PlanBuilder builder = new EdgeSplitter.PlanBuilder(graph);
+        for (ShapePolygon shape : shapes) {
+            List<Integer> nodeIds = shape.getNodeIds();
+            if (nodeIds == null || nodeIds.size() < 3) {
+                continue;
+            }
+            geometryService.sampleCycle(nodeIds, graph, outline);
+            List<Line> lines = strips > 1 ? stripLines(outline, line, strips) : List.of(line);
+            for (Line cut : lines) {
+                addChords(builder, graph, nodeIds, cut);
+            }
+        }
+        return edgeSplitter.apply(documentId, builder.build());
+    }
+
+    public static List<Line> stripLines(PolygonBuffer outline, Line line, int strips) {
+        double length = Math.hypot(line.x2() - line.x1(), line.y2() - line.y1());
+        if (length < 1e-9 || outline.isEmpty()) {
+            return List.of(line);
+        }
+        double dx = (line.x2() - line.x1()) / length;
+        double dy = (line.y2() - line.y1()) / length;
+        double minAlong = Double.POSITIVE_INFINITY;
+        double maxAlong = Double.NEGATIVE_INFINITY;
+        double minAcross = Double.POSITIVE_INFINITY;
+        double maxAcross = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < outline.size(); i++) {
+            double px = outline.x(i) - line.x1();
+            double py = outline.y(i) - line.y1();
+            double along = px * dx + py * dy;
+            double across = py * dx - px * dy;
+            minAlong = Math.min(minAlong, along);
+            maxAlong = Math.max(maxAlong, along);
+            minAcross = Math.min(minAcross, across);
+            maxAcross = Math.max(maxAcross, across);
+        }
+        List<Line> lines = new ArrayList<>(strips - 1);
+        for (int k = 1; k < strips; k++) {
+            double across = minAcross + (maxAcross - minAcross) * k / strips;
+            double ox = line.x1() - dy * across;
+            double oy = line.y1() + dx * across;
+            lines.add(new Line(ox + dx * (minAlong - 1), oy + dy * (minAlong - 1),
+                    ox + dx * (maxAlong + 1), oy + dy * (maxAlong + 1)));
+        }
+        return lines;
+    }
+
+    private void addChords(EdgeSplitter.PlanBuilder builder, DocumentGraph graph, List<Integer> nodeIds, Line line) {
+        List<Hit> hits = new ArrayList<>();
+        List<Double> params = new ArrayList<>();
+        double dx = line.x2() - line.x1();
+        double dy = line.y2() - line.y1();
+        double lengthSquared = dx * dx + dy * dy;
+        if (lengthSquared < 1e-18) {
+            return;
+        }
+        for (int i = 0; i < nodeIds.size(); i++) {
+            Edge edge = graph.findEdge(nodeIds.get(i), nodeIds.get((i + 1) % nodeIds.size()));
+            if (edge == null) {
+                continue;
+            }
+            NodePoint start = graph.getNode(edge.getStartNodeId());
+            NodePoint end = graph.getNode(edge.getEndNodeId());
+            double[] curve = controlPoints(edge, start, end);
+            params.clear();
+            intersect(curve, 0, 1, line, 0, params);
+            params.sort(Double::compare);
+            double previous = Double.NaN;
+            for (double t : params) {
+                if (Math.abs(t - previous) < 1e-9) {
+                    continue;
+                }
+                previous = t;
+                double x = bezier(curve[0], curve[2], curve[4], curve[6], t);
+                double y = bezier(curve[1], curve[3], curve[5], curve[7], t);
+                int nodeRef;
+                if (Math.hypot(start.getXCm() - x, start.getYCm() - y) <= CORNER_SNAP_CM) {
+                    nodeRef = start.getId();
+                } else if (Math.hypot(end.getXCm() - x, end.getYCm() - y) <= CORNER_SNAP_CM) {
+                    nodeRef = end.getId();
+                } else {
+                    nodeRef = builder.cutNear(edge, x, y, MATCH_CM);
+                    if (nodeRef == EdgeSplitter.PlanBuilder.NO_NODE) {
+                        nodeRef = builder.newNode(x, y);
+                        builder.cut(edge, t, nodeRef);
+                    }
+                }
+                double s = ((x - line.x1()) * dx + (y - line.y1()) * dy) / lengthSquared;
+                hits.add(new Hit(s, nodeRef, builder.nodeX(nodeRef), builder.nodeY(nodeRef)));
+            }
+        }
+        hits.sort((left, right) -> Double.compare(left.s(), right.s()));
+        Hit previous = null;
+        for (Hit hit : hits) {
+            if (previous != null && hit.nodeRef() != previous.nodeRef()
+                    && PolygonMath.contains(outline, (previous.x() + hit.x()) / 2, (previous.y() + hit.y()) / 2)) {
+                builder.addEdge(previous.nodeRef(), hit.nodeRef());
+            }
+            if (previous == null || hit.nodeRef() != previous.nodeRef()) {
+                previous = hit;
+            }
+        }
+    }
+
+    // Collects the parameters where the cubic (a straight edge has its controls on the chord) meets the
+    // line segment. Each step boxes the control points in the line's frame and drops boxes that miss.
+    private static void intersect(double[] curve, double t0, double t1, Line line, int depth, List<Double> out) {
+        double dx = line.x2() - line.x1();
+        double dy = line.y2() - line.y1();
+        double length = Math.hypot(dx, dy);
+        dx /= length;
+        dy /= length;
+        double minAlong = Double.POSITIVE_INFINITY;
+        double maxAlong = Double.NEGATIVE_INFINITY;
+        double minAcross = Double.POSITIVE_INFINITY;
+        double maxAcross = Double.NEGATIVE_INFINITY;
+        for (int k = 0; k < 8; k += 2) {
+            double px = curve[k] - line.x1();
+            double py = curve[k + 1] - line.y1();
+            double along = px * dx + py * dy;
+            double across = py * dx - px * dy;
+            minAlong = Math.min(minAlong, along);
+            maxAlong = Math.max(maxAlong, along);
+            minAcross = Math.min(minAcross, across);
+            maxAcross = Math.max(maxAcross, across);
+        }
+        if (minAcross > 0 || maxAcross < 0 || maxAlong < 0 || minAlong > length) {
+            return;
+        }
+        if (depth >= MAX_DEPTH || flat(curve)) {
+            double rx = curve[6] - curve[0];
+            double ry = curve[7] - curve[1];
+            double sx = line.x2() - line.x1();
+            double sy = line.y2() - line.y1();
+            double denominator = rx * sy - ry * sx;
+            if (Math.abs(denominator) < 1e-12) {
+                return;
+            }
+            double qx = line.x1() - curve[0];
+            double qy = line.y1() - curve[1];
+            double u = (qx * sy - qy * sx) / denominator;
+            double v = (qx * ry - qy * rx) / denominator;
+            if (u < 0 || u > 1 || v < 0 || v > 1) {
+                return;
+            }
+            out.add(t0 + (t1 - t0) * u);
+            return;
+        }
+        double middle = (t0 + t1) / 2;
+        intersect(EdgeSplitter.subCurve(curve, 0, 0.5), t0, middle, line, depth + 1, out);
+        intersect(EdgeSplitter.subCurve(curve, 0.5, 1), middle, t1, line, depth + 1, out);
+    }
+
+    private static boolean flat(double[] curve) {
+        double dx = curve[6] - curve[0];
+        double dy = curve[7] - curve[1];
+        double length = Math.hypot(dx, dy);
+        if (length < 1e-12) {
+            return Math.hypot(curve[2] - curve[0], curve[3] - curve[1]) <= FLATNESS_CM
+                    && Math.hypot(curve[4] - curve[0], curve[5] - curve[1]) <= FLATNESS_CM;
+        }
+        double first = Math.abs((curve[2] - curve[0]) * dy - (curve[3] - curve[1]) * dx) / length;
+        double second = Math.abs((curve[4] - curve[0]) * dy - (curve[5] - curve[1]) * dx) / length;
+        return Math.max(first, second) <= FLATNESS_CM;
+    }
+
+    private static double[] controlPoints(Edge edge, NodePoint start, NodePoint end) {
+        if (edge.getControlStartXCm() != null && edge.getControlStartYCm() != null
+                && edge.getControlEndXCm() != null && edge.getControlEndYCm() != null) {
+            return new double[] {
+                    start.getXCm(), start.getYCm(),
+                    edge.getControlStartXCm(), edge.getControlStartYCm(),
+                    edge.getControlEndXCm(), edge.getControlEndYCm(),
+                    end.getXCm(), end.getYCm()
+            };
+        }
+        // Controls at the thirds trace the straight edge with t proportional to length.
+        double dx = end.getXCm() - start.getXCm();
+        double dy = end.getYCm() - start.getYCm();
+        return new double[] {
+                start.getXCm(), start.getYCm(),
+                start.getXCm() + dx / 3, start.getYCm() + dy / 3,
+                start.getXCm() + 2 * dx / 3, start.getYCm() + 2 * dy / 3,
+                end.getXCm(), end.getYCm()
+        };
+    }
+
+    private static double bezier(double p0, double p1, double p2, double p3, double t) {
+        double u = 1 - t;
+        return u * u * u * p0 + 3 * u * u * t * p1 + 3 * u * t * t * p2 + t * t * t * p3;
+    }
+}
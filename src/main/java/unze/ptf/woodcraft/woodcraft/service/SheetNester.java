@@ -0,0 +1,588 @@
+package unze.ptf.woodcraft.woodcraft.service;
+
+import unze.ptf.woodcraft.woodcraft.model.GrainDirection;
+import unze.ptf.woodcraft.woodcraft.model.Remnant;
+import unze.ptf.woodcraft.woodcraft.util.SizeBucketIndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+// Packs rectangular parts onto stock sheets. MaxRects (best short side fit) is the main heuristic with a
+// bottom-left skyline and a guillotine packer as fallbacks, each tried on a few part orderings. Kerf is added to every part and
+// to the sheet, so neighbouring parts end up one kerf apart while parts may still touch the sheet edge.
+// Remnants from the rack can be filled before any full sheet is opened.
+public class SheetNester {
+    public enum Heuristic {
+        MAX_RECTS,
+        SKYLINE,
+        GUILLOTINE
+    }
+
+    public record Part(int shapeId, double widthCm, double heightCm, int quantity) {
+    }
+
+    // Top-left corner and size of the part's bounds (without kerf) after turning it by angleDeg.
+    public record Placement(int shapeId, double xCm, double yCm, double widthCm, double heightCm, double angleDeg) {
+    }
+
+    public record Sheet(List<Placement> placements, double usedAreaCm2) {
+    }
+
+    public record RemnantSheet(int remnantId, double widthCm, double heightCm, Sheet sheet) {
+    }
+
+    // Parts placed on remnants, and what is left for full sheets.
+    public record RemnantFill(List<RemnantSheet> remnants, List<Part> rest) {
+    }
+
+    // Free rectangle left on a sheet, without kerf.
+    public record Offcut(double xCm, double yCm, double widthCm, double heightCm) {
+    }
+
+    // Sheets are full stock sheets; remnants hold the parts that were placed on rack remnants beforehand.
+    // Outline-nested layouts (ShapeNester) place parts by their true shape, so their boxes may overlap and
+    // the sheets cannot be cut with straight through cuts.
+    public record Layout(double sheetWidthCm, double sheetHeightCm, List<Sheet> sheets, List<Part> oversized,
+                         List<RemnantSheet> remnants, boolean outlineNested) {
+        public Layout(double sheetWidthCm, double sheetHeightCm, List<Sheet> sheets, List<Part> oversized) {
+            this(sheetWidthCm, sheetHeightCm, sheets, oversized, List.of(), false);
+        }
+
+        public Layout withRemnants(List<RemnantSheet> remnants) {
+            return new Layout(sheetWidthCm, sheetHeightCm, sheets, oversized, remnants, outlineNested);
+        }
+
+        public int sheetCount() {
+            return sheets.size();
+        }
+
+        public double usedAreaCm2() {
+            double used = 0;
+            for (Sheet sheet : sheets) {
+                used += sheet.usedAreaCm2();
+            }
+            return used;
+        }
+
+        public double yield() {
+            return sheets.isEmpty() ? 0 : usedAreaCm2() / (sheets.size() * sheetWidthCm * sheetHeightCm);
+        }
+
+        public double yield(int sheetIndex) {
+            return sheets.get(sheetIndex).usedAreaCm2() / (sheetWidthCm * sheetHeightCm);
+        }
+
+        // Fewer sheets first; on a tie the layout with the emptier last sheet leaves the bigger offcut.
+        public boolean betterThan(Layout other) {
+            if (other == null) {
+                return true;
+            }
+            if (oversized.size() != other.oversized.size()) {
+                return oversized.size() < other.oversized.size();
+            }
+            if (sheets.size() != other.sheets.size()) {
+                return sheets.size() < other.sheets.size();
+            }
+            if (sheets.isEmpty()) {
+                return false;
+            }
+            return sheets.get(sheets.size() - 1).usedAreaCm2()
+                    < other.sheets.get(other.sheets.size() - 1).usedAreaCm2() - EPSILON;
+        }
+    }
+
+    private static final double EPSILON = 1e-9;
+    private static final double REMNANT_BUCKET_CM = 10;
+
+    static final List<Comparator<Part>> ORDERINGS = List.of(
+            Comparator.comparingDouble((Part part) -> part.widthCm() * part.heightCm()).reversed(),
+            Comparator.comparingDouble((Part part) -> Math.max(part.widthCm(), part.heightCm())).reversed(),
+            Comparator.comparingDouble((Part part) -> part.widthCm() + part.heightCm()).reversed()
+    );
+
+    // Parts are drawn with the grain of their material, so on grained stock a quarter turn would put it
+    // across the part; only half turns, which change nothing for a box, stay allowed.
+    public static boolean quarterTurnsAllowed(GrainDirection grain) {
+        return grain == GrainDirection.NONE;
+    }
+
+    // A guillotine layout wins whenever it needs no more sheets, since a panel saw can cut it as nested.
+    public Layout nest(List<Part> parts, double sheetWidthCm, double sheetHeightCm, double kerfCm,
+                       boolean allowRotation) {
+        Layout best = null;
+        Layout bestGuillotine = null;
+        for (Comparator<Part> ordering : ORDERINGS) {
+            List<Part> sequence = new ArrayList<>(parts);
+            sequence.sort(ordering);
+            for (Heuristic heuristic : Heuristic.values()) {
+                Layout layout = pack(sequence, sheetWidthCm, sheetHeightCm, kerfCm, allowRotation, heuristic);
+                if (layout.betterThan(best)) {
+                    best = layout;
+                }
+                if (heuristic == Heuristic.GUILLOTINE && layout.betterThan(bestGuillotine)) {
+                    bestGuillotine = layout;
+                }
+            }
+        }
+        if (bestGuillotine.sheetCount() == best.sheetCount()
+                && bestGuillotine.oversized().size() == best.oversized().size()) {
+            return bestGuillotine;
+        }
+        return best;
+    }
+
+    // Places the parts in the given order (each repeated quantity times), first fit over the open sheets.
+    public Layout pack(List<Part> sequence, double sheetWidthCm, double sheetHeightCm, double kerfCm,
+                       boolean allowRotation, Heuristic heuristic) {
+        double binWidth = sheetWidthCm + kerfCm;
+        double binHeight = sheetHeightCm + kerfCm;
+        List<Bin> bins = new ArrayList<>();
+        List<Part> oversized = new ArrayList<>();
+        for (Part part : sequence) {
+            double width = part.widthCm() + kerfCm;
+            double height = part.heightCm() + kerfCm;
+            boolean fitsUpright = width <= binWidth + EPSILON && height <= binHeight + EPSILON;
+            boolean fitsTurned = allowRotation && height <= binWidth + EPSILON && width <= binHeight + EPSILON;
+            if (!fitsUpright && !fitsTurned) {
+                oversized.add(part);
+                continue;
+            }
+            for (int copy = 0; copy < part.quantity(); copy++) {
+                Bin target = null;
+                for (Bin bin : bins) {
+                    if (bin.find(width, height, allowRotation)) {
+                        target = bin;
+                        break;
+                    }
+                }
+                if (target == null) {
+                    target = switch (heuristic) {
+                        case MAX_RECTS -> new MaxRectsBin(binWidth, binHeight);
+                        case SKYLINE -> new SkylineBin(binWidth, binHeight);
+                        case GUILLOTINE -> new GuillotineBin(binWidth, binHeight);
+                    };
+                    bins.add(target);
+                    target.find(width, height, allowRotation);
+                }
+                target.place(part, width, height, kerfCm);
+            }
+        }
+        List<Sheet> sheets = new ArrayList<>(bins.size());
+        for (Bin bin : bins) {
+            sheets.add(new Sheet(List.copyOf(bin.placements), bin.usedArea));
+        }
+        return new Layout(sheetWidthCm, sheetHeightCm, sheets, oversized);
+    }
+
+    // Parts, largest first, go to the first open remnant with room; otherwise the smallest remnant that
+    // holds the part is opened. Remnants are taken to lie the same way as full sheets of the material.
+    public RemnantFill fillRemnants(List<Part> parts, List<Remnant> remnants, double kerfCm, boolean allowRotation) {
+        if (remnants.isEmpty() || parts.isEmpty()) {
+            return new RemnantFill(List.of(), parts);
+        }
+        SizeBucketIndex index = new SizeBucketIndex(REMNANT_BUCKET_CM, allowRotation);
+        for (int i = 0; i < remnants.size(); i++) {
+            Remnant remnant = remnants.get(i);
+            if (remnant.getWidthCm() > 0 && remnant.getHeightCm() > 0) {
+                index.put(i, remnant.getWidthCm() + kerfCm, remnant.getHeightCm() + kerfCm);
+            }
+        }
+        List<Part> sequence = new ArrayList<>(parts);
+        sequence.sort(ORDERINGS.get(0));
+        List<Bin> bins = new ArrayList<>();
+        List<Remnant> opened = new ArrayList<>();
+        List<Part> rest = new ArrayList<>();
+        for (Part part : sequence) {
+            double width = part.widthCm() + kerfCm;
+            double height = part.heightCm() + kerfCm;
+            int placed = 0;
+            while (placed < part.quantity()) {
+                Bin target = null;
+                for (Bin bin : bins) {
+                    if (bin.find(width, height, allowRotation)) {
+                        target = bin;
+                        break;
+                    }
+                }
+                if (target == null) {
+                    long key = index.bestFit(width, height);
+                    if (key < 0) {
+                        break;
+                    }
+                    index.remove(key);
+                    Remnant remnant = remnants.get((int) key);
+                    target = new MaxRectsBin(remnant.getWidthCm() + kerfCm, remnant.getHeightCm() + kerfCm);
+                    if (!target.find(width, height, allowRotation)) {
+                        continue;
+                    }
+                    bins.add(target);
+                    opened.add(remnant);
+                }
+                target.place(part, width, height, kerfCm);
+                placed++;
+            }
+            if (placed < part.quantity()) {
+                rest.add(new Part(part.shapeId(), part.widthCm(), part.heightCm(), part.quantity() - placed));
+            }
+        }
+        List<RemnantSheet> filled = new ArrayList<>(bins.size());
+        for (int i = 0; i < bins.size(); i++) {
+            Remnant remnant = opened.get(i);
+            Bin bin = bins.get(i);
+            filled.add(new RemnantSheet(remnant.getId(), remnant.getWidthCm(), remnant.getHeightCm(),
+                    new Sheet(List.copyOf(bin.placements), bin.usedArea)));
+        }
+        return new RemnantFill(filled, rest);
+    }
+
+    // Largest free rectangles left around the placements, taken one at a time so they do not overlap.
+    // Only pieces with both sides at least minSideCm are worth keeping.
+    public List<Offcut> offcuts(Sheet sheet, double sheetWidthCm, double sheetHeightCm, double kerfCm,
+                                double minSideCm) {
+        MaxRectsBin bin = new MaxRectsBin(sheetWidthCm + kerfCm, sheetHeightCm + kerfCm);
+        for (Placement placement : sheet.placements()) {
+            bin.occupy(placement.xCm(), placement.yCm(), placement.widthCm() + kerfCm, placement.heightCm() + kerfCm);
+        }
+        List<Offcut> offcuts = new ArrayList<>();
+        while (true) {
+            int best = -1;
+            double bestArea = 0;
+            for (int i = 0; i < bin.freeCount; i++) {
+                double w = bin.free[i * 4 + 2] - kerfCm;
+                double h = bin.free[i * 4 + 3] - kerfCm;
+                if (w >= minSideCm - EPSILON && h >= minSideCm - EPSILON && w * h > bestArea) {
+                    bestArea = w * h;
+                    best = i;
+                }
+            }
+            if (best < 0) {
+                return offcuts;
+            }
+            double x = bin.free[best * 4];
+            double y = bin.free[best * 4 + 1];
+            double w = bin.free[best * 4 + 2];
+            double h = bin.free[best * 4 + 3];
+            offcuts.add(new Offcut(x, y, w - kerfCm, h - kerfCm));
+            bin.occupy(x, y, w, h);
+        }
+    }
+
+    private abstract static class Bin {
+        protected final double width;
+        protected final double height;
+        private final List<Placement> placements = new ArrayList<>();
+        private double usedArea;
+        protected double bestX;
+        protected double bestY;
+        protected boolean bestRotated;
+
+        private Bin(double width, double height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        // Looks for a spot and leaves it in bestX, bestY and bestRotated.
+        abstract boolean find(double partWidth, double partHeight, boolean allowRotation);
+
+        abstract void occupy(double x, double y, double partWidth, double partHeight);
+
+        private void place(Part part, double partWidth, double partHeight, double kerfCm) {
+            double placedWidth = bestRotated ? partHeight : partWidth;
+            double placedHeight = bestRotated ? partWidth : partHeight;
+            occupy(bestX, bestY, placedWidth, placedHeight);
+            placements.add(new Placement(part.shapeId(), bestX, bestY, placedWidth - kerfCm, placedHeight - kerfCm,
+                    bestRotated ? 90 : 0));
+            usedArea += part.widthCm() * part.heightCm();
+        }
+    }
+
+    // Jylanki's MaxRects: free space is kept as maximal, possibly overlapping rectangles.
+    private static final class MaxRectsBin extends Bin {
+        private double[] free = new double[64];
+        private int freeCount;
+
+        private MaxRectsBin(double width, double height) {
+            super(width, height);
+            addFree(0, 0, width, height);
+        }
+
+        @Override
+        boolean find(double partWidth, double partHeight, boolean allowRotation) {
+            double bestShort = Double.MAX_VALUE;
+            double bestLong = Double.MAX_VALUE;
+            for (int i = 0; i < freeCount; i++) {
+                double x = free[i * 4];
+                double y = free[i * 4 + 1];
+                double w = free[i * 4 + 2];
+                double h = free[i * 4 + 3];
+                for (int turn = 0; turn < (allowRotation ? 2 : 1); turn++) {
+                    double pw = turn == 0 ? partWidth : partHeight;
+                    double ph = turn == 0 ? partHeight : partWidth;
+                    if (pw > w + EPSILON || ph > h + EPSILON) {
+                        continue;
+                    }
+                    double shortSide = Math.min(w - pw, h - ph);
+                    double longSide = Math.max(w - pw, h - ph);
+                    if (shortSide < bestShort || (shortSide == bestShort && longSide < bestLong)) {
+                        bestShort = shortSide;
+                        bestLong = longSide;
+                        bestX = x;
+                        bestY = y;
+                        bestRotated = turn == 1;
+                    }
+                }
+            }
+            return bestShort != Double.MAX_VALUE;
+        }
+
+        @Override
+        void occupy(double x, double y, double partWidth, double partHeight) {
+            double right = x + partWidth;
+            double bottom = y + partHeight;
+            // Untouched rectangles are compacted to the front, splits are appended behind the old ones.
+            int count = freeCount;
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                double fx = free[i * 4];
+                double fy = free[i * 4 + 1];
+                double fr = fx + free[i * 4 + 2];
+                double fb = fy + free[i * 4 + 3];
+                if (x >= fr - EPSILON || right <= fx + EPSILON || y >= fb - EPSILON || bottom <= fy + EPSILON) {
+                    System.arraycopy(free, i * 4, free, kept * 4, 4);
+                    kept++;
+                    continue;
+                }
+                // Split the overlapped free rectangle into the (up to four) parts around the placement.
+                if (x > fx + EPSILON) {
+                    addFree(fx, fy, x - fx, fb - fy);
+                }
+                if (right < fr - EPSILON) {
+                    addFree(right, fy, fr - right, fb - fy);
+                }
+                if (y > fy + EPSILON) {
+                    addFree(fx, fy, fr - fx, y - fy);
+                }
+                if (bottom < fb - EPSILON) {
+                    addFree(fx, bottom, fr - fx, fb - bottom);
+                }
+            }
+            System.arraycopy(free, count * 4, free, kept * 4, (freeCount - count) * 4);
+            freeCount = kept + freeCount - count;
+            prune();
+        }
+
+        private void prune() {
+            for (int i = 0; i < freeCount; i++) {
+                for (int j = i + 1; j < freeCount; j++) {
+                    if (contains(j, i)) {
+                        removeFree(i);
+                        i--;
+                        break;
+                    }
+                    if (contains(i, j)) {
+                        removeFree(j);
+                        j--;
+                    }
+                }
+            }
+        }
+
+        private boolean contains(int outer, int inner) {
+            return free[inner * 4] >= free[outer * 4] - EPSILON
+                    && free[inner * 4 + 1] >= free[outer * 4 + 1] - EPSILON
+                    && free[inner * 4] + free[inner * 4 + 2] <= free[outer * 4] + free[outer * 4 + 2] + EPSILON
+                    && free[inner * 4 + 1] + free[inner * 4 + 3] <= free[outer * 4 + 1] + free[outer * 4 + 3] + EPSILON;
+        }
+
+        private void addFree(double x, double y, double w, double h) {
+            if (freeCount * 4 == free.length) {
+                free = Arrays.copyOf(free, free.length * 2);
+            }
+            free[freeCount * 4] = x;
+            free[freeCount * 4 + 1] = y;
+            free[freeCount * 4 + 2] = w;
+            free[freeCount * 4 + 3] = h;
+            freeCount++;
+        }
+
+        private void removeFree(int index) {
+            freeCount--;
+            System.arraycopy(free, freeCount * 4, free, index * 4, 4);
+        }
+    }
+
+    // Guillotine packing (best area fit, split along the shorter leftover side): free rectangles never
+    // overlap and every split is a straight cut through its rectangle, so a panel saw can cut the sheet.
+    private static final class GuillotineBin extends Bin {
+        private double[] free = new double[32];
+        private int freeCount;
+        private int bestFree;
+
+        private GuillotineBin(double width, double height) {
+            super(width, height);
+            addFree(0, 0, width, height);
+        }
+
+        @Override
+        boolean find(double partWidth, double partHeight, boolean allowRotation) {
+            double bestArea = Double.MAX_VALUE;
+            double bestShort = Double.MAX_VALUE;
+            bestFree = -1;
+            for (int i = 0; i < freeCount; i++) {
+                double w = free[i * 4 + 2];
+                double h = free[i * 4 + 3];
+                for (int turn = 0; turn < (allowRotation ? 2 : 1); turn++) {
+                    double pw = turn == 0 ? partWidth : partHeight;
+                    double ph = turn == 0 ? partHeight : partWidth;
+                    if (pw > w + EPSILON || ph > h + EPSILON) {
+                        continue;
+                    }
+                    double area = w * h;
+                    double shortSide = Math.min(w - pw, h - ph);
+                    if (area < bestArea - EPSILON || (area <= bestArea + EPSILON && shortSide < bestShort)) {
+                        bestArea = area;
+                        bestShort = shortSide;
+                        bestFree = i;
+                        bestX = free[i * 4];
+                        bestY = free[i * 4 + 1];
+                        bestRotated = turn == 1;
+                    }
+                }
+            }
+            return bestFree >= 0;
+        }
+
+        @Override
+        void occupy(double x, double y, double partWidth, double partHeight) {
+            double w = free[bestFree * 4 + 2];
+            double h = free[bestFree * 4 + 3];
+            freeCount--;
+            System.arraycopy(free, freeCount * 4, free, bestFree * 4, 4);
+            double rightWidth = w - partWidth;
+            double bottomHeight = h - partHeight;
+            if (rightWidth < bottomHeight) {
+                addFree(x + partWidth, y, rightWidth, partHeight);
+                addFree(x, y + partHeight, w, bottomHeight);
+            } else {
+                addFree(x + partWidth, y, rightWidth, h);
+                addFree(x, y + partHeight, partWidth, bottomHeight);
+            }
+        }
+
+        private void addFree(double x, double y, double w, double h) {
+            if (w <= EPSILON || h <= EPSILON) {
+                return;
+            }
+            if (freeCount * 4 == free.length) {
+                free = Arrays.copyOf(free, free.length * 2);
+            }
+            free[freeCount * 4] = x;
+            free[freeCount * 4 + 1] = y;
+            free[freeCount * 4 + 2] = w;
+            free[freeCount * 4 + 3] = h;
+            freeCount++;
+        }
+    }
+
+    // Bottom-left skyline: cheap and predictable, but space under an overhang is lost.
+    private static final class SkylineBin extends Bin {
+        private double[] xs = new double[16];
+        private double[] ys = new double[16];
+        private double[] widths = new double[16];
+        private int count;
+
+        private SkylineBin(double width, double height) {
+            super(width, height);
+            xs[0] = 0;
+            ys[0] = 0;
+            widths[0] = width;
+            count = 1;
+        }
+
+        @Override
+        boolean find(double partWidth, double partHeight, boolean allowRotation) {
+            double bestBottom = Double.MAX_VALUE;
+            double bestLeft = Double.MAX_VALUE;
+            for (int turn = 0; turn < (allowRotation ? 2 : 1); turn++) {
+                double pw = turn == 0 ? partWidth : partHeight;
+                double ph = turn == 0 ? partHeight : partWidth;
+                for (int i = 0; i < count; i++) {
+                    double x = xs[i];
+                    if (x + pw > width + EPSILON) {
+                        break;
+                    }
+                    double y = restingY(i, pw);
+                    double bottom = y + ph;
+                    if (bottom > height + EPSILON) {
+                        continue;
+                    }
+                    if (bottom < bestBottom - EPSILON || (Math.abs(bottom - bestBottom) <= EPSILON && x < bestLeft)) {
+                        bestBottom = bottom;
+                        bestLeft = x;
+                        bestX = x;
+                        bestY = y;
+                        bestRotated = turn == 1;
+                    }
+                }
+            }
+            return bestBottom != Double.MAX_VALUE;
+        }
+
+        private double restingY(int index, double partWidth) {
+            double right = xs[index] + partWidth;
+            double y = 0;
+            for (int i = index; i < count && xs[i] < right - EPSILON; i++) {
+                y = Math.max(y, ys[i]);
+            }
+            return y;
+        }
+
+        @Override
+        void occupy(double x, double y, double partWidth, double partHeight) {
+            double right = x + partWidth;
+            double[] newXs = new double[count + 2];
+            double[] newYs = new double[count + 2];
+            double[] newWidths = new double[count + 2];
+            int size = 0;
+            boolean inserted = false;
+            for (int i = 0; i < count; i++) {
+                double segmentLeft = xs[i];
+                double segmentRight = xs[i] + widths[i];
+                if (segmentRight <= x + EPSILON) {
+                    size = append(newXs, newYs, newWidths, size, segmentLeft, ys[i], widths[i]);
+                    continue;
+                }
+                if (!inserted) {
+                    if (segmentLeft < x - EPSILON) {
+                        size = append(newXs, newYs, newWidths, size, segmentLeft, ys[i], x - segmentLeft);
+                    }
+                    size = append(newXs, newYs, newWidths, size, x, y + partHeight, partWidth);
+                    inserted = true;
+                }
+                if (segmentRight > right + EPSILON) {
+                    double left = Math.max(segmentLeft, right);
+                    size = append(newXs, newYs, newWidths, size, left, ys[i], segmentRight - left);
+                }
+            }
+            xs = newXs;
+            ys = newYs;
+            widths = newWidths;
+            count = size;
+        }
+
+        // Appends a segment, merging it into the previous one at the same height.
+        private static int append(double[] xs, double[] ys, double[] widths, int size, double x, double y,
+                                  double width) {
+            if (size > 0 && Math.abs(ys[size - 1] - y) <= EPSILON) {
+                widths[size - 1] += width;
+                return size;
+            }
+            xs[size] = x;
+            ys[size] = y;
+            widths[size] = width;
+            return size + 1;
+        }
+    }
+}
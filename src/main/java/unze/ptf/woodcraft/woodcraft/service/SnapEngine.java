@@ -0,0 +1,304 @@
+package unze.ptf.woodcraft.woodcraft.service;
+
+import unze.ptf.woodcraft.woodcraft.model.Edge;
+import unze.ptf.woodcraft.woodcraft.model.Guide;
+import unze.ptf.woodcraft.woodcraft.model.NodePoint;
+import unze.ptf.woodcraft.woodcraft.util.BoxGrid;
+import unze.ptf.woodcraft.woodcraft.util.PointGrid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Snaps a cursor position to nearby geometry. Nodes and edge bounds are indexed and follow the graph
+// through its listener; midpoints, nearest points and crossings are only computed for edges near the
+// cursor. Priority: node, intersection, midpoint, point on edge, then guides per axis.
+public final class SnapEngine implements DocumentGraph.Listener {
+    public enum Kind {
+        NODE,
+        INTERSECTION,
+        MIDPOINT,
+        EDGE,
+        GUIDE,
+        NONE
+    }
+
+    public record Snap(double x, double y, Kind kind, int nodeId) {
+    }
+
+    private static final double NODE_CELL_CM = 4.0;
+    private static final double EDGE_CELL_CM = 10.0;
+    private static final int MAX_INTERSECTION_EDGES = 32;
+
+    private final DocumentGraph graph;
+    private final CurveFlattener curveFlattener;
+    private final PointGrid nodeGrid = new PointGrid(NODE_CELL_CM);
+    private final BoxGrid edgeBounds = new BoxGrid(EDGE_CELL_CM);
+    private final List<Edge> nearbyEdges = new ArrayList<>();
+    private final List<double[]> nearby = new ArrayList<>();
+    private double[] horizontalGuides = new double[0];
+    private double[] verticalGuides = new double[0];
+
+    private Kind bestKind;
+    private double bestX;
+    private double bestY;
+    private double bestDistance;
+
+    public SnapEngine(DocumentGraph graph, CurveFlattener curveFlattener) {
+        this.graph = graph;
+        this.curveFlattener = curveFlattener;
+        graph.addListener(this);
+        graphLoaded();
+    }
+
+    public void setGuides(List<Guide> guides) {
+        double[] horizontal = new double[guides.size()];
+        double[] vertical = new double[guides.size()];
+        int horizontalCount = 0;
+        int verticalCount = 0;
+        for (Guide guide : guides) {
+            if (guide.getOrientation() == Guide.Orientation.HORIZONTAL) {
+                horizontal[horizontalCount++] = guide.getPositionCm();
+            } else {
+                vertical[verticalCount++] = guide.getPositionCm();
+            }
+        }
+        horizontalGuides = Arrays.copyOf(horizontal, horizontalCount);
+        verticalGuides = Arrays.copyOf(vertical, verticalCount);
+        Arrays.sort(horizontalGuides);
+        Arrays.sort(verticalGuides);
+    }
+
+    // Edges whose control-point bounds meet the box.
+    public List<Edge> edgesIn(double minX, double minY, double maxX, double maxY) {
+        List<Edge> edges = new ArrayList<>();
+        edgeBounds.query(minX, minY, maxX, maxY, key -> {
+            Edge edge = graph.getEdge((int) key);
+            if (edge != null) {
+                edges.add(edge);
+            }
+        });
+        return edges;
+    }
+
+    // excludedNodeId (or -1) is ignored together with its edges, e.g. the node being dragged.
+    public Snap snap(double x, double y, double toleranceCm, int excludedNodeId) {
+        int nodeId = nodeGrid.nearest(x, y, toleranceCm, excludedNodeId);
+        if (nodeId >= 0) {
+            NodePoint node = graph.getNode(nodeId);
+            return new Snap(node.getXCm(), node.getYCm(), Kind.NODE, nodeId);
+        }
+        collectNearbyEdges(x, y, toleranceCm, excludedNodeId);
+        bestKind = Kind.NONE;
+        bestDistance = toleranceCm * toleranceCm;
+        if (nearby.size() <= MAX_INTERSECTION_EDGES) {
+            for (int i = 0; i < nearby.size(); i++) {
+                for (int j = i + 1; j < nearby.size(); j++) {
+                    snapToIntersections(nearby.get(i), nearby.get(j), x, y, toleranceCm);
+                }
+            }
+        }
+        if (bestKind == Kind.NONE) {
+            for (Edge edge : nearbyEdges) {
+                snapToMidpoint(edge, x, y);
+            }
+        }
+        if (bestKind == Kind.NONE) {
+            for (double[] polyline : nearby) {
+                snapToPolyline(polyline, x, y);
+            }
+        }
+        if (bestKind != Kind.NONE) {
+            return new Snap(bestX, bestY, bestKind, -1);
+        }
+        double snappedX = nearestGuide(verticalGuides, x, toleranceCm);
+        double snappedY = nearestGuide(horizontalGuides, y, toleranceCm);
+        if (Double.isNaN(snappedX) && Double.isNaN(snappedY)) {
+            return new Snap(x, y, Kind.NONE, -1);
+        }
+        return new Snap(Double.isNaN(snappedX) ? x : snappedX, Double.isNaN(snappedY) ? y : snappedY, Kind.GUIDE, -1);
+    }
+
+    @Override
+    public void graphLoaded() {
+        nodeGrid.clear();
+        edgeBounds.clear();
+        for (NodePoint node : graph.nodes()) {
+            nodeGrid.put(node.getId(), node.getXCm(), node.getYCm());
+        }
+        for (Edge edge : graph.edges()) {
+            indexEdge(edge);
+        }
+    }
+
+    @Override
+    public void nodeChanged(NodePoint node) {
+        nodeGrid.put(node.getId(), node.getXCm(), node.getYCm());
+        for (Edge edge : graph.incidentEdges(node.getId())) {
+            indexEdge(edge);
+        }
+    }
+
+    @Override
+    public void nodeRemoved(int nodeId) {
+        nodeGrid.remove(nodeId);
+    }
+
+    @Override
+    public void edgeChanged(Edge edge) {
+        indexEdge(edge);
+    }
+
+    @Override
+    public void edgeRemoved(Edge edge) {
+        edgeBounds.remove(edge.getId());
+    }
+
+    private void indexEdge(Edge edge) {
+        NodePoint start = graph.getNode(edge.getStartNodeId());
+        NodePoint end = graph.getNode(edge.getEndNodeId());
+        if (start == null || end == null) {
+            edgeBounds.remove(edge.getId());
+            return;
+        }
+        // A Bezier lies inside the hull of its control points, so their bounds cover the curve.
+        double minX = Math.min(start.getXCm(), end.getXCm());
+        double minY = Math.min(start.getYCm(), end.getYCm());
+        double maxX = Math.max(start.getXCm(), end.getXCm());
+        double maxY = Math.max(start.getYCm(), end.getYCm());
+        if (hasControls(edge)) {
+            minX = Math.min(minX, Math.min(edge.getControlStartXCm(), edge.getControlEndXCm()));
+            minY = Math.min(minY, Math.min(edge.getControlStartYCm(), edge.getControlEndYCm()));
+            maxX = Math.max(maxX, Math.max(edge.getControlStartXCm(), edge.getControlEndXCm()));
+            maxY = Math.max(maxY, Math.max(edge.getControlStartYCm(), edge.getControlEndYCm()));
+        }
+        edgeBounds.put(edge.getId(), minX, minY, maxX, maxY);
+    }
+
+    private void collectNearbyEdges(double x, double y, double toleranceCm, int excludedNodeId) {
+        nearbyEdges.clear();
+        nearby.clear();
+        edgeBounds.query(x - toleranceCm, y - toleranceCm, x + toleranceCm, y + toleranceCm, key -> {
+            Edge edge = graph.getEdge((int) key);
+            if (edge == null || edge.getStartNodeId() == excludedNodeId || edge.getEndNodeId() == excludedNodeId) {
+                return;
+            }
+            double[] polyline = polyline(edge);
+            if (polyline != null) {
+                nearbyEdges.add(edge);
+                nearby.add(polyline);
+            }
+        });
+    }
+
+    private double[] polyline(Edge edge) {
+        NodePoint start = graph.getNode(edge.getStartNodeId());
+        NodePoint end = graph.getNode(edge.getEndNodeId());
+        if (start == null || end == null) {
+            return null;
+        }
+        if (!hasControls(edge)) {
+            return new double[] {start.getXCm(), start.getYCm(), end.getXCm(), end.getYCm()};
+        }
+        return curveFlattener.flattenEdge(edge.getId(),
+                start.getXCm(), start.getYCm(),
+                edge.getControlStartXCm(), edge.getControlStartYCm(),
+                edge.getControlEndXCm(), edge.getControlEndYCm(),
+                end.getXCm(), end.getYCm(),
+                CurveFlattener.DEFAULT_TOLERANCE_CM);
+    }
+
+    private void snapToMidpoint(Edge edge, double x, double y) {
+        NodePoint start = graph.getNode(edge.getStartNodeId());
+        NodePoint end = graph.getNode(edge.getEndNodeId());
+        if (!hasControls(edge)) {
+            consider(Kind.MIDPOINT, (start.getXCm() + end.getXCm()) / 2, (start.getYCm() + end.getYCm()) / 2, x, y);
+            return;
+        }
+        // B(1/2) = (P0 + 3 C1 + 3 C2 + P3) / 8
+        double midX = (start.getXCm() + 3 * edge.getControlStartXCm() + 3 * edge.getControlEndXCm() + end.getXCm()) / 8;
+        double midY = (start.getYCm() + 3 * edge.getControlStartYCm() + 3 * edge.getControlEndYCm() + end.getYCm()) / 8;
+        consider(Kind.MIDPOINT, midX, midY, x, y);
+    }
+
+    private void snapToPolyline(double[] polyline, double x, double y) {
+        for (int i = 0; i + 3 < polyline.length; i += 2) {
+            double ax = polyline[i];
+            double ay = polyline[i + 1];
+            double dx = polyline[i + 2] - ax;
+            double dy = polyline[i + 3] - ay;
+            double lengthSquared = dx * dx + dy * dy;
+            double t = lengthSquared < 1e-12 ? 0 : ((x - ax) * dx + (y - ay) * dy) / lengthSquared;
+            t = Math.max(0, Math.min(1, t));
+            consider(Kind.EDGE, ax + t * dx, ay + t * dy, x, y);
+        }
+    }
+
+    private void snapToIntersections(double[] first, double[] second, double x, double y, double toleranceCm) {
+        for (int i = 0; i + 3 < first.length; i += 2) {
+            double ax = first[i];
+            double ay = first[i + 1];
+            double bx = first[i + 2];
+            double by = first[i + 3];
+            if (Math.max(ax, bx) < x - toleranceCm || Math.min(ax, bx) > x + toleranceCm
+                    || Math.max(ay, by) < y - toleranceCm || Math.min(ay, by) > y + toleranceCm) {
+                continue;
+            }
+            for (int j = 0; j + 3 < second.length; j += 2) {
+                double cx = second[j];
+                double cy = second[j + 1];
+                double ex = second[j + 2];
+                double ey = second[j + 3];
+                double rx = bx - ax;
+                double ry = by - ay;
+                double sx = ex - cx;
+                double sy = ey - cy;
+                double denominator = rx * sy - ry * sx;
+                if (Math.abs(denominator) < 1e-12) {
+                    continue;
+                }
+                double t = ((cx - ax) * sy - (cy - ay) * sx) / denominator;
+                double u = ((cx - ax) * ry - (cy - ay) * rx) / denominator;
+                if (t < 0 || t > 1 || u < 0 || u > 1) {
+                    continue;
+                }
+                consider(Kind.INTERSECTION, ax + t * rx, ay + t * ry, x, y);
+            }
+        }
+    }
+
+    private void consider(Kind kind, double candidateX, double candidateY, double x, double y) {
+        double dx = candidateX - x;
+        double dy = candidateY - y;
+        double distance = dx * dx + dy * dy;
+        if (distance <= bestDistance) {
+            bestKind = kind;
+            bestX = candidateX;
+            bestY = candidateY;
+            bestDistance = distance;
+        }
+    }
+
+    private static double nearestGuide(double[] positions, double value, double toleranceCm) {
+        int index = Arrays.binarySearch(positions, value);
+        if (index >= 0) {
+            return positions[index];
+        }
+        int insertion = -index - 1;
+        double best = Double.NaN;
+        double bestDistance = toleranceCm;
+        if (insertion < positions.length && positions[insertion] - value <= bestDistance) {
+            best = positions[insertion];
+            bestDistance = positions[insertion] - value;
+        }
+        if (insertion > 0 && value - positions[insertion - 1] <= bestDistance) {
+            best = positions[insertion - 1];
+        }
+        return best;
+    }
+
+    private static boolean hasControls(Edge edge) {
+        return edge.getControlStartXCm() != null && edge.getControlStartYCm() != null
+                && edge.getControlEndXCm() != null && edge.getControlEndYCm() != null;
+    }
+}
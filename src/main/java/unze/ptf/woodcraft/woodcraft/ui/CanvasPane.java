@@ -21,6 +21,12 @@ import unze.ptf.woodcraft.woodcraft.model.ManualShape;
 import unze.ptf.woodcraft.woodcraft.model.NodePoint;
 import unze.ptf.woodcraft.woodcraft.model.ShapePolygon;
 import unze.ptf.woodcraft.woodcraft.model.UnitSystem;
+import unze.ptf.woodcraft.woodcraft.service.CurveFlattener;
+import unze.ptf.woodcraft.woodcraft.service.EdgeIndex;
+import unze.ptf.woodcraft.woodcraft.util.BoxGrid;
+import unze.ptf.woodcraft.woodcraft.util.PointGrid;
+import unze.ptf.woodcraft.woodcraft.util.PolygonBuffer;
+import unze.ptf.woodcraft.woodcraft.util.PolygonMath;
 import unze.ptf.woodcraft.woodcraft.util.UnitConverter;
 
 import java.util.ArrayList;
@@ -54,6 +60,10 @@ public class CanvasPane extends Pane {
 
     private static final double NODE_RADIUS = 4.5;
     private static final double HANDLE_RADIUS = 4;
+    private static final double RENDER_TOLERANCE_PX = 0.25;
+    // Hit radius is 8px, i.e. at most 4cm at the smallest zoom, so lookups stay within 3x3 cells.
+    private static final double NODE_GRID_CELL_CM = 4.0;
+    private static final double SELECTION_CELL_CM = 10.0;
 
     private final Group contentLayer = new Group();
     private final Group boardLayer = new Group();
@@ -81,7 +91,15 @@ public class CanvasPane extends Pane {
     private final Map<Integer, Line> guideViews = new HashMap<>();
 
     private final List<NodePoint> nodes = new ArrayList<>();
+    private final Map<Integer, Integer> nodeIndexById = new HashMap<>();
+    private final PointGrid nodeGrid = new PointGrid(NODE_GRID_CELL_CM);
+    // Bounds in cm of everything the selection rectangle can pick, kept in step with the views.
+    private final BoxGrid selectionIndex = new BoxGrid(SELECTION_CELL_CM);
+    private final double[] selectionBounds = new double[4];
     private final List<Edge> edges = new ArrayList<>();
+    private final EdgeIndex edgeIndex = new EdgeIndex();
+    private CurveFlattener curveFlattener = new CurveFlattener();
+    private final PolygonBuffer sampleBuffer = new PolygonBuffer();
     private final List<Dimension> dimensions = new ArrayList<>();
     private final List<Guide> guides = new ArrayList<>();
     private final List<ShapePolygon> shapes = new ArrayList<>();
@@ -522,15 +540,12 @@ public class CanvasPane extends Pane {
         return new ArrayList<>(selectedManualShapes);
     }
 
-    public List<EdgeControlUpdate> getEdgeControlUpdates() {
-        List<EdgeControlUpdate> updates = new ArrayList<>();
-        for (Map.Entry<Integer, EdgeControls> entry : edgeControls.entrySet()) {
-            EdgeControls controls = entry.getValue();
-            if (controls != null) {
-                updates.add(new EdgeControlUpdate(entry.getKey(), controls.start(), controls.end()));
-            }
+    public EdgeControlUpdate getEdgeControlUpdate(int edgeId) {
+        EdgeControls controls = edgeControls.get(edgeId);
+        if (controls == null || controls.start() == null || controls.end() == null) {
+            return null;
         }
-        return updates;
+        return new EdgeControlUpdate(edgeId, controls.start(), controls.end());
     }
 
     public void setMode(Mode mode) {
@@ -581,15 +596,28 @@ public class CanvasPane extends Pane {
         redraw();
     }
 
+    public void setCurveFlattener(CurveFlattener curveFlattener) {
+        this.curveFlattener = curveFlattener;
+        redraw();
+    }
+
     public void setNodes(List<NodePoint> nodes) {
         this.nodes.clear();
-        this.nodes.addAll(nodes);
+        nodeIndexById.clear();
+        nodeGrid.clear();
+        for (NodePoint node : nodes) {
+            indexNode(node);
+        }
         redraw();
     }
 
     public void setEdges(List<Edge> edges) {
         this.edges.clear();
         this.edges.addAll(edges);
+        edgeIndex.clear();
+        for (Edge edge : edges) {
+            edgeIndex.put(edge);
+        }
         edgeControls.clear();
         redraw();
     }
@@ -617,12 +645,13 @@ public class CanvasPane extends Pane {
     }
 
     public void addNode(NodePoint node) {
-        nodes.add(node);
+        indexNode(node);
         drawNode(node);
     }
 
     public void addEdge(Edge edge) {
         edges.add(edge);
+        edgeIndex.put(edge);
         drawEdge(edge);
     }
 
@@ -923,6 +952,7 @@ public class CanvasPane extends Pane {
         edgeViews.clear();
         dimensionViews.clear();
         guideViews.clear();
+        selectionIndex.clear();
 
         updateBoardAndClip();
 
@@ -952,6 +982,7 @@ public class CanvasPane extends Pane {
     }
 
     private void drawNode(NodePoint node) {
+        indexSelectable(SelectableType.NODE, node.getId(), node.getXCm(), node.getYCm(), node.getXCm(), node.getYCm());
         double x = node.getXCm() * scale;
         double y = node.getYCm() * scale;
         Circle circle = new Circle(x, y, NODE_RADIUS, Color.DODGERBLUE);
@@ -1049,6 +1080,7 @@ public class CanvasPane extends Pane {
     }
 
     private void drawGuide(Guide guide) {
+        indexGuide(guide);
         Line line;
         if (guide.getOrientation() == Guide.Orientation.HORIZONTAL) {
             double y = guide.getPositionCm() * scale;
@@ -1232,6 +1264,7 @@ public class CanvasPane extends Pane {
         dimensionLayer.getChildren().addAll(arrows);
         dimensionLayer.getChildren().add(labelGroup);
         dimensionViews.put(dimension.getId(), new DimensionView(extensionStart, extensionEnd, dimensionLine, arrows, labelGroup));
+        indexDimension(dimension);
     }
 
     private void positionLabel(Group labelGroup, Text text, Rectangle bg, Point2D centerCm) {
@@ -1402,6 +1435,7 @@ public class CanvasPane extends Pane {
         view.dimensionLine.setStartY(startOffset.getY() * scale);
         view.dimensionLine.setEndX(endOffset.getX() * scale);
         view.dimensionLine.setEndY(endOffset.getY() * scale);
+        indexDimension(dimension);
         updateArrowPolygons(view.arrows, startOffset, endOffset);
 
         Text text = null;
@@ -1472,18 +1506,15 @@ public class CanvasPane extends Pane {
     }
 
     private Integer findNodeNear(Point2D cmPoint, double thresholdCm) {
-        for (NodePoint node : nodes) {
-            double dx = node.getXCm() - cmPoint.getX();
-            double dy = node.getYCm() - cmPoint.getY();
-            if (Math.hypot(dx, dy) <= thresholdCm) {
-                return node.getId();
-            }
-        }
-        return null;
+        int nodeId = nodeGrid.nearest(cmPoint.getX(), cmPoint.getY(), thresholdCm);
+        return nodeId < 0 ? null : nodeId;
     }
 
     private void redrawGuides() {
         guideLayer.getChildren().clear();
+        for (int guideId : guideViews.keySet()) {
+            selectionIndex.remove(selectionKey(SelectableType.GUIDE, guideId));
+        }
         guideViews.clear();
         for (Guide guide : guides) {
             drawGuide(guide);
@@ -1491,14 +1522,13 @@ public class CanvasPane extends Pane {
     }
 
     private void drawShape(ShapePolygon shape) {
-        List<Point2D> sampled = buildSampledPolygon(shape);
+        PolygonBuffer sampled = buildSampledPolygon(shape);
         if (sampled.size() < 3) {
             return;
         }
         Polygon polygon = new Polygon();
-        for (Point2D point : sampled) {
-            polygon.getPoints().addAll(point.getX() * scale, point.getY() * scale);
-        }
+        setScaledPoints(polygon, sampled);
+        indexSampledShape(shape.getId(), sampled);
         Color base = shape.getMaterialId() == null ? Color.LIGHTGRAY : materialColors.get(shape.getMaterialId());
         if (base == null) {
             base = Color.LIGHTGRAY;
@@ -1580,20 +1610,17 @@ public class CanvasPane extends Pane {
         });
         manualShapeViews.put(shape.getId(), polygon);
         manualShapeLayer.getChildren().add(polygon);
+        indexManualShape(shape.getId(), shape.getPoints());
     }
 
     private List<NodePoint> resolveShapeNodes(ShapePolygon shape) {
         if (shape.getNodes() != null && !shape.getNodes().isEmpty()) {
             return shape.getNodes();
         }
-        Map<Integer, NodePoint> nodeMap = new HashMap<>();
-        for (NodePoint node : nodes) {
-            nodeMap.put(node.getId(), node);
-        }
         List<NodePoint> resolved = new ArrayList<>();
         if (shape.getNodeIds() != null) {
             for (Integer nodeId : shape.getNodeIds()) {
-                NodePoint node = nodeMap.get(nodeId);
+                NodePoint node = findNode(nodeId);
                 if (node != null) {
                     resolved.add(node);
                 }
@@ -1606,13 +1633,13 @@ public class CanvasPane extends Pane {
         double xCm = Math.max(0, cmPoint.getX());
         double yCm = Math.max(0, cmPoint.getY());
         Point2D previous = null;
-        for (int i = 0; i < nodes.size(); i++) {
-            NodePoint node = nodes.get(i);
-            if (node.getId() == nodeId) {
-                previous = new Point2D(node.getXCm(), node.getYCm());
-                nodes.set(i, new NodePoint(nodeId, node.getDocumentId(), xCm, yCm));
-                break;
-            }
+        Integer index = nodeIndexById.get(nodeId);
+        if (index != null) {
+            NodePoint node = nodes.get(index);
+            previous = new Point2D(node.getXCm(), node.getYCm());
+            nodes.set(index, new NodePoint(nodeId, node.getDocumentId(), xCm, yCm));
+            nodeGrid.put(nodeId, xCm, yCm);
+            indexSelectable(SelectableType.NODE, nodeId, xCm, yCm, xCm, yCm);
         }
         if (previous != null && !resetHandles) {
             updateControlsForNode(nodeId, previous, new Point2D(xCm, yCm));
@@ -1697,84 +1724,67 @@ public class CanvasPane extends Pane {
             if (polygon == null) {
                 continue;
             }
-            List<Point2D> sampled = buildSampledPolygon(shape);
+            PolygonBuffer sampled = buildSampledPolygon(shape);
             if (sampled.size() < 3) {
                 continue;
             }
-            polygon.getPoints().clear();
-            for (Point2D point : sampled) {
-                polygon.getPoints().addAll(point.getX() * scale, point.getY() * scale);
-            }
+            setScaledPoints(polygon, sampled);
+            indexSampledShape(shape.getId(), sampled);
         }
     }
 
-    private List<Point2D> buildSampledPolygon(ShapePolygon shape) {
+    private void setScaledPoints(Polygon polygon, PolygonBuffer sampled) {
+        Double[] coords = new Double[sampled.size() * 2];
+        for (int i = 0; i < sampled.size(); i++) {
+            coords[i * 2] = sampled.x(i) * scale;
+            coords[i * 2 + 1] = sampled.y(i) * scale;
+        }
+        polygon.getPoints().setAll(coords);
+    }
+
+    // Returns the shared sample buffer; callers copy what they need before the next shape is sampled.
+    private PolygonBuffer buildSampledPolygon(ShapePolygon shape) {
+        PolygonBuffer points = sampleBuffer;
+        points.clear();
         List<NodePoint> shapeNodes = resolveShapeNodes(shape);
         if (shapeNodes.size() < 2) {
-            return List.of();
+            return points;
         }
-        List<Point2D> points = new ArrayList<>();
         for (int i = 0; i < shapeNodes.size(); i++) {
             NodePoint start = shapeNodes.get(i);
             NodePoint end = shapeNodes.get((i + 1) % shapeNodes.size());
-            Edge edge = findEdgeBetween(start.getId(), end.getId());
+            Edge edge = edgeIndex.find(start.getId(), end.getId());
             if (edge == null) {
                 if (points.isEmpty()) {
-                    points.add(new Point2D(start.getXCm(), start.getYCm()));
+                    points.add(start.getXCm(), start.getYCm());
                 }
-                points.add(new Point2D(end.getXCm(), end.getYCm()));
+                points.add(end.getXCm(), end.getYCm());
                 continue;
             }
             ensureEdgeControls(edge, start, end);
             EdgeControls controls = edgeControls.get(edge.getId());
             if (controls == null) {
                 if (points.isEmpty()) {
-                    points.add(new Point2D(start.getXCm(), start.getYCm()));
+                    points.add(start.getXCm(), start.getYCm());
                 }
-                points.add(new Point2D(end.getXCm(), end.getYCm()));
+                points.add(end.getXCm(), end.getYCm());
                 continue;
             }
-            Point2D c1 = edge.getStartNodeId() == start.getId() ? controls.start() : controls.end();
-            Point2D c2 = edge.getStartNodeId() == start.getId() ? controls.end() : controls.start();
-            sampleCubic(points,
-                    new Point2D(start.getXCm(), start.getYCm()),
-                    c1,
-                    c2,
-                    new Point2D(end.getXCm(), end.getYCm()),
-                    18);
+            boolean reversed = edge.getStartNodeId() != start.getId();
+            NodePoint edgeStart = reversed ? end : start;
+            NodePoint edgeEnd = reversed ? start : end;
+            // Never finer than the geometry tolerance, so the fill reuses the polyline the areas came from.
+            double tolerance = Math.max(CurveFlattener.DEFAULT_TOLERANCE_CM, RENDER_TOLERANCE_PX / scale);
+            curveFlattener.appendEdge(points, edge.getId(),
+                    edgeStart.getXCm(), edgeStart.getYCm(),
+                    controls.start().getX(), controls.start().getY(),
+                    controls.end().getX(), controls.end().getY(),
+                    edgeEnd.getXCm(), edgeEnd.getYCm(),
+                    reversed, tolerance);
         }
         return points;
     }
 
-    private Edge findEdgeBetween(int nodeA, int nodeB) {
-        for (Edge edge : edges) {
-            if ((edge.getStartNodeId() == nodeA && edge.getEndNodeId() == nodeB)
-                    || (edge.getStartNodeId() == nodeB && edge.getEndNodeId() == nodeA)) {
-                return edge;
-            }
-        }
-        return null;
-    }
-
-    private void sampleCubic(List<Point2D> points, Point2D p0, Point2D p1, Point2D p2, Point2D p3, int segments) {
-        if (points.isEmpty()) {
-            points.add(p0);
-        }
-        for (int i = 1; i <= segments; i++) {
-            double t = (double) i / segments;
-            double u = 1 - t;
-            double x = u * u * u * p0.getX()
-                    + 3 * u * u * t * p1.getX()
-                    + 3 * u * t * t * p2.getX()
-                    + t * t * t * p3.getX();
-            double y = u * u * u * p0.getY()
-                    + 3 * u * u * t * p1.getY()
-                    + 3 * u * t * t * p2.getY()
-                    + t * t * t * p3.getY();
-            points.add(new Point2D(x, y));
-        }
-    }
-
     private void updateLayerTransforms() {
         contentLayer.setTranslateX(panX);
         contentLayer.setTranslateY(panY);
@@ -1790,115 +1800,112 @@ public class CanvasPane extends Pane {
     }
 
     private List<Integer> collectNodesInSelection() {
-        double minX = selectionRect.getX();
-        double maxX = selectionRect.getX() + selectionRect.getWidth();
-        double minY = selectionRect.getY();
-        double maxY = selectionRect.getY() + selectionRect.getHeight();
-        List<Integer> selected = new ArrayList<>();
-        for (NodePoint node : nodes) {
-            double x = node.getXCm() * scale + panX;
-            double y = node.getYCm() * scale + panY;
-            if (x >= minX && x <= maxX && y >= minY && y <= maxY) {
-                selected.add(node.getId());
-            }
-        }
-        return selected;
+        return collectInSelection(SelectableType.NODE);
     }
 
     private List<Integer> collectGuidesInSelection() {
-        double minX = selectionRect.getX();
-        double maxX = selectionRect.getX() + selectionRect.getWidth();
-        double minY = selectionRect.getY();
-        double maxY = selectionRect.getY() + selectionRect.getHeight();
+        // Guides are indexed across the board only; pulling the rectangle onto the board along the
+        // guide keeps the old behaviour of selecting a guide wherever the rectangle crosses it.
         List<Integer> selected = new ArrayList<>();
-        for (Guide guide : guides) {
-            if (guide.getOrientation() == Guide.Orientation.HORIZONTAL) {
-                double y = guide.getPositionCm() * scale + panY;
-                if (y >= minY && y <= maxY) {
-                    selected.add(guide.getId());
-                }
-            } else {
-                double x = guide.getPositionCm() * scale + panX;
-                if (x >= minX && x <= maxX) {
-                    selected.add(guide.getId());
-                }
-            }
-        }
+        double minX = (selectionRect.getX() - panX) / scale;
+        double maxX = (selectionRect.getX() + selectionRect.getWidth() - panX) / scale;
+        double minY = (selectionRect.getY() - panY) / scale;
+        double maxY = (selectionRect.getY() + selectionRect.getHeight() - panY) / scale;
+        selectionIndex.query(clamp(minX, 0, canvasWidthCm), minY, clamp(maxX, 0, canvasWidthCm), maxY,
+                key -> collectGuide(key, Guide.Orientation.HORIZONTAL, selected));
+        selectionIndex.query(minX, clamp(minY, 0, canvasHeightCm), maxX, clamp(maxY, 0, canvasHeightCm),
+                key -> collectGuide(key, Guide.Orientation.VERTICAL, selected));
         return selected;
     }
 
-    private List<Integer> collectDimensionsInSelection() {
-        double minX = selectionRect.getX();
-        double maxX = selectionRect.getX() + selectionRect.getWidth();
-        double minY = selectionRect.getY();
-        double maxY = selectionRect.getY() + selectionRect.getHeight();
-        List<Integer> selected = new ArrayList<>();
-        for (Map.Entry<Integer, DimensionView> entry : dimensionViews.entrySet()) {
-            DimensionView view = entry.getValue();
-            if (view == null) {
-                continue;
-            }
-            if (view.labelGroup != null) {
-                var bounds = view.labelGroup.getBoundsInParent();
-                double centerX = bounds.getMinX() + bounds.getWidth() / 2;
-                double centerY = bounds.getMinY() + bounds.getHeight() / 2;
-                if (centerX >= minX && centerX <= maxX && centerY >= minY && centerY <= maxY) {
-                    selected.add(entry.getKey());
-                    continue;
-                }
-            }
-            Line line = view.dimensionLine;
-            if (line != null) {
-                double midX = (line.getStartX() + line.getEndX()) / 2.0;
-                double midY = (line.getStartY() + line.getEndY()) / 2.0;
-                if (midX >= minX && midX <= maxX && midY >= minY && midY <= maxY) {
-                    selected.add(entry.getKey());
-                }
-            }
+    private void collectGuide(long key, Guide.Orientation orientation, List<Integer> selected) {
+        if ((int) (key >>> 32) != SelectableType.GUIDE.ordinal()) {
+            return;
+        }
+        Guide guide = findGuide((int) key);
+        if (guide != null && guide.getOrientation() == orientation) {
+            selected.add(guide.getId());
         }
-        return selected;
+    }
+
+    private List<Integer> collectDimensionsInSelection() {
+        return collectInSelection(SelectableType.DIMENSION);
     }
 
     private List<Integer> collectShapesInSelection() {
-        double minX = selectionRect.getX();
-        double maxX = selectionRect.getX() + selectionRect.getWidth();
-        double minY = selectionRect.getY();
-        double maxY = selectionRect.getY() + selectionRect.getHeight();
-        List<Integer> selected = new ArrayList<>();
-        for (Map.Entry<Integer, Polygon> entry : shapeViews.entrySet()) {
-            Polygon polygon = entry.getValue();
-            if (polygon == null) {
-                continue;
-            }
-            var bounds = polygon.getBoundsInParent();
-            if (bounds.getMaxX() >= minX && bounds.getMinX() <= maxX
-                    && bounds.getMaxY() >= minY && bounds.getMinY() <= maxY) {
-                selected.add(entry.getKey());
-            }
-        }
-        return selected;
+        return collectInSelection(SelectableType.SHAPE);
     }
 
     private List<Integer> collectManualShapesInSelection() {
-        double minX = selectionRect.getX();
-        double maxX = selectionRect.getX() + selectionRect.getWidth();
-        double minY = selectionRect.getY();
-        double maxY = selectionRect.getY() + selectionRect.getHeight();
+        return collectInSelection(SelectableType.MANUAL_SHAPE);
+    }
+
+    private List<Integer> collectInSelection(SelectableType type) {
+        double minX = (selectionRect.getX() - panX) / scale;
+        double maxX = (selectionRect.getX() + selectionRect.getWidth() - panX) / scale;
+        double minY = (selectionRect.getY() - panY) / scale;
+        double maxY = (selectionRect.getY() + selectionRect.getHeight() - panY) / scale;
         List<Integer> selected = new ArrayList<>();
-        for (Map.Entry<Integer, Polygon> entry : manualShapeViews.entrySet()) {
-            Polygon polygon = entry.getValue();
-            if (polygon == null) {
-                continue;
+        selectionIndex.query(minX, minY, maxX, maxY, key -> {
+            if ((int) (key >>> 32) == type.ordinal()) {
+                selected.add((int) key);
             }
-            var bounds = polygon.getBoundsInParent();
-            if (bounds.getMaxX() >= minX && bounds.getMinX() <= maxX
-                    && bounds.getMaxY() >= minY && bounds.getMinY() <= maxY) {
-                selected.add(entry.getKey());
-            }
-        }
+        });
         return selected;
     }
 
+    private static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private static long selectionKey(SelectableType type, int id) {
+        return ((long) type.ordinal() << 32) | (id & 0xffffffffL);
+    }
+
+    private void indexSelectable(SelectableType type, int id, double minX, double minY, double maxX, double maxY) {
+        selectionIndex.put(selectionKey(type, id), minX, minY, maxX, maxY);
+    }
+
+    private void indexGuide(Guide guide) {
+        double position = guide.getPositionCm();
+        if (guide.getOrientation() == Guide.Orientation.HORIZONTAL) {
+            indexSelectable(SelectableType.GUIDE, guide.getId(), 0, position, canvasWidthCm, position);
+        } else {
+            indexSelectable(SelectableType.GUIDE, guide.getId(), position, 0, position, canvasHeightCm);
+        }
+    }
+
+    private void indexDimension(Dimension dimension) {
+        // The label sits on the midpoint of the offset dimension line; that point is what gets picked.
+        double x = (dimension.getStartXCm() + dimension.getEndXCm()) / 2 + dimension.getOffsetXCm();
+        double y = (dimension.getStartYCm() + dimension.getEndYCm()) / 2 + dimension.getOffsetYCm();
+        indexSelectable(SelectableType.DIMENSION, dimension.getId(), x, y, x, y);
+    }
+
+    private void indexSampledShape(int shapeId, PolygonBuffer sampled) {
+        PolygonMath.bounds(sampled, selectionBounds);
+        indexSelectable(SelectableType.SHAPE, shapeId,
+                selectionBounds[0], selectionBounds[1], selectionBounds[2], selectionBounds[3]);
+    }
+
+    private void indexManualShape(int manualId, List<Point2D> points) {
+        if (points.isEmpty()) {
+            selectionIndex.remove(selectionKey(SelectableType.MANUAL_SHAPE, manualId));
+            return;
+        }
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (Point2D point : points) {
+            minX = Math.min(minX, point.getX());
+            minY = Math.min(minY, point.getY());
+            maxX = Math.max(maxX, point.getX());
+            maxY = Math.max(maxY, point.getY());
+        }
+        indexSelectable(SelectableType.MANUAL_SHAPE, manualId, minX, minY, maxX, maxY);
+    }
+
     private void updateSelectionStyles() {
         for (Map.Entry<Integer, Circle> entry : nodeViews.entrySet()) {
             Circle circle = entry.getValue();
@@ -1968,12 +1975,19 @@ public class CanvasPane extends Pane {
     }
 
     private NodePoint findNode(int nodeId) {
-        for (NodePoint node : nodes) {
-            if (node.getId() == nodeId) {
-                return node;
-            }
+        Integer index = nodeIndexById.get(nodeId);
+        return index == null ? null : nodes.get(index);
+    }
+
+    private void indexNode(NodePoint node) {
+        Integer index = nodeIndexById.get(node.getId());
+        if (index != null) {
+            nodes.set(index, node);
+        } else {
+            nodeIndexById.put(node.getId(), nodes.size());
+            nodes.add(node);
         }
-        return null;
+        nodeGrid.put(node.getId(), node.getXCm(), node.getYCm());
     }
 
     private Guide findGuide(int guideId) {
@@ -2026,6 +2040,7 @@ public class CanvasPane extends Pane {
             for (Point2D point : points) {
                 polygon.getPoints().addAll(point.getX() * scale, point.getY() * scale);
             }
+            indexManualShape(manualId, points);
         }
     }
 
@@ -27,6 +27,7 @@ import unze.ptf.woodcraft.woodcraft.model.Material;
 import unze.ptf.woodcraft.woodcraft.model.NodePoint;
 import unze.ptf.woodcraft.woodcraft.model.ShapePolygon;
 import unze.ptf.woodcraft.woodcraft.service.AuthService;
+import unze.ptf.woodcraft.woodcraft.service.DocumentGraph;
 import unze.ptf.woodcraft.woodcraft.service.EstimationService;
 import unze.ptf.woodcraft.woodcraft.service.EstimationSummary;
 import unze.ptf.woodcraft.woodcraft.service.GeometryService;
@@ -88,6 +89,7 @@ public class MainController {
     private double scale = 10.0;
     private Document currentDocument;
     private final List<ShapePolygon> shapes = new ArrayList<>();
+    private final DocumentGraph graph = new DocumentGraph();
     private final Map<Integer, Color> materialColors = new HashMap<>();
     private Integer selectedNodeId;
     private Integer selectedShapeId;
@@ -188,10 +190,11 @@ public class MainController {
         }
         List<NodePoint> nodes = nodeDao.findByDocument(currentDocument.getId());
         List<Edge> edges = edgeDao.findByDocument(currentDocument.getId());
+        graph.load(nodes, edges);
         canvasPane.setNodes(nodes);
         canvasPane.setEdges(edges);
         canvasPane.setGuides(guideDao.findByDocument(currentDocument.getId()));
-        loadShapes(nodes);
+        loadShapes();
         refreshMaterials();
         updateSummary();
     }
@@ -230,6 +233,7 @@ public class MainController {
         }
         if (currentTool == CanvasPane.Mode.DRAW_SHAPE) {
             var node = nodeDao.create(currentDocument.getId(), cmPoint.getX(), cmPoint.getY());
+            graph.putNode(node);
             canvasPane.addNode(node);
             if (selectedNodeId != null) {
                 handleEdgeCreate(selectedNodeId, node.getId());
@@ -245,16 +249,15 @@ public class MainController {
         if (startNodeId == endNodeId) {
             return;
         }
-        List<Edge> existingEdges = edgeDao.findByDocument(currentDocument.getId());
+        GeometryService.CycleResult cycleResult = geometryService.detectCycleForEdge(graph, startNodeId, endNodeId);
         var edge = edgeDao.create(currentDocument.getId(), startNodeId, endNodeId);
+        graph.putEdge(edge);
         canvasPane.addEdge(edge);
-        GeometryService.CycleResult cycleResult = geometryService.detectCycleForEdge(existingEdges, startNodeId, endNodeId);
         if (cycleResult.cycleDetected()) {
-            Map<Integer, NodePoint> nodeMap = buildNodeMap();
             Material material = getActiveMaterial();
             Integer materialId = material == null ? null : material.getId();
             ShapePolygon newShape = geometryService.buildShapeFromCycle(currentDocument.getId(), materialId,
-                    cycleResult.nodeIds(), nodeMap, buildEdgeMap(existingEdges));
+                    cycleResult.nodeIds(), graph);
             if (!shapeExists(newShape.getNodeIds())) {
                 ShapePolygon saved = shapeDao.createShape(newShape);
                 shapes.add(saved);
@@ -358,21 +361,15 @@ public class MainController {
         });
     }
 
-    private void loadShapes(List<NodePoint> nodes) {
+    private void loadShapes() {
         shapes.clear();
-        Map<Integer, NodePoint> nodeMap = new HashMap<>();
-        for (NodePoint node : nodes) {
-            nodeMap.put(node.getId(), node);
-        }
-        List<Edge> edges = edgeDao.findByDocument(currentDocument.getId());
         List<ShapePolygon> stored = shapeDao.findByDocument(currentDocument.getId());
         for (ShapePolygon storedShape : stored) {
             ShapePolygon hydrated = geometryService.buildShapeFromCycle(
                     storedShape.getDocumentId(),
                     storedShape.getMaterialId(),
                     storedShape.getNodeIds(),
-                    nodeMap,
-                    buildEdgeMap(edges)
+                    graph
             );
             shapes.add(new ShapePolygon(
                     storedShape.getId(),
@@ -391,16 +388,12 @@ public class MainController {
     private void recomputeShapesFromGeometry(List<NodePoint> nodes, List<Edge> edges) {
         shapes.clear();
         shapeDao.deleteByDocument(currentDocument.getId());
-        Map<Integer, NodePoint> nodeMap = new HashMap<>();
-        for (NodePoint node : nodes) {
-            nodeMap.put(node.getId(), node);
-        }
         Material material = getActiveMaterial();
         Integer materialId = material == null ? null : material.getId();
-        List<List<Integer>> cycles = geometryService.detectAllCycles(edges);
+        List<List<Integer>> cycles = geometryService.detectAllCycles(nodes, edges);
         for (List<Integer> cycle : cycles) {
             ShapePolygon newShape = geometryService.buildShapeFromCycle(currentDocument.getId(), materialId, cycle,
-                    nodeMap, buildEdgeMap(edges));
+                    graph);
             ShapePolygon saved = shapeDao.createShape(newShape);
             shapes.add(saved);
         }
@@ -408,14 +401,6 @@ public class MainController {
         updateSummary();
     }
 
-    private Map<Integer, NodePoint> buildNodeMap() {
-        Map<Integer, NodePoint> nodeMap = new HashMap<>();
-        for (NodePoint node : nodeDao.findByDocument(currentDocument.getId())) {
-            nodeMap.put(node.getId(), node);
-        }
-        return nodeMap;
-    }
-
     private boolean shapeExists(List<Integer> nodeIds) {
         for (ShapePolygon shape : shapes) {
             if (shape.getNodeIds().equals(nodeIds)) {
@@ -428,8 +413,9 @@ public class MainController {
     private void eraseNode(int nodeId) {
         edgeDao.deleteByNode(nodeId);
         nodeDao.delete(nodeId);
-        List<NodePoint> nodes = nodeDao.findByDocument(currentDocument.getId());
-        List<Edge> edges = edgeDao.findByDocument(currentDocument.getId());
+        graph.removeNode(nodeId);
+        List<NodePoint> nodes = new ArrayList<>(graph.nodes());
+        List<Edge> edges = new ArrayList<>(graph.edges());
         canvasPane.setNodes(nodes);
         canvasPane.setEdges(edges);
         recomputeShapesFromGeometry(nodes, edges);
@@ -473,17 +459,6 @@ public class MainController {
         }
     }
 
-    private Map<String, Edge> buildEdgeMap(List<Edge> edges) {
-        Map<String, Edge> edgeMap = new HashMap<>();
-        for (Edge edge : edges) {
-            String key = edge.getStartNodeId() < edge.getEndNodeId()
-                    ? edge.getStartNodeId() + "-" + edge.getEndNodeId()
-                    : edge.getEndNodeId() + "-" + edge.getStartNodeId();
-            edgeMap.put(key, edge);
-        }
-        return edgeMap;
-    }
-
     private Color parseColor(String value) {
         try {
             return Color.web(value);
@@ -499,7 +474,8 @@ public class MainController {
             summaryList.getItems().add(String.format("Oblik %d povrsina: %.2f cm2", index++, shape.getAreaCm2()));
         }
         double total = 0;
-        List<EstimationSummary> summaries = estimationService.estimate(currentDocument.getId(), 10.0);
+        List<EstimationSummary> summaries = estimationService.estimate(currentDocument.getId(), graph,
+                currentDocument.getKerfMm(), 10.0);
         for (EstimationSummary summary : summaries) {
             summaryList.getItems().add(summary.getMaterialName() + " - " + summary.getDetails()
                     + String.format(" ($%.2f)", summary.getCost()));
@@ -1,10 +1,12 @@
 package unze.ptf.woodcraft.woodcraft.ui;
 
+import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.geometry.Point2D;
 import javafx.scene.Parent;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
+import javafx.scene.control.ButtonType;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.ContentDisplay;
 import javafx.scene.control.Label;
@@ -19,6 +21,7 @@ import javafx.scene.control.RadioButton;
 import javafx.scene.control.ScrollPane;
 import javafx.scene.control.Separator;
 import javafx.scene.control.Slider;
+import javafx.scene.control.Spinner;
 import javafx.scene.control.TextField;
 import javafx.scene.control.ToolBar;
 import javafx.scene.control.ToggleButton;
@@ -50,12 +53,14 @@ import unze.ptf.woodcraft.woodcraft.dao.GuideDao;
 import unze.ptf.woodcraft.woodcraft.dao.ManualShapeDao;
 import unze.ptf.woodcraft.woodcraft.dao.MaterialDao;
 import unze.ptf.woodcraft.woodcraft.dao.NodeDao;
+import unze.ptf.woodcraft.woodcraft.dao.RemnantDao;
 import unze.ptf.woodcraft.woodcraft.dao.ShapeDao;
 import unze.ptf.woodcraft.woodcraft.dao.UserDao;
 import unze.ptf.woodcraft.woodcraft.model.Dimension;
 import unze.ptf.woodcraft.woodcraft.model.DimensionType;
 import unze.ptf.woodcraft.woodcraft.model.Document;
 import unze.ptf.woodcraft.woodcraft.model.Edge;
+import unze.ptf.woodcraft.woodcraft.model.GrainDirection;
 import unze.ptf.woodcraft.woodcraft.model.Guide;
 import unze.ptf.woodcraft.woodcraft.model.ManualShape;
 import unze.ptf.woodcraft.woodcraft.model.Material;
@@ -65,11 +70,26 @@ import unze.ptf.woodcraft.woodcraft.model.Role;
 import unze.ptf.woodcraft.woodcraft.model.ShapePolygon;
 import unze.ptf.woodcraft.woodcraft.model.UnitSystem;
 import unze.ptf.woodcraft.woodcraft.service.AuthService;
+import unze.ptf.woodcraft.woodcraft.service.BoardPlanner;
+import unze.ptf.woodcraft.woodcraft.service.DocumentGraph;
+import unze.ptf.woodcraft.woodcraft.service.EdgeSplitter;
+import unze.ptf.woodcraft.woodcraft.service.CutSequencer;
 import unze.ptf.woodcraft.woodcraft.service.EstimationService;
 import unze.ptf.woodcraft.woodcraft.service.EstimationSummary;
 import unze.ptf.woodcraft.woodcraft.service.GeometryService;
+import unze.ptf.woodcraft.woodcraft.service.LumberCutter;
+import unze.ptf.woodcraft.woodcraft.service.NestingOptimizer;
 import unze.ptf.woodcraft.woodcraft.service.PdfExportService;
+import unze.ptf.woodcraft.woodcraft.service.PlankAngleSearch;
+import unze.ptf.woodcraft.woodcraft.service.PlankPlanner;
+import unze.ptf.woodcraft.woodcraft.service.RemnantService;
+import unze.ptf.woodcraft.woodcraft.service.ShapeMaintainer;
+import unze.ptf.woodcraft.woodcraft.service.ShapeSlicer;
+import unze.ptf.woodcraft.woodcraft.service.SheetNester;
+import unze.ptf.woodcraft.woodcraft.service.SnapEngine;
 import unze.ptf.woodcraft.woodcraft.session.SessionManager;
+import unze.ptf.woodcraft.woodcraft.util.PartSignature;
+import unze.ptf.woodcraft.woodcraft.util.PolygonBuffer;
 import unze.ptf.woodcraft.woodcraft.util.UnitConverter;
 
 import java.io.File;
@@ -78,9 +98,12 @@ import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import javafx.scene.Node;
 
 
@@ -99,7 +122,13 @@ public class MainView {
     private final GuideDao guideDao;
     private final ShapeDao shapeDao;
     private final ManualShapeDao manualShapeDao;
+    private final RemnantDao remnantDao;
+    private final RemnantService remnantService;
     private final GeometryService geometryService;
+    private final ShapeMaintainer shapeMaintainer;
+    private final SnapEngine snapEngine;
+    private final EdgeSplitter edgeSplitter;
+    private final ShapeSlicer shapeSlicer;
     private final EstimationService estimationService;
     private final SceneNavigator navigator;
 
@@ -109,6 +138,16 @@ public class MainView {
     private final RulerPane horizontalRuler = new RulerPane(RulerPane.Orientation.HORIZONTAL);
     private final RulerPane verticalRuler = new RulerPane(RulerPane.Orientation.VERTICAL);
 
+    // Scratch outlines for the plank preview, refilled on every slider change.
+    private final PolygonBuffer plankOutline = new PolygonBuffer();
+    private final PlankPlanner plankPlanner = new PlankPlanner();
+    private final PlankPlanner.Workspace plankWorkspace = new PlankPlanner.Workspace();
+    private final BoardPlanner boardPlanner = new BoardPlanner();
+    private final BoardPlanner.Workspace boardWorkspace = new BoardPlanner.Workspace();
+    private final PlankAngleSearch plankAngleSearch = new PlankAngleSearch(plankPlanner, boardPlanner);
+    private final Spinner<Integer> sliceStrips = new Spinner<>(1, 50, 1);
+
+    private static final double SNAP_TOLERANCE_PX = 8.0;
     private static final double MATERIAL_TILE_WIDTH = 80;
     private static final double MATERIAL_TILE_HEIGHT = 96;
     private static final double MATERIAL_IMAGE_SIZE = 58;
@@ -165,6 +204,7 @@ public class MainView {
     private final ToggleGroup plankModeGroup = new ToggleGroup();
     private final RadioButton plankByCount = new RadioButton("Po broju");
     private final RadioButton plankByWidth = new RadioButton("Po sirini");
+    private final RadioButton plankByStock = new RadioButton("Po daskama");
     private final Slider plankCountSlider = new Slider(1, 50, 6);
     private final Label plankCountLabel = new Label("Ploca: 6");
     private final Label plankWidthLabel = new Label("Sirina: -");
@@ -172,12 +212,43 @@ public class MainView {
     private final Label plankCoverageLabel = new Label("Pokrivenost: -");
     private final Label plankHintLabel = new Label("Odaberite oblik za pregled.");
     private final TextField plankWidthField = new TextField("5");
+    private final TextField plankStockWidthsField = new TextField("14");
+    private final TextField plankStockLengthsField = new TextField("240, 300");
+    private final TextField plankStaggerField = new TextField("30");
     private final Slider plankAngleSlider = new Slider(0, 359, 0);
     private final Label plankAngleLabel = new Label("Kut: 0°");
+    private final Button plankAutoAngleButton = new Button("Auto kut");
+    private PlankAngleSearch.Run plankAngleRun;
+    private int plankAngleGeneration;
+    private boolean plankAngleApplying;
+
+    // Sheet plan per material name; the optimizer replaces entries as it finds better layouts.
+    private final NestingOptimizer nestingOptimizer = new NestingOptimizer(new SheetNester());
+    private final Map<String, SheetNester.Layout> sheetLayouts = new LinkedHashMap<>();
+    private final Map<String, String> sheetDetails = new LinkedHashMap<>();
+    private final Map<String, LumberCutter.Plan> cutPlans = new LinkedHashMap<>();
+    private final Map<String, EstimationSummary> summaries = new LinkedHashMap<>();
+    private final Map<String, Integer> summaryMaterialIds = new LinkedHashMap<>();
+    private final CutSequencer cutSequencer = new CutSequencer(new SheetNester());
+    private final Map<String, CutSequencer.Plan> cutSequences = new LinkedHashMap<>();
+    // The sheet layout each sequence was worked out for; a material is sequenced again, off the FX thread, only
+    // once its layout is no longer that one, and one pass runs at a time so optimizer updates coalesce.
+    private final Map<String, SheetNester.Layout> sequencedLayouts = new LinkedHashMap<>();
+    private final Map<String, Boolean> sequenceRotation = new LinkedHashMap<>();
+    private final List<String> partLines = new ArrayList<>();
+    private boolean sequencing;
+    private final ComboBox<Integer> nestingBudget = new ComboBox<>();
+    private final Button nestingButton = new Button("Optimiziraj");
+    private final Label nestingStatusLabel = new Label();
+    private NestingOptimizer.Run nestingRun;
+    private int nestingGeneration;
+    private final List<String> nestingFailures = new ArrayList<>();
+    private final List<EstimationService.Refinement> refinements = new ArrayList<>();
+    private int refinementGeneration;
 
     public MainView(SessionManager sessionManager, AuthService authService, UserDao userDao, MaterialDao materialDao,
                     DocumentDao documentDao, DimensionDao dimensionDao, NodeDao nodeDao, EdgeDao edgeDao,
-                    GuideDao guideDao, ShapeDao shapeDao, ManualShapeDao manualShapeDao,
+                    GuideDao guideDao, ShapeDao shapeDao, ManualShapeDao manualShapeDao, RemnantDao remnantDao,
                     GeometryService geometryService, EstimationService estimationService,
                     SceneNavigator navigator, int documentId) {
         this.sessionManager = sessionManager;
@@ -191,7 +262,14 @@ public class MainView {
         this.guideDao = guideDao;
         this.shapeDao = shapeDao;
         this.manualShapeDao = manualShapeDao;
+        this.remnantDao = remnantDao;
+        this.remnantService = new RemnantService(remnantDao, new SheetNester());
         this.geometryService = geometryService;
+        this.shapeMaintainer = new ShapeMaintainer(shapeDao, geometryService);
+        this.snapEngine = new SnapEngine(shapeMaintainer.getGraph(), geometryService.getCurveFlattener());
+        this.edgeSplitter = new EdgeSplitter(nodeDao, edgeDao, geometryService.getCurveFlattener());
+        this.shapeSlicer = new ShapeSlicer(edgeSplitter, geometryService);
+        canvasPane.setCurveFlattener(geometryService.getCurveFlattener());
         this.estimationService = estimationService;
         this.navigator = navigator;
         this.currentDocument = documentDao.findById(documentId, sessionManager.getCurrentUser().getId()).orElse(null);
@@ -330,6 +408,10 @@ public class MainView {
     ToggleButton deleteGuide = createIconToolButton("Brisi vodilice", "signal_cellular_nodata.svg",
             tools, CanvasPane.Mode.DELETE_GUIDE);
 
+    sliceStrips.setEditable(true);
+    sliceStrips.setPrefWidth(70);
+    sliceStrips.setTooltip(new Tooltip("Broj traka: rez dijeli odabrane oblike na N jednakih traka"));
+
     hookToolToggle(selectTool);
     hookToolToggle(drawShape);
     hookToolToggle(drawRect);
@@ -342,7 +424,7 @@ public class MainView {
 
     ToolBar bar = new ToolBar(
             selectTool, drawShape, drawRect, moveNode, deleteNode, dimensionTool,
-            deleteDimension, sliceTool, deleteGuide
+            deleteDimension, sliceTool, sliceStrips, deleteGuide
     );
 
     bar.setStyle(
@@ -499,11 +581,18 @@ public class MainView {
                 selectDefaultMaterialById(material.getId());
             });
         });
-        HBox materialActions = new HBox(8, addMaterial, editMaterial);
+        Button remnantsButton = new Button("Ostaci");
+        remnantsButton.setOnAction(event -> {
+            new RemnantDialog(remnantDao, materialDao.findByUser(sessionManager.getCurrentUser().getId()),
+                    selectedMaterial).showAndWait();
+            updateSummary();
+            updateCutList();
+        });
+        HBox materialActions = new HBox(8, addMaterial, editMaterial, remnantsButton);
         materialActions.setAlignment(Pos.CENTER_LEFT);
 
         Label defaultLabel = new Label("Zadani materijal za oblike");
-        defaultMaterial.setOnAction(event -> recomputeShapes());
+        defaultMaterial.setOnAction(event -> applyDefaultMaterial());
         defaultMaterial.setCellFactory(listView -> new ListCell<>() {
             @Override
             protected void updateItem(Material item, boolean empty) {
@@ -540,6 +629,7 @@ public class MainView {
         VBox sheetBox = new VBox(8);
         plankByCount.setToggleGroup(plankModeGroup);
         plankByWidth.setToggleGroup(plankModeGroup);
+        plankByStock.setToggleGroup(plankModeGroup);
         plankByCount.setSelected(true);
         plankCountSlider.setMajorTickUnit(10);
         plankCountSlider.setMinorTickCount(9);
@@ -552,27 +642,63 @@ public class MainView {
         });
         plankModeGroup.selectedToggleProperty().addListener((obs, oldVal, newVal) -> {
             boolean byCount = plankByCount.isSelected();
+            boolean byStock = plankByStock.isSelected();
             plankCountSlider.setDisable(!byCount);
-            plankWidthField.setDisable(byCount);
+            plankWidthField.setDisable(!plankByWidth.isSelected());
+            plankStockWidthsField.setDisable(!byStock);
+            plankStockLengthsField.setDisable(!byStock);
+            plankStaggerField.setDisable(!byStock);
             updatePlankPreview();
         });
         plankWidthField.setPrefWidth(80);
         plankWidthField.setDisable(true);
+        plankStockWidthsField.setPrefWidth(60);
+        plankStockLengthsField.setPrefWidth(90);
+        plankStaggerField.setPrefWidth(60);
+        plankStockWidthsField.setDisable(true);
+        plankStockLengthsField.setDisable(true);
+        plankStaggerField.setDisable(true);
         plankAngleSlider.setMajorTickUnit(90);
         plankAngleSlider.setMinorTickCount(5);
         plankAngleSlider.setBlockIncrement(1);
         plankAngleSlider.valueProperty().addListener((obs, oldVal, newVal) -> {
-            int value = newVal.intValue();
-            plankAngleLabel.setText("Kut: " + value + "°");
+            double value = newVal.doubleValue();
+            plankAngleLabel.setText(value == Math.rint(value)
+                    ? "Kut: " + newVal.intValue() + "°" : String.format("Kut: %.1f°", value));
             updatePlankPreview();
         });
+        plankAutoAngleButton.setOnAction(event -> toggleAutoAngle());
         plankWidthField.textProperty().addListener((obs, oldVal, newVal) -> updatePlankPreview());
+        plankStockWidthsField.textProperty().addListener((obs, oldVal, newVal) -> updatePlankPreview());
+        plankStockLengthsField.textProperty().addListener((obs, oldVal, newVal) -> updatePlankPreview());
+        plankStaggerField.textProperty().addListener((obs, oldVal, newVal) -> updatePlankPreview());
         plankHintLabel.setStyle("-fx-text-fill: #666;");
-        HBox plankModeRow = new HBox(8, plankByCount, plankByWidth);
+        HBox plankModeRow = new HBox(8, plankByCount, plankByWidth, plankByStock);
         HBox plankWidthRow = new HBox(8, new Label("Sirina"), plankWidthField);
+        HBox plankStockRow = new HBox(8, new Label("Daske"), plankStockWidthsField, new Label("x"),
+                plankStockLengthsField);
+        HBox plankStaggerRow = new HBox(8, new Label("Razmak spojeva"), plankStaggerField);
+        plankStockRow.setAlignment(Pos.CENTER_LEFT);
+        plankStaggerRow.setAlignment(Pos.CENTER_LEFT);
         VBox plankAutoBox = new VBox(6, plankModeRow, plankCountLabel, plankCountSlider, plankWidthRow,
-                plankAngleLabel, plankAngleSlider, plankWidthLabel, plankWasteLabel, plankCoverageLabel, plankHintLabel);
-        sheetBox.getChildren().addAll(plankAutoBox, sheetList);
+                plankStockRow, plankStaggerRow, plankAngleLabel, plankAngleSlider, plankAutoAngleButton, plankWidthLabel, plankWasteLabel, plankCoverageLabel, plankHintLabel);
+        nestingBudget.getItems().addAll(2, 10, 60);
+        nestingBudget.getSelectionModel().select(0);
+        nestingBudget.setCellFactory(listView -> new ListCell<>() {
+            @Override
+            protected void updateItem(Integer item, boolean empty) {
+                super.updateItem(item, empty);
+                setText(empty || item == null ? null : item + " s");
+            }
+        });
+        nestingBudget.setButtonCell(nestingBudget.getCellFactory().call(null));
+        nestingButton.setOnAction(event -> toggleNesting());
+        nestingStatusLabel.setStyle("-fx-text-fill: #666;");
+        HBox nestingRow = new HBox(8, new Label("Optimizacija"), nestingBudget, nestingButton);
+        nestingRow.setAlignment(Pos.CENTER_LEFT);
+        Button confirmJobButton = new Button("Potvrdi posao");
+        confirmJobButton.setOnAction(event -> confirmJob());
+        sheetBox.getChildren().addAll(plankAutoBox, nestingRow, nestingStatusLabel, sheetList, confirmJobButton);
         configureCompactList(sheetList);
 
         Label selectionLabel = new Label("Odabir");
@@ -604,11 +730,15 @@ public class MainView {
 
     private void loadDocumentState(boolean recompute) {
         unitSystem = currentDocument.getUnitSystem();
-        canvasPane.setNodes(nodeDao.findByDocument(currentDocument.getId()));
-        canvasPane.setEdges(edgeDao.findByDocument(currentDocument.getId()));
+        List<NodePoint> nodes = nodeDao.findByDocument(currentDocument.getId());
+        List<Edge> edges = edgeDao.findByDocument(currentDocument.getId());
+        shapeMaintainer.load(currentDocument.getId(), nodes, edges, shapeDao.findByDocument(currentDocument.getId()));
+        canvasPane.setNodes(nodes);
+        canvasPane.setEdges(edges);
         guides.clear();
         guides.addAll(guideDao.findByDocument(currentDocument.getId()));
         canvasPane.setGuides(guides);
+        snapEngine.setGuides(guides);
         dimensions.clear();
         dimensions.addAll(dimensionDao.findByDocument(currentDocument.getId()));
         canvasPane.setDimensions(dimensions);
@@ -619,9 +749,10 @@ public class MainView {
         canvasPane.setCanvasSizeCm(currentDocument.getWidthCm(), currentDocument.getHeightCm());
         refreshMaterials();
         if (recompute) {
+            shapeMaintainer.markAllDirty();
             recomputeShapes();
         } else {
-            loadShapesFromDb();
+            showShapes();
             updateSelectedShapeSummary();
             updatePlankPreview();
             updateSummary();
@@ -721,7 +852,12 @@ public class MainView {
         if (currentTool != CanvasPane.Mode.DRAW_SHAPE) {
             return;
         }
-        handleNodeCreate(clampToCanvas(applyGuideSnapping(cmPoint)));
+        SnapEngine.Snap snap = snap(cmPoint, -1);
+        if (snap.kind() == SnapEngine.Kind.NODE) {
+            handleNodeClick(snap.nodeId());
+            return;
+        }
+        handleNodeCreate(clampToCanvas(new Point2D(snap.x(), snap.y())));
     }
 
     private void handleNodeClick(int nodeId) {
@@ -777,6 +913,7 @@ public class MainView {
         }
         pushHistory();
         var node = nodeDao.create(currentDocument.getId(), cmPoint.getX(), cmPoint.getY());
+        shapeMaintainer.nodeAdded(node);
         canvasPane.addNode(node);
         if (lastDrawNodeId != null) {
             handleEdgeCreate(lastDrawNodeId, node.getId());
@@ -791,16 +928,45 @@ public class MainView {
         }
         pushHistory();
         var edge = edgeDao.create(currentDocument.getId(), startNodeId, endNodeId);
+        shapeMaintainer.edgeAdded(edge);
         canvasPane.addEdge(edge);
+        splitCrossings(edge);
         recomputeShapes();
     }
 
+    private void splitCrossings(Edge edge) {
+        DocumentGraph graph = shapeMaintainer.getGraph();
+        NodePoint start = graph.getNode(edge.getStartNodeId());
+        NodePoint end = graph.getNode(edge.getEndNodeId());
+        List<Edge> candidates = snapEngine.edgesIn(
+                Math.min(start.getXCm(), end.getXCm()), Math.min(start.getYCm(), end.getYCm()),
+                Math.max(start.getXCm(), end.getXCm()), Math.max(start.getYCm(), end.getYCm()));
+        applySplit(edgeSplitter.splitAgainst(currentDocument.getId(), graph, edge, candidates));
+    }
+
+    private void applySplit(EdgeSplitter.Result result) {
+        if (result.isEmpty()) {
+            return;
+        }
+        for (NodePoint node : result.nodes()) {
+            shapeMaintainer.nodeAdded(node);
+            canvasPane.addNode(node);
+        }
+        for (int edgeId : result.removedEdgeIds()) {
+            shapeMaintainer.edgeRemoved(edgeId);
+        }
+        for (Edge piece : result.edges()) {
+            shapeMaintainer.edgeAdded(piece);
+        }
+        canvasPane.setEdges(new ArrayList<>(shapeMaintainer.getGraph().edges()));
+    }
+
     private void handleRectangleCreate(Point2D startCm, Point2D endCm) {
         if (currentDocument == null) {
             return;
         }
-        Point2D start = clampToCanvas(applyGuideSnapping(startCm));
-        Point2D end = clampToCanvas(applyGuideSnapping(endCm));
+        Point2D start = clampToCanvas(applySnapping(startCm, -1));
+        Point2D end = clampToCanvas(applySnapping(endCm, -1));
         double minX = Math.min(start.getX(), end.getX());
         double maxX = Math.max(start.getX(), end.getX());
         double minY = Math.min(start.getY(), end.getY());
@@ -813,14 +979,18 @@ public class MainView {
         NodePoint n2 = nodeDao.create(currentDocument.getId(), maxX, minY);
         NodePoint n3 = nodeDao.create(currentDocument.getId(), maxX, maxY);
         NodePoint n4 = nodeDao.create(currentDocument.getId(), minX, maxY);
-        canvasPane.addNode(n1);
-        canvasPane.addNode(n2);
-        canvasPane.addNode(n3);
-        canvasPane.addNode(n4);
-        canvasPane.addEdge(edgeDao.create(currentDocument.getId(), n1.getId(), n2.getId()));
-        canvasPane.addEdge(edgeDao.create(currentDocument.getId(), n2.getId(), n3.getId()));
-        canvasPane.addEdge(edgeDao.create(currentDocument.getId(), n3.getId(), n4.getId()));
-        canvasPane.addEdge(edgeDao.create(currentDocument.getId(), n4.getId(), n1.getId()));
+        for (NodePoint corner : List.of(n1, n2, n3, n4)) {
+            shapeMaintainer.nodeAdded(corner);
+            canvasPane.addNode(corner);
+        }
+        for (Edge side : List.of(
+                edgeDao.create(currentDocument.getId(), n1.getId(), n2.getId()),
+                edgeDao.create(currentDocument.getId(), n2.getId(), n3.getId()),
+                edgeDao.create(currentDocument.getId(), n3.getId(), n4.getId()),
+                edgeDao.create(currentDocument.getId(), n4.getId(), n1.getId()))) {
+            shapeMaintainer.edgeAdded(side);
+            canvasPane.addEdge(side);
+        }
         lastDrawNodeId = null;
         recomputeShapes();
     }
@@ -978,11 +1148,12 @@ public class MainView {
 
     private void handleNodeMoveFinished(int nodeId, Point2D cmPoint) {
         pushHistory();
-        Point2D snapped = clampToCanvas(applyGuideSnapping(cmPoint));
+        Point2D snapped = clampToCanvas(applySnapping(cmPoint, nodeId));
         nodeDao.updatePosition(nodeId, snapped.getX(), snapped.getY());
+        shapeMaintainer.nodeMoved(new NodePoint(nodeId, currentDocument.getId(), snapped.getX(), snapped.getY()));
         updateDimensionsForNode(nodeId, snapped);
-        canvasPane.setNodes(nodeDao.findByDocument(currentDocument.getId()));
-        persistEdgeControls();
+        canvasPane.setNodes(new ArrayList<>(shapeMaintainer.getGraph().nodes()));
+        persistEdgeControls(List.of(nodeId));
         recomputeShapes();
         if (currentTool == CanvasPane.Mode.MOVE_NODE) {
             canvasPane.setSelectedNode(nodeId);
@@ -994,13 +1165,17 @@ public class MainView {
             return;
         }
         pushHistory();
+        List<Integer> movedIds = new ArrayList<>();
         for (NodePoint node : moved) {
             Point2D snapped = clampToCanvas(new Point2D(node.getXCm(), node.getYCm()));
             nodeDao.updatePosition(node.getId(), snapped.getX(), snapped.getY());
+            shapeMaintainer.nodeMoved(new NodePoint(node.getId(), currentDocument.getId(), snapped.getX(),
+                    snapped.getY()));
             updateDimensionsForNode(node.getId(), snapped);
+            movedIds.add(node.getId());
         }
-        canvasPane.setNodes(nodeDao.findByDocument(currentDocument.getId()));
-        persistEdgeControls();
+        canvasPane.setNodes(new ArrayList<>(shapeMaintainer.getGraph().nodes()));
+        persistEdgeControls(movedIds);
         recomputeShapes();
     }
 
@@ -1009,17 +1184,35 @@ public class MainView {
             return;
         }
         pushHistory();
+        persistEdgeControl(update);
+    }
+
+    private void persistEdgeControls(List<Integer> movedNodeIds) {
+        // Only edges hanging off the moved nodes had their handles shifted or reset by the canvas.
+        Set<Integer> edgeIds = new HashSet<>();
+        for (int nodeId : movedNodeIds) {
+            for (Edge edge : shapeMaintainer.getGraph().incidentEdges(nodeId)) {
+                edgeIds.add(edge.getId());
+            }
+        }
+        for (int edgeId : edgeIds) {
+            CanvasPane.EdgeControlUpdate update = canvasPane.getEdgeControlUpdate(edgeId);
+            if (update != null) {
+                persistEdgeControl(update);
+            }
+        }
+    }
+
+    private void persistEdgeControl(CanvasPane.EdgeControlUpdate update) {
         edgeDao.updateControls(update.edgeId(),
                 update.start().getX(), update.start().getY(),
                 update.end().getX(), update.end().getY());
-    }
-
-    private void persistEdgeControls() {
-        List<CanvasPane.EdgeControlUpdate> updates = canvasPane.getEdgeControlUpdates();
-        for (CanvasPane.EdgeControlUpdate update : updates) {
-            edgeDao.updateControls(update.edgeId(),
+        Edge edge = shapeMaintainer.getGraph().getEdge(update.edgeId());
+        if (edge != null) {
+            shapeMaintainer.edgeChanged(new Edge(edge.getId(), edge.getDocumentId(),
+                    edge.getStartNodeId(), edge.getEndNodeId(),
                     update.start().getX(), update.start().getY(),
-                    update.end().getX(), update.end().getY());
+                    update.end().getX(), update.end().getY()));
         }
     }
 
@@ -1061,8 +1254,9 @@ public class MainView {
         pushHistory();
         edgeDao.deleteByNode(nodeId);
         nodeDao.delete(nodeId);
-        canvasPane.setNodes(nodeDao.findByDocument(currentDocument.getId()));
-        canvasPane.setEdges(edgeDao.findByDocument(currentDocument.getId()));
+        shapeMaintainer.nodeRemoved(nodeId);
+        canvasPane.setNodes(new ArrayList<>(shapeMaintainer.getGraph().nodes()));
+        canvasPane.setEdges(new ArrayList<>(shapeMaintainer.getGraph().edges()));
         recomputeShapes();
     }
 
@@ -1071,9 +1265,10 @@ public class MainView {
         for (Integer nodeId : nodeIds) {
             edgeDao.deleteByNode(nodeId);
             nodeDao.delete(nodeId);
+            shapeMaintainer.nodeRemoved(nodeId);
         }
-        canvasPane.setNodes(nodeDao.findByDocument(currentDocument.getId()));
-        canvasPane.setEdges(edgeDao.findByDocument(currentDocument.getId()));
+        canvasPane.setNodes(new ArrayList<>(shapeMaintainer.getGraph().nodes()));
+        canvasPane.setEdges(new ArrayList<>(shapeMaintainer.getGraph().edges()));
         recomputeShapes();
     }
 
@@ -1084,6 +1279,7 @@ public class MainView {
         }
         guides.removeIf(guide -> guideIds.contains(guide.getId()));
         canvasPane.setGuides(guides);
+        snapEngine.setGuides(guides);
     }
 
     private void handleDeleteDimensions(List<Integer> dimensionIds) {
@@ -1192,62 +1388,21 @@ public class MainView {
         if (currentDocument == null || start == null || end == null) {
             return;
         }
-        pushHistory();
-        List<Integer> targetShapes = canvasPane.getSelectedShapeIds();
-        if (targetShapes.isEmpty()) {
-            return;
-        }
-        List<NodePoint> allNodes = nodeDao.findByDocument(currentDocument.getId());
-        List<Edge> allEdges = edgeDao.findByDocument(currentDocument.getId());
-        Map<Integer, NodePoint> nodeMap = new HashMap<>();
-        for (NodePoint node : allNodes) {
-            nodeMap.put(node.getId(), node);
-        }
-        for (Integer shapeId : targetShapes) {
+        List<ShapePolygon> targetShapes = new ArrayList<>();
+        for (Integer shapeId : canvasPane.getSelectedShapeIds()) {
             ShapePolygon shape = findShapeById(shapeId);
-            if (shape == null || shape.getNodes() == null || shape.getNodes().size() < 3) {
-                continue;
-            }
-            List<NodePoint> shapeNodes = shape.getNodes();
-            List<IntersectionHit> intersections = new ArrayList<>();
-            for (int i = 0; i < shapeNodes.size(); i++) {
-                NodePoint a = shapeNodes.get(i);
-                NodePoint b = shapeNodes.get((i + 1) % shapeNodes.size());
-                Point2D hit = intersectSegments(
-                        new Point2D(a.getXCm(), a.getYCm()),
-                        new Point2D(b.getXCm(), b.getYCm()),
-                        start,
-                        end
-                );
-                if (hit == null) {
-                    continue;
-                }
-                int existingNodeId = nearExistingNode(hit, a, b);
-                int nodeId = existingNodeId;
-                if (nodeId == -1) {
-                    NodePoint created = nodeDao.create(currentDocument.getId(), hit.getX(), hit.getY());
-                    nodeId = created.getId();
-                    nodeMap.put(nodeId, created);
-                }
-                int edgeId = findEdgeId(allEdges, a.getId(), b.getId());
-                if (edgeId != -1) {
-                    edgeDao.deleteById(edgeId);
-                    edgeDao.create(currentDocument.getId(), a.getId(), nodeId);
-                    edgeDao.create(currentDocument.getId(), nodeId, b.getId());
-                }
-                intersections.add(new IntersectionHit(nodeId, projectionT(start, end, hit)));
-            }
-            if (intersections.size() >= 2) {
-                intersections.sort((left, right) -> Double.compare(left.t(), right.t()));
-                int startNodeId = intersections.get(0).nodeId();
-                int endNodeId = intersections.get(intersections.size() - 1).nodeId();
-                if (startNodeId != endNodeId && findEdgeId(allEdges, startNodeId, endNodeId) == -1) {
-                    edgeDao.create(currentDocument.getId(), startNodeId, endNodeId);
-                }
+            if (shape != null) {
+                targetShapes.add(shape);
             }
         }
-        canvasPane.setNodes(nodeDao.findByDocument(currentDocument.getId()));
-        canvasPane.setEdges(edgeDao.findByDocument(currentDocument.getId()));
+        if (targetShapes.isEmpty()) {
+            return;
+        }
+        pushHistory();
+        EdgeSplitter.Result result = shapeSlicer.slice(currentDocument.getId(), shapeMaintainer.getGraph(),
+                targetShapes, new ShapeSlicer.Line(start.getX(), start.getY(), end.getX(), end.getY()),
+                sliceStrips.getValue());
+        applySplit(result);
         recomputeShapes();
     }
 
@@ -1285,6 +1440,7 @@ public class MainView {
                 Guide guide = guideDao.create(currentDocument.getId(), Guide.Orientation.HORIZONTAL, positionCm);
                 guides.add(guide);
                 canvasPane.addGuide(guide);
+                snapEngine.setGuides(guides);
             }
         });
 
@@ -1315,25 +1471,36 @@ public class MainView {
                 Guide guide = guideDao.create(currentDocument.getId(), Guide.Orientation.VERTICAL, positionCm);
                 guides.add(guide);
                 canvasPane.addGuide(guide);
+                snapEngine.setGuides(guides);
             }
         });
     }
 
+    private void applyDefaultMaterial() {
+        if (currentDocument == null) {
+            return;
+        }
+        List<Integer> selectedShapes = canvasPane.getSelectedShapeIds();
+        if (selectedShapes.isEmpty()) {
+            return;
+        }
+        // New shapes pick up the default on their own; an explicit choice only re-assigns the selection.
+        Material material = defaultMaterial.getSelectionModel().getSelectedItem();
+        shapeMaintainer.assignMaterial(selectedShapes, material == null ? null : material.getId());
+        showShapes();
+        updateSelectedShapeSummary();
+        updatePlankPreview();
+        updateSummary();
+        updateCutList();
+    }
+
     private void recomputeShapes() {
         if (currentDocument == null) {
             return;
         }
-        List<ShapePolygon> computed = geometryService.buildShapes(currentDocument.getId(),
-                nodeDao.findByDocument(currentDocument.getId()),
-                edgeDao.findByDocument(currentDocument.getId()));
         Material material = defaultMaterial.getSelectionModel().getSelectedItem();
-        List<ShapePolygon> assigned = computed.stream()
-                .map(shape -> new ShapePolygon(-1, shape.getDocumentId(),
-                        material == null ? null : material.getId(), shape.getQuantity(), shape.getNodeIds(),
-                        shape.getNodes(), shape.getAreaCm2(), shape.getPerimeterCm()))
-                .toList();
-        shapeDao.replaceShapes(currentDocument.getId(), assigned);
-        loadShapesFromDb();
+        shapeMaintainer.refresh(material == null ? null : material.getId());
+        showShapes();
         selectedShapeId = null;
         canvasPane.clearSelection();
         updateSelectedShapeSummary();
@@ -1355,73 +1522,18 @@ public class MainView {
         return Math.max(2.0, Math.min(80.0, value));
     }
 
-    private Point2D applyGuideSnapping(Point2D cmPoint) {
-        if (guides.isEmpty()) {
-            return cmPoint;
-        }
-        double thresholdPx = 8.0;
-        double thresholdCm = thresholdPx / scale;
-        double x = cmPoint.getX();
-        double y = cmPoint.getY();
-        Double snapX = null;
-        Double snapY = null;
-        for (Guide guide : guides) {
-            if (guide.getOrientation() == Guide.Orientation.VERTICAL) {
-                double dist = Math.abs(x - guide.getPositionCm());
-                if (dist <= thresholdCm) {
-                    snapX = guide.getPositionCm();
-                }
-            } else {
-                double dist = Math.abs(y - guide.getPositionCm());
-                if (dist <= thresholdCm) {
-                    snapY = guide.getPositionCm();
-                }
-            }
-        }
-        if (snapX != null) {
-            x = snapX;
-        }
-        if (snapY != null) {
-            y = snapY;
-        }
-        return new Point2D(x, y);
+    private SnapEngine.Snap snap(Point2D cmPoint, int excludedNodeId) {
+        return snapEngine.snap(cmPoint.getX(), cmPoint.getY(), SNAP_TOLERANCE_PX / scale, excludedNodeId);
     }
 
-    private void loadShapesFromDb() {
+    private Point2D applySnapping(Point2D cmPoint, int excludedNodeId) {
+        SnapEngine.Snap snap = snap(cmPoint, excludedNodeId);
+        return new Point2D(snap.x(), snap.y());
+    }
+
+    private void showShapes() {
         shapes.clear();
-        List<ShapePolygon> stored = shapeDao.findByDocument(currentDocument.getId());
-        List<NodePoint> nodes = nodeDao.findByDocument(currentDocument.getId());
-        List<Edge> edges = edgeDao.findByDocument(currentDocument.getId());
-        Map<Integer, NodePoint> nodeMap = new HashMap<>();
-        for (NodePoint node : nodes) {
-            nodeMap.put(node.getId(), node);
-        }
-        Map<String, Edge> edgeMap = new HashMap<>();
-        for (Edge edge : edges) {
-            String key = edge.getStartNodeId() < edge.getEndNodeId()
-                    ? edge.getStartNodeId() + "-" + edge.getEndNodeId()
-                    : edge.getEndNodeId() + "-" + edge.getStartNodeId();
-            edgeMap.put(key, edge);
-        }
-        for (ShapePolygon storedShape : stored) {
-            ShapePolygon hydrated = geometryService.buildShapeFromCycle(
-                    storedShape.getDocumentId(),
-                    storedShape.getMaterialId(),
-                    storedShape.getNodeIds(),
-                    nodeMap,
-                    edgeMap
-            );
-            shapes.add(new ShapePolygon(
-                    storedShape.getId(),
-                    hydrated.getDocumentId(),
-                    hydrated.getMaterialId(),
-                    hydrated.getQuantity(),
-                    hydrated.getNodeIds(),
-                    hydrated.getNodes(),
-                    hydrated.getAreaCm2(),
-                    hydrated.getPerimeterCm()
-            ));
-        }
+        shapes.addAll(shapeMaintainer.getShapes());
         canvasPane.setShapes(shapes);
     }
 
@@ -1451,7 +1563,8 @@ public class MainView {
             selectedShapeCostLabel.setText("Materijal: nedostaje");
             return;
         }
-        EstimationSummary summary = estimationService.estimateMaterial(material, List.of(shape), currentWastePercent);
+        EstimationSummary summary = estimationService.estimateMaterial(material, List.of(shape),
+                shapeMaintainer.getGraph(), currentDocument.getKerfMm(), currentWastePercent);
         if (summary == null) {
             selectedShapeCostLabel.setText("Materijal: " + material.getName());
             return;
@@ -1459,6 +1572,16 @@ public class MainView {
         selectedShapeCostLabel.setText(summary.getDetails() + String.format(" ($%.2f)", summary.getCost()));
     }
 
+    private List<ShapePolygon> shapesOf(Material material) {
+        List<ShapePolygon> materialShapes = new ArrayList<>();
+        for (ShapePolygon shape : shapes) {
+            if (shape.getMaterialId() != null && shape.getMaterialId() == material.getId()) {
+                materialShapes.add(shape);
+            }
+        }
+        return materialShapes;
+    }
+
     private ShapePolygon findShapeById(int shapeId) {
         for (ShapePolygon shape : shapes) {
             if (shape.getId() == shapeId) {
@@ -1469,21 +1592,230 @@ public class MainView {
     }
 
     private void updateSummary() {
+        stopNesting();
+        stopRefinements();
+        summaries.clear();
+        sheetLayouts.clear();
+        sheetDetails.clear();
+        cutPlans.clear();
+        summaryMaterialIds.clear();
+        for (EstimationSummary summary : estimationService.estimate(currentDocument.getId(),
+                shapeMaintainer.getGraph(), currentDocument.getKerfMm(), currentWastePercent)) {
+            summaries.put(summary.getMaterialName(), summary);
+            summaryMaterialIds.put(summary.getMaterialName(), summary.getMaterialId());
+            if (summary.getLayout() != null) {
+                sheetLayouts.put(summary.getMaterialName(), summary.getLayout());
+                sheetDetails.put(summary.getMaterialName(), summary.getDetails());
+            }
+            if (summary.getCutPlan() != null) {
+                cutPlans.put(summary.getMaterialName(), summary.getCutPlan());
+                sheetDetails.put(summary.getMaterialName(), summary.getDetails());
+            }
+        }
+        renderSummary();
+        renderSheetList();
+        startRefinements();
+    }
+
+    // The estimate is shown straight away; slower passes (e.g. the true-outline nest) run in the background
+    // and replace a material's line only when they come back better than what is shown by then.
+    private void startRefinements() {
+        int generation = refinementGeneration;
+        for (EstimationSummary summary : summaries.values()) {
+            EstimationService.Refinement refinement = summary.getRefinement();
+            if (refinement == null) {
+                continue;
+            }
+            refinements.add(refinement);
+            String materialName = summary.getMaterialName();
+            refinement.start().whenComplete((better, failure) -> Platform.runLater(() -> {
+                if (failure != null) {
+                    failure.printStackTrace();
+                } else if (better != null) {
+                    applyRefinement(materialName, better, generation);
+                }
+            }));
+        }
+    }
+
+    private void applyRefinement(String materialName, EstimationSummary summary, int generation) {
+        if (generation != refinementGeneration) {
+            return;
+        }
+        SheetNester.Layout layout = summary.getLayout();
+        LumberCutter.Plan plan = summary.getCutPlan();
+        if (layout != null && layout.betterThan(sheetLayouts.get(materialName))) {
+            sheetLayouts.put(materialName, layout);
+        } else if (plan != null && plan.betterThan(cutPlans.get(materialName))) {
+            cutPlans.put(materialName, plan);
+        } else {
+            return;
+        }
+        summaries.put(materialName, summary);
+        sheetDetails.put(materialName, summary.getDetails());
+        renderSummary();
+        renderSheetList();
+        updateCutList();
+    }
+
+    private void stopRefinements() {
+        refinementGeneration++;
+        for (EstimationService.Refinement refinement : refinements) {
+            refinement.cancel();
+        }
+        refinements.clear();
+    }
+
+    private void renderSummary() {
         summaryList.getItems().clear();
-        sheetList.getItems().clear();
         double total = 0;
-        List<EstimationSummary> summaries = estimationService.estimate(currentDocument.getId(), currentWastePercent);
-        for (EstimationSummary summary : summaries) {
+        for (EstimationSummary summary : summaries.values()) {
             summaryList.getItems().add(summary.getMaterialName() + " - " + summary.getDetails()
                     + String.format(" ($%.2f)", summary.getCost()));
             total += summary.getCost();
-            if (summary.getDetails().startsWith("Ploce:")) {
-                sheetList.getItems().add(summary.getMaterialName() + " - " + summary.getDetails());
-            }
         }
         totalCostLabel.setText(String.format("Ukupno: $%.2f", total));
     }
 
+    private void renderSheetList() {
+        sheetList.getItems().clear();
+        for (Map.Entry<String, SheetNester.Layout> entry : sheetLayouts.entrySet()) {
+            SheetNester.Layout layout = entry.getValue();
+            sheetList.getItems().add(entry.getKey() + " - " + sheetDetails.get(entry.getKey()));
+            for (int i = 0; i < layout.sheetCount(); i++) {
+                sheetList.getItems().add(String.format("  Ploca %d: %d dijelova, iskoristenje %.1f%%",
+                        i + 1, layout.sheets().get(i).placements().size(), layout.yield(i) * 100));
+            }
+            for (SheetNester.RemnantSheet remnant : layout.remnants()) {
+                sheetList.getItems().add(String.format("  Ostatak %.0f x %.0f cm: %d dijelova",
+                        remnant.widthCm(), remnant.heightCm(), remnant.sheet().placements().size()));
+            }
+        }
+        for (Map.Entry<String, LumberCutter.Plan> entry : cutPlans.entrySet()) {
+            sheetList.getItems().add(entry.getKey() + " - " + sheetDetails.get(entry.getKey()));
+            for (LumberCutter.Pattern pattern : entry.getValue().patterns()) {
+                StringBuilder cuts = new StringBuilder();
+                for (double length : pattern.lengthsCm()) {
+                    cuts.append(cuts.isEmpty() ? "" : " + ").append(String.format("%.1f", length));
+                }
+                sheetList.getItems().add(String.format("  %dx %s %.0f cm: %s, ostatak %.1f cm",
+                        pattern.count(), pattern.remnant() ? "ostatak" : "daska", pattern.stockLengthCm(), cuts,
+                        pattern.offcutCm()));
+            }
+        }
+    }
+
+    // Materials are optimized one after another, each with an equal share of the chosen budget.
+    private void toggleNesting() {
+        if (nestingRun != null) {
+            stopNesting();
+            nestingStatusLabel.setText("Optimizacija prekinuta.");
+            return;
+        }
+        if (currentDocument == null) {
+            return;
+        }
+        Map<Material, List<SheetNester.Part>> parts = estimationService.sheetParts(currentDocument.getId(),
+                shapeMaintainer.getGraph(), currentDocument.getKerfMm());
+        if (parts.isEmpty()) {
+            nestingStatusLabel.setText("Nema ploca za optimizaciju.");
+            return;
+        }
+        long budgetMillis = nestingBudget.getValue() * 1000L / parts.size();
+        nestingFailures.clear();
+        nestingButton.setText("Zaustavi");
+        startNesting(new ArrayList<>(parts.entrySet()), 0, budgetMillis, ++nestingGeneration);
+    }
+
+    private void startNesting(List<Map.Entry<Material, List<SheetNester.Part>>> jobs, int index, long budgetMillis,
+                              int generation) {
+        if (generation != nestingGeneration) {
+            return;
+        }
+        if (index == jobs.size()) {
+            nestingRun = null;
+            nestingButton.setText("Optimiziraj");
+            nestingStatusLabel.setText(nestingFailures.isEmpty() ? "Optimizacija zavrsena."
+                    : "Optimizacija zavrsena, nije uspjela za: " + String.join(", ", nestingFailures));
+            return;
+        }
+        Material material = jobs.get(index).getKey();
+        nestingStatusLabel.setText("Optimizacija: " + material.getName());
+        nestingRun = nestingOptimizer.optimize(jobs.get(index).getValue(), material.getSheetWidthCm(),
+                material.getSheetHeightCm(), currentDocument.getKerfMm() / 10.0,
+                SheetNester.quarterTurnsAllowed(material.getGrainDirection()), budgetMillis,
+                layout -> Platform.runLater(() -> showOptimizedLayout(material, layout, generation)));
+        // A failed material is reported and skipped, so the remaining ones are still optimized.
+        nestingRun.result().whenComplete((layout, failure) -> Platform.runLater(() -> {
+            if (failure != null && generation == nestingGeneration) {
+                failure.printStackTrace();
+                nestingFailures.add(material.getName());
+            }
+            startNesting(jobs, index + 1, budgetMillis, generation);
+        }));
+    }
+
+    private void showOptimizedLayout(Material material, SheetNester.Layout layout, int generation) {
+        if (generation != nestingGeneration) {
+            return;
+        }
+        // The optimizer only sees the parts left over after the remnants, so their placements carry over.
+        // Only a layout that beats the one shown is taken, which may already be a true-shape nest.
+        SheetNester.Layout previous = sheetLayouts.get(material.getName());
+        if (previous != null && !previous.remnants().isEmpty()) {
+            layout = layout.withRemnants(previous.remnants());
+        }
+        if (!layout.betterThan(previous)) {
+            return;
+        }
+        EstimationSummary summary = estimationService.sheetSummary(material, shapesOf(material), currentWastePercent,
+                layout);
+        summaries.put(material.getName(), summary);
+        sheetLayouts.put(material.getName(), layout);
+        sheetDetails.put(material.getName(), summary.getDetails() + ", optimizirano");
+        renderSummary();
+        renderSheetList();
+        updateCutList();
+    }
+
+    // Takes the remnants used by the shown layouts off the rack and registers the new offcuts.
+    private void confirmJob() {
+        if (currentDocument == null || (sheetLayouts.isEmpty() && cutPlans.isEmpty())) {
+            return;
+        }
+        Alert confirm = new Alert(Alert.AlertType.CONFIRMATION,
+                "Potvrditi posao? Iskoristeni ostaci se uklanjaju, a novi ostaci se dodaju na policu.",
+                ButtonType.OK, ButtonType.CANCEL);
+        confirm.setHeaderText("Potvrda posla");
+        if (confirm.showAndWait().orElse(ButtonType.CANCEL) != ButtonType.OK) {
+            return;
+        }
+        stopNesting();
+        sequenceCutsNow();
+        Map<Integer, SheetNester.Layout> layouts = new LinkedHashMap<>();
+        for (Map.Entry<String, SheetNester.Layout> entry : sheetLayouts.entrySet()) {
+            layouts.put(summaryMaterialIds.get(entry.getKey()), entry.getValue());
+        }
+        Map<Integer, LumberCutter.Plan> plans = new LinkedHashMap<>();
+        for (Map.Entry<String, LumberCutter.Plan> entry : cutPlans.entrySet()) {
+            plans.put(summaryMaterialIds.get(entry.getKey()), entry.getValue());
+        }
+        int created = remnantService.confirmJob(currentDocument.getId(), currentDocument.getKerfMm(), layouts, plans);
+        updateSummary();
+        updateCutList();
+        nestingStatusLabel.setText(String.format("Posao potvrden, novih ostataka: %d.", created));
+    }
+
+    private void stopNesting() {
+        nestingGeneration++;
+        if (nestingRun != null) {
+            nestingRun.cancel();
+            nestingRun = null;
+        }
+        nestingButton.setText("Optimiziraj");
+        nestingStatusLabel.setText("");
+    }
+
     private void exportPdf() {
     if (currentDocument == null) {
         return;
@@ -1590,6 +1922,8 @@ public class MainView {
                 content.endText();
             }
 
+            sequenceCutsNow();
+            pdfExportService.appendCutSequences(pdf, cutSequences);
             pdf.save(target);
         }
 
@@ -1615,12 +1949,28 @@ public class MainView {
 
 
     private void updateCutList() {
-        cutList.getItems().clear();
+        partLines.clear();
+        sequenceRotation.clear();
         if (currentDocument == null) {
+            cutSequences.clear();
+            sequencedLayouts.clear();
+            cutList.getItems().clear();
             return;
         }
         String unitLabel = unitSystem == UnitSystem.IN ? "in" : "cm";
         double kerfCm = currentDocument.getKerfMm() / 10.0;
+        Set<Integer> materialIds = new HashSet<>(summaryMaterialIds.values());
+        for (ShapePolygon shape : shapes) {
+            if (shape.getMaterialId() != null) {
+                materialIds.add(shape.getMaterialId());
+            }
+        }
+        Map<Integer, Material> materials = materialDao.findByIds(materialIds);
+        // Equal parts (same material and PartSignature, however they sit on the canvas) share one line; the
+        // copy with the smallest box gives the dimensions. On grained stock they must also be drawn at the
+        // same turn, as in the estimate. Shapes without a usable outline keep their own.
+        DocumentGraph graph = shapeMaintainer.getGraph();
+        Map<CutKey, CutLine> lines = new LinkedHashMap<>();
         for (ShapePolygon shape : shapes) {
             if (shape.getNodes() == null || shape.getNodes().isEmpty()) {
                 continue;
@@ -1637,19 +1987,146 @@ public class MainView {
             }
             double widthCm = (maxX - minX) + kerfCm;
             double heightCm = (maxY - minY) + kerfCm;
-            double width = UnitConverter.fromCm(widthCm, unitSystem);
-            double height = UnitConverter.fromCm(heightCm, unitSystem);
+            PartSignature signature = PartSignature.of(extractPolygon(shape, graph));
+            Material material = shape.getMaterialId() == null ? null : materials.get(shape.getMaterialId());
+            GrainDirection grain = material == null ? GrainDirection.NONE : material.getGrainDirection();
+            CutKey key = new CutKey(shape.getMaterialId(),
+                    signature != null ? EstimationService.PartKey.of(signature, grain) : shape.getId());
+            CutLine line = lines.get(key);
+            if (line == null) {
+                lines.put(key, new CutLine(widthCm, heightCm, shape.getQuantity()));
+            } else if (widthCm * heightCm < line.widthCm() * line.heightCm()) {
+                lines.put(key, new CutLine(widthCm, heightCm, line.quantity() + shape.getQuantity()));
+            } else {
+                lines.put(key, new CutLine(line.widthCm(), line.heightCm(), line.quantity() + shape.getQuantity()));
+            }
+        }
+        for (Map.Entry<CutKey, CutLine> entry : lines.entrySet()) {
+            CutLine line = entry.getValue();
+            double width = UnitConverter.fromCm(line.widthCm(), unitSystem);
+            double height = UnitConverter.fromCm(line.heightCm(), unitSystem);
             String materialName = "Bez materijala";
             String grain = "";
-            if (shape.getMaterialId() != null) {
-                Material mat = materialDao.findById(shape.getMaterialId()).orElse(null);
-                if (mat != null) {
-                    materialName = mat.getName();
-                    grain = " | godovi: " + grainLabel(mat.getGrainDirection());
-                }
+            Integer materialId = entry.getKey().materialId();
+            Material mat = materialId == null ? null : materials.get(materialId);
+            if (mat != null) {
+                materialName = mat.getName();
+                grain = " | godovi: " + grainLabel(mat.getGrainDirection());
+            }
+            partLines.add(String.format("%s: %.2f x %.2f %s (kom %d)%s",
+                    materialName, width, height, unitLabel, line.quantity(), grain));
+        }
+        for (String materialName : sheetLayouts.keySet()) {
+            Integer materialId = summaryMaterialIds.get(materialName);
+            Material material = materialId == null ? null : materials.get(materialId);
+            sequenceRotation.put(materialName, material != null
+                    && SheetNester.quarterTurnsAllowed(material.getGrainDirection()));
+        }
+        cutSequences.keySet().retainAll(sheetLayouts.keySet());
+        sequencedLayouts.keySet().retainAll(sheetLayouts.keySet());
+        renderCutList();
+        sequenceCuts();
+    }
+
+    private void renderCutList() {
+        cutList.getItems().setAll(partLines);
+        for (Map.Entry<String, SheetNester.Layout> entry : sheetLayouts.entrySet()) {
+            CutSequencer.Plan plan = cutSequences.get(entry.getKey());
+            if (plan == null || sequencedLayouts.get(entry.getKey()) != entry.getValue()) {
+                cutList.getItems().add(String.format("Rezanje - %s: racuna se redoslijed rezova...", entry.getKey()));
+                continue;
+            }
+            if (plan.outlineNested()) {
+                cutList.getItems().add(String.format("Rezanje - %s: slozeno po obrisu, rezati po obrisu "
+                        + "(CNC ili ubodna pila)", entry.getKey()));
+                continue;
+            }
+            cutList.getItems().add(String.format("Rezanje - %s: %d rezova, %.1f m reza, %d okretanja, "
+                            + "%d namjestanja granicnika, oko %.0f min%s", entry.getKey(), plan.cutCount(),
+                    plan.cutLengthCm() / 100.0, plan.rotations(), plan.fenceResets(), plan.sawSeconds() / 60.0,
+                    plan.blockedParts() > 0
+                            ? String.format(", %d dijelova bez ravnog reza", plan.blockedParts()) : ""));
+            for (int i = 0; i < plan.sheets().size(); i++) {
+                CutSequencer.SheetSequence sheet = plan.sheets().get(i);
+                cutList.getItems().add(String.format("  Ploca %d%s: %d rezova, %d okretanja, %d namjestanja, %.1f min",
+                        i + 1, sheet.repacked() ? " (preslozena)" : "", sheet.cuts().size(), sheet.rotations(),
+                        sheet.fenceResets(), sheet.sawSeconds() / 60.0));
+            }
+        }
+    }
+
+    // Sequences, in the background, the materials whose layout changed since their last sequence. An
+    // optimizer improvement arriving meanwhile is picked up when the running pass comes back.
+    private void sequenceCuts() {
+        if (sequencing) {
+            return;
+        }
+        List<SequenceJob> jobs = staleSequences();
+        if (jobs.isEmpty()) {
+            return;
+        }
+        sequencing = true;
+        double kerfCm = currentDocument.getKerfMm() / 10.0;
+        CompletableFuture.supplyAsync(() -> {
+            List<CutSequencer.Plan> plans = new ArrayList<>();
+            for (SequenceJob job : jobs) {
+                plans.add(cutSequencer.sequence(job.layout(), kerfCm, job.allowRotation()));
+            }
+            return plans;
+        }).whenComplete((plans, failure) -> Platform.runLater(() -> {
+            sequencing = false;
+            if (failure != null) {
+                failure.printStackTrace();
+                return;
+            }
+            applySequences(jobs, plans);
+            renderCutList();
+            sequenceCuts();
+        }));
+    }
+
+    // Confirming a job and exporting need every sequence current, so whatever is still stale is done here.
+    private void sequenceCutsNow() {
+        if (currentDocument == null) {
+            return;
+        }
+        List<SequenceJob> jobs = staleSequences();
+        if (jobs.isEmpty()) {
+            return;
+        }
+        double kerfCm = currentDocument.getKerfMm() / 10.0;
+        List<CutSequencer.Plan> plans = new ArrayList<>();
+        for (SequenceJob job : jobs) {
+            plans.add(cutSequencer.sequence(job.layout(), kerfCm, job.allowRotation()));
+        }
+        applySequences(jobs, plans);
+        renderCutList();
+    }
+
+    private List<SequenceJob> staleSequences() {
+        List<SequenceJob> jobs = new ArrayList<>();
+        for (Map.Entry<String, SheetNester.Layout> entry : sheetLayouts.entrySet()) {
+            if (sequencedLayouts.get(entry.getKey()) != entry.getValue()) {
+                jobs.add(new SequenceJob(entry.getKey(), entry.getValue(),
+                        sequenceRotation.getOrDefault(entry.getKey(), false)));
+            }
+        }
+        return jobs;
+    }
+
+    private void applySequences(List<SequenceJob> jobs, List<CutSequencer.Plan> plans) {
+        for (int i = 0; i < jobs.size(); i++) {
+            SequenceJob job = jobs.get(i);
+            // A layout replaced while it was being sequenced is left for the next pass.
+            if (sheetLayouts.get(job.materialName()) != job.layout()) {
+                continue;
             }
-            cutList.getItems().add(String.format("%s: %.2f x %.2f %s (kom %d)%s",
-                    materialName, width, height, unitLabel, shape.getQuantity(), grain));
+            CutSequencer.Plan plan = plans.get(i);
+            // Sheets the sequencer had to re-pack are cut as re-packed, so confirmJob takes offcuts from those.
+            SheetNester.Layout cutLayout = plan.cutLayout(job.layout());
+            sheetLayouts.put(job.materialName(), cutLayout);
+            sequencedLayouts.put(job.materialName(), cutLayout);
+            cutSequences.put(job.materialName(), plan);
         }
     }
 
@@ -1683,6 +2160,9 @@ public class MainView {
     }
 
     private void updatePlankPreview() {
+        if (!plankAngleApplying) {
+            stopAutoAngle();
+        }
         if (currentDocument == null) {
             return;
         }
@@ -1696,34 +2176,26 @@ public class MainView {
             currentWastePercent = 10.0;
             return;
         }
-        Map<String, Edge> edgeMap = buildEdgeMap(edgeDao.findByDocument(currentDocument.getId()));
-        List<Point2D> polygon = extractPolygon(shape, edgeMap);
+        PolygonBuffer polygon = extractPolygon(shape, shapeMaintainer.getGraph());
         if (polygon.size() < 3) {
             canvasPane.setPlankRects(List.of());
             currentWastePercent = 10.0;
             return;
         }
         double angleDeg = plankAngleSlider.getValue();
-        int count;
-        double widthOverride = parseDouble(plankWidthField.getText(), 5);
-        if (unitSystem == UnitSystem.IN) {
-            widthOverride = UnitConverter.toCm(widthOverride, unitSystem);
+        if (plankByStock.isSelected()) {
+            updateBoardPreview(shape, polygon, angleDeg);
+            return;
         }
+        int count = (int) Math.round(plankCountSlider.getValue());
+        PlankResult result = buildPlankApproximation(polygon, shape.getAreaCm2(), count, angleDeg, plankWidthCm());
         if (plankByWidth.isSelected()) {
-            double span = getSpanForAngle(polygon, angleDeg);
-            count = (int) Math.ceil(span / Math.max(0.01, widthOverride));
-            if (count > 50) {
-                count = 50;
-                widthOverride = span / count;
-                plankHintLabel.setText("Sirina prilagodena zbog ogranicenja 50 ploca.");
+            if (result.widthLimited) {
+                plankHintLabel.setText("Sirina prilagodena zbog ogranicenja " + PlankPlanner.MAX_PLANKS + " ploca.");
             }
-            count = Math.max(1, Math.min(50, count));
-            plankCountSlider.setValue(count);
-            plankCountLabel.setText("Ploca: " + count);
-        } else {
-            count = (int) Math.round(plankCountSlider.getValue());
+            plankCountSlider.setValue(result.count);
+            plankCountLabel.setText("Ploca: " + result.count);
         }
-        PlankResult result = buildPlankApproximation(polygon, shape.getAreaCm2(), count, angleDeg, widthOverride);
         canvasPane.setPlankRects(result.planks);
         double widthDisplay = UnitConverter.fromCm(result.plankWidthCm, unitSystem);
         String unitLabel = unitSystem == UnitSystem.IN ? "in" : "cm";
@@ -1736,85 +2208,146 @@ public class MainView {
         currentWastePercent = result.wastePercent;
     }
 
-    private List<Point2D> extractPolygon(ShapePolygon shape, Map<String, Edge> edgeMap) {
-        List<NodePoint> nodes = shape.getNodes();
-        if (nodes == null || nodes.size() < 2) {
-            return List.of();
+    private void updateBoardPreview(ShapePolygon shape, PolygonBuffer polygon, double angleDeg) {
+        List<BoardPlanner.Stock> stock = plankStock(shape);
+        if (stock.isEmpty()) {
+            canvasPane.setPlankRects(List.of());
+            plankWidthLabel.setText("Daske: -");
+            plankWasteLabel.setText("Otpad: -");
+            plankCoverageLabel.setText("Pokrivenost: -");
+            plankHintLabel.setText("Unesite sirine i duzine dasaka.");
+            currentWastePercent = 10.0;
+            return;
         }
-        List<Point2D> points = new ArrayList<>();
-        for (int i = 0; i < nodes.size(); i++) {
-            NodePoint start = nodes.get(i);
-            NodePoint end = nodes.get((i + 1) % nodes.size());
-            Edge edge = edgeMap.get(edgeKey(start.getId(), end.getId()));
-            if (edge == null
-                    || edge.getControlStartXCm() == null
-                    || edge.getControlStartYCm() == null
-                    || edge.getControlEndXCm() == null
-                    || edge.getControlEndYCm() == null) {
-                if (points.isEmpty()) {
-                    points.add(new Point2D(start.getXCm(), start.getYCm()));
-                }
-                points.add(new Point2D(end.getXCm(), end.getYCm()));
-                continue;
+        BoardPlanner.Layout layout = boardPlanner.plan(polygon, shape.getAreaCm2(), angleDeg, stock,
+                plankStaggerCm(), currentDocument.getKerfMm() / 10.0, boardWorkspace);
+        double cos = Math.cos(Math.toRadians(angleDeg));
+        double sin = Math.sin(Math.toRadians(angleDeg));
+        List<CanvasPane.PlankRect> planks = new ArrayList<>();
+        for (BoardPlanner.Course course : layout.courses()) {
+            for (BoardPlanner.Piece piece : course.pieces()) {
+                planks.add(plankRect(course.x0(), piece.y0(), course.x1(), piece.y1(), layout.centerX(),
+                        layout.centerY(), cos, sin));
             }
-            Point2D control1;
-            Point2D control2;
-            if (edge.getStartNodeId() == start.getId()) {
-                control1 = new Point2D(edge.getControlStartXCm(), edge.getControlStartYCm());
-                control2 = new Point2D(edge.getControlEndXCm(), edge.getControlEndYCm());
-            } else {
-                control1 = new Point2D(edge.getControlEndXCm(), edge.getControlEndYCm());
-                control2 = new Point2D(edge.getControlStartXCm(), edge.getControlStartYCm());
+        }
+        canvasPane.setPlankRects(planks);
+        plankCountLabel.setText("Redova: " + layout.courses().size());
+        plankWidthLabel.setText(String.format("Daske: %d, spojeva: %d", layout.boardCount(), layout.jointCount()));
+        plankWasteLabel.setText(String.format("Otpad: %.1f%%", layout.wastePercent()));
+        plankCoverageLabel.setText(String.format("Pokrivenost: %.1f%%", layout.coveragePercent()));
+        plankHintLabel.setText(String.format("Ostaci: %d kom, %.2f m", layout.offcuts().size(),
+                layout.offcutLengthCm() / 100.0));
+        currentWastePercent = layout.wastePercent();
+    }
+
+    // Every typed width with every typed length. Lengths fall back to the shape's lumber stock lengths.
+    private List<BoardPlanner.Stock> plankStock(ShapePolygon shape) {
+        String lengthText = plankStockLengthsField.getText();
+        if ((lengthText == null || lengthText.isBlank()) && shape.getMaterialId() != null) {
+            Material material = materialDao.findById(shape.getMaterialId()).orElse(null);
+            if (material != null && material.getType() == MaterialType.LUMBER) {
+                lengthText = material.getStockLengthsCm();
             }
-            sampleCubic(points,
-                    new Point2D(start.getXCm(), start.getYCm()),
-                    control1,
-                    control2,
-                    new Point2D(end.getXCm(), end.getYCm()),
-                    18);
         }
-        return points;
+        List<BoardPlanner.Stock> stock = new ArrayList<>();
+        for (double width : LumberCutter.parseStockLengths(plankStockWidthsField.getText())) {
+            for (double length : LumberCutter.parseStockLengths(lengthText)) {
+                stock.add(new BoardPlanner.Stock(toCm(width), toCm(length)));
+            }
+        }
+        return stock;
+    }
+
+    private double plankStaggerCm() {
+        return toCm(Math.max(0, parseDouble(plankStaggerField.getText(), 30)));
+    }
+
+    private double plankWidthCm() {
+        return toCm(parseDouble(plankWidthField.getText(), 5));
+    }
+
+    private double toCm(double value) {
+        return unitSystem == UnitSystem.IN ? UnitConverter.toCm(value, unitSystem) : value;
     }
 
-    private Map<String, Edge> buildEdgeMap(List<Edge> edges) {
-        Map<String, Edge> map = new HashMap<>();
-        if (edges == null) {
-            return map;
+    // The search runs on its own pool; the slider is only moved once it finishes, and any edit that
+    // changes the preview inputs cancels it.
+    private void toggleAutoAngle() {
+        if (plankAngleRun != null) {
+            stopAutoAngle();
+            plankHintLabel.setText("Trazenje kuta prekinuto.");
+            return;
         }
-        for (Edge edge : edges) {
-            map.put(edgeKey(edge.getStartNodeId(), edge.getEndNodeId()), edge);
-            map.put(edgeKey(edge.getEndNodeId(), edge.getStartNodeId()), edge);
+        ShapePolygon shape = findShapeById(selectedShapeId == null ? -1 : selectedShapeId);
+        if (currentDocument == null || shape == null) {
+            return;
         }
-        return map;
+        PolygonBuffer polygon = extractPolygon(shape, shapeMaintainer.getGraph());
+        if (polygon.size() < 3) {
+            return;
+        }
+        List<BoardPlanner.Stock> stock = plankStock(shape);
+        if (plankByStock.isSelected() && stock.isEmpty()) {
+            return;
+        }
+        int generation = ++plankAngleGeneration;
+        plankAngleRun = plankByStock.isSelected()
+                ? plankAngleSearch.searchBoards(polygon, shape.getAreaCm2(), stock, plankStaggerCm(),
+                currentDocument.getKerfMm() / 10.0)
+                : plankAngleSearch.search(polygon, shape.getAreaCm2(), plankByWidth.isSelected(),
+                (int) Math.round(plankCountSlider.getValue()), plankWidthCm());
+        plankAutoAngleButton.setText("Zaustavi");
+        plankHintLabel.setText("Trazenje kuta s najmanje otpada...");
+        plankAngleRun.result().thenAccept(result -> Platform.runLater(() -> applyAutoAngle(result, generation)));
     }
 
-    private String edgeKey(int a, int b) {
-        return a + "-" + b;
+    private void applyAutoAngle(PlankAngleSearch.Best result, int generation) {
+        if (generation != plankAngleGeneration) {
+            return;
+        }
+        plankAngleRun = null;
+        plankAutoAngleButton.setText("Auto kut");
+        if (result == null) {
+            return;
+        }
+        plankAngleApplying = true;
+        try {
+            plankAngleSlider.setValue(result.angleDeg());
+            updatePlankPreview();
+        } finally {
+            plankAngleApplying = false;
+        }
+        String plan = result.plankWidthCm() > 0
+                ? String.format("%d ploca sirine %.2f %s", result.count(),
+                UnitConverter.fromCm(result.plankWidthCm(), unitSystem), unitSystem == UnitSystem.IN ? "in" : "cm")
+                : String.format("%d dasaka", result.count());
+        plankHintLabel.setText(String.format("Najmanji otpad %.1f%% pri kutu %.1f° (%s).", result.wastePercent(),
+                result.angleDeg(), plan));
     }
 
-    private void sampleCubic(List<Point2D> points, Point2D p0, Point2D p1, Point2D p2, Point2D p3, int segments) {
-        if (points.isEmpty()) {
-            points.add(p0);
+    private void stopAutoAngle() {
+        plankAngleGeneration++;
+        if (plankAngleRun != null) {
+            plankAngleRun.cancel();
+            plankAngleRun = null;
         }
-        for (int i = 1; i <= segments; i++) {
-            double t = (double) i / segments;
-            double u = 1 - t;
-            double x = u * u * u * p0.getX()
-                    + 3 * u * u * t * p1.getX()
-                    + 3 * u * t * t * p2.getX()
-                    + t * t * t * p3.getX();
-            double y = u * u * u * p0.getY()
-                    + 3 * u * u * t * p1.getY()
-                    + 3 * u * t * t * p2.getY()
-                    + t * t * t * p3.getY();
-            points.add(new Point2D(x, y));
+        plankAutoAngleButton.setText("Auto kut");
+    }
+
+    private PolygonBuffer extractPolygon(ShapePolygon shape, DocumentGraph graph) {
+        plankOutline.clear();
+        List<Integer> nodeIds = shape.getNodeIds();
+        if (nodeIds != null && nodeIds.size() >= 2) {
+            geometryService.sampleCycle(nodeIds, graph, plankOutline);
         }
+        return plankOutline;
     }
 
     private void replaceGuideInList(Guide guide) {
         for (int i = 0; i < guides.size(); i++) {
             if (guides.get(i).getId() == guide.getId()) {
                 guides.set(i, guide);
+                snapEngine.setGuides(guides);
                 return;
             }
         }
@@ -1853,55 +2386,6 @@ public class MainView {
         return points;
     }
 
-    private int findEdgeId(List<Edge> edges, int nodeA, int nodeB) {
-        for (Edge edge : edges) {
-            if ((edge.getStartNodeId() == nodeA && edge.getEndNodeId() == nodeB)
-                    || (edge.getStartNodeId() == nodeB && edge.getEndNodeId() == nodeA)) {
-                return edge.getId();
-            }
-        }
-        return -1;
-    }
-
-    private Point2D intersectSegments(Point2D p1, Point2D p2, Point2D q1, Point2D q2) {
-        Point2D r = p2.subtract(p1);
-        Point2D s = q2.subtract(q1);
-        double rxs = (r.getX() * s.getY()) - (r.getY() * s.getX());
-        double qpxr = ((q1.getX() - p1.getX()) * r.getY()) - ((q1.getY() - p1.getY()) * r.getX());
-        if (Math.abs(rxs) < 1e-8) {
-            return null;
-        }
-        double t = ((q1.getX() - p1.getX()) * s.getY() - (q1.getY() - p1.getY()) * s.getX()) / rxs;
-        double u = qpxr / rxs;
-        if (t < 0 || t > 1 || u < 0 || u > 1) {
-            return null;
-        }
-        return new Point2D(p1.getX() + t * r.getX(), p1.getY() + t * r.getY());
-    }
-
-    private int nearExistingNode(Point2D hit, NodePoint a, NodePoint b) {
-        double epsilon = 0.2;
-        if (hit.distance(a.getXCm(), a.getYCm()) <= epsilon) {
-            return a.getId();
-        }
-        if (hit.distance(b.getXCm(), b.getYCm()) <= epsilon) {
-            return b.getId();
-        }
-        return -1;
-    }
-
-    private double projectionT(Point2D a, Point2D b, Point2D p) {
-        Point2D ab = b.subtract(a);
-        double denom = ab.dotProduct(ab);
-        if (denom < 1e-8) {
-            return 0;
-        }
-        return p.subtract(a).dotProduct(ab) / denom;
-    }
-
-    private record IntersectionHit(int nodeId, double t) {
-    }
-
     private List<List<Point2D>> splitPolygonByLine(List<Point2D> polygon, Point2D lineStart, Point2D lineEnd) {
         if (polygon == null || polygon.size() < 3) {
             return List.of();
@@ -1970,192 +2454,63 @@ public class MainView {
         return new Point2D(a.getX() + t * r.getX(), a.getY() + t * r.getY());
     }
 
-    private PlankResult buildPlankApproximation(List<Point2D> polygon, double shapeAreaCm2, int count,
+    private PlankResult buildPlankApproximation(PolygonBuffer polygon, double shapeAreaCm2, int count,
                                                 double angleDeg, double widthOverride) {
-        Point2D centroid = polygonCentroid(polygon);
-        List<Point2D> rotated = rotatePolygon(polygon, centroid, -Math.toRadians(angleDeg));
-        double minX = Double.POSITIVE_INFINITY;
-        double maxX = Double.NEGATIVE_INFINITY;
-        double minY = Double.POSITIVE_INFINITY;
-        double maxY = Double.NEGATIVE_INFINITY;
-        for (Point2D point : rotated) {
-            minX = Math.min(minX, point.getX());
-            maxX = Math.max(maxX, point.getX());
-            minY = Math.min(minY, point.getY());
-            maxY = Math.max(maxY, point.getY());
-        }
-        double span = maxX - minX;
-        double width = plankByWidth.isSelected() ? widthOverride : span / count;
-        if (width <= 0.01) {
-            width = span / Math.max(1, count);
-        }
+        PlankPlanner.Result result = plankPlanner.plan(polygon, shapeAreaCm2, angleDeg, plankByWidth.isSelected(),
+                count, widthOverride, plankWorkspace);
+        double centerX = result.centerX();
+        double centerY = result.centerY();
+        double cos = Math.cos(Math.toRadians(angleDeg));
+        double sin = Math.sin(Math.toRadians(angleDeg));
         List<CanvasPane.PlankRect> planks = new ArrayList<>();
-        double totalRectArea = 0;
-        double totalIntersectArea = 0;
-
-        for (int i = 0; i < count; i++) {
-            double x0 = minX + i * width;
-            double x1 = (i == count - 1) ? maxX : x0 + width;
-            List<Point2D> clipped = clipPolygonToRect(rotated, x0, x1, minY, maxY);
-            if (clipped.size() < 3) {
-                continue;
-            }
-            double area = Math.abs(polygonArea(clipped));
-            if (area <= 0.0001) {
-                continue;
-            }
-            double clipMinY = Double.POSITIVE_INFINITY;
-            double clipMaxY = Double.NEGATIVE_INFINITY;
-            for (Point2D point : clipped) {
-                clipMinY = Math.min(clipMinY, point.getY());
-                clipMaxY = Math.max(clipMaxY, point.getY());
-            }
-            double plankLength = clipMaxY - clipMinY;
-            if (plankLength <= 0 || width <= 0) {
-                continue;
-            }
-            List<Point2D> rectPoints = List.of(
-                    new Point2D(x0, clipMinY),
-                    new Point2D(x1, clipMinY),
-                    new Point2D(x1, clipMaxY),
-                    new Point2D(x0, clipMaxY)
-            );
-            List<Point2D> worldPoints = rotatePolygon(rectPoints, centroid, Math.toRadians(angleDeg));
-            planks.add(new CanvasPane.PlankRect(worldPoints));
-            totalRectArea += width * plankLength;
-            totalIntersectArea += area;
-        }
-        double wastePercent = shapeAreaCm2 > 0 ? (Math.max(0, totalRectArea - totalIntersectArea) / shapeAreaCm2) * 100.0 : 0;
-        double coveragePercent = shapeAreaCm2 > 0 ? (totalIntersectArea / shapeAreaCm2) * 100.0 : 0;
-        return new PlankResult(planks, width, wastePercent, coveragePercent);
-    }
-
-    private double getSpanForAngle(List<Point2D> polygon, double angleDeg) {
-        Point2D centroid = polygonCentroid(polygon);
-        List<Point2D> rotated = rotatePolygon(polygon, centroid, -Math.toRadians(angleDeg));
-        double minX = Double.POSITIVE_INFINITY;
-        double maxX = Double.NEGATIVE_INFINITY;
-        for (Point2D point : rotated) {
-            minX = Math.min(minX, point.getX());
-            maxX = Math.max(maxX, point.getX());
-        }
-        return maxX - minX;
-    }
-
-    private double parseDouble(String value, double fallback) {
-        try {
-            return Double.parseDouble(value.trim().replace(',', '.'));
-        } catch (NumberFormatException exception) {
-            return fallback;
+        for (PlankPlanner.Strip strip : result.strips()) {
+            planks.add(plankRect(strip.x0(), strip.y0(), strip.x1(), strip.y1(), centerX, centerY, cos, sin));
         }
+        return new PlankResult(planks, result.count(), result.plankWidthCm(), result.widthLimited(),
+                result.wastePercent(), result.coveragePercent());
     }
 
-    private List<Point2D> clipPolygonToRect(List<Point2D> polygon, double minX, double maxX, double minY, double maxY) {
-        List<Point2D> output = polygon;
-        output = clipAgainstLine(output, point -> point.getX() >= minX, (a, b) -> intersectX(a, b, minX));
-        output = clipAgainstLine(output, point -> point.getX() <= maxX, (a, b) -> intersectX(a, b, maxX));
-        output = clipAgainstLine(output, point -> point.getY() >= minY, (a, b) -> intersectY(a, b, minY));
-        output = clipAgainstLine(output, point -> point.getY() <= maxY, (a, b) -> intersectY(a, b, maxY));
-        return output;
-    }
-
-    private List<Point2D> clipAgainstLine(List<Point2D> input, java.util.function.Predicate<Point2D> inside,
-                                          java.util.function.BiFunction<Point2D, Point2D, Point2D> intersection) {
-        List<Point2D> output = new ArrayList<>();
-        if (input.isEmpty()) {
-            return output;
-        }
-        Point2D prev = input.get(input.size() - 1);
-        boolean prevInside = inside.test(prev);
-        for (Point2D curr : input) {
-            boolean currInside = inside.test(curr);
-            if (currInside) {
-                if (!prevInside) {
-                    output.add(intersection.apply(prev, curr));
-                }
-                output.add(curr);
-            } else if (prevInside) {
-                output.add(intersection.apply(prev, curr));
-            }
-            prev = curr;
-            prevInside = currInside;
-        }
-        return output;
+    // A rectangle of the turned frame, turned back onto the canvas.
+    private CanvasPane.PlankRect plankRect(double x0, double y0, double x1, double y1, double centerX,
+                                           double centerY, double cos, double sin) {
+        return new CanvasPane.PlankRect(List.of(
+                rotateAbout(x0, y0, centerX, centerY, cos, sin),
+                rotateAbout(x1, y0, centerX, centerY, cos, sin),
+                rotateAbout(x1, y1, centerX, centerY, cos, sin),
+                rotateAbout(x0, y1, centerX, centerY, cos, sin)
+        ));
     }
 
-    private Point2D intersectX(Point2D a, Point2D b, double x) {
-        if (Math.abs(b.getX() - a.getX()) < 1e-6) {
-            return new Point2D(x, a.getY());
-        }
-        double t = (x - a.getX()) / (b.getX() - a.getX());
-        double y = a.getY() + t * (b.getY() - a.getY());
-        return new Point2D(x, y);
+    private Point2D rotateAbout(double x, double y, double centerX, double centerY, double cos, double sin) {
+        double dx = x - centerX;
+        double dy = y - centerY;
+        return new Point2D(centerX + (dx * cos - dy * sin), centerY + (dx * sin + dy * cos));
     }
 
-    private Point2D intersectY(Point2D a, Point2D b, double y) {
-        if (Math.abs(b.getY() - a.getY()) < 1e-6) {
-            return new Point2D(a.getX(), y);
+    private double parseDouble(String value, double fallback) {
+        try {
+            return Double.parseDouble(value.trim().replace(',', '.'));
+        } catch (NumberFormatException exception) {
+            return fallback;
         }
-        double t = (y - a.getY()) / (b.getY() - a.getY());
-        double x = a.getX() + t * (b.getX() - a.getX());
-        return new Point2D(x, y);
     }
 
-    private double polygonArea(List<Point2D> points) {
-        double sum = 0;
-        for (int i = 0; i < points.size(); i++) {
-            Point2D a = points.get(i);
-            Point2D b = points.get((i + 1) % points.size());
-            sum += (a.getX() * b.getY()) - (b.getX() * a.getY());
-        }
-        return 0.5 * sum;
+    private record ProjectSnapshot(Document document, List<NodePoint> nodes, List<Edge> edges, List<Guide> guides,
+                                   List<Dimension> dimensions, List<ShapePolygon> shapes,
+                                   List<ManualShape> manualShapes) {
     }
 
-    private List<Point2D> rotatePolygon(List<Point2D> points, Point2D center, double radians) {
-        List<Point2D> rotated = new ArrayList<>();
-        double cos = Math.cos(radians);
-        double sin = Math.sin(radians);
-        for (Point2D point : points) {
-            double dx = point.getX() - center.getX();
-            double dy = point.getY() - center.getY();
-            double x = center.getX() + (dx * cos - dy * sin);
-            double y = center.getY() + (dx * sin + dy * cos);
-            rotated.add(new Point2D(x, y));
-        }
-        return rotated;
+    private record CutKey(Integer materialId, Object part) {
     }
 
-    private Point2D polygonCentroid(List<Point2D> points) {
-        double area = polygonArea(points);
-        if (Math.abs(area) < 1e-6) {
-            double sumX = 0;
-            double sumY = 0;
-            for (Point2D point : points) {
-                sumX += point.getX();
-                sumY += point.getY();
-            }
-            return new Point2D(sumX / points.size(), sumY / points.size());
-        }
-        double cx = 0;
-        double cy = 0;
-        for (int i = 0; i < points.size(); i++) {
-            Point2D a = points.get(i);
-            Point2D b = points.get((i + 1) % points.size());
-            double cross = (a.getX() * b.getY()) - (b.getX() * a.getY());
-            cx += (a.getX() + b.getX()) * cross;
-            cy += (a.getY() + b.getY()) * cross;
-        }
-        double factor = 1.0 / (6.0 * area);
-        return new Point2D(cx * factor, cy * factor);
+    private record CutLine(double widthCm, double heightCm, int quantity) {
     }
 
-    private record ProjectSnapshot(Document document, List<NodePoint> nodes, List<Edge> edges, List<Guide> guides,
-                                   List<Dimension> dimensions, List<ShapePolygon> shapes,
-                                   List<ManualShape> manualShapes) {
+    private record SequenceJob(String materialName, SheetNester.Layout layout, boolean allowRotation) {
     }
 
-    private record PlankResult(List<CanvasPane.PlankRect> planks, double plankWidthCm,
-                               double wastePercent, double coveragePercent) {
+    private record PlankResult(List<CanvasPane.PlankRect> planks, int count, double plankWidthCm,
+                               boolean widthLimited, double wastePercent, double coveragePercent) {
     }
 
     private Point2D clampToCanvas(Point2D cmPoint) {
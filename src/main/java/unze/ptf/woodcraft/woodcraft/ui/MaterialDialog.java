@@ -58,6 +58,8 @@ public class MaterialDialog extends Dialog<Material> {
         TextField pricePerSquareField = new TextField("0");
         TextField pricePerLinearField = new TextField("0");
         TextField edgeBandingField = new TextField("0");
+        TextField stockLengthsField = new TextField();
+        stockLengthsField.setPromptText("npr. 240, 300, 420");
         ComboBox<GrainDirection> grainBox = new ComboBox<>();
         grainBox.getItems().addAll(GrainDirection.NONE, GrainDirection.HORIZONTAL, GrainDirection.VERTICAL);
         grainBox.getSelectionModel().select(GrainDirection.NONE);
@@ -104,6 +106,9 @@ public class MaterialDialog extends Dialog<Material> {
             pricePerLinearField.setText(format(existing.getPricePerLinearMeter()));
             edgeBandingField.setText(format(existing.getEdgeBandingCostPerMeter()));
             grainBox.getSelectionModel().select(existing.getGrainDirection());
+            if (existing.getStockLengthsCm() != null) {
+                stockLengthsField.setText(existing.getStockLengthsCm());
+            }
             if (existing.getImagePath() != null) {
                 imagePathField.setText(existing.getImagePath());
             }
@@ -117,8 +122,9 @@ public class MaterialDialog extends Dialog<Material> {
         grid.addRow(5, new Label("Cijena po m2"), pricePerSquareField);
         grid.addRow(6, new Label("Cijena po duznom m"), pricePerLinearField);
         grid.addRow(7, new Label("Kant traka $/m"), edgeBandingField);
-        grid.addRow(8, new Label("Smjer godova"), grainBox);
-        grid.addRow(9, new Label("Slika"), imageRow);
+        grid.addRow(8, new Label("Duzine dasaka (cm)"), stockLengthsField);
+        grid.addRow(9, new Label("Smjer godova"), grainBox);
+        grid.addRow(10, new Label("Slika"), imageRow);
 
         getDialogPane().setContent(grid);
 
@@ -137,7 +143,8 @@ public class MaterialDialog extends Dialog<Material> {
                         parseDouble(pricePerLinearField.getText()),
                         imagePathField.getText().isBlank() ? null : imagePathField.getText().trim(),
                         grainBox.getValue(),
-                        parseDouble(edgeBandingField.getText())
+                        parseDouble(edgeBandingField.getText()),
+                        stockLengthsField.getText().isBlank() ? null : stockLengthsField.getText().trim()
                 );
             }
             return null;
@@ -0,0 +1,132 @@
+package unze.ptf.woodcraft.woodcraft.ui;
+
+import javafx.geometry.Insets;
+import javafx.scene.control.Button;
+import javafx.scene.control.ComboBox;
+import javafx.scene.control.Dialog;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.TextField;
+import javafx.scene.layout.GridPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import unze.ptf.woodcraft.woodcraft.dao.RemnantDao;
+import unze.ptf.woodcraft.woodcraft.model.Material;
+import unze.ptf.woodcraft.woodcraft.model.MaterialType;
+import unze.ptf.woodcraft.woodcraft.model.Remnant;
+
+import java.util.List;
+
+public class RemnantDialog extends Dialog<Void> {
+    public RemnantDialog(RemnantDao remnantDao, List<Material> materials, Material selected) {
+        setTitle("Ostaci");
+        setHeaderText("Ostaci na polici se koriste prije novih ploca i dasaka.");
+        getDialogPane().getButtonTypes().add(new javafx.scene.control.ButtonType("Zatvori",
+                javafx.scene.control.ButtonBar.ButtonData.CANCEL_CLOSE));
+
+        ComboBox<Material> materialBox = new ComboBox<>();
+        materialBox.getItems().setAll(materials);
+        materialBox.setCellFactory(listView -> new ListCell<>() {
+            @Override
+            protected void updateItem(Material item, boolean empty) {
+                super.updateItem(item, empty);
+                setText(empty || item == null ? null : item.getName());
+            }
+        });
+        materialBox.setButtonCell(materialBox.getCellFactory().call(null));
+
+        ListView<Remnant> remnantList = new ListView<>();
+        remnantList.setCellFactory(listView -> new ListCell<>() {
+            @Override
+            protected void updateItem(Remnant item, boolean empty) {
+                super.updateItem(item, empty);
+                if (empty || item == null) {
+                    setText(null);
+                    return;
+                }
+                String size = item.getHeightCm() > 0
+                        ? String.format("%.1f x %.1f cm", item.getWidthCm(), item.getHeightCm())
+                        : String.format("%.1f cm", item.getWidthCm());
+                setText(item.getSourceDocumentId() == null
+                        ? size : size + " (iz projekta #" + item.getSourceDocumentId() + ")");
+            }
+        });
+
+        TextField widthField = new TextField();
+        TextField heightField = new TextField();
+        Label heightLabel = new Label("Visina (cm)");
+        Label widthLabel = new Label("Sirina (cm)");
+        Runnable reload = () -> {
+            Material material = materialBox.getValue();
+            boolean lumber = material != null && material.getType() == MaterialType.LUMBER;
+            widthLabel.setText(lumber ? "Duzina (cm)" : "Sirina (cm)");
+            heightLabel.setVisible(!lumber);
+            heightField.setVisible(!lumber);
+            remnantList.getItems().setAll(material == null ? List.of() : remnantDao.findByMaterial(material.getId()));
+        };
+        materialBox.setOnAction(event -> reload.run());
+
+        Button addRemnant = new Button("Dodaj ostatak");
+        addRemnant.setOnAction(event -> {
+            Material material = materialBox.getValue();
+            if (material == null) {
+                return;
+            }
+            boolean lumber = material.getType() == MaterialType.LUMBER;
+            double width = parse(widthField.getText());
+            double height = lumber ? 0 : parse(heightField.getText());
+            if (width <= 0 || (!lumber && height <= 0)) {
+                return;
+            }
+            remnantDao.create(material.getId(), width, height, null);
+            widthField.clear();
+            heightField.clear();
+            reload.run();
+        });
+
+        Button deleteRemnant = new Button("Obrisi ostatak");
+        deleteRemnant.setOnAction(event -> {
+            Remnant remnant = remnantList.getSelectionModel().getSelectedItem();
+            if (remnant == null) {
+                return;
+            }
+            remnantDao.deleteById(remnant.getId());
+            reload.run();
+        });
+
+        GridPane grid = new GridPane();
+        grid.setHgap(10);
+        grid.setVgap(10);
+        grid.addRow(0, new Label("Materijal"), materialBox);
+        grid.addRow(1, widthLabel, widthField);
+        grid.addRow(2, heightLabel, heightField);
+        grid.add(addRemnant, 1, 3);
+        grid.add(deleteRemnant, 1, 4);
+
+        VBox right = new VBox(15, grid);
+        right.setPadding(new Insets(10));
+
+        HBox content = new HBox(10, remnantList, right);
+        content.setPadding(new Insets(10));
+        HBox.setHgrow(remnantList, Priority.ALWAYS);
+
+        getDialogPane().setContent(content);
+        for (Material material : materials) {
+            if (selected == null || material.getId() == selected.getId()) {
+                materialBox.getSelectionModel().select(material);
+                break;
+            }
+        }
+        reload.run();
+    }
+
+    private static double parse(String text) {
+        try {
+            return Double.parseDouble(text.trim().replace(',', '.'));
+        } catch (NumberFormatException exception) {
+            return -1;
+        }
+    }
+}
@@ -9,6 +9,7 @@ import unze.ptf.woodcraft.woodcraft.dao.GuideDao;
 import unze.ptf.woodcraft.woodcraft.dao.ManualShapeDao;
 import unze.ptf.woodcraft.woodcraft.dao.MaterialDao;
 import unze.ptf.woodcraft.woodcraft.dao.NodeDao;
+import unze.ptf.woodcraft.woodcraft.dao.RemnantDao;
 import unze.ptf.woodcraft.woodcraft.dao.ShapeDao;
 import unze.ptf.woodcraft.woodcraft.dao.UserDao;
 import unze.ptf.woodcraft.woodcraft.service.AuthService;
@@ -32,6 +33,7 @@ public class SceneNavigator {
     private final GuideDao guideDao;
     private final ShapeDao shapeDao;
     private final ManualShapeDao manualShapeDao;
+    private final RemnantDao remnantDao;
     private final GeometryService geometryService;
     private final EstimationService estimationService;
 
@@ -45,7 +47,8 @@ public class SceneNavigator {
     public SceneNavigator(Stage stage, SessionManager sessionManager, AuthService authService, UserDao userDao,
                           MaterialDao materialDao, DocumentDao documentDao, DimensionDao dimensionDao, NodeDao nodeDao,
                           EdgeDao edgeDao, GuideDao guideDao, ShapeDao shapeDao, ManualShapeDao manualShapeDao,
-                          GeometryService geometryService, EstimationService estimationService) {
+                          RemnantDao remnantDao, GeometryService geometryService,
+                          EstimationService estimationService) {
         this.stage = stage;
         this.sessionManager = sessionManager;
         this.authService = authService;
@@ -58,6 +61,7 @@ public class SceneNavigator {
         this.guideDao = guideDao;
         this.shapeDao = shapeDao;
         this.manualShapeDao = manualShapeDao;
+        this.remnantDao = remnantDao;
         this.geometryService = geometryService;
         this.estimationService = estimationService;
     }
@@ -101,7 +105,8 @@ public class SceneNavigator {
     public void showMain(int documentId) {
         MainView view = new MainView(
                 sessionManager, authService, userDao, materialDao, documentDao, dimensionDao,
-                nodeDao, edgeDao, guideDao, shapeDao, manualShapeDao, geometryService, estimationService, this, documentId
+                nodeDao, edgeDao, guideDao, shapeDao, manualShapeDao, remnantDao, geometryService, estimationService,
+                this, documentId
         );
         scene.setRoot(view.getRoot()); // ✅ ne mijenja se veličina prozora
 
@@ -0,0 +1,148 @@
+package unze.ptf.woodcraft.woodcraft.util;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+// Uniform grid over axis-aligned boxes keyed by long. A box is stored in every cell it overlaps;
+// queries report each hit once, from the cell holding the top-left corner of the overlap.
+public final class BoxGrid {
+    private static final class Entry {
+        private final long key;
+        private double minX;
+        private double minY;
+        private double maxX;
+        private double maxY;
+
+        private Entry(long key) {
+            this.key = key;
+        }
+    }
+
+    private static final class Bucket {
+        private Entry[] entries = new Entry[4];
+        private int size;
+
+        private void add(Entry entry) {
+            if (size == entries.length) {
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            entries[size++] = entry;
+        }
+
+        private void remove(Entry entry) {
+            for (int i = 0; i < size; i++) {
+                if (entries[i] == entry) {
+                    entries[i] = entries[--size];
+                    entries[size] = null;
+                    return;
+                }
+            }
+        }
+    }
+
+    private final double cellSize;
+    private final LongObjectHashMap<Bucket> cells = new LongObjectHashMap<>();
+    private final LongObjectHashMap<Entry> entries = new LongObjectHashMap<>();
+
+    public BoxGrid(double cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void clear() {
+        cells.clear();
+        entries.clear();
+    }
+
+    public void put(long key, double minX, double minY, double maxX, double maxY) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            if (cellOf(entry.minX) == cellOf(minX) && cellOf(entry.maxX) == cellOf(maxX)
+                    && cellOf(entry.minY) == cellOf(minY) && cellOf(entry.maxY) == cellOf(maxY)) {
+                setBox(entry, minX, minY, maxX, maxY);
+                return;
+            }
+            unlink(entry);
+        } else {
+            entry = new Entry(key);
+            entries.put(key, entry);
+        }
+        setBox(entry, minX, minY, maxX, maxY);
+        for (int col = cellOf(minX); col <= cellOf(maxX); col++) {
+            for (int row = cellOf(minY); row <= cellOf(maxY); row++) {
+                long cellKey = cellKey(col, row);
+                Bucket bucket = cells.get(cellKey);
+                if (bucket == null) {
+                    bucket = new Bucket();
+                    cells.put(cellKey, bucket);
+                }
+                bucket.add(entry);
+            }
+        }
+    }
+
+    public void remove(long key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            unlink(entry);
+        }
+    }
+
+    // Reports every key whose box intersects the query (touching edges count).
+    public void query(double minX, double minY, double maxX, double maxY, LongConsumer consumer) {
+        int minCol = cellOf(minX);
+        int maxCol = cellOf(maxX);
+        int minRow = cellOf(minY);
+        int maxRow = cellOf(maxY);
+        for (int col = minCol; col <= maxCol; col++) {
+            for (int row = minRow; row <= maxRow; row++) {
+                Bucket bucket = cells.get(cellKey(col, row));
+                if (bucket == null) {
+                    continue;
+                }
+                for (int i = 0; i < bucket.size; i++) {
+                    Entry entry = bucket.entries[i];
+                    if (entry.maxX < minX || entry.minX > maxX || entry.maxY < minY || entry.minY > maxY) {
+                        continue;
+                    }
+                    if (cellOf(Math.max(entry.minX, minX)) == col && cellOf(Math.max(entry.minY, minY)) == row) {
+                        consumer.accept(entry.key);
+                    }
+                }
+            }
+        }
+    }
+
+    private void setBox(Entry entry, double minX, double minY, double maxX, double maxY) {
+        entry.minX = minX;
+        entry.minY = minY;
+        entry.maxX = maxX;
+        entry.maxY = maxY;
+    }
+
+    private void unlink(Entry entry) {
+        for (int col = cellOf(entry.minX); col <= cellOf(entry.maxX); col++) {
+            for (int row = cellOf(entry.minY); row <= cellOf(entry.maxY); row++) {
+                long cellKey = cellKey(col, row);
+                Bucket bucket = cells.get(cellKey);
+                if (bucket != null) {
+                    bucket.remove(entry);
+                    if (bucket.size == 0) {
+                        cells.remove(cellKey);
+                    }
+                }
+            }
+        }
+    }
+
+    private int cellOf(double value) {
+        return (int) Math.floor(value / cellSize);
+    }
+
+    private static long cellKey(int col, int row) {
+        return ((long) col << 32) | (row & 0xffffffffL);
+    }
+}
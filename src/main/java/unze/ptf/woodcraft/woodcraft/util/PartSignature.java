@@ -0,0 +1,141 @@
+package unze.ptf.woodcraft.woodcraft.util;
+
+import java.util.Arrays;
+
+// Identity of a part's outline regardless of where it sits or how it is turned. The outline is walked
+// counter-clockwise as (edge length, turn) pairs, quantized to a tolerance, and started at the least
+// rotation of that cycle (Booth), so moved and turned copies share a signature while mirrored ones do
+// not. Values that sit right on a quantization step can still split a pair of equal parts.
+public final class PartSignature {
+    public static final double TOLERANCE_CM = 0.05;
+    private static final double TURN_STEP_DEG = 0.25;
+
+    private final long[] steps;
+    private final int hash;
+    private final double startAngleDeg;
+
+    private PartSignature(long[] steps, double startAngleDeg) {
+        this.steps = steps;
+        this.startAngleDeg = startAngleDeg;
+        this.hash = Arrays.hashCode(steps);
+    }
+
+    public static PartSignature of(PolygonBuffer outline) {
+        return of(outline, TOLERANCE_CM);
+    }
+
+    // Null for outlines with fewer than three distinct corners.
+    public static PartSignature of(PolygonBuffer outline, double toleranceCm) {
+        int size = outline.size();
+        boolean reversed = PolygonMath.signedArea(outline) < 0;
+        double[] xs = new double[size];
+        double[] ys = new double[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            int index = reversed ? size - 1 - i : i;
+            double x = outline.x(index);
+            double y = outline.y(index);
+            if (count == 0 || Math.hypot(x - xs[count - 1], y - ys[count - 1]) > toleranceCm) {
+                xs[count] = x;
+                ys[count] = y;
+                count++;
+            }
+        }
+        while (count > 1 && Math.hypot(xs[0] - xs[count - 1], ys[0] - ys[count - 1]) <= toleranceCm) {
+            count--;
+        }
+        if (count < 3) {
+            return null;
+        }
+        // Corners that do not turn are dropped, judged against their original neighbours so the result
+        // does not depend on where the outline starts.
+        long[] turns = new long[count];
+        int[] corners = new int[count];
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            int prev = i == 0 ? count - 1 : i - 1;
+            int next = i + 1 == count ? 0 : i + 1;
+            turns[i] = Math.round(turnDeg(xs[prev], ys[prev], xs[i], ys[i], xs[next], ys[next]) / TURN_STEP_DEG);
+            if (turns[i] != 0) {
+                corners[kept++] = i;
+            }
+        }
+        if (kept < 3) {
+            return null;
+        }
+        long[] steps = new long[kept];
+        for (int k = 0; k < kept; k++) {
+            int from = corners[k];
+            int to = corners[k + 1 == kept ? 0 : k + 1];
+            long length = Math.round(Math.hypot(xs[to] - xs[from], ys[to] - ys[from]) / toleranceCm);
+            steps[k] = (length << 32) | (turns[to] & 0xffffffffL);
+        }
+        int start = leastRotation(steps);
+        long[] canonical = new long[kept];
+        for (int k = 0; k < kept; k++) {
+            canonical[k] = steps[(start + k) % kept];
+        }
+        int from = corners[start];
+        int to = corners[(start + 1) % kept];
+        return new PartSignature(canonical, Math.toDegrees(Math.atan2(ys[to] - ys[from], xs[to] - xs[from])));
+    }
+
+    // Direction of the canonical first edge as drawn. Equal parts drawn at different turns differ here
+    // by that turn (up to the part's own symmetry).
+    public double startAngleDeg() {
+        return startAngleDeg;
+    }
+
+    public int cornerCount() {
+        return steps.length;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        return other instanceof PartSignature signature && hash == signature.hash
+                && Arrays.equals(steps, signature.steps);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    private static double turnDeg(double prevX, double prevY, double x, double y, double nextX, double nextY) {
+        double inX = x - prevX;
+        double inY = y - prevY;
+        double outX = nextX - x;
+        double outY = nextY - y;
+        return Math.toDegrees(Math.atan2(inX * outY - inY * outX, inX * outX + inY * outY));
+    }
+
+    // Booth's algorithm: start index of the lexicographically least rotation, in linear time.
+    private static int leastRotation(long[] values) {
+        int size = values.length;
+        int[] failure = new int[size * 2];
+        Arrays.fill(failure, -1);
+        int start = 0;
+        for (int j = 1; j < size * 2; j++) {
+            long value = values[j % size];
+            int i = failure[j - start - 1];
+            while (i != -1 && value != values[(start + i + 1) % size]) {
+                if (value < values[(start + i + 1) % size]) {
+                    start = j - i - 1;
+                }
+                i = failure[i];
+            }
+            if (value != values[(start + i + 1) % size]) {
+                if (value < values[start % size]) {
+                    start = j;
+                }
+                failure[j - start] = -1;
+            } else {
+                failure[j - start] = i + 1;
+            }
+        }
+        return start % size;
+    }
+}
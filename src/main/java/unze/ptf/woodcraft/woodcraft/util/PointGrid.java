@@ -0,0 +1,144 @@
+package unze.ptf.woodcraft.woodcraft.util;
+
+import java.util.Arrays;
+
+// Uniform grid over id-tagged points. Pick a cell size close to the usual query radius so a lookup
+// touches only a handful of cells.
+public final class PointGrid {
+    private static final class Cell {
+        private final long key;
+        private int[] ids = new int[4];
+        private double[] xs = new double[4];
+        private double[] ys = new double[4];
+        private int size;
+
+        private Cell(long key) {
+            this.key = key;
+        }
+
+        private void add(int id, double x, double y) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                xs = Arrays.copyOf(xs, size * 2);
+                ys = Arrays.copyOf(ys, size * 2);
+            }
+            ids[size] = id;
+            xs[size] = x;
+            ys[size] = y;
+            size++;
+        }
+
+        private int indexOf(int id) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void removeAt(int index) {
+            size--;
+            ids[index] = ids[size];
+            xs[index] = xs[size];
+            ys[index] = ys[size];
+        }
+    }
+
+    private final double cellSize;
+    private final LongObjectHashMap<Cell> cells = new LongObjectHashMap<>();
+    private final LongObjectHashMap<Cell> cellById = new LongObjectHashMap<>();
+
+    public PointGrid(double cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    public int size() {
+        return cellById.size();
+    }
+
+    public void clear() {
+        cells.clear();
+        cellById.clear();
+    }
+
+    // Inserts the point, or moves it when the id is already present.
+    public void put(int id, double x, double y) {
+        long key = cellKey(cellOf(x), cellOf(y));
+        Cell current = cellById.get(id);
+        if (current != null) {
+            int index = current.indexOf(id);
+            if (cells.get(key) == current) {
+                current.xs[index] = x;
+                current.ys[index] = y;
+                return;
+            }
+            detach(current, index);
+        }
+        Cell cell = cells.get(key);
+        if (cell == null) {
+            cell = new Cell(key);
+            cells.put(key, cell);
+        }
+        cell.add(id, x, y);
+        cellById.put(id, cell);
+    }
+
+    public void remove(int id) {
+        Cell cell = cellById.remove(id);
+        if (cell != null) {
+            detach(cell, cell.indexOf(id));
+        }
+    }
+
+    // Closest point within radius, or -1. Ties go to the lower id so the answer is stable.
+    public int nearest(double x, double y, double radius) {
+        return nearest(x, y, radius, -1);
+    }
+
+    public int nearest(double x, double y, double radius, int excludedId) {
+        int minCol = cellOf(x - radius);
+        int maxCol = cellOf(x + radius);
+        int minRow = cellOf(y - radius);
+        int maxRow = cellOf(y + radius);
+        double bestDistance = radius * radius;
+        int bestId = -1;
+        for (int col = minCol; col <= maxCol; col++) {
+            for (int row = minRow; row <= maxRow; row++) {
+                Cell cell = cells.get(cellKey(col, row));
+                if (cell == null) {
+                    continue;
+                }
+                for (int i = 0; i < cell.size; i++) {
+                    if (cell.ids[i] == excludedId) {
+                        continue;
+                    }
+                    double dx = cell.xs[i] - x;
+                    double dy = cell.ys[i] - y;
+                    double distance = dx * dx + dy * dy;
+                    if (distance < bestDistance
+                            || (distance == bestDistance && (bestId < 0 || cell.ids[i] < bestId))) {
+                        bestDistance = distance;
+                        bestId = cell.ids[i];
+                    }
+                }
+            }
+        }
+        return bestId;
+    }
+
+    private void detach(Cell cell, int index) {
+        cell.removeAt(index);
+        if (cell.size == 0) {
+            cells.remove(cell.key);
+        }
+    }
+
+    private int cellOf(double value) {
+        return (int) Math.floor(value / cellSize);
+    }
+
+    private static long cellKey(int col, int row) {
+        return ((long) col << 32) | (row & 0xffffffffL);
+    }
+}
@@ -0,0 +1,59 @@
+package unze.ptf.woodcraft.woodcraft.util;
+
+import java.util.Arrays;
+
+// Growable outline stored as packed x,y pairs; cleared and refilled instead of reallocated.
+public final class PolygonBuffer {
+    private double[] coords;
+    private int size;
+
+    public PolygonBuffer() {
+        this(32);
+    }
+
+    public PolygonBuffer(int capacity) {
+        coords = new double[Math.max(2, capacity) * 2];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public double x(int index) {
+        return coords[index * 2];
+    }
+
+    public double y(int index) {
+        return coords[index * 2 + 1];
+    }
+
+    public void add(double x, double y) {
+        if (size * 2 == coords.length) {
+            coords = Arrays.copyOf(coords, coords.length * 2);
+        }
+        coords[size * 2] = x;
+        coords[size * 2 + 1] = y;
+        size++;
+    }
+
+    public void set(int index, double x, double y) {
+        coords[index * 2] = x;
+        coords[index * 2 + 1] = y;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public void copyFrom(PolygonBuffer other) {
+        if (coords.length < other.size * 2) {
+            coords = new double[other.coords.length];
+        }
+        System.arraycopy(other.coords, 0, coords, 0, other.size * 2);
+        size = other.size;
+    }
+}
@@ -0,0 +1,199 @@
+package unze.ptf.woodcraft.woodcraft.util;
+
+// Polygon kernels over PolygonBuffer. Results go into caller-owned buffers and arrays so the loops
+// run without allocating.
+public final class PolygonMath {
+    private static final double EPSILON = 1e-6;
+
+    private PolygonMath() {
+    }
+
+    public static double signedArea(PolygonBuffer polygon) {
+        int size = polygon.size();
+        if (size < 3) {
+            return 0;
+        }
+        double sum = 0;
+        double prevX = polygon.x(size - 1);
+        double prevY = polygon.y(size - 1);
+        for (int i = 0; i < size; i++) {
+            double x = polygon.x(i);
+            double y = polygon.y(i);
+            sum += prevX * y - x * prevY;
+            prevX = x;
+            prevY = y;
+        }
+        return sum / 2.0;
+    }
+
+    public static double perimeter(PolygonBuffer polygon) {
+        int size = polygon.size();
+        if (size < 2) {
+            return 0;
+        }
+        double sum = 0;
+        double prevX = polygon.x(size - 1);
+        double prevY = polygon.y(size - 1);
+        for (int i = 0; i < size; i++) {
+            double x = polygon.x(i);
+            double y = polygon.y(i);
+            sum += Math.hypot(x - prevX, y - prevY);
+            prevX = x;
+            prevY = y;
+        }
+        return sum;
+    }
+
+    // Even-odd rule; points exactly on the outline may land on either side.
+    public static boolean contains(PolygonBuffer polygon, double x, double y) {
+        int size = polygon.size();
+        boolean inside = false;
+        double prevX = size == 0 ? 0 : polygon.x(size - 1);
+        double prevY = size == 0 ? 0 : polygon.y(size - 1);
+        for (int i = 0; i < size; i++) {
+            double px = polygon.x(i);
+            double py = polygon.y(i);
+            if ((py > y) != (prevY > y) && x < (prevX - px) * (y - py) / (prevY - py) + px) {
+                inside = !inside;
+            }
+            prevX = px;
+            prevY = py;
+        }
+        return inside;
+    }
+
+    // Writes {x, y}; degenerate outlines fall back to the vertex average.
+    public static void centroid(PolygonBuffer polygon, double[] out) {
+        int size = polygon.size();
+        double area = signedArea(polygon);
+        if (Math.abs(area) < EPSILON) {
+            double sumX = 0;
+            double sumY = 0;
+            for (int i = 0; i < size; i++) {
+                sumX += polygon.x(i);
+                sumY += polygon.y(i);
+            }
+            out[0] = size == 0 ? 0 : sumX / size;
+            out[1] = size == 0 ? 0 : sumY / size;
+            return;
+        }
+        double cx = 0;
+        double cy = 0;
+        for (int i = 0; i < size; i++) {
+            int next = i + 1 == size ? 0 : i + 1;
+            double ax = polygon.x(i);
+            double ay = polygon.y(i);
+            double bx = polygon.x(next);
+            double by = polygon.y(next);
+            double cross = ax * by - bx * ay;
+            cx += (ax + bx) * cross;
+            cy += (ay + by) * cross;
+        }
+        double factor = 1.0 / (6.0 * area);
+        out[0] = cx * factor;
+        out[1] = cy * factor;
+    }
+
+    // Writes {minX, minY, maxX, maxY}.
+    public static void bounds(PolygonBuffer polygon, double[] out) {
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < polygon.size(); i++) {
+            double x = polygon.x(i);
+            double y = polygon.y(i);
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+        }
+        out[0] = minX;
+        out[1] = minY;
+        out[2] = maxX;
+        out[3] = maxY;
+    }
+
+    public static void rotate(PolygonBuffer source, double centerX, double centerY, double radians,
+                              PolygonBuffer target) {
+        double cos = Math.cos(radians);
+        double sin = Math.sin(radians);
+        target.clear();
+        for (int i = 0; i < source.size(); i++) {
+            double dx = source.x(i) - centerX;
+            double dy = source.y(i) - centerY;
+            target.add(centerX + (dx * cos - dy * sin), centerY + (dx * sin + dy * cos));
+        }
+    }
+
+    // Cuts the polygon into count vertical slabs, slab i running from bounds[i] to bounds[i + 1] (ascending),
+    // and writes each slab's area and y extent in one pass over the edges. Clipping to a slab only
+    // adds vertical segments, which add nothing to the integral of y dx, so a slab's area is the sum over
+    // the edge pieces inside it. Pieces that only touch a slab's boundary do not count, and slabs the
+    // outline misses get zero area and an empty extent.
+    public static void slabs(PolygonBuffer polygon, double[] bounds, int count, double[] areas, double[] lows,
+                             double[] highs) {
+        for (int i = 0; i < count; i++) {
+            areas[i] = 0;
+            lows[i] = Double.POSITIVE_INFINITY;
+            highs[i] = Double.NEGATIVE_INFINITY;
+        }
+        int size = polygon.size();
+        if (size < 3 || count == 0) {
+            return;
+        }
+        double prevX = polygon.x(size - 1);
+        double prevY = polygon.y(size - 1);
+        for (int i = 0; i < size; i++) {
+            double x = polygon.x(i);
+            double y = polygon.y(i);
+            double lo = Math.min(prevX, x);
+            double hi = Math.max(prevX, x);
+            double slope = hi - lo < EPSILON ? 0 : (y - prevY) / (x - prevX);
+            int first = slabAt(bounds, count, lo);
+            int last = slabAt(bounds, count, hi);
+            for (int slab = first; slab <= last; slab++) {
+                double slabMin = bounds[slab];
+                double slabMax = bounds[slab + 1];
+                double from = Math.max(lo, slabMin);
+                double to = Math.min(hi, slabMax);
+                boolean vertical = hi - lo < EPSILON;
+                if (vertical ? lo <= slabMin + EPSILON || lo >= slabMax - EPSILON : to - from < EPSILON) {
+                    continue;
+                }
+                double fromY;
+                double toY;
+                if (vertical) {
+                    fromY = prevY;
+                    toY = y;
+                } else {
+                    fromY = prevY + (from - prevX) * slope;
+                    toY = prevY + (to - prevX) * slope;
+                    areas[slab] += (x > prevX ? 1 : -1) * (to - from) * (fromY + toY) / 2.0;
+                }
+                lows[slab] = Math.min(lows[slab], Math.min(fromY, toY));
+                highs[slab] = Math.max(highs[slab], Math.max(fromY, toY));
+            }
+            prevX = x;
+            prevY = y;
+        }
+        for (int i = 0; i < count; i++) {
+            areas[i] = Math.abs(areas[i]);
+        }
+    }
+
+    // Index of the slab holding x, clamped to the first and last slab.
+    private static int slabAt(double[] bounds, int count, double x) {
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (bounds[middle] <= x) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+}
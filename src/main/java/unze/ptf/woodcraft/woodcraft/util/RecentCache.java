@@ -0,0 +1,29 @@
+package unze.ptf.woodcraft.woodcraft.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+// Small least-recently-used map for results keyed by an input signature. Safe to share between the FX
+// thread and background jobs.
+public final class RecentCache<K, V> {
+    private final int capacity;
+    private final LinkedHashMap<K, V> entries;
+
+    public RecentCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(capacity * 2, 0.75f, true);
+    }
+
+    public synchronized V get(K key) {
+        return entries.get(key);
+    }
+
+    public synchronized void put(K key, V value) {
+        entries.put(key, value);
+        Iterator<K> eldest = entries.keySet().iterator();
+        while (entries.size() > capacity) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+}
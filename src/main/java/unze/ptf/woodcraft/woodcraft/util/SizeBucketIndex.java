@@ -0,0 +1,137 @@
+package unze.ptf.woodcraft.woodcraft.util;
+
+import java.util.Arrays;
+
+// Best-fit lookup over rectangles keyed by long. Rectangles are bucketed by their two sides on a fixed
+// step, so a query only visits buckets that are at least as large as the request and stops as soon as
+// a bucket's smallest possible area cannot beat the best hit. When rectangles may be turned, sides are
+// stored as (short, long).
+public final class SizeBucketIndex {
+    private static final double EPSILON = 1e-9;
+
+    private static final class Entry {
+        private final long key;
+        private final double width;
+        private final double height;
+        private final long cell;
+
+        private Entry(long key, double width, double height, long cell) {
+            this.key = key;
+            this.width = width;
+            this.height = height;
+            this.cell = cell;
+        }
+    }
+
+    private static final class Bucket {
+        private Entry[] entries = new Entry[4];
+        private int size;
+
+        private void add(Entry entry) {
+            if (size == entries.length) {
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            entries[size++] = entry;
+        }
+
+        private void remove(Entry entry) {
+            for (int i = 0; i < size; i++) {
+                if (entries[i] == entry) {
+                    entries[i] = entries[--size];
+                    entries[size] = null;
+                    return;
+                }
+            }
+        }
+    }
+
+    private final double bucketSize;
+    private final boolean turnable;
+    private final LongObjectHashMap<Bucket> buckets = new LongObjectHashMap<>();
+    private final LongObjectHashMap<Entry> entries = new LongObjectHashMap<>();
+    private int maxColumn;
+    private int maxRow;
+
+    public SizeBucketIndex(double bucketSize, boolean turnable) {
+        this.bucketSize = bucketSize;
+        this.turnable = turnable;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void put(long key, double width, double height) {
+        remove(key);
+        double first = turnable ? Math.min(width, height) : width;
+        double second = turnable ? Math.max(width, height) : height;
+        int column = bucket(first);
+        int row = bucket(second);
+        long cell = cellKey(column, row);
+        Entry entry = new Entry(key, first, second, cell);
+        Bucket bucket = buckets.get(cell);
+        if (bucket == null) {
+            bucket = new Bucket();
+            buckets.put(cell, bucket);
+        }
+        bucket.add(entry);
+        entries.put(key, entry);
+        maxColumn = Math.max(maxColumn, column);
+        maxRow = Math.max(maxRow, row);
+    }
+
+    public boolean remove(long key) {
+        Entry entry = entries.remove(key);
+        if (entry == null) {
+            return false;
+        }
+        Bucket bucket = buckets.get(entry.cell);
+        bucket.remove(entry);
+        if (bucket.size == 0) {
+            buckets.remove(entry.cell);
+        }
+        return true;
+    }
+
+    // Key of the smallest-area rectangle that holds width x height, or -1 when none does.
+    public long bestFit(double width, double height) {
+        double first = turnable ? Math.min(width, height) : width;
+        double second = turnable ? Math.max(width, height) : height;
+        int firstColumn = bucket(first);
+        int firstRow = bucket(second);
+        double bestArea = Double.MAX_VALUE;
+        long bestKey = -1;
+        for (int column = firstColumn; column <= maxColumn; column++) {
+            double columnFloor = column * bucketSize;
+            if (columnFloor * Math.max(firstRow, turnable ? column : 0) * bucketSize >= bestArea) {
+                break;
+            }
+            for (int row = turnable ? Math.max(firstRow, column) : firstRow; row <= maxRow; row++) {
+                if (columnFloor * row * bucketSize >= bestArea) {
+                    break;
+                }
+                Bucket bucket = buckets.get(cellKey(column, row));
+                if (bucket == null) {
+                    continue;
+                }
+                for (int i = 0; i < bucket.size; i++) {
+                    Entry entry = bucket.entries[i];
+                    double area = entry.width * entry.height;
+                    if (entry.width >= first - EPSILON && entry.height >= second - EPSILON && area < bestArea) {
+                        bestArea = area;
+                        bestKey = entry.key;
+                    }
+                }
+            }
+        }
+        return bestKey;
+    }
+
+    private int bucket(double size) {
+        return (int) Math.floor(Math.max(0, size) / bucketSize);
+    }
+
+    private static long cellKey(int column, int row) {
+        return ((long) column << 32) | (row & 0xffffffffL);
+    }
+}
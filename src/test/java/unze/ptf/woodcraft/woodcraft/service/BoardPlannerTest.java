@@ -0,0 +1,49 @@
+package unze.ptf.woodcraft.woodcraft.service;
+
+import org.junit.jupiter.api.Test;
+import unze.ptf.woodcraft.woodcraft.util.PolygonBuffer;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoardPlannerTest {
+    private final BoardPlanner planner = new BoardPlanner();
+
+    // Stock shorter than the stagger, as when "240" is being typed and the field reads "2" or "24".
+    @Test
+    void stockShorterThanTheStaggerStillFillsEveryCourse() {
+        PolygonBuffer square = rectangle(100, 100);
+        for (double length : new double[] {2, 14, 24, 30}) {
+            BoardPlanner.Layout layout = assertTimeoutPreemptively(Duration.ofSeconds(2), () -> planner.plan(square,
+                    10000, 0, List.of(new BoardPlanner.Stock(14, length)), 30, 0.3, new BoardPlanner.Workspace()));
+            assertEquals(100, layout.coveragePercent(), 1e-6);
+            for (BoardPlanner.Course course : layout.courses()) {
+                List<BoardPlanner.Piece> pieces = course.pieces();
+                assertEquals(100, pieces.get(pieces.size() - 1).y1() - pieces.get(0).y0(), 1e-6);
+            }
+        }
+    }
+
+    // 13.95 cm rounds up to 140 mm; counted that way, 60 courses seemed to cover 839 cm but reach 837.
+    @Test
+    void coursesCoverTheSpanWithWidthsOffTheMillimetre() {
+        BoardPlanner.Layout layout = planner.plan(rectangle(839, 50), 839 * 50, 0,
+                List.of(new BoardPlanner.Stock(13.95, 240)), 30, 0.3, new BoardPlanner.Workspace());
+        assertEquals(100, layout.coveragePercent(), 1e-6);
+        List<BoardPlanner.Course> courses = layout.courses();
+        assertTrue(courses.get(courses.size() - 1).x1() - courses.get(0).x0() >= 839 - 1e-6);
+    }
+
+    private static PolygonBuffer rectangle(double width, double height) {
+        PolygonBuffer shape = new PolygonBuffer();
+        shape.add(0, 0);
+        shape.add(width, 0);
+        shape.add(width, height);
+        shape.add(0, height);
+        return shape;
+    }
+}
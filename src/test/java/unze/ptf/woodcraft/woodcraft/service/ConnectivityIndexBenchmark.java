@@ -0,0 +1,133 @@
+package unze.ptf.woodcraft.woodcraft.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import unze.ptf.woodcraft.woodcraft.model.Edge;
+import unze.ptf.woodcraft.woodcraft.model.NodePoint;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// "Does this new edge close a loop?" on a document of squares (four edges each), answered the way
+// MainController did before the index (adjacency rebuilt from the edge list, then BFS) and through
+// DocumentGraph's union-find, both straight after an edit and after a deletion forced a rebuild.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConnectivityIndexBenchmark {
+    @Param({"1000", "10000"})
+    public int edgeCount;
+
+    private final GeometryService geometryService = new GeometryService();
+    private List<Edge> edges;
+    private DocumentGraph graph;
+    private int[] queries;
+    private int next;
+    private int removedEdgeId;
+
+    @Setup
+    public void setUp() {
+        List<NodePoint> nodes = new ArrayList<>();
+        edges = new ArrayList<>();
+        int squares = edgeCount / 4;
+        for (int square = 0; square < squares; square++) {
+            int first = square * 4 + 1;
+            double x = (square % 100) * 50.0;
+            double y = (square / 100) * 50.0;
+            nodes.add(new NodePoint(first, 1, x, y));
+            nodes.add(new NodePoint(first + 1, 1, x + 40, y));
+            nodes.add(new NodePoint(first + 2, 1, x + 40, y + 40));
+            nodes.add(new NodePoint(first + 3, 1, x, y + 40));
+            for (int corner = 0; corner < 4; corner++) {
+                edges.add(new Edge(first + corner, 1, first + corner, first + (corner + 1) % 4));
+            }
+        }
+        graph = new DocumentGraph(nodes, edges);
+        // Half the candidate edges join two squares, half cut across one (a diagonal that closes a loop).
+        Random random = new Random(11);
+        queries = new int[2048];
+        for (int i = 0; i < queries.length; i += 2) {
+            int square = random.nextInt(squares);
+            queries[i] = square * 4 + 1;
+            queries[i + 1] = i % 4 == 0 ? random.nextInt(squares) * 4 + 3 : square * 4 + 3;
+        }
+        removedEdgeId = edges.get(edges.size() / 2).getId();
+    }
+
+    @Benchmark
+    public boolean adjacencyRebuildAndSearch() {
+        int index = nextQuery();
+        return !findPath(buildAdjacency(edges), queries[index], queries[index + 1]).isEmpty();
+    }
+
+    @Benchmark
+    public boolean unionFind() {
+        int index = nextQuery();
+        return geometryService.detectCycleForEdge(graph, queries[index], queries[index + 1]).cycleDetected();
+    }
+
+    @Benchmark
+    public boolean unionFindAfterDelete() {
+        Edge removed = graph.removeEdge(removedEdgeId);
+        graph.putEdge(removed);
+        int index = nextQuery();
+        return geometryService.detectCycleForEdge(graph, queries[index], queries[index + 1]).cycleDetected();
+    }
+
+    private int nextQuery() {
+        next = (next + 2) % queries.length;
+        return next;
+    }
+
+    private static Map<Integer, List<Integer>> buildAdjacency(List<Edge> edges) {
+        Map<Integer, List<Integer>> adjacency = new HashMap<>();
+        for (Edge edge : edges) {
+            adjacency.computeIfAbsent(edge.getStartNodeId(), key -> new ArrayList<>()).add(edge.getEndNodeId());
+            adjacency.computeIfAbsent(edge.getEndNodeId(), key -> new ArrayList<>()).add(edge.getStartNodeId());
+        }
+        return adjacency;
+    }
+
+    private static List<Integer> findPath(Map<Integer, List<Integer>> adjacency, int startNodeId, int endNodeId) {
+        Deque<Integer> queue = new ArrayDeque<>();
+        Map<Integer, Integer> prev = new HashMap<>();
+        queue.add(startNodeId);
+        prev.put(startNodeId, null);
+        while (!queue.isEmpty()) {
+            int current = queue.removeFirst();
+            for (int neighbor : adjacency.getOrDefault(current, List.of())) {
+                if (prev.containsKey(neighbor)) {
+                    continue;
+                }
+                prev.put(neighbor, current);
+                if (neighbor == endNodeId) {
+                    List<Integer> path = new ArrayList<>();
+                    for (Integer node = endNodeId; node != null; node = prev.get(node)) {
+                        path.add(node);
+                    }
+                    return path;
+                }
+                queue.add(neighbor);
+            }
+        }
+        return List.of();
+    }
+}
@@ -0,0 +1,95 @@
+package unze.ptf.woodcraft.woodcraft.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import unze.ptf.woodcraft.woodcraft.model.GrainDirection;
+import unze.ptf.woodcraft.woodcraft.util.PolygonBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Grain-constrained against free nesting on 244 x 122 cm sheets with 3 mm kerf. NONE lets parts take
+// quarter turns; HORIZONTAL keeps them to half turns, which the box nester skips altogether and which
+// halves the orientations (and so quarters the NFPs) of the shape nester.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GrainNestingBenchmark {
+    private static final double SHEET_WIDTH_CM = 244;
+    private static final double SHEET_HEIGHT_CM = 122;
+    private static final double KERF_CM = 0.3;
+
+    @Param({"NONE", "HORIZONTAL"})
+    public GrainDirection grain;
+
+    private final SheetNester sheetNester = new SheetNester();
+    private final ShapeNester shapeNester = new ShapeNester();
+    private List<SheetNester.Part> boxes;
+    private List<ShapeNester.Part> outlines;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(3);
+        // 100 cabinet part sizes at quantity 1-9.
+        boxes = new ArrayList<>();
+        for (int id = 1; id <= 100; id++) {
+            boxes.add(new SheetNester.Part(id, 10 + random.nextInt(110), 10 + random.nextInt(70),
+                    1 + random.nextInt(9)));
+        }
+        // 40 irregular outlines (L-shapes, trapezoids, triangles) at quantity 1-3.
+        outlines = new ArrayList<>();
+        for (int id = 1; id <= 40; id++) {
+            double width = 20 + random.nextInt(60);
+            double height = 15 + random.nextInt(45);
+            PolygonBuffer outline = new PolygonBuffer();
+            switch (id % 3) {
+                case 0 -> {
+                    outline.add(0, 0);
+                    outline.add(width, 0);
+                    outline.add(width, height * 0.4);
+                    outline.add(width * 0.4, height * 0.4);
+                    outline.add(width * 0.4, height);
+                    outline.add(0, height);
+                }
+                case 1 -> {
+                    outline.add(0, 0);
+                    outline.add(width, 0);
+                    outline.add(width * 0.75, height);
+                    outline.add(width * 0.25, height);
+                }
+                default -> {
+                    outline.add(0, 0);
+                    outline.add(width, 0);
+                    outline.add(0, height);
+                }
+            }
+            outlines.add(new ShapeNester.Part(id, outline, 1 + random.nextInt(3)));
+        }
+    }
+
+    @Benchmark
+    public int boxNest() {
+        return sheetNester.nest(boxes, SHEET_WIDTH_CM, SHEET_HEIGHT_CM, KERF_CM,
+                SheetNester.quarterTurnsAllowed(grain)).sheetCount();
+    }
+
+    @Benchmark
+    public int shapeNest() {
+        return shapeNester.nest(outlines, SHEET_WIDTH_CM, SHEET_HEIGHT_CM, KERF_CM,
+                ShapeNester.rotationsFor(grain)).sheetCount();
+    }
+}
@@ -0,0 +1,32 @@
+package unze.ptf.woodcraft.woodcraft.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NestingOptimizerTest {
+
+    // Every part of the material fits on remnants, so the optimizer is handed nothing to place.
+    @Test
+    void noPartsCompletesAtOnceWithAnEmptyLayout() {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            List<SheetNester.Layout> improvements = new ArrayList<>();
+            NestingOptimizer.Run run = new NestingOptimizer(new SheetNester(), pool)
+                    .optimize(List.of(), 244, 122, 0.3, true, 60_000, improvements::add);
+
+            assertTrue(run.result().isDone());
+            SheetNester.Layout layout = run.result().join();
+            assertEquals(0, layout.sheetCount());
+            assertTrue(layout.oversized().isEmpty());
+            assertEquals(List.of(layout), improvements);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package unze.ptf.woodcraft.woodcraft.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import unze.ptf.woodcraft.woodcraft.model.NodePoint;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// One pointer-move event in CanvasPane, which needs a running JavaFX toolkit itself, so its node
+// bookkeeping is reproduced here. Hover snaps the pointer to the nearest node within 8 px at 10 px/cm;
+// drag also moves the grabbed node. "Linear" is the list scan CanvasPane used before the index,
+// "indexed" is PointGrid plus the id-to-position map.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PointGridBenchmark {
+    private static final double CELL_CM = 4.0;
+    private static final double RADIUS_CM = 0.8;
+
+    @Param({"1000", "10000", "50000"})
+    public int nodeCount;
+
+    private final List<NodePoint> nodes = new ArrayList<>();
+    private final Map<Integer, Integer> nodeIndexById = new HashMap<>();
+    private PointGrid grid;
+    private double[] pointer;
+    private int next;
+    private int dragged;
+
+    @Setup
+    public void setUp() {
+        // Nodes spread over a board sized for roughly 25 cm2 per node, like parts laid out side by side.
+        double side = Math.sqrt(nodeCount * 25.0);
+        Random random = new Random(5);
+        grid = new PointGrid(CELL_CM);
+        for (int id = 1; id <= nodeCount; id++) {
+            NodePoint node = new NodePoint(id, 1, random.nextDouble() * side, random.nextDouble() * side);
+            nodeIndexById.put(id, nodes.size());
+            nodes.add(node);
+            grid.put(id, node.getXCm(), node.getYCm());
+        }
+        pointer = new double[4096];
+        for (int i = 0; i < pointer.length; i += 2) {
+            pointer[i] = random.nextDouble() * side;
+            pointer[i + 1] = random.nextDouble() * side;
+        }
+        dragged = nodeCount / 2;
+    }
+
+    @Benchmark
+    public int hoverLinear() {
+        int index = nextPointer();
+        NodePoint node = findNodeLinear(findNodeNearLinear(pointer[index], pointer[index + 1]));
+        return node == null ? -1 : node.getId();
+    }
+
+    @Benchmark
+    public int hoverIndexed() {
+        int index = nextPointer();
+        NodePoint node = findNodeIndexed(grid.nearest(pointer[index], pointer[index + 1], RADIUS_CM));
+        return node == null ? -1 : node.getId();
+    }
+
+    @Benchmark
+    public int dragLinear() {
+        int index = nextPointer();
+        int snapped = findNodeNearLinear(pointer[index], pointer[index + 1]);
+        for (int i = 0; i < nodes.size(); i++) {
+            NodePoint node = nodes.get(i);
+            if (node.getId() == dragged) {
+                nodes.set(i, new NodePoint(dragged, 1, pointer[index], pointer[index + 1]));
+                break;
+            }
+        }
+        return snapped;
+    }
+
+    @Benchmark
+    public int dragIndexed() {
+        int index = nextPointer();
+        int snapped = grid.nearest(pointer[index], pointer[index + 1], RADIUS_CM, dragged);
+        Integer position = nodeIndexById.get(dragged);
+        nodes.set(position, new NodePoint(dragged, 1, pointer[index], pointer[index + 1]));
+        grid.put(dragged, pointer[index], pointer[index + 1]);
+        return snapped;
+    }
+
+    private int nextPointer() {
+        next = (next + 2) % pointer.length;
+        return next;
+    }
+
+    private int findNodeNearLinear(double x, double y) {
+        for (NodePoint node : nodes) {
+            if (Math.hypot(node.getXCm() - x, node.getYCm() - y) <= RADIUS_CM) {
+                return node.getId();
+            }
+        }
+        return -1;
+    }
+
+    private NodePoint findNodeLinear(int nodeId) {
+        for (NodePoint node : nodes) {
+            if (node.getId() == nodeId) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private NodePoint findNodeIndexed(int nodeId) {
+        Integer index = nodeIndexById.get(nodeId);
+        return index == null ? null : nodes.get(index);
+    }
+}
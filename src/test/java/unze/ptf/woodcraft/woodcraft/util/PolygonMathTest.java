@@ -0,0 +1,186 @@
+package unze.ptf.woodcraft.woodcraft.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PolygonMathTest {
+    private static final double TOLERANCE = 1e-6;
+    private static final int MAX_PLANKS = 50;
+
+    // L-shape whose inner vertical edge (x = 80, y 60..150) lies on the boundary between the second and
+    // third strip. Clipping kept that edge in the third strip as a zero-width sliver, so its plank ran
+    // 0..150; the sweep gives the 0..60 the strip actually holds.
+    @Test
+    void edgeOnStripBoundaryOnlyCountsWhereItHasArea() {
+        PolygonBuffer shape = lShape();
+        double[] bounds = {0, 40, 80, 120, 160, 200};
+        double[] areas = new double[5];
+        double[] lows = new double[5];
+        double[] highs = new double[5];
+        PolygonMath.slabs(shape, bounds, 5, areas, lows, highs);
+
+        assertEquals(6000, areas[1], TOLERANCE);
+        assertEquals(0, lows[1], TOLERANCE);
+        assertEquals(150, highs[1], TOLERANCE);
+        assertEquals(2400, areas[2], TOLERANCE);
+        assertEquals(0, lows[2], TOLERANCE);
+        assertEquals(60, highs[2], TOLERANCE);
+
+        new StripClipReference().strips(shape, bounds, 5, areas, lows, highs);
+        assertEquals(2400, areas[2], TOLERANCE);
+        assertEquals(150, highs[2], TOLERANCE);
+    }
+
+    @Test
+    void stripsTheOutlineMissesAreEmpty() {
+        double[] bounds = {-50, -10, 0, 200, 260};
+        double[] areas = new double[4];
+        double[] lows = new double[4];
+        double[] highs = new double[4];
+        PolygonMath.slabs(lShape(), bounds, 4, areas, lows, highs);
+
+        for (int strip : new int[] {0, 1, 3}) {
+            assertEquals(0, areas[strip], TOLERANCE);
+            assertTrue(lows[strip] > highs[strip]);
+        }
+        assertEquals(200 * 60 + 80 * 90, areas[2], TOLERANCE);
+    }
+
+    // Random turns (a quarter of them exact quarter turns, where edges land on strip boundaries), plank
+    // counts and widths over a curved, an L-shaped and a concave star outline, laid out as PlankPlanner
+    // does. Areas must match the per-strip clip everywhere. Extents may only differ where the outline
+    // merely touches the strip's boundary (an edge along it, or a corner on it): the clip stretched the
+    // plank to that touch, the sweep does not, so its plank is never the longer one.
+    @Test
+    void matchesPerStripClippingExceptWhereTheOutlineTouchesABoundary() {
+        Random random = new Random(5);
+        StripClipReference reference = new StripClipReference();
+        PolygonBuffer rotated = new PolygonBuffer();
+        double[] centroid = new double[2];
+        double[] extent = new double[4];
+        double[] bounds = new double[MAX_PLANKS + 1];
+        double[] areas = new double[MAX_PLANKS];
+        double[] lows = new double[MAX_PLANKS];
+        double[] highs = new double[MAX_PLANKS];
+        double[] clipAreas = new double[MAX_PLANKS];
+        double[] clipLows = new double[MAX_PLANKS];
+        double[] clipHighs = new double[MAX_PLANKS];
+        int touchingCases = 0;
+        for (PolygonBuffer shape : new PolygonBuffer[] {curved(random), lShape(), star(random)}) {
+            PolygonMath.centroid(shape, centroid);
+            for (int run = 0; run < 2000; run++) {
+                double angle = random.nextInt(4) == 0 ? random.nextInt(4) * 90 : random.nextDouble() * 359;
+                boolean byWidth = random.nextBoolean();
+                int count = 1 + random.nextInt(MAX_PLANKS);
+                double widthCm = 1 + random.nextDouble() * 30;
+                PolygonMath.rotate(shape, centroid[0], centroid[1], -Math.toRadians(angle), rotated);
+                PolygonMath.bounds(rotated, extent);
+                count = layout(extent[0], extent[2], byWidth, count, widthCm, bounds);
+                PolygonMath.slabs(rotated, bounds, count, areas, lows, highs);
+                reference.strips(rotated, bounds, count, clipAreas, clipLows, clipHighs);
+
+                boolean touching = false;
+                double sweepLength = 0;
+                double clipLength = 0;
+                for (int i = 0; i < count; i++) {
+                    assertEquals(clipAreas[i], areas[i], TOLERANCE, "area of strip " + i + " at " + angle);
+                    if (areas[i] <= 0.0001) {
+                        continue;
+                    }
+                    sweepLength += highs[i] - lows[i];
+                    clipLength += clipHighs[i] - clipLows[i];
+                    if (Math.abs(lows[i] - clipLows[i]) <= TOLERANCE
+                            && Math.abs(highs[i] - clipHighs[i]) <= TOLERANCE) {
+                        continue;
+                    }
+                    assertTrue(lows[i] >= clipLows[i] - TOLERANCE && highs[i] <= clipHighs[i] + TOLERANCE);
+                    assertTrue(highs[i] >= clipHighs[i] - TOLERANCE
+                                    || touchesBoundary(rotated, bounds[i], bounds[i + 1], clipHighs[i]),
+                            "strip " + i + " at " + angle + " is shorter without touching its boundary");
+                    assertTrue(lows[i] <= clipLows[i] + TOLERANCE
+                                    || touchesBoundary(rotated, bounds[i], bounds[i + 1], clipLows[i]),
+                            "strip " + i + " at " + angle + " is shorter without touching its boundary");
+                    touching = true;
+                }
+                assertTrue(sweepLength <= clipLength + TOLERANCE);
+                if (touching) {
+                    touchingCases++;
+                }
+            }
+        }
+        // The quarter turns put outline edges on strip boundaries often enough that the comparison above
+        // is exercised, not skipped.
+        assertTrue(touchingCases > 0);
+    }
+
+    private static int layout(double minX, double maxX, boolean byWidth, int count, double widthCm,
+                              double[] bounds) {
+        double span = maxX - minX;
+        if (byWidth) {
+            count = (int) Math.ceil(span / Math.max(0.01, widthCm));
+            if (count > MAX_PLANKS) {
+                count = MAX_PLANKS;
+                widthCm = span / count;
+            }
+            count = Math.max(1, count);
+        }
+        double width = byWidth ? widthCm : span / count;
+        if (width <= 0.01) {
+            width = span / Math.max(1, count);
+        }
+        for (int i = 0; i < count; i++) {
+            bounds[i] = minX + i * width;
+        }
+        bounds[count] = maxX;
+        return count;
+    }
+
+    // Whether the outline reaches y at a corner lying on one of the strip's boundaries.
+    private static boolean touchesBoundary(PolygonBuffer polygon, double fromX, double toX, double y) {
+        for (int i = 0; i < polygon.size(); i++) {
+            double x = polygon.x(i);
+            if ((Math.abs(x - fromX) <= TOLERANCE || Math.abs(x - toX) <= TOLERANCE)
+                    && Math.abs(polygon.y(i) - y) <= TOLERANCE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static PolygonBuffer lShape() {
+        PolygonBuffer shape = new PolygonBuffer();
+        shape.add(0, 0);
+        shape.add(200, 0);
+        shape.add(200, 60);
+        shape.add(80, 60);
+        shape.add(80, 150);
+        shape.add(0, 150);
+        return shape;
+    }
+
+    // A sampled tabletop-like outline: 144 points with a threefold wobble.
+    static PolygonBuffer curved(Random random) {
+        PolygonBuffer shape = new PolygonBuffer();
+        for (int i = 0; i < 144; i++) {
+            double t = 2 * Math.PI * i / 144;
+            double radius = 100 + 25 * Math.sin(3 * t) + random.nextDouble() * 2;
+            shape.add(radius * Math.cos(t) * 1.6, radius * Math.sin(t));
+        }
+        return shape;
+    }
+
+    // A concave 720-point star.
+    static PolygonBuffer star(Random random) {
+        PolygonBuffer shape = new PolygonBuffer();
+        for (int i = 0; i < 720; i++) {
+            double t = 2 * Math.PI * i / 720;
+            double radius = i % 2 == 0 ? 120 : 70 + random.nextDouble() * 10;
+            shape.add(radius * Math.cos(t), radius * Math.sin(t));
+        }
+        return shape;
+    }
+}
@@ -0,0 +1,93 @@
+package unze.ptf.woodcraft.woodcraft.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// The strip measurement behind one PlankPlanner evaluation: 50 planks over an outline already turned to
+// the angle being tried, cycling through 360 turns. "Clip" is the per-strip Sutherland-Hodgman clipping
+// the planner used before, "slabs" the single sweep over the edges that replaced it.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PolygonSlabsBenchmark {
+    private static final int PLANKS = 50;
+    private static final int TURNS = 360;
+
+    @Param({"CURVED", "L_SHAPE", "STAR"})
+    public String outline;
+
+    private final PolygonBuffer[] turned = new PolygonBuffer[TURNS];
+    private final double[][] bounds = new double[TURNS][PLANKS + 1];
+    private final double[] areas = new double[PLANKS];
+    private final double[] lows = new double[PLANKS];
+    private final double[] highs = new double[PLANKS];
+    private final StripClipReference reference = new StripClipReference();
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(5);
+        PolygonBuffer shape = switch (outline) {
+            case "CURVED" -> PolygonMathTest.curved(random);
+            case "L_SHAPE" -> PolygonMathTest.lShape();
+            default -> PolygonMathTest.star(random);
+        };
+        double[] centroid = new double[2];
+        double[] extent = new double[4];
+        PolygonMath.centroid(shape, centroid);
+        for (int turn = 0; turn < TURNS; turn++) {
+            turned[turn] = new PolygonBuffer();
+            PolygonMath.rotate(shape, centroid[0], centroid[1], -Math.toRadians(turn), turned[turn]);
+            PolygonMath.bounds(turned[turn], extent);
+            double width = (extent[2] - extent[0]) / PLANKS;
+            for (int i = 0; i < PLANKS; i++) {
+                bounds[turn][i] = extent[0] + i * width;
+            }
+            bounds[turn][PLANKS] = extent[2];
+        }
+    }
+
+    @Benchmark
+    public double clip() {
+        int turn = nextTurn();
+        reference.strips(turned[turn], bounds[turn], PLANKS, areas, lows, highs);
+        return total();
+    }
+
+    @Benchmark
+    public double slabs() {
+        int turn = nextTurn();
+        PolygonMath.slabs(turned[turn], bounds[turn], PLANKS, areas, lows, highs);
+        return total();
+    }
+
+    private int nextTurn() {
+        next = (next + 1) % TURNS;
+        return next;
+    }
+
+    private double total() {
+        double total = 0;
+        for (int i = 0; i < PLANKS; i++) {
+            if (areas[i] > 0.0001) {
+                total += areas[i] + highs[i] - lows[i];
+            }
+        }
+        return total;
+    }
+}
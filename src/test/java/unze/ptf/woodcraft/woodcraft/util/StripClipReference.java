@@ -0,0 +1,85 @@
+package unze.ptf.woodcraft.woodcraft.util;
+
+// The per-strip clipping PolygonMath.slabs replaced: each strip is Sutherland-Hodgman clipped against its
+// rectangle, then measured. Kept here as the reference for PolygonMathTest and PolygonSlabsBenchmark.
+final class StripClipReference {
+    private static final double EPSILON = 1e-6;
+
+    private final PolygonBuffer clipped = new PolygonBuffer();
+    private final PolygonBuffer scratch = new PolygonBuffer();
+    private final double[] box = new double[4];
+
+    // Same outputs as PolygonMath.slabs; a strip whose clip has fewer than three corners is left empty.
+    void strips(PolygonBuffer polygon, double[] bounds, int count, double[] areas, double[] lows, double[] highs) {
+        PolygonMath.bounds(polygon, box);
+        double minY = box[1];
+        double maxY = box[3];
+        for (int i = 0; i < count; i++) {
+            clipToRect(polygon, bounds[i], bounds[i + 1], minY, maxY, clipped, scratch);
+            if (clipped.size() < 3) {
+                areas[i] = 0;
+                lows[i] = Double.POSITIVE_INFINITY;
+                highs[i] = Double.NEGATIVE_INFINITY;
+                continue;
+            }
+            areas[i] = Math.abs(PolygonMath.signedArea(clipped));
+            PolygonMath.bounds(clipped, box);
+            lows[i] = box[1];
+            highs[i] = box[3];
+        }
+    }
+
+    // Sutherland-Hodgman against an axis-aligned rectangle, alternating between target and scratch.
+    static void clipToRect(PolygonBuffer source, double minX, double maxX, double minY, double maxY,
+                           PolygonBuffer target, PolygonBuffer scratch) {
+        clipAxis(source, scratch, true, minX, true);
+        clipAxis(scratch, target, true, maxX, false);
+        clipAxis(target, scratch, false, minY, true);
+        clipAxis(scratch, target, false, maxY, false);
+    }
+
+    private static void clipAxis(PolygonBuffer input, PolygonBuffer output, boolean alongX, double bound,
+                                 boolean keepAbove) {
+        output.clear();
+        int size = input.size();
+        if (size == 0) {
+            return;
+        }
+        double prevX = input.x(size - 1);
+        double prevY = input.y(size - 1);
+        boolean prevInside = inside(alongX ? prevX : prevY, bound, keepAbove);
+        for (int i = 0; i < size; i++) {
+            double x = input.x(i);
+            double y = input.y(i);
+            boolean currInside = inside(alongX ? x : y, bound, keepAbove);
+            if (currInside != prevInside) {
+                addCrossing(output, prevX, prevY, x, y, alongX, bound);
+            }
+            if (currInside) {
+                output.add(x, y);
+            }
+            prevX = x;
+            prevY = y;
+            prevInside = currInside;
+        }
+    }
+
+    private static boolean inside(double value, double bound, boolean keepAbove) {
+        return keepAbove ? value >= bound : value <= bound;
+    }
+
+    private static void addCrossing(PolygonBuffer output, double ax, double ay, double bx, double by,
+                                    boolean alongX, double bound) {
+        if (alongX) {
+            if (Math.abs(bx - ax) < EPSILON) {
+                output.add(bound, ay);
+            } else {
+                output.add(bound, ay + (bound - ax) / (bx - ax) * (by - ay));
+            }
+        } else if (Math.abs(by - ay) < EPSILON) {
+            output.add(ax, bound);
+        } else {
+            output.add(ax + (bound - ay) / (by - ay) * (bx - ax), bound);
+        }
+    }
+}